@@ -2,6 +2,9 @@ package io.github.alexeygrishin.hashfile;
 
 import io.github.alexeygrishin.btree.KeyTruncateMethod;
 import io.github.alexeygrishin.hashfile.btreebased.BTreeBasedFactory;
+import io.github.alexeygrishin.hashfile.btreebased.BTreeBasedStorage;
+import io.github.alexeygrishin.hashfile.hashbased.HashBasedFactory;
+import io.github.alexeygrishin.hashfile.lsmbased.LsmBasedFactory;
 import io.github.alexeygrishin.tool.ByteCounter;
 import org.junit.After;
 import org.junit.Before;
@@ -9,7 +12,9 @@ import org.junit.Ignore;
 import org.junit.Test;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 
 import static io.github.alexeygrishin.tool.TestTool.*;
@@ -71,6 +76,43 @@ public class NamedStorageIntegrationTest {
 
     }
 
+    public static class OptimizeOrdered {
+        private NamedStorage storage;
+
+        @Before
+        public void setup() {
+            deleteTempFile();
+        }
+
+        @Test
+        public void truncate_keepsOrderAndInlineKeyLength() {
+            NamedStorageFactory factory = new BTreeBasedFactory(false, BaseStorageFactory.DEFAULT_CACHE_POLICY, FlushSettings.DEFAULT,
+                    DataLayout.BLOCKS, 64, true);
+            storage = factory.create(TEMP_FILE, null, null, KeyTruncateMethod.LEADING);
+            for (String key: Arrays.asList("b2", "a1", "b1", "c1", "b3")) {
+                storage.saveFrom(key, generateData(10));
+            }
+            storage.delete("b3");
+            storage.close();
+            //factory with default settings shall not change them for existing storage
+            new BTreeBasedFactory().truncate(TEMP_FILE);
+            storage = new BTreeBasedFactory().load(TEMP_FILE);
+            List<String> keys = new ArrayList<>();
+            for (Iterator<String> it = storage.prefix("b"); it.hasNext(); ) {
+                keys.add(it.next());
+            }
+            assertEquals(Arrays.asList("b1", "b2"), keys);
+            assertEquals(64, ((BTreeBasedStorage) storage).getInlineKeyLength());
+        }
+
+        @After
+        public void teardown() {
+            if (storage != null) storage.close();
+            storage = null;
+            deleteTempFile();
+        }
+    }
+
     public static abstract class Base {
         protected abstract int getKeyLen();
         protected abstract KeyTruncateMethod getTruncateMethod();
@@ -78,12 +120,15 @@ public class NamedStorageIntegrationTest {
         protected abstract int getDataLen();
         protected NamedStorage storage;
 
+        protected NamedStorageFactory createFactory() {
+            return new BTreeBasedFactory();
+        }
 
 
         @Before
         public void setup() {
             deleteTempFile();
-            storage = new BTreeBasedFactory().create(TEMP_FILE, null, null, getTruncateMethod());
+            storage = createFactory().create(TEMP_FILE, null, null, getTruncateMethod());
         }
 
 
@@ -156,10 +201,24 @@ public class NamedStorageIntegrationTest {
         public void save_load() {
             storage.saveFrom("01", generateData(getDataLen()));
             storage.close();
-            storage = new BTreeBasedFactory().load(TEMP_FILE);
+            storage = createFactory().load(TEMP_FILE);
             assertTrue(storage.contains("01"));
         }
 
+        @Test
+        public void putMany_flush_load() {
+            List<String> keys = randomStrings(5000, getKeyLen() > 1000 ? 1000 : getKeyLen());
+            for (String key: keys) {
+                storage.saveFrom(key, generateData(1));
+            }
+            storage.flush();
+            storage.close();
+            storage = createFactory().load(TEMP_FILE);
+            for (String key: keys) {
+                assertTrue(storage.contains(key));
+            }
+        }
+
 
     }
 
@@ -231,4 +290,46 @@ public class NamedStorageIntegrationTest {
         }
     }
 
+    public static class HashShortKeySmallData extends ShortKeySmallData {
+        @Override
+        protected NamedStorageFactory createFactory() {
+            return new HashBasedFactory();
+        }
+    }
+
+    public static class HashLongKeyTrailing extends LongKeyTrailing {
+        @Override
+        protected NamedStorageFactory createFactory() {
+            return new HashBasedFactory();
+        }
+    }
+
+    public static class HashLongKeyAndData extends LongKeyAndData {
+        @Override
+        protected NamedStorageFactory createFactory() {
+            return new HashBasedFactory();
+        }
+    }
+
+    public static class LsmShortKeySmallData extends ShortKeySmallData {
+        @Override
+        protected NamedStorageFactory createFactory() {
+            return new LsmBasedFactory();
+        }
+    }
+
+    public static class LsmLongKeyTrailing extends LongKeyTrailing {
+        @Override
+        protected NamedStorageFactory createFactory() {
+            return new LsmBasedFactory();
+        }
+    }
+
+    public static class LsmLongKeyAndData extends LongKeyAndData {
+        @Override
+        protected NamedStorageFactory createFactory() {
+            return new LsmBasedFactory();
+        }
+    }
+
 }
@@ -1,30 +1,48 @@
 package io.github.alexeygrishin;
 
 import io.github.alexeygrishin.btree.KeyTruncateMethod;
+import io.github.alexeygrishin.common.CachePolicy;
 import io.github.alexeygrishin.common.Files;
 import io.github.alexeygrishin.common.RealFiles;
 import io.github.alexeygrishin.common.Source;
+import io.github.alexeygrishin.hashfile.CacheSettings;
+import io.github.alexeygrishin.hashfile.EngineSelectingFactory;
 import io.github.alexeygrishin.hashfile.NamedStorageFactory;
+import io.github.alexeygrishin.hashfile.StorageEngine;
 import io.github.alexeygrishin.hashfile.btreebased.BTreeBasedFactory;
 import io.github.alexeygrishin.hashfile.NamedStorage;
+import io.github.alexeygrishin.hashfile.hashbased.HashBasedFactory;
+import io.github.alexeygrishin.hashfile.lsmbased.LsmBasedFactory;
 import org.apache.commons.cli.*;
 
 import java.io.*;
+import java.util.*;
 
 
 public class CommandLineAPI {
 
     private NamedStorageFactory factory;
+    private Map<StorageEngine, ? extends NamedStorageFactory> engines;
     private Files files;
     private CommandLineParser parser = new BasicParser();
     private Options options = new Options();
     private String header = "", footer = "";
 
     public CommandLineAPI(NamedStorageFactory factory, Files files) throws IOException {
+        this(factory, Collections.<StorageEngine, NamedStorageFactory>emptyMap(), files);
+    }
+
+    /**
+     * @param factory factory for all operations except creation with explicitly specified engine
+     * @param engines factories to create storages with specified engine
+     * @param files file system
+     */
+    public CommandLineAPI(NamedStorageFactory factory, Map<StorageEngine, ? extends NamedStorageFactory> engines, Files files) throws IOException {
         this.factory = factory;
+        this.engines = engines;
         this.files = files;
         options.addOption("l", "list", false, "Shows all keys");
-        Option newOpt = new Option("n", "new", true,"Creates new storage with provided options: [page=1024,][cache=64,][truncate=trailing|leading]");
+        Option newOpt = new Option("n", "new", true,"Creates new storage with provided options: [block=4,][cache=64|cache=32:2q/32:lru,][truncate=trailing|leading,][engine=btree|hash|lsm]");
         newOpt.setOptionalArg(true);
         options.addOption(newOpt);
         options.addOption("k", "key", true, "Provides a key to operate with. Without other options just prints corresponding data to STDOUT");
@@ -100,9 +118,7 @@ public class CommandLineAPI {
                         if (key != null) {
                             throw new InvalidSyntax("When importing from folder the file paths are used as keys so --key value is ignored");
                         }
-                        for (Source src: sources) {
-                            importFile(out, storage, src.toKey(), src);
-                        }
+                        importFolder(out, storage, sources);
                     }
                 }
                 else if (cmd.hasOption("export-to")) {
@@ -158,9 +174,42 @@ public class CommandLineAPI {
         out.println("Ok!");
     }
 
+    /**
+     * Files are passed to storage at once, so empty storage may build its index faster. Each file is opened only when
+     * storage reads it.
+     */
+    private void importFolder(PrintStream out, NamedStorage storage, final Source[] sources) {
+        out.print("Importing " + sources.length + " files...");
+        storage.saveAll(new Iterator<Map.Entry<String, InputStream>>() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < sources.length;
+            }
+
+            @Override
+            public Map.Entry<String, InputStream> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Source src = sources[index++];
+                return new AbstractMap.SimpleImmutableEntry<String, InputStream>(src.toKey(), src.openInputStream());
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        });
+        out.println("Ok!");
+    }
+
     private void doCreate(String storageName, String options) throws ParseException {
         Integer blockSize = null, cacheSize = null;
+        CacheSettings keysCache = null, dataCache = null;
         KeyTruncateMethod method = null;
+        NamedStorageFactory engineFactory = factory;
         if (options != null && options.length() != 0) {
             for (String pair: options.split(",")) {
                 String[] keyValue = pair.split("=");
@@ -169,7 +218,17 @@ public class CommandLineAPI {
                         blockSize = Integer.parseInt(keyValue[1]);
                         break;
                     case "cache":
-                        cacheSize = Integer.parseInt(keyValue[1]);
+                        String[] caches = keyValue[1].split("/", -1);
+                        if (caches.length == 1) {
+                            cacheSize = Integer.parseInt(keyValue[1]);
+                        }
+                        else if (caches.length == 2) {
+                            keysCache = parseCache(caches[0]);
+                            dataCache = parseCache(caches[1]);
+                        }
+                        else {
+                            throw new InvalidSyntax("Invalid cache option `" + keyValue[1] + "`. Expected `<size>` or `<keys size>[:<policy>]/<data size>[:<policy>]`");
+                        }
                         break;
                     case "truncate":
                         try {
@@ -179,12 +238,62 @@ public class CommandLineAPI {
                             throw new InvalidSyntax("Unknown truncate method `" + keyValue[1] + "`. Supported are `leading` and `trailing`");
                         }
                         break;
+                    case "engine":
+                        engineFactory = parseEngine(keyValue[1]);
+                        break;
                     default:
-                        throw new InvalidSyntax("Unknown option `" + keyValue[0] + "` - the supported ones are `block`, `cache` and `truncate`");
+                        throw new InvalidSyntax("Unknown option `" + keyValue[0] + "` - the supported ones are `block`, `cache`, `truncate` and `engine`");
                 }
             }
         }
-        factory.create(storageName, blockSize, cacheSize, method).close();
+        if (keysCache != null) {
+            engineFactory.create(storageName, blockSize, keysCache, dataCache, method).close();
+        }
+        else {
+            engineFactory.create(storageName, blockSize, cacheSize, method).close();
+        }
+    }
+
+    private NamedStorageFactory parseEngine(String option) throws ParseException {
+        NamedStorageFactory engineFactory = null;
+        try {
+            engineFactory = engines.get(StorageEngine.valueOf(option.toUpperCase()));
+        }
+        catch (IllegalArgumentException e) {
+            //reported below
+        }
+        if (engineFactory == null) {
+            throw new InvalidSyntax("Unknown engine `" + option + "`. Supported are " + getEngineNames());
+        }
+        return engineFactory;
+    }
+
+    private String getEngineNames() {
+        StringBuilder names = new StringBuilder();
+        for (StorageEngine engine: engines.keySet()) {
+            if (names.length() > 0) names.append(", ");
+            names.append('`').append(engine.toString().toLowerCase()).append('`');
+        }
+        return names.toString();
+    }
+
+    private CacheSettings parseCache(String option) throws ParseException {
+        String[] sizeAndPolicy = option.split(":");
+        Integer size = sizeAndPolicy[0].isEmpty() ? null : Integer.parseInt(sizeAndPolicy[0]);
+        CachePolicy policy = null;
+        if (sizeAndPolicy.length > 1) {
+            switch (sizeAndPolicy[1]) {
+                case "lru":
+                    policy = CachePolicy.LRU;
+                    break;
+                case "2q":
+                    policy = CachePolicy.TWO_QUEUE;
+                    break;
+                default:
+                    throw new InvalidSyntax("Unknown cache policy `" + sizeAndPolicy[1] + "`. Supported are `lru` and `2q`");
+            }
+        }
+        return new CacheSettings(size, policy);
     }
 
     private void checkKey(String key) throws ParseException {
@@ -202,7 +311,11 @@ public class CommandLineAPI {
 
     public static void main(String args[]) throws ParseException {
         try {
-            CommandLineAPI api = new CommandLineAPI(new BTreeBasedFactory(), new RealFiles());
+            Map<StorageEngine, NamedStorageFactory> engines = new EnumMap<>(StorageEngine.class);
+            engines.put(StorageEngine.BTREE, new BTreeBasedFactory());
+            engines.put(StorageEngine.HASH, new HashBasedFactory());
+            engines.put(StorageEngine.LSM, new LsmBasedFactory());
+            CommandLineAPI api = new CommandLineAPI(new EngineSelectingFactory(engines, StorageEngine.BTREE), engines, new RealFiles());
             api.process(args, System.out);
         }
         catch (InvalidSyntax e) {
@@ -85,6 +85,26 @@ public interface Allocator {
      */
     void free(int blockId);
 
+    /**
+     * Asks to keep block in memory regardless of other blocks usage, until {@link #unpin(int)} is called. Pins are
+     * counted. Allocators which do not keep blocks in memory ignore it.
+     *
+     * @param blockId id of block.
+     */
+    void pin(int blockId);
+
+    /**
+     * Releases pin made by {@link #pin(int)}. Block shall be unpinned before it is freed.
+     *
+     * @param blockId id of block.
+     */
+    void unpin(int blockId);
+
+    /**
+     * Writes all changes kept in memory (if any) to IO storage. Allocator remains opened.
+     */
+    void flush();
+
     /**
      * Closes IO storage (if any) and guarantely writes all changes.
      */
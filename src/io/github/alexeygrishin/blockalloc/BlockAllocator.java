@@ -1,26 +1,60 @@
 package io.github.alexeygrishin.blockalloc;
 
 import io.github.alexeygrishin.bytestorage.SynchronizedByteContainer;
+import io.github.alexeygrishin.blockalloc.serializers.PartialSerializer;
 import io.github.alexeygrishin.blockalloc.serializers.Serializer;
 import io.github.alexeygrishin.blockalloc.serializers.Serializers;
 import io.github.alexeygrishin.common.Check;
+import io.github.alexeygrishin.common.InvalidPointer;
+import io.github.alexeygrishin.common.Pointer;
 
 import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 import static io.github.alexeygrishin.common.Check.safeInt;
 
 /**
  * Basic implementation based on {@link io.github.alexeygrishin.bytestorage.SynchronizedByteContainer}.
+ *
+ * Freed blocks are kept as list of extents (ranges of adjacent free blocks), adjacent extents are united.
+ * {@link #allocate()} and {@link #allocate(int)} take the smallest extent which is large enough, and only if there is
+ * no such extent new blocks are appended to the container. Reused blocks are filled with zeros, same as new ones.
+ *
+ * If {@link FreeListHolder} is provided then list of extents is saved on {@link #close()}: each extent keeps its length
+ * and pointer to the next extent in its first block, and holder keeps pointer to the first extent. On load the list is
+ * restored and holder is reset, so if storage is not closed properly then free blocks are lost (but never reused twice).
+ *
+ * Objects with {@link PartialSerializer} are written partially - only the ranges they report as modified.
  */
 public class BlockAllocator extends BaseAllocator implements RandomAccessAllocator {
 
+    private static final int EXTENT_RECORD_SIZE = 8;
+
     private SynchronizedByteContainer byteContainer;
     private int blockSize;
     private Serializers serializers = new Serializers();
+    private final FreeListHolder freeListHolder;
+    private final TreeMap<Integer, Integer> extentsByStart = new TreeMap<>();
+    private final TreeSet<Long> extentsBySize = new TreeSet<>();
+    private int freeBlocksCount = 0;
+    private boolean closed = false;
 
     public BlockAllocator(SynchronizedByteContainer byteContainer, int blockSize) {
+        this(byteContainer, blockSize, null);
+    }
+
+    /**
+     * @param byteContainer container to operate with
+     * @param blockSize block size in bytes
+     * @param freeListHolder place to persist list of free blocks. If null then free blocks are reused only until close.
+     */
+    public BlockAllocator(SynchronizedByteContainer byteContainer, int blockSize, FreeListHolder freeListHolder) {
         this.byteContainer = byteContainer;
         this.blockSize = blockSize;
+        this.freeListHolder = blockSize >= EXTENT_RECORD_SIZE ? freeListHolder : null;
+        loadFreeList();
     }
 
     @Override
@@ -60,40 +94,112 @@ public class BlockAllocator extends BaseAllocator implements RandomAccessAllocat
         saveModifications(blockId, 0, data, blockSize);
     }
 
-    @SuppressWarnings("unchecked")
+    @SuppressWarnings({"unchecked", "rawtypes"})
     private void saveModifications(int blockId, int offset, Object data, int blockSize) {
-        ByteBuffer buffer = ByteBuffer.allocate(blockSize);
         Serializer serializer = serializers.get(data.getClass(), blockSize);
+        if (serializer instanceof PartialSerializer) {
+            PartialSerializer partial = (PartialSerializer)serializer;
+            int[] ranges = partial.getModifiedRanges(data);
+            if (ranges != null) {
+                for (int i = 0; i < ranges.length; i += 2) {
+                    ByteBuffer buffer = ByteBuffer.allocate(ranges[i + 1] - ranges[i]);
+                    partial.save(buffer, data, ranges[i], ranges[i + 1]);
+                    buffer.rewind();
+                    byteContainer.write(ptr(blockId) + offset + ranges[i], buffer);
+                }
+                partial.saved(data);
+                return;
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(blockSize);
         serializer.save(buffer, data);
         buffer.rewind();
         byteContainer.write(ptr(blockId) + offset, buffer);
+        if (serializer instanceof PartialSerializer) {
+            ((PartialSerializer)serializer).saved(data);
+        }
     }
 
     @Override
     public int allocate() {
-        return allocateBlock(blockSize);
+        return allocateBlocks(1);
     }
 
-    private int allocateBlock(int blockSize) {
-        ByteBuffer buffer = ByteBuffer.allocate(blockSize);
+    private int allocateBlocks(int blocks) {
+        ByteBuffer buffer = ByteBuffer.allocate(blocks * blockSize);
+        int reused;
+        synchronized (extentsByStart) {
+            reused = takeExtent(blocks);
+        }
+        if (Pointer.isValid(reused)) {
+            byteContainer.write(ptr(reused), buffer);
+            return reused;
+        }
         long newPtr = byteContainer.append(buffer);
         return blockId(newPtr);
     }
 
     @Override
     public void free(int blockId) {
-        //do nothing for now
+        free(blockId, 1);
+    }
+
+    @Override
+    public void free(int blockId, int blocks) {
+        Check.positive(blocks, "blocks count");
+        if (blockId < 0 || blockId + blocks > getBlocksCount()) {
+            throw new InvalidPointer("Cannot free blocks " + blockId + "-" + (blockId + blocks - 1) + ": there are " + getBlocksCount() + " blocks");
+        }
+        synchronized (extentsByStart) {
+            addExtent(blockId, blocks);
+        }
+    }
+
+    /**
+     *
+     * @return amount of blocks which were freed and not reused yet
+     */
+    public int getFreeBlocksCount() {
+        synchronized (extentsByStart) {
+            return freeBlocksCount;
+        }
+    }
+
+    @Override
+    public void pin(int blockId) {
+        //blocks are not kept in memory
+    }
+
+    @Override
+    public void unpin(int blockId) {
+    }
+
+    @Override
+    public void pin(int blockId, int blocks) {
+        //blocks are not kept in memory
+    }
+
+    @Override
+    public void unpin(int blockId, int blocks) {
+    }
+
+    @Override
+    public void flush() {
+        //all changes are written immediately
     }
 
     @Override
     public void close() {
+        if (closed) return;
+        closed = true;
+        saveFreeList();
         byteContainer.close();
     }
 
     @Override
     public int allocate(int blocks) {
         Check.positive(blocks, "blocks count");
-        return allocateBlock(blocks * blockSize);
+        return allocateBlocks(blocks);
     }
 
     @Override
@@ -107,4 +213,89 @@ public class BlockAllocator extends BaseAllocator implements RandomAccessAllocat
         Check.positive(blocks, "blocks count");
         saveModifications(blockId, 0, data, blocks * blockSize);
     }
+
+    private void addExtent(int start, int length) {
+        Map.Entry<Integer, Integer> previous = extentsByStart.floorEntry(start);
+        Map.Entry<Integer, Integer> next = extentsByStart.ceilingEntry(start);
+        if ((previous != null && previous.getKey() + previous.getValue() > start) || (next != null && next.getKey() < start + length)) {
+            throw new InvalidPointer("Blocks " + start + "-" + (start + length - 1) + " are already free");
+        }
+        freeBlocksCount += length;
+        if (previous != null && previous.getKey() + previous.getValue() == start) {
+            removeExtent(previous.getKey(), previous.getValue());
+            start = previous.getKey();
+            length += previous.getValue();
+        }
+        if (next != null && next.getKey() == start + length) {
+            removeExtent(next.getKey(), next.getValue());
+            length += next.getValue();
+        }
+        extentsByStart.put(start, length);
+        extentsBySize.add(sizeKey(start, length));
+    }
+
+    private void removeExtent(int start, int length) {
+        extentsByStart.remove(start);
+        extentsBySize.remove(sizeKey(start, length));
+    }
+
+    private int takeExtent(int blocks) {
+        Long smallestFit = extentsBySize.ceiling(sizeKey(0, blocks));
+        if (smallestFit == null) {
+            return Pointer.NULL_PTR;
+        }
+        int start = (int)(smallestFit & 0xFFFFFFFFL);
+        int length = (int)(smallestFit >>> 32);
+        removeExtent(start, length);
+        if (length > blocks) {
+            extentsByStart.put(start + blocks, length - blocks);
+            extentsBySize.add(sizeKey(start + blocks, length - blocks));
+        }
+        freeBlocksCount -= blocks;
+        return start;
+    }
+
+    private static long sizeKey(int start, int length) {
+        return ((long)length << 32) | start;
+    }
+
+    private void loadFreeList() {
+        if (freeListHolder == null) return;
+        int head = freeListHolder.getFreeListHead();
+        if (!Pointer.isValid(head)) return;
+        int blocksCount = getBlocksCount();
+        int current = head;
+        ByteBuffer record = ByteBuffer.allocate(EXTENT_RECORD_SIZE);
+        while (Pointer.isValid(current) && current < blocksCount && freeBlocksCount < blocksCount) {
+            byteContainer.read(ptr(current), record);
+            record.rewind();
+            int length = record.getInt();
+            int next = record.getInt();
+            if (length <= 0 || current + length > blocksCount) break;
+            try {
+                addExtent(current, length);
+            }
+            catch (InvalidPointer e) {
+                break;  //broken list, remaining blocks are just lost
+            }
+            current = next;
+        }
+        freeListHolder.setFreeListHead(Pointer.NULL_PTR);
+    }
+
+    private void saveFreeList() {
+        if (freeListHolder == null) return;
+        int next = Pointer.NULL_PTR;
+        ByteBuffer record = ByteBuffer.allocate(EXTENT_RECORD_SIZE);
+        synchronized (extentsByStart) {
+            for (Map.Entry<Integer, Integer> extent: extentsByStart.descendingMap().entrySet()) {
+                record.clear();
+                record.putInt(extent.getValue());
+                record.putInt(next);
+                byteContainer.write(ptr(extent.getKey()), record);
+                next = extent.getKey();
+            }
+        }
+        freeListHolder.setFreeListHead(next);
+    }
 }
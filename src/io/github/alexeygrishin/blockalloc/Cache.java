@@ -1,24 +1,77 @@
 package io.github.alexeygrishin.blockalloc;
 
 import io.github.alexeygrishin.common.CacheBase;
+import io.github.alexeygrishin.common.CachePolicy;
 import io.github.alexeygrishin.common.Check;
 
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
 import static io.github.alexeygrishin.common.Check.safeInt;
 
 /**
  * Caching decorator for any allocator. Keeps recently accessed blocks in memory. Also keep all changes to blocks
  * and passes them to decorated allocator if cache is full and some changed element need to be moved out from cache,
- * or when {@link #close()} or {@link #reset()} are called
+ * or when {@link #close()} or {@link #reset()} are called.
+ *
+ * Blocks to move out are selected by {@link CachePolicy}: LRU by default, {@link CachePolicy#TWO_QUEUE} is better when
+ * many blocks are read only once (like data blocks during iteration over storage). Pinned blocks (see {@link #pin(int)})
+ * are never moved out and are not counted in cache size. Pinned blocks may take at most {@link #MAX_PINNED_SHARE} of
+ * cache size, pins above that are accepted but do not keep blocks in memory.
+ *
+ * Changed blocks are tracked, so {@link #flush()} writes them without waiting for them to be moved out. They are
+ * written in order of block ids, so writes to file are mostly sequential. {@link #getDirtySize()} and
+ * {@link #getDirtySince()} allow to decide when flush is needed (see
+ * {@link io.github.alexeygrishin.hashfile.WriteBehindFlusher}).
+ * Note that block which is being modified while flushed is written again on next flush, but it is the caller who
+ * shall guarantee that partially modified block is not written at all (if it is important). Blocks are written while
+ * holding their monitor, so caller may modify block in {@code synchronized (block)} to avoid that.
  */
 public class Cache implements RandomAccessAllocator {
+    /**
+     * Part of cache size which may be taken by pinned blocks.
+     */
+    public static final double MAX_PINNED_SHARE = 0.5;
     private final RandomAccessAllocator inner;
+    private final long maxCacheSize;
+    //key -> pins count, keys pinned in cache are kept in pinnedInCache
+    private final Map<CacheKey, Integer> pins = new HashMap<>();
+    private final Set<CacheKey> pinnedInCache = new HashSet<>();
+    private long pinnedSize;
     private CacheBase<CacheKey, CacheEntry> cache;
+    private final ConcurrentSkipListSet<CacheKey> dirty = new ConcurrentSkipListSet<>();
+    private final AtomicLong dirtySize = new AtomicLong();
+    private volatile long dirtySince;
+    private final Object flushLock = new Object();
 
     public Cache(final RandomAccessAllocator inner, final long maxCacheSize) {
+        this(inner, maxCacheSize, CachePolicy.LRU);
+    }
+
+    public Cache(final RandomAccessAllocator inner, final long maxCacheSize, CachePolicy policy) {
+        this(inner, maxCacheSize, policy, inner.getBlockSize());
+    }
+
+    /**
+     *
+     * @param inner allocator to cache
+     * @param maxCacheSize max size of cached blocks in bytes
+     * @param policy selects blocks to move out
+     * @param elementSize expected size of cached element in bytes: size of outer block if blocks are read via
+     *                    {@link MultiBlockAllocator}, otherwise block size. Defines how many elements cache keeps, so
+     *                    how it is split to segments.
+     */
+    public Cache(final RandomAccessAllocator inner, final long maxCacheSize, CachePolicy policy, int elementSize) {
         this.inner = inner;
+        this.maxCacheSize = maxCacheSize;
         Check.positive(maxCacheSize, "maxCacheSize");
+        Check.positive(elementSize, "elementSize");
         Check.arguments(maxCacheSize > inner.getBlockSize(), "cache size shall be larger than block size");
-        this.cache = new CacheBase<CacheKey, CacheEntry>(maxCacheSize, safeInt(maxCacheSize / inner.getBlockSize())) {
+        this.cache = new CacheBase<CacheKey, CacheEntry>(maxCacheSize, safeInt(maxCacheSize / Math.max(elementSize, inner.getBlockSize())), policy) {
 
             @Override
             protected CacheEntry getFromSource(CacheKey key) {
@@ -32,8 +85,13 @@ public class Cache implements RandomAccessAllocator {
 
             @Override
             protected void free(CacheKey key, CacheEntry element) {
+                markClean(key);
+                if (cache.getIfPresent(key) != null) {
+                    //was put again while being moved out
+                    markDirty(key);
+                }
                 if (element.openedForWrite) {
-                    inner.saveModifications(key.blockId, element.block, key.count);
+                    save(key.blockId, element.block, key.count);
                 }
             }
         };
@@ -56,7 +114,80 @@ public class Cache implements RandomAccessAllocator {
 
     @Override
     public void free(int blockId) {
-        inner.free(blockId);
+        free(blockId, 1);
+    }
+
+    @Override
+    public void free(int blockId, int blocks) {
+        CacheKey key = new CacheKey(blockId, Object.class, blocks);
+        CacheEntry entry = cache.remove(key);
+        markClean(key);
+        if (entry != null) {
+            //changes of freed block are dropped; waits for flush of this block, otherwise it could be written after
+            //the block is reused
+            synchronized (entry) {
+                entry.openedForWrite = false;
+            }
+        }
+        inner.free(blockId, blocks);
+    }
+
+    @Override
+    public void pin(int blockId) {
+        pin(blockId, 1);
+    }
+
+    @Override
+    public void unpin(int blockId) {
+        unpin(blockId, 1);
+    }
+
+    /**
+     * Pins block(s) in cache if pinned blocks fit {@link #MAX_PINNED_SHARE} of cache size, otherwise block stays
+     * cached as usual. Either way pin shall be released by {@link #unpin(int, int)}.
+     */
+    @Override
+    public void pin(int blockId, int blocks) {
+        CacheKey key = new CacheKey(blockId, Object.class, blocks);
+        synchronized (pins) {
+            Integer count = pins.get(key);
+            pins.put(key, count == null ? 1 : count + 1);
+            if (count == null && pinnedSize + getSize(key) <= maxCacheSize * MAX_PINNED_SHARE) {
+                pinnedInCache.add(key);
+                pinnedSize += getSize(key);
+                cache.pin(key);
+            }
+        }
+    }
+
+    @Override
+    public void unpin(int blockId, int blocks) {
+        CacheKey key = new CacheKey(blockId, Object.class, blocks);
+        synchronized (pins) {
+            Integer count = pins.get(key);
+            if (count == null) {
+                throw new IllegalStateException("Block is not pinned: " + key);
+            }
+            if (count > 1) {
+                pins.put(key, count - 1);
+                return;
+            }
+            pins.remove(key);
+            if (pinnedInCache.remove(key)) {
+                pinnedSize -= getSize(key);
+                cache.unpin(key);
+            }
+        }
+    }
+
+    /**
+     *
+     * @return size in bytes of blocks pinned in cache, it never exceeds {@link #MAX_PINNED_SHARE} of max size
+     */
+    public long getPinnedSize() {
+        synchronized (pins) {
+            return pinnedSize;
+        }
     }
 
     @Override
@@ -66,7 +197,7 @@ public class Cache implements RandomAccessAllocator {
 
     @Override
     public void saveModifications(int blockId, Object data) {
-        cache.put(new CacheKey(blockId, data.getClass()), CacheEntry.write(data));
+        saveModifications(blockId, data, 1);
     }
 
     @Override
@@ -81,13 +212,17 @@ public class Cache implements RandomAccessAllocator {
 
     @Override
     public void saveModifications(int blockId, Object data, int blocks) {
-        cache.put(new CacheKey(blockId, data.getClass(), blocks), CacheEntry.write(data));
+        CacheKey key = new CacheKey(blockId, data.getClass(), blocks);
+        cache.put(key, CacheEntry.write(data));
+        markDirty(key);
     }
 
     @Override
     public <T> BlockToModify<T> getToModify(int blockId, Class<T> kls) {
-        CacheEntry entry = cache.get(new CacheKey(blockId, kls));
+        CacheKey key = new CacheKey(blockId, kls);
+        CacheEntry entry = cache.get(key);
         entry.openedForWrite = true;
+        markDirty(key);
         return new BlockToModify<T>(this, blockId, kls.cast(entry.block));
     }
 
@@ -96,6 +231,74 @@ public class Cache implements RandomAccessAllocator {
         return getToModify(allocate(), kls);
     }
 
+    /**
+     * Writes all changed blocks in order of their ids. Blocks stay in cache.
+     */
+    @Override
+    public void flush() {
+        synchronized (flushLock) {
+            for (CacheKey key: dirty) {
+                markClean(key);
+                CacheEntry entry = cache.getIfPresent(key);
+                if (entry != null) {
+                    synchronized (entry) {
+                        if (cache.getIfPresent(key) != entry) {
+                            //freed meanwhile
+                            continue;
+                        }
+                        //if block is modified while being written then it is marked as dirty again
+                        entry.openedForWrite = false;
+                        save(key.blockId, entry.block, key.count);
+                    }
+                }
+            }
+        }
+        inner.flush();
+    }
+
+    private void save(int blockId, Object block, int blocks) {
+        synchronized (block) {
+            inner.saveModifications(blockId, block, blocks);
+        }
+    }
+
+    public long getMaxSize() {
+        return maxCacheSize;
+    }
+
+    /**
+     *
+     * @return size in bytes of changed blocks which are not written yet
+     */
+    public long getDirtySize() {
+        return dirtySize.get();
+    }
+
+    /**
+     *
+     * @return time (as {@link System#currentTimeMillis()}) when the first of not written changes was made, or 0 if there
+     * are no such changes
+     */
+    public long getDirtySince() {
+        return dirtySize.get() > 0 ? dirtySince : 0;
+    }
+
+    private void markDirty(CacheKey key) {
+        if (dirty.add(key) && dirtySize.getAndAdd(getSize(key)) == 0) {
+            dirtySince = System.currentTimeMillis();
+        }
+    }
+
+    private void markClean(CacheKey key) {
+        if (dirty.remove(key)) {
+            dirtySize.addAndGet(-getSize(key));
+        }
+    }
+
+    private long getSize(CacheKey key) {
+        return (long)inner.getBlockSize() * key.count;
+    }
+
     @Override
     public void close() {
         reset();
@@ -103,13 +306,21 @@ public class Cache implements RandomAccessAllocator {
     }
 
     public void reset() {
-        cache.reset();
+        synchronized (flushLock) {
+            cache.reset();
+            dirty.clear();
+            dirtySize.set(0);
+        }
     }
 
 
 
 
-    class CacheKey {
+    /**
+     * Identifies cached block(s) by id and count. Class is kept to deserialize block on cache miss, but it is not
+     * taken into account for equality, so same blocks cannot be cached twice as different classes.
+     */
+    class CacheKey implements Comparable<CacheKey> {
         private int blockId;
         private Class<?> kls;
         private int count;
@@ -135,7 +346,6 @@ public class Cache implements RandomAccessAllocator {
 
             if (blockId != cacheKey.blockId) return false;
             if (count != cacheKey.count) return false;
-            if (!kls.equals(cacheKey.kls)) return false;
 
             return true;
         }
@@ -144,10 +354,15 @@ public class Cache implements RandomAccessAllocator {
         public int hashCode() {
             int result = blockId;
             result = 31 * result + count;
-            result = 31 * result + kls.hashCode();
             return result;
         }
 
+        @Override
+        public int compareTo(CacheKey o) {
+            if (blockId != o.blockId) return blockId < o.blockId ? -1 : 1;
+            return count < o.count ? -1 : (count == o.count ? 0 : 1);
+        }
+
         @Override
         public String toString() {
             return blockId + "x" + count + "(as " + kls.getSimpleName() + ")";
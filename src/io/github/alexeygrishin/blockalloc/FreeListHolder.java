@@ -0,0 +1,20 @@
+package io.github.alexeygrishin.blockalloc;
+
+/**
+ * Persists pointer to the first free extent, so {@link BlockAllocator} could restore list of free blocks when storage
+ * is loaded again. Usually implemented by the storage header.
+ */
+public interface FreeListHolder {
+
+    /**
+     *
+     * @return id of the first block of first free extent, or {@link io.github.alexeygrishin.common.Pointer#NULL_PTR} if there is no one
+     */
+    int getFreeListHead();
+
+    /**
+     * Saves id of the first block of first free extent.
+     * @param blockId block id or {@link io.github.alexeygrishin.common.Pointer#NULL_PTR}
+     */
+    void setFreeListHead(int blockId);
+}
@@ -46,9 +46,22 @@ public class MultiBlockAllocator extends BaseAllocator {
 
     @Override
     public void free(int blockId) {
-        for (int i = 0; i < blockInBlocks; i++) {
-            wrapped.free(blockId + i);
-        }
+        wrapped.free(blockId, blockInBlocks);
+    }
+
+    @Override
+    public void pin(int blockId) {
+        wrapped.pin(blockId, blockInBlocks);
+    }
+
+    @Override
+    public void unpin(int blockId) {
+        wrapped.unpin(blockId, blockInBlocks);
+    }
+
+    @Override
+    public void flush() {
+        wrapped.flush();
     }
 
     @Override
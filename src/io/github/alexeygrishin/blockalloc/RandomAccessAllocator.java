@@ -1,9 +1,9 @@
 package io.github.alexeygrishin.blockalloc;
 
 /**
- * For internal usage. Provides ability to operate several blocks at once
+ * Provides ability to operate several blocks at once
  */
-interface RandomAccessAllocator extends Allocator {
+public interface RandomAccessAllocator extends Allocator {
 
     /**
      * Allocates specified number of blocks. Guaranteed that allocated blocks will follow each other in byte storage, i.e.
@@ -25,4 +25,21 @@ interface RandomAccessAllocator extends Allocator {
      */
     void saveModifications(int blockId, Object data, int blocks);
 
+    /**
+     * Frees specified number of blocks starting from blockId, allocated by {@link #allocate(int)}.
+     * @see Allocator#free(int)
+     */
+    void free(int blockId, int blocks);
+
+    /**
+     * Pins specified number of blocks starting from blockId, they are kept in memory as single block.
+     * @see Allocator#pin(int)
+     */
+    void pin(int blockId, int blocks);
+
+    /**
+     * @see Allocator#unpin(int)
+     */
+    void unpin(int blockId, int blocks);
+
 }
@@ -0,0 +1,103 @@
+package io.github.alexeygrishin.blockalloc;
+
+/**
+ * Allows several allocators (for example, several caches) to work over the same allocator. Wrapped allocator is closed
+ * only when {@link #close()} is called by each of users, so all of them could flush their changes before.
+ */
+public class SharedAllocator extends BaseAllocator implements RandomAccessAllocator {
+
+    private final RandomAccessAllocator wrapped;
+    private int users;
+
+    /**
+     * @param wrapped allocator to share
+     * @param users how many times {@link #close()} shall be called to close wrapped allocator
+     */
+    public SharedAllocator(RandomAccessAllocator wrapped, int users) {
+        this.wrapped = wrapped;
+        this.users = users;
+    }
+
+    @Override
+    public int getBlockSize() {
+        return wrapped.getBlockSize();
+    }
+
+    @Override
+    public int getBlocksCount() {
+        return wrapped.getBlocksCount();
+    }
+
+    @Override
+    public <T> T get(int blockId, Class<T> kls) {
+        return wrapped.get(blockId, kls);
+    }
+
+    @Override
+    public void saveModifications(int blockId, Object data) {
+        wrapped.saveModifications(blockId, data);
+    }
+
+    @Override
+    public int allocate() {
+        return wrapped.allocate();
+    }
+
+    @Override
+    public void free(int blockId) {
+        wrapped.free(blockId);
+    }
+
+    @Override
+    public int allocate(int blocks) {
+        return wrapped.allocate(blocks);
+    }
+
+    @Override
+    public <T> T get(int blockId, Class<T> kls, int blocks) {
+        return wrapped.get(blockId, kls, blocks);
+    }
+
+    @Override
+    public void saveModifications(int blockId, Object data, int blocks) {
+        wrapped.saveModifications(blockId, data, blocks);
+    }
+
+    @Override
+    public void free(int blockId, int blocks) {
+        wrapped.free(blockId, blocks);
+    }
+
+    @Override
+    public void pin(int blockId) {
+        wrapped.pin(blockId);
+    }
+
+    @Override
+    public void unpin(int blockId) {
+        wrapped.unpin(blockId);
+    }
+
+    @Override
+    public void pin(int blockId, int blocks) {
+        wrapped.pin(blockId, blocks);
+    }
+
+    @Override
+    public void unpin(int blockId, int blocks) {
+        wrapped.unpin(blockId, blocks);
+    }
+
+    @Override
+    public void flush() {
+        wrapped.flush();
+    }
+
+    @Override
+    public synchronized void close() {
+        users--;
+        if (users == 0) {
+            wrapped.close();
+        }
+    }
+}
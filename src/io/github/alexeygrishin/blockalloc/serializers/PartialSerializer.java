@@ -0,0 +1,29 @@
+package io.github.alexeygrishin.blockalloc.serializers;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Serializer for objects which track their own modifications. Allocator uses it to write back only modified parts
+ * of object instead of the whole block.
+ */
+public interface PartialSerializer<T> extends Serializer<T> {
+
+    /**
+     * @param instance object to check
+     * @return byte ranges of serialized form which were modified since instance was loaded or saved, as pairs of
+     * offsets {@code [from1, to1, from2, to2, ...]} (to is exclusive). Empty array means there is nothing to save.
+     * {@code null} means that modifications are unknown and the whole object shall be saved.
+     */
+    public int[] getModifiedRanges(T instance);
+
+    /**
+     * Saves part of instance - exactly {@code to - from} bytes, the same bytes {@link #save(ByteBuffer, Object)}
+     * puts at offsets {@code from..to}.
+     */
+    public void save(ByteBuffer buffer, T instance, int from, int to);
+
+    /**
+     * Called when modifications of instance are written, so it shall start tracking them from scratch.
+     */
+    public void saved(T instance);
+}
@@ -2,129 +2,485 @@ package io.github.alexeygrishin.btree;
 
 import io.github.alexeygrishin.blockalloc.Allocator;
 import io.github.alexeygrishin.blockalloc.BlockToModify;
-import io.github.alexeygrishin.blockalloc.serializers.Serializers;
+import io.github.alexeygrishin.btree.blocks.FilterPage;
 import io.github.alexeygrishin.btree.blocks.Page;
 import io.github.alexeygrishin.btree.blocks.PageInfo;
 import io.github.alexeygrishin.btree.blocks.TreeEntry;
 import io.github.alexeygrishin.btree.blocks.TreeInfo;
 import io.github.alexeygrishin.common.Check;
+import io.github.alexeygrishin.common.LockMap;
 import io.github.alexeygrishin.common.Locker;
 import io.github.alexeygrishin.common.Pointer;
 
 import java.io.PrintStream;
+import java.security.SecureRandom;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
- * Implements B-Tree on byte blocks of identical size. Operates with 256-bytes entries so block size shall be big enough
- * to include tens-hundreds of records for faster operations.
+ * Implements B-Tree on byte blocks of identical size. Operates with fixed-size entries ({@link #ENTRY_SIZE} bytes by
+ * default) so block size shall be big enough to include tens-hundreds of records for faster operations.
  *
  * Each tree entry contains the following:
  * - key's hash
- * - key's part (110 characters)
+ * - key's part ({@link #KEY_PART_LENGTH} characters by default)
  * - data pointer
+ * - key's fingerprint (seeded 64-bit hash of the whole key)
  *
- * Comparison is performed this way: first hashes are compared, then key parts and only then (if all identical) the whole key
- * is obtained from external storage.
+ * Length of key part may be chosen when tree is created (see {@link #prepare(Allocator, Integer)}): keys which are not
+ * longer are kept in pages entirely, and the shorter entries are, the more of them fit into page, so tree is shallower
+ * and cache keeps more keys. Entry size is kept in tree info.
+ *
+ * Comparison is performed this way: first hashes are compared, then key parts, then fingerprints and only then (if all
+ * identical) the whole key is obtained from external storage. So whole key is practically obtained only to confirm
+ * the key is found.
  *
  * Search/Deletion/Insertion use binary search so these operations take O(ln(block_size)*ln(n))
- * Iteration takes O(n) and order is not defined.
+ * Iteration takes O(n) and order is not defined. Pages are walked in order of keys keeping only the path from root,
+ * and iteration goes on if tree is changed meanwhile (see {@link KeysIterator}).
+ *
+ * Tree may be created with ordered keys instead (see {@link #prepare(Allocator, Integer, boolean)}): then "hash" is made
+ * of the first two chars of key, key part is always leading and fingerprints are not compared, so tree is ordered as
+ * keys themselves. Such tree may iterate over range of keys (see {@link #range(String, String)}), which reads only the
+ * path to the first key and pages of the range.
+ *
+ * Empty tree may be filled with sorted keys bottom-up (see {@link #bulkLoad(Iterator)}), which writes fully packed pages
+ * sequentially.
+ *
+ * Thread-safe. Lookups and puts are performed concurrently with latch coupling: each page is latched (read or write
+ * lock of {@link LockMap}) before its parent's latch is released. Lookup holds read latches only. Put descends with
+ * read latches and write-latches the leaf, so puts into different leaves do not block each other. If the leaf is full
+ * (or key is found in an inner page) put restarts with write latches, and latches of ancestors are released as soon as
+ * latched page has room for one more entry, so the split holds only the pages it changes.
+ * Removal and bulk load lock the whole tree.
+ *
+ * {@link #get(String)} and {@link #contains(String)} do not lock anything at first: pages are read optimistically and
+ * validated by their version stamps (see {@link PageVersions}), which are changed by writers around page changes. Tree
+ * is read again with latches only if it was changed during the lookup.
+ *
+ * Missing keys are mostly rejected without reading pages at all: fingerprints of all keys are kept in counting Bloom
+ * filter (see {@link KeyFilter}). Filter is written to the tree's blocks on {@link #close()} and read on load, if tree
+ * was not closed properly it is rebuilt from fingerprints kept in pages.
  *
- * Thread-safe, no concurrent access.
+ * Pages of upper levels (root and some levels below, see {@link #DEFAULT_PINNED_LEVELS}) are pinned in allocator (see
+ * {@link Allocator#pin(int)}), so when allocator is a cache they are not moved out by leaves and lookup reads at most
+ * the lower levels from storage. Leaves are never pinned, even if tree is not higher than pinned levels. Page's level
+ * is counted from leaves, as it does not change when tree grows.
+ *
+ * Snapshot of tree (see {@link #snapshot()}) is taken without copying anything: it keeps the root of that moment, and
+ * writers copy each page to a new block before they change (or free) it for the first time after snapshot is taken.
+ * Snapshot reads the copy if there is one and the page itself otherwise. Copies are freed when snapshot is closed.
  */
-public class BTree implements Iterable<String>, AutoCloseable {
+public class BTree implements KeyIndex {
 
     public static final int ENTRY_SIZE = 256;
-    public static final int KEY_PART_SIZE = 220;
-    public static final int KEY_PART_LENGTH = KEY_PART_SIZE / 2;
+    public static final int KEY_PART_LENGTH = (ENTRY_SIZE - Page.ENTRY_FIELDS_SIZE) / 2;
+    private static final long MIN_FILTER_CAPACITY = 1024;
+    public static final int DEFAULT_PINNED_LEVELS = 3;
+    private static final DataLocker<Long> DATA_POINTER = new DataLocker<Long>() {
+        @Override
+        public Long lock(long data) {
+            return data;
+        }
+    };
     private final Allocator allocator;
-    private final TreeNameHelper helper;
+    //truncates keys by leading part for ordered tree
+    private TreeNameHelper helper;
+    private boolean ordered;
     private int t, minAmount, maxAmount;
-    private long totalCount = 0;
-    private int firstPageBlockIdx, metaBlockIdx;
+    private int entrySize, keyPartLength;
+    private final AtomicLong totalCount = new AtomicLong();
+    private volatile int firstPageBlockIdx;
+    private int metaBlockIdx;
+    private long keySeed;
+    //amount of levels, changes together with root
+    private volatile int height = 1;
+    //write lock is held by removal, read lock - by lookups and puts
     private final ReadWriteLock treeLock = new ReentrantReadWriteLock();
+    //read lock is held by any modification, write lock - by the ones who need tree not being changed
+    private final ReadWriteLock modificationLock = new ReentrantReadWriteLock();
+    private final LockMap<Integer> pageLatches = new LockMap<>();
+    private final PageVersions versions = new PageVersions();
+    //replaced by bigger one under tree write lock
+    private volatile KeyFilter filter;
 
-    private volatile int modCount = 0;
+    private final int pinnedLevels;
+    //pinned page -> its level counted from leaves
+    private final Map<Integer, Integer> pinnedPages = new HashMap<>();
 
-    private final Comparator TREE_ENTRY_COMPARATOR = new Comparator() {
-
-        @Override
-        public int compare(Object treeEntry, Object treeEntryKey) {
-            TreeEntry entry = (TreeEntry) treeEntry;
-            TreeEntryKey key = (TreeEntryKey) treeEntryKey;
-            return -BTree.this.compare(key.hash, key.truncatedKey, key.fullKey, entry);
-        }
-    } ;
+    private final AtomicInteger modCount = new AtomicInteger();
+    private final List<TreeSnapshot> snapshots = new CopyOnWriteArrayList<>();
 
     public BTree(Allocator allocator) {
         this(allocator, new DefaultNameHelper());
     }
 
     public BTree(Allocator allocator, TreeNameHelper helper) {
+        this(allocator, helper, DEFAULT_PINNED_LEVELS);
+    }
+
+    /**
+     * @param pinnedLevels amount of upper levels (including root) which pages are pinned in allocator, 0 to pin nothing
+     */
+    public BTree(Allocator allocator, TreeNameHelper helper, int pinnedLevels) {
+        this(allocator, helper, pinnedLevels, null);
+    }
+
+    /**
+     * @param pinnedLevels amount of upper levels (including root) which pages are pinned in allocator, 0 to pin nothing
+     * @param inlineKeyLength see {@link #prepare(Allocator, Integer)}, used only if allocator is empty
+     */
+    public BTree(Allocator allocator, TreeNameHelper helper, int pinnedLevels, Integer inlineKeyLength) {
+        this(allocator, helper, pinnedLevels, inlineKeyLength, false);
+    }
+
+    /**
+     * @param pinnedLevels amount of upper levels (including root) which pages are pinned in allocator, 0 to pin nothing
+     * @param inlineKeyLength see {@link #prepare(Allocator, Integer, boolean)}, used only if allocator is empty
+     * @param ordered see {@link #prepare(Allocator, Integer, boolean)}, used only if allocator is empty
+     */
+    public BTree(Allocator allocator, TreeNameHelper helper, int pinnedLevels, Integer inlineKeyLength, boolean ordered) {
+        Check.arguments(pinnedLevels >= 0, "Pinned levels count shall not be negative");
         this.allocator = allocator;
         this.helper = helper;
-        int size = Serializers.INSTANCE.getSize(TreeEntry.class);
-        int pageInfoSize = Serializers.INSTANCE.getSize(PageInfo.class);
-        int sizeForEntries = allocator.getBlockSize() - pageInfoSize;
-        Check.arguments(sizeForEntries % size == 0, "Block shall contain integer amount of entries (entry size = " + size + ", block size = " + allocator.getBlockSize());
-        maxAmount = sizeForEntries / size;
-        Check.arguments(maxAmount % 2 == 1, "Block shall contain even nmber of entries (now " + maxAmount + ")");
-        Check.arguments(maxAmount >= 3, "Block shall have at least " + (size*3 + pageInfoSize) + ": " + (size * 3) + "bytes (data) + " + pageInfoSize + " bytes (meta)");
-        t = (maxAmount+1) / 2;
-        minAmount = t - 1;
-        maxAmount = 2*t - 1;
-        assert((maxAmount - 1) / 2 == minAmount);
-        //so 1 is reserved for page info
-        if (allocator.getBlocksCount() == 0) {
-            initialize();
+        this.pinnedLevels = pinnedLevels;
+        prepare(allocator, inlineKeyLength, ordered);
+        load();
+    }
+
+    /**
+     * Same as {@link #prepare(Allocator, Integer, boolean)} for tree which order is not defined.
+     */
+    public static Allocator prepare(Allocator allocator, Integer inlineKeyLength) {
+        return prepare(allocator, inlineKeyLength, false);
+    }
+
+    /**
+     * Creates empty tree in empty allocator, so tree may be created with chosen entry size by code which just opens
+     * it (like {@link io.github.alexeygrishin.hashfile.btreebased.BTreeBasedStorage}). Not empty allocator is not
+     * changed.
+     * @param inlineKeyLength keys of this length or shorter are kept in pages entirely, the rest of block (which is not
+     *                        enough for one more entry) is not used. If null then entries are of {@link #ENTRY_SIZE}
+     *                        bytes and block shall contain header and odd number of entries exactly.
+     * @param ordered true if tree shall keep keys ordered as strings (see {@link String#compareTo(String)}), key parts
+     *                are leading then. Otherwise order is defined by hashes and lookups are a bit faster.
+     * @return provided allocator
+     */
+    public static Allocator prepare(Allocator allocator, Integer inlineKeyLength, boolean ordered) {
+        if (allocator.getBlocksCount() != 0) {
+            return allocator;
+        }
+        int blockSize = allocator.getBlockSize();
+        int entrySize = ENTRY_SIZE;
+        if (inlineKeyLength != null) {
+            entrySize = Page.ENTRY_FIELDS_SIZE + 2 * Check.positive(inlineKeyLength, "inlineKeyLength");
         }
         else {
-            load();
+            Check.arguments(blockSize % entrySize == 0, "Block shall contain integer amount of entries (entry size = " + entrySize + ", block size = " + blockSize + ")");
+            Check.arguments((blockSize / entrySize - 1) % 2 == 1, "Block shall contain odd number of entries (entry size = " + entrySize + ", block size = " + blockSize + ")");
         }
+        //one slot is for page header, amount of entries shall be odd, so page may be split in halves with middle entry
+        int pageCapacity = blockSize / entrySize - 1;
+        pageCapacity -= pageCapacity % 2 == 0 ? 1 : 0;
+        checkCapacity(pageCapacity, entrySize);
+        try (BlockToModify<TreeInfo> metaBlock = allocator.allocateToModify(TreeInfo.class);
+             BlockToModify<Page> firstPageBlock = allocator.allocateToModify(Page.class)
+        )
+        {
+            metaBlock.getBlock().totalCount = 0;
+            metaBlock.getBlock().rootPageIdx = firstPageBlock.getBlockId();
+            metaBlock.getBlock().keySeed = new SecureRandom().nextLong();
+            metaBlock.getBlock().filterPageIdx = Pointer.NULL_PTR;
+            metaBlock.getBlock().entrySize = entrySize;
+            metaBlock.getBlock().pageCapacity = pageCapacity;
+            metaBlock.getBlock().ordered = ordered ? 1 : 0;
+            firstPageBlock.getBlock().init(entrySize);
+        }
+        return allocator;
+    }
 
+    private static void checkCapacity(int pageCapacity, int entrySize) {
+        Check.arguments(pageCapacity >= 3, "Block shall have at least " + (entrySize * 4) + " bytes: " + (entrySize * 3) + " bytes (data) + " + entrySize + " bytes (meta)");
     }
 
     private void load() {
         metaBlockIdx = 0;
         TreeInfo meta = allocator.get(metaBlockIdx, TreeInfo.class);
-        this.totalCount = meta.totalCount;
+        entrySize = meta.entrySize;
+        maxAmount = meta.pageCapacity;
+        checkCapacity(maxAmount, entrySize);
+        t = (maxAmount+1) / 2;
+        minAmount = t - 1;
+        assert((maxAmount - 1) / 2 == minAmount);
+        keyPartLength = (entrySize - Page.ENTRY_FIELDS_SIZE) / 2;
+        ordered = meta.ordered != 0;
+        if (ordered) {
+            helper = new LeadingPartHelper(helper);
+        }
+        this.totalCount.set(meta.totalCount);
         this.firstPageBlockIdx = meta.rootPageIdx;
+        this.keySeed = meta.keySeed;
+        this.height = measureHeight();
+        pinUpperLevels(firstPageBlockIdx, height - 1);
+        if (Pointer.isValidNext(meta.filterPageIdx)) {
+            filter = loadFilter(meta.filterPageIdx, meta.filterCapacity);
+            //snapshot becomes stale with the first change, so it is dropped from storage right away
+            saveTreeInfo(Pointer.NULL_PTR);
+            allocator.flush();
+        }
+        else {
+            rebuildFilter();
+        }
     }
 
-    private void initialize() {
-        try (BlockToModify<TreeInfo> metaBlock = allocator.allocateToModify(TreeInfo.class);
-             BlockToModify<Page> firstPageBlock = allocator.allocateToModify(Page.class)
-        )
-        {
-            metaBlockIdx = metaBlock.getBlockId();
-            firstPageBlockIdx = firstPageBlock.getBlockId();
-            metaBlock.getBlock().totalCount = 0;
-            metaBlock.getBlock().rootPageIdx = firstPageBlock.getBlockId();
-            firstPageBlock.getBlock().pageInfo.countOfEntries = 0;
-            firstPageBlock.getBlock().pageInfo.lastChildPtr = Pointer.NULL_PTR;
+    private KeyFilter loadFilter(int firstPage, long capacity) {
+        KeyFilter result = new KeyFilter(capacity);
+        int index = 0;
+        for (int page = firstPage; Pointer.isValidNext(page); ) {
+            FilterPage filterPage = allocator.get(page, FilterPage.class);
+            for (int i = 0; i < filterPage.words.length && index < result.getWordsCount(); i++, index++) {
+                result.setWord(index, filterPage.words[i]);
+            }
+            allocator.free(page);
+            page = filterPage.nextPage;
+        }
+        return result;
+    }
+
+    /**
+     * @return id of the first page of snapshot
+     */
+    private int saveFilter() {
+        KeyFilter current = filter;
+        int wordsPerPage = (allocator.getBlockSize() - FilterPage.HEADER_SIZE) / 8;
+        int pagesCount = (current.getWordsCount() + wordsPerPage - 1) / wordsPerPage;
+        int[] pages = new int[pagesCount];
+        for (int i = 0; i < pagesCount; i++) {
+            pages[i] = allocator.allocate();
+        }
+        for (int i = 0; i < pagesCount; i++) {
+            FilterPage filterPage = new FilterPage();
+            filterPage.nextPage = i + 1 < pagesCount ? pages[i + 1] : Pointer.NULL_PTR;
+            filterPage.words = new Long[wordsPerPage];
+            for (int j = 0; j < wordsPerPage; j++) {
+                int index = i * wordsPerPage + j;
+                filterPage.words[j] = index < current.getWordsCount() ? current.getWord(index) : 0L;
+            }
+            allocator.saveModifications(pages[i], filterPage);
+        }
+        return pages[0];
+    }
+
+    /**
+     * Shall be called under tree write lock (or before tree is shared).
+     */
+    private void rebuildFilter() {
+        KeyFilter newFilter = new KeyFilter(Math.max(MIN_FILTER_CAPACITY, totalCount.get() * 2));
+        addToFilter(newFilter, firstPageBlockIdx);
+        filter = newFilter;
+    }
+
+    private void addToFilter(KeyFilter target, int page) {
+        Page pageStruct = allocator.get(page, Page.class);
+        for (int i = 0; i < pageStruct.getCount(); i++) {
+            target.add(pageStruct.fingerprint(i));
+            if (Pointer.isValidNext(pageStruct.child(i))) {
+                addToFilter(target, pageStruct.child(i));
+            }
+        }
+        if (pageStruct.pageInfo.hasLastChild()) {
+            addToFilter(target, pageStruct.pageInfo.lastChildPtr);
+        }
+    }
+
+    private void growFilterIfNeeded() {
+        if (totalCount.get() <= filter.getCapacity()) {
+            return;
+        }
+        try (Locker ignore = writeLock()) {
+            if (totalCount.get() > filter.getCapacity()) {
+                rebuildFilter();
+            }
+        }
+    }
+
+    private int measureHeight() {
+        int levels = 0;
+        int page = firstPageBlockIdx;
+        while (Pointer.isValidNext(page)) {
+            levels++;
+            page = allocator.get(page, Page.class).child(0);
+        }
+        return levels;
+    }
+
+    /**
+     * Pins page if it belongs to upper levels. Called under the same lock as {@link #unpinLowerLevels()}, so page
+     * pinned for old height is unpinned after the tree grows.
+     */
+    private void pinIfUpper(int page, int levelFromLeaves) {
+        synchronized (pinnedPages) {
+            if (levelFromLeaves > 0 && levelFromLeaves >= height - pinnedLevels && !pinnedPages.containsKey(page)) {
+                pinnedPages.put(page, levelFromLeaves);
+                allocator.pin(page);
+            }
+        }
+    }
+
+    private void pinUpperLevels(int page, int levelFromLeaves) {
+        if (levelFromLeaves == 0 || levelFromLeaves < height - pinnedLevels) {
+            return;
+        }
+        pinIfUpper(page, levelFromLeaves);
+        Page pageStruct = allocator.get(page, Page.class);
+        for (int i = 0; i <= pageStruct.getCount() && levelFromLeaves > 1; i++) {
+            pinUpperLevels(pageStruct.child(i), levelFromLeaves - 1);
+        }
+    }
+
+    private void unpinLowerLevels() {
+        synchronized (pinnedPages) {
+            for (Iterator<Map.Entry<Integer, Integer>> it = pinnedPages.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<Integer, Integer> pinned = it.next();
+                if (pinned.getValue() < height - pinnedLevels) {
+                    allocator.unpin(pinned.getKey());
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    private void freePage(int page) {
+        preserve(page);
+        synchronized (pinnedPages) {
+            if (pinnedPages.remove(page) != null) {
+                allocator.unpin(page);
+            }
         }
+        allocator.free(page);
     }
 
+    @Override
+    public boolean replace(String key, long expected, long data) {
+        Check.notNull(key);
+        try (Locker ignore = writeLock()) {
+            if (!Pointer.isValid(expected) || get(key) != expected) {
+                return false;
+            }
+            put(key, new LongData(data));
+            return true;
+        }
+    }
+
+    /**
+     * Builds tree bottom-up, so there are no descents from root and no splits. Pages are filled completely one by one,
+     * starting from leaves: when page is full, the next entry goes to the parent level with the full page as its left
+     * child. At the end pages of the right edge are rebalanced with their left neighbours, so each page except root
+     * has at least t-1 entries.
+     * @throws IllegalArgumentException if entries are not sorted by {@link #getKeyOrder()}
+     */
+    @Override
+    public void bulkLoad(Iterator<Map.Entry<String, Long>> entries) {
+        Check.notNull(entries);
+        try (Locker ignore = writeLock()) {
+            if (totalCount.get() != 0) {
+                throw new IllegalStateException("Bulk load is possible only into empty tree");
+            }
+            versions.startChange(PageVersions.TREE);
+            try {
+                preserve(firstPageBlockIdx);
+                BulkBuilder builder = new BulkBuilder();
+                while (entries.hasNext()) {
+                    Map.Entry<String, Long> entry = entries.next();
+                    builder.add(entry.getKey(), entry.getValue());
+                }
+                builder.finish();
+                pinUpperLevels(firstPageBlockIdx, height - 1);
+                if (totalCount.get() > filter.getCapacity()) {
+                    rebuildFilter();
+                }
+            } finally {
+                versions.finishChange(PageVersions.TREE);
+            }
+        }
+    }
+
+    /**
+     * Same order as tree uses: hash, then key part, then fingerprint, then the whole key. Ordered tree uses order of
+     * keys themselves.
+     */
+    @Override
+    public Comparator<String> getKeyOrder() {
+        return new Comparator<String>() {
+            @Override
+            public int compare(String key1, String key2) {
+                if (ordered) {
+                    return key1.compareTo(key2);
+                }
+                int result = Integer.compare(hash(key1), hash(key2));
+                if (result == 0) {
+                    result = helper.truncate(key1, keyPartLength).compareTo(helper.truncate(key2, keyPartLength));
+                }
+                if (result == 0) {
+                    result = Long.compare(fingerprint(key1), fingerprint(key2));
+                }
+                if (result == 0) {
+                    result = key1.compareTo(key2);
+                }
+                return result;
+            }
+        };
+    }
+
+    @Override
     public long remove(String key) {
         Check.notNull(key);
+        TreeEntryKey entryKey = entryKey(key);
         TreeEntry entry;
         try (Locker ignore = writeLock()) {
-            entry = findAndDelete(firstPageBlockIdx, key, helper.truncate(key, KEY_PART_LENGTH), hash(key));
-            if (entry != null) modCount++;
-            Page firstPage = allocator.get(firstPageBlockIdx, Page.class);
-            if (firstPage.getCount() == 0 && Pointer.isValidNext(firstPage.pageInfo.lastChildPtr)) {
-                allocator.free(firstPageBlockIdx);
-                firstPageBlockIdx = firstPage.pageInfo.lastChildPtr;
+            versions.startChange(PageVersions.TREE);
+            try {
+                entry = findAndDelete(firstPageBlockIdx, entryKey);
+                if (entry != null) {
+                    //key is not in the tree already, so lookups never miss it
+                    filter.remove(entryKey.fingerprint);
+                    modCount.incrementAndGet();
+                }
+                Page firstPage = allocator.get(firstPageBlockIdx, Page.class);
+                if (firstPage.getCount() == 0 && Pointer.isValidNext(firstPage.pageInfo.lastChildPtr)) {
+                    freePage(firstPageBlockIdx);
+                    firstPageBlockIdx = firstPage.pageInfo.lastChildPtr;
+                    height--;
+                    pinUpperLevels(firstPageBlockIdx, height - 1);
+                }
+            } finally {
+                versions.finishChange(PageVersions.TREE);
             }
         }
         return entry != null ? entry.data : Pointer.NULL_PTR;
     }
 
+    /**
+     * @return true if keys are ordered as strings, as it was chosen when tree was created
+     */
+    public boolean isOrdered() {
+        return ordered;
+    }
+
+    /**
+     * @return length of keys which are kept in pages entirely, it is defined by entry size chosen when tree was created
+     */
+    public int getInlineKeyLength() {
+        return keyPartLength;
+    }
+
+    @Override
     public long size() {
-        try (Locker ignore = readLock()) {
-            return totalCount;
-        }
+        return totalCount.get();
     }
 
 
@@ -132,7 +488,7 @@ public class BTree implements Iterable<String>, AutoCloseable {
     public void dump(PrintStream stream) {
         stream.println("B-tree, total = " + totalCount + ", t = " + t);
         int innerTotal = dump(firstPageBlockIdx, stream, " ");
-        boolean ok = innerTotal == totalCount;
+        boolean ok = innerTotal == totalCount.get();
         stream.println("Calculated total is " + innerTotal + " " + (ok ? "ok" : (" != " + totalCount)));
         stream.println();
         if (!ok) {
@@ -145,53 +501,206 @@ public class BTree implements Iterable<String>, AutoCloseable {
         put(key, new LongData(data));
     }
 
+    @Override
     public void put(String key, TreeData data) {
         Check.notNull(key, data);
-        try (Locker ignore = writeLock()) {
-            InsertionResult result = findAndInsert(firstPageBlockIdx, new TreeEntryKey(key, helper.truncate(key, KEY_PART_LENGTH), hash(key)), data);
-            if (result.requiresParentModification()) {
-                try (BlockToModify<Page> newFirstPageBlock = allocator.allocateToModify(Page.class)) {
-                    PageInfo pageInfo = newFirstPageBlock.getBlock().pageInfo;
-                    pageInfo.countOfEntries = 1;
-                    pageInfo.lastChildPtr = result.newBlockId;
-                    newFirstPageBlock.getBlock().entries[0] = result.middlePointForParent;
-                    result.middlePointForParent.childPtr = result.oldBlockId;
-                    firstPageBlockIdx = newFirstPageBlock.getBlockId();
-                }
+        TreeEntryKey entryKey = entryKey(key);
+        try (Locker ignore = putLock()) {
+            if (!putIntoLeaf(entryKey, data)) {
+                putWithSplits(entryKey, data);
             }
         }
-
+        growFilterIfNeeded();
     }
 
+    @Override
     public void close() {
         try (Locker ignore = writeLock()) {
-            try (BlockToModify<TreeInfo> treeInfo = allocator.getToModify(metaBlockIdx, TreeInfo.class)) {
-                treeInfo.getBlock().totalCount = totalCount;
-                treeInfo.getBlock().rootPageIdx = firstPageBlockIdx;
+            for (TreeSnapshot snapshot: snapshots) {
+                snapshot.close();
             }
+            saveTreeInfo(saveFilter());
         }
         allocator.close();
     }
 
+    /**
+     * Writes all changes to allocator's storage. Tree may be read while flushing, but not modified, so pages are never
+     * written partially modified.
+     */
+    @Override
+    public void flush() {
+        try (Locker ignore = stopModifications()) {
+            saveTreeInfo(Pointer.NULL_PTR);
+            allocator.flush();
+        }
+    }
+
+    private void saveTreeInfo(int filterPageIdx) {
+        try (BlockToModify<TreeInfo> treeInfo = allocator.getToModify(metaBlockIdx, TreeInfo.class)) {
+            treeInfo.getBlock().totalCount = totalCount.get();
+            treeInfo.getBlock().rootPageIdx = firstPageBlockIdx;
+            treeInfo.getBlock().filterPageIdx = filterPageIdx;
+            treeInfo.getBlock().filterCapacity = filter.getCapacity();
+        }
+    }
+
+    @Override
     public boolean contains(String key) {
         Check.notNull(key);
-        try (Locker ignore = readLock()) {
-            return find(firstPageBlockIdx, key, helper.truncate(key, KEY_PART_LENGTH), hash(key)) != null;
-        }
+        return get(key) != Pointer.NULL_PTR;
     }
 
+    @Override
     public long get(String key) {
         Check.notNull(key);
-        TreeEntry treeEntry;
+        TreeEntryKey entryKey = entryKey(key);
+        if (!filter.mightContain(entryKey.fingerprint)) {
+            return Pointer.NULL_PTR;
+        }
+        Long data = findOptimistically(entryKey);
+        if (data == null) {
+            try (Locker ignore = readLock()) {
+                data = find(entryKey, DATA_POINTER);
+            }
+        }
+        return data != null ? data : Pointer.NULL_PTR;
+    }
+
+    /**
+     * Finds data pointer by key and locks it using provided locker before page latch is released. This way caller may
+     * guarantee that data will not be deleted/replaced (by code which respects the same lock) while it is being read.
+     * @param key key to search
+     * @param locker locker for data pointer
+     * @return lock returned by locker or null if there is no such key in tree
+     */
+    @Override
+    public <L> L getAndLock(String key, DataLocker<L> locker) {
+        Check.notNull(key, locker);
+        TreeEntryKey entryKey = entryKey(key);
+        if (!filter.mightContain(entryKey.fingerprint)) {
+            return null;
+        }
         try (Locker ignore = readLock()) {
-            treeEntry = find(firstPageBlockIdx, key, helper.truncate(key, KEY_PART_LENGTH), hash(key));
+            return find(entryKey, locker);
         }
-        return treeEntry != null ? treeEntry.data : Pointer.NULL_PTR;
     }
 
+    @Override
     public Iterator<String> iterator() {
         try (Locker ignore = readLock()) {
-            return new KeysIterator(modCount);
+            return new KeysIterator(null, null, null);
+        }
+    }
+
+    /**
+     * Iterates over keys in order, starting from the first key which is not less than lower bound. Pages are read only
+     * on the path to the first key and then in order of keys, iteration stops at the first key out of range.
+     * @param from lower bound (inclusive), null to start from the first key
+     * @param to upper bound (exclusive), null to iterate till the last key
+     * @throws UnsupportedOperationException if tree was not created with ordered keys
+     */
+    @Override
+    public Iterator<String> range(String from, String to) {
+        if (!ordered) {
+            throw new UnsupportedOperationException("Tree was created without ordered keys");
+        }
+        try (Locker ignore = readLock()) {
+            return new KeysIterator(null, from, to);
+        }
+    }
+
+    /**
+     * Parts are bounded by keys of upper levels: the first level (counting from root) which has enough keys is read,
+     * pages of this level are usually pinned. So parts cover whole subtrees and have about the same number of keys.
+     * Each part is iterated same as {@link #iterator()}.
+     */
+    @Override
+    public List<Iterator<String>> split(int parts) {
+        Check.positive(parts, "parts count");
+        return split(null, parts);
+    }
+
+    private List<Iterator<String>> split(TreeSnapshot snapshot, int parts) {
+        List<String> levelKeys = new ArrayList<>();
+        try (Locker ignore = readLock()) {
+            int root = snapshot != null ? snapshot.root : firstPageBlockIdx;
+            boolean allKeys = false;
+            for (int depth = 1; !allKeys && levelKeys.size() < parts - 1; depth++) {
+                levelKeys.clear();
+                allKeys = collectKeys(snapshot, root, depth, levelKeys);
+            }
+            if (allKeys && !levelKeys.isEmpty()) {
+                //there is nothing before the first key
+                levelKeys.remove(0);
+            }
+        }
+        //pages are read one by one, so keys could be moved between them by concurrent splits
+        Collections.sort(levelKeys, getKeyOrder());
+        List<Iterator<String>> result = new ArrayList<>(parts);
+        try (Locker ignore = readLock()) {
+            String from = null;
+            int previous = -1;
+            for (int i = 1; i < parts; i++) {
+                int index = (int)((long)i * (levelKeys.size() + 1) / parts) - 1;
+                if (index <= previous || (from != null && from.equals(levelKeys.get(index)))) {
+                    continue;
+                }
+                previous = index;
+                String to = levelKeys.get(index);
+                result.add(new KeysIterator(snapshot, from, to));
+                from = to;
+            }
+            result.add(new KeysIterator(snapshot, from, null));
+        }
+        return result;
+    }
+
+    /**
+     * Collects keys of pages up to specified depth (1 - root only) in order.
+     * @return true if leaves were reached, so all keys of subtree are collected
+     */
+    private boolean collectKeys(TreeSnapshot snapshot, int page, int depth, List<String> keys) {
+        Page pageStruct;
+        try (LockMap<Integer>.AutoLock ignore = pageLatches.lockRead(page)) {
+            pageStruct = snapshot != null ? snapshot.read(page) : allocator.get(page, Page.class);
+        }
+        boolean leaf = !Pointer.isValidNext(pageStruct.child(0));
+        if (leaf || depth == 1) {
+            for (int i = 0; i < pageStruct.getCount(); i++) {
+                keys.add(getWholeKey(pageStruct.entry(i)));
+            }
+            return leaf;
+        }
+        boolean allKeys = true;
+        for (int i = 0; i < pageStruct.getCount(); i++) {
+            allKeys &= collectKeys(snapshot, pageStruct.child(i), depth - 1, keys);
+            keys.add(getWholeKey(pageStruct.entry(i)));
+        }
+        return collectKeys(snapshot, pageStruct.child(pageStruct.getCount()), depth - 1, keys) && allKeys;
+    }
+
+    /**
+     * Modifications are stopped for a moment, so snapshot gets root of consistent tree and registers itself before
+     * any page is changed.
+     */
+    @Override
+    public IndexSnapshot snapshot() {
+        try (Locker ignore = stopModifications()) {
+            TreeSnapshot snapshot = new TreeSnapshot(firstPageBlockIdx, totalCount.get());
+            snapshots.add(snapshot);
+            return snapshot;
+        }
+    }
+
+    /**
+     * Copies page for open snapshots which do not have its copy yet. Shall be called before page is changed or freed,
+     * under its write latch or tree write lock, so snapshot (which reads page under read latch and tree read lock)
+     * sees either the page before change or its copy.
+     */
+    private void preserve(int page) {
+        for (TreeSnapshot snapshot: snapshots) {
+            snapshot.preserve(page);
         }
     }
 
@@ -199,12 +708,93 @@ public class BTree implements Iterable<String>, AutoCloseable {
         return new Locker(treeLock.readLock());
     }
 
+    private Locker putLock() {
+        return new Locker(modificationLock.readLock(), treeLock.readLock());
+    }
+
+    /**
+     * Tree read lock, same as taken by lookups: batches do not block each other and puts, only removals wait for them.
+     */
+    @Override
+    public Locker lockForRead() {
+        return readLock();
+    }
+
+    /**
+     * Puts are not blocked by tree read lock, so all modifications are stopped instead. Lookups are not blocked.
+     */
+    private Locker stopModifications() {
+        return new Locker(modificationLock.writeLock());
+    }
+
+    @Override
+    public Locker lockForWrite() {
+        return writeLock();
+    }
+
     private Locker writeLock() {
-        return new Locker(treeLock.writeLock());
+        return new Locker(modificationLock.readLock(), treeLock.writeLock());
+    }
+
+    /**
+     * Latches the root page. Root may be replaced while waiting for the latch, so it is checked again after that.
+     */
+    private LockMap<Integer>.AutoLock latchRoot(boolean write) {
+        while (true) {
+            int root = firstPageBlockIdx;
+            LockMap<Integer>.AutoLock latch = write ? pageLatches.lockWrite(root) : pageLatches.lockRead(root);
+            if (root == firstPageBlockIdx) {
+                return latch;
+            }
+            latch.close();
+        }
+    }
+
+    /**
+     * Latches child page, then releases latch of its parent.
+     * @return child latch
+     */
+    private LockMap<Integer>.AutoLock latchChild(LockMap<Integer>.AutoLock parentLatch, int child, boolean write) {
+        LockMap<Integer>.AutoLock latch = write ? pageLatches.lockWrite(child) : pageLatches.lockRead(child);
+        parentLatch.close();
+        return latch;
     }
 
+    /**
+     * For ordered tree hash is made of the first two chars, so it is ordered same as keys, and most comparisons do
+     * not read key parts. Missing chars are zeros, which are less than any other. Sign bit is flipped to compare hashes
+     * as unsigned.
+     */
     private int hash(String key) {
-        return key.hashCode();
+        if (!ordered) {
+            return key.hashCode();
+        }
+        int first = key.length() > 0 ? key.charAt(0) : 0;
+        int second = key.length() > 1 ? key.charAt(1) : 0;
+        return ((first << 16) | second) ^ Integer.MIN_VALUE;
+    }
+
+    /**
+     * 64-bit hash of the whole key, seeded by random number kept in tree info, so collisions cannot be prepared for
+     * the tree in advance. Each char is mixed in, then murmur3 finalizer is applied.
+     */
+    private long fingerprint(String key) {
+        long result = keySeed;
+        for (int i = 0; i < key.length(); i++) {
+            result = (result ^ key.charAt(i)) * 0x9E3779B97F4A7C15L;
+            result ^= result >>> 29;
+        }
+        result ^= key.length();
+        result ^= result >>> 33;
+        result *= 0xFF51AFD7ED558CCDL;
+        result ^= result >>> 33;
+        result *= 0xC4CEB9FE1A85EC53L;
+        result ^= result >>> 33;
+        return result;
+    }
+
+    private TreeEntryKey entryKey(String key) {
+        return new TreeEntryKey(key, helper.truncate(key, keyPartLength), hash(key), fingerprint(key));
     }
 
     private int dump(int page, PrintStream stream, String prefix) {
@@ -214,7 +804,7 @@ public class BTree implements Iterable<String>, AutoCloseable {
         total += count;
         stream.println(prefix + "Node entries: " + count + "  <" + page + ">" );
         for (int i = 0; i < count; i++) {
-            TreeEntry entry = pageBlock.entries[i];
+            TreeEntry entry = pageBlock.entry(i);
             stream.println(prefix + i + ": " + entry.keyPart + " [#" + entry.hash + "]");
             if (entry.isBroken()) {
                 stream.println(" --- BROKEN ---");
@@ -231,13 +821,12 @@ public class BTree implements Iterable<String>, AutoCloseable {
         return total;
     }
 
-    private TreeEntry findAndDelete(int page, String key, String truncatedKey, int hash) {
+    private TreeEntry findAndDelete(int page, TreeEntryKey key) {
         TreeEntry deleted = null;
+        preserve(page);
         try (BlockToModify<Page> pageBlock = allocator.getToModify(page, Page.class)) {
             Page pageStruct = pageBlock.getBlock();
-            PageInfo pageInfo = pageStruct.pageInfo;
-            int count = pageInfo.countOfEntries;
-            int pos = Arrays.binarySearch(pageStruct.entries, 0, count, new TreeEntryKey(key, truncatedKey, hash), TREE_ENTRY_COMPARATOR);
+            int pos = search(pageStruct, key);
             int childPagePtr;
             if (pos >= 0) {
                 deleted = deleteEntryAt(pageStruct, pos, false);
@@ -248,7 +837,7 @@ public class BTree implements Iterable<String>, AutoCloseable {
                 childPagePtr = pageStruct.child(pos);
 
                 if (Pointer.isValidNext(childPagePtr)) {
-                    deleted = findAndDelete(childPagePtr, key, truncatedKey, hash);
+                    deleted = findAndDelete(childPagePtr, key);
                 }
             }
             if (childPagePtr == pageStruct.pageInfo.lastChildPtr && pos > 0) {
@@ -257,19 +846,18 @@ public class BTree implements Iterable<String>, AutoCloseable {
             }
             int nextChildPagePtr = pageStruct.nextChild(pos);
             if (Pointer.isValidNext(childPagePtr) && Pointer.isValidNext(nextChildPagePtr)) {
-                rebalanceNode(pageStruct, pageInfo, pos, count, childPagePtr, nextChildPagePtr);
+                rebalanceNode(pageStruct, pos, childPagePtr, nextChildPagePtr);
             }
         }
         return deleted;
     }
 
     private TreeEntry deleteEntryAt(Page pageStruct, int index, boolean detachOnly) {
-        int count = pageStruct.getCount();
-        TreeEntry entryToDelete = pageStruct.entries[index];
+        TreeEntry entryToDelete = pageStruct.entry(index);
         if (!entryToDelete.hasChildren() || detachOnly) {
-            deleteEntryFromPage(pageStruct, index, count);
+            pageStruct.remove(index);
             if (!detachOnly) {
-                totalCount--;
+                totalCount.decrementAndGet();
             }
         }
         else {
@@ -279,36 +867,74 @@ public class BTree implements Iterable<String>, AutoCloseable {
             Page nextChildPage = Pointer.isValidNext(nextChildPagePtr) ? allocator.get(nextChildPagePtr, Page.class) : null;
             TreeEntry replacement;
             if (nextChildPage == null || childPage.getCount() > nextChildPage.getCount()) {
-                replacement = deleteEntryAt(childPage, childPage.getCount() - 1, false);
-                allocator.saveModifications(childPagePtr, childPage);
+                replacement = deleteLast(childPagePtr);
             }
             else {
-                replacement = deleteEntryAt(nextChildPage, 0, false);
-                allocator.saveModifications(nextChildPagePtr, nextChildPage);
+                replacement = deleteFirst(nextChildPagePtr);
             }
-            pageStruct.entries[index] = replacement;
             replacement.childPtr = childPagePtr;
+            pageStruct.set(index, replacement);
             entryToDelete.childPtr = Pointer.NULL_PTR;
 
-            rebalanceNode(pageStruct, pageStruct.pageInfo, index, count, childPagePtr, nextChildPagePtr);
+            rebalanceNode(pageStruct, index, childPagePtr, nextChildPagePtr);
 
         }
 
         return entryToDelete;
     }
 
-    private void rebalanceNode(Page pageStruct, PageInfo pageInfo, int pos, int count, int childPagePtr, int nextChildPagePtr) {
+    /**
+     * Deletes the greatest entry of subtree, so it may replace parent entry. Pages on the way are rebalanced.
+     */
+    private TreeEntry deleteLast(int page) {
+        preserve(page);
+        try (BlockToModify<Page> pageBlock = allocator.getToModify(page, Page.class)) {
+            Page pageStruct = pageBlock.getBlock();
+            int lastChildPtr = pageStruct.pageInfo.lastChildPtr;
+            if (!Pointer.isValidNext(lastChildPtr)) {
+                return deleteEntryAt(pageStruct, pageStruct.getCount() - 1, false);
+            }
+            TreeEntry deleted = deleteLast(lastChildPtr);
+            int pos = pageStruct.getCount() - 1;
+            rebalanceNode(pageStruct, pos, pageStruct.child(pos), lastChildPtr);
+            return deleted;
+        }
+    }
+
+    /**
+     * Deletes the least entry of subtree, so it may replace parent entry. Pages on the way are rebalanced.
+     */
+    private TreeEntry deleteFirst(int page) {
+        preserve(page);
+        try (BlockToModify<Page> pageBlock = allocator.getToModify(page, Page.class)) {
+            Page pageStruct = pageBlock.getBlock();
+            int firstChildPtr = pageStruct.child(0);
+            if (!Pointer.isValidNext(firstChildPtr)) {
+                return deleteEntryAt(pageStruct, 0, false);
+            }
+            TreeEntry deleted = deleteFirst(firstChildPtr);
+            rebalanceNode(pageStruct, 0, firstChildPtr, pageStruct.nextChild(0));
+            return deleted;
+        }
+    }
+
+    private void rebalanceNode(Page pageStruct, int pos, int childPagePtr, int nextChildPagePtr) {
         if (!Pointer.isValidNext(nextChildPagePtr)) return;
+        preserve(childPagePtr);
+        preserve(nextChildPagePtr);
         Page childPage = allocator.get(childPagePtr, Page.class);
         Page nextChildPage = allocator.get(nextChildPagePtr, Page.class);
-        DeletionResult res = ensureCapacity(pageStruct.entries[pos], childPage, nextChildPage);
+        DeletionResult res = ensureCapacity(pageStruct.entry(pos), childPage, nextChildPage);
         switch (res.action) {
             case CHANGE_NEXT_CHILD_LINK:
-                pageInfo.countOfEntries = deleteEntryFromPage(pageStruct, pos, count);
+                pageStruct.remove(pos);
                 pageStruct.setChild(pos, childPagePtr);
-                break;
+                allocator.saveModifications(childPagePtr, childPage);
+                //next child was united with the child, so its page is not needed anymore
+                freePage(nextChildPagePtr);
+                return;
             case REPLACE_PARENT:
-                pageStruct.entries[pos] = res.replacementEntry;
+                pageStruct.set(pos, res.replacementEntry);
                 break;
         }
         allocator.saveModifications(childPagePtr, childPage);
@@ -349,10 +975,10 @@ public class BTree implements Iterable<String>, AutoCloseable {
         int oldPtr = parent.childPtr;
         if (childLeft.getCount() + childRight.getCount() + 1 <= minAmount + minAmount) {
             //unite
-            childLeft.entries[childLeft.pageInfo.countOfEntries] = parent;
             parent.childPtr = childLeft.pageInfo.lastChildPtr;
-            System.arraycopy(childRight.entries, 0, childLeft.entries, childLeft.pageInfo.countOfEntries + 1, childRight.pageInfo.countOfEntries);
-            childLeft.pageInfo.countOfEntries += 1 + childRight.pageInfo.countOfEntries;
+            childLeft.insert(childLeft.getCount(), parent);
+            childLeft.copy(childRight, 0, childLeft.getCount(), childRight.getCount());
+            childLeft.pageInfo.countOfEntries += childRight.getCount();
             childLeft.pageInfo.lastChildPtr = childRight.pageInfo.lastChildPtr;
             return DeletionResult.deleteParent();
         }
@@ -360,16 +986,13 @@ public class BTree implements Iterable<String>, AutoCloseable {
             TreeEntry newParent;
             if (childLeft.getCount() < minAmount) {
                 //shift one item from right
-                childLeft.entries[childLeft.pageInfo.countOfEntries] = parent;
-                childLeft.pageInfo.countOfEntries++;
                 parent.childPtr = childLeft.pageInfo.lastChildPtr;
+                childLeft.insert(childLeft.getCount(), parent);
                 newParent = deleteEntryAt(childRight, 0, true);
             } else {    // == childRight.getCount() < minAmount
                 //shift one from left
-                System.arraycopy(childRight.entries, 0, childRight.entries, 1, childRight.getCount());
-                childRight.entries[0] = parent;
-                childRight.pageInfo.countOfEntries++;
                 parent.childPtr = childLeft.pageInfo.lastChildPtr;
+                childRight.insert(0, parent);
                 newParent = deleteEntryAt(childLeft, childLeft.getCount() - 1, true);
             }
             childLeft.pageInfo.lastChildPtr = newParent.childPtr;
@@ -379,79 +1002,262 @@ public class BTree implements Iterable<String>, AutoCloseable {
     }
 
 
-    private int deleteEntryFromPage(Page page, int index, int count) {
-        System.arraycopy(page.entries, index + 1, page.entries, index, count - 1 - index);
-        page.pageInfo.countOfEntries--;
-        return page.pageInfo.countOfEntries;
+    /**
+     * Descends without latches. Stamp of child page is taken before parent's stamp is validated, so child pointer
+     * was actual when child's stamp was taken. Tree stamp is validated on each level, so pages freed by removal are
+     * not followed.
+     * @return data pointer, {@link Pointer#NULL_PTR} if there is no such key or null if tree was changed while read
+     */
+    private Long findOptimistically(TreeEntryKey key) {
+        long treeStamp = versions.stamp(PageVersions.TREE);
+        int page = firstPageBlockIdx;
+        long stamp = versions.stamp(page);
+        if (treeStamp == PageVersions.CHANGING || page != firstPageBlockIdx) {
+            return null;
+        }
+        try {
+            while (true) {
+                Page pageStruct = allocator.get(page, Page.class);
+                int pos = search(pageStruct, key);
+                long data = pos >= 0 ? pageStruct.entry(pos).data : Pointer.NULL_PTR;
+                int nextPage = pos >= 0 ? Pointer.NULL_PTR : pageStruct.child(-pos-1);
+                long nextStamp = Pointer.isValidNext(nextPage) ? versions.stamp(nextPage) : PageVersions.CHANGING;
+                if (!versions.validate(page, stamp) || !versions.validate(PageVersions.TREE, treeStamp)) {
+                    return null;
+                }
+                if (!Pointer.isValidNext(nextPage)) {
+                    return data;
+                }
+                page = nextPage;
+                stamp = nextStamp;
+            }
+        } catch (RuntimeException e) {
+            //page was read while being changed, so it may be inconsistent
+            return null;
+        }
     }
 
+    private <L> L find(TreeEntryKey key, DataLocker<L> locker) {
+        LockMap<Integer>.AutoLock latch = latchRoot(false);
+        try {
+            while (true) {
+                Page pageStruct = allocator.get(latch.getKey(), Page.class);
+                int pos = search(pageStruct, key);
+                if (pos >= 0) {
+                    return locker.lock(pageStruct.entry(pos).data);
+                }
+                int nextPage = pageStruct.child(-pos-1);
+                if (!Pointer.isValidNext(nextPage)) {
+                    return null;
+                }
+                latch = latchChild(latch, nextPage, false);
+            }
+        } finally {
+            latch.close();
+        }
+    }
 
-    private TreeEntry find(int page, String key, String truncatedKey, int hash) {
-        Page pageStruct = allocator.get(page, Page.class);
-        PageInfo pageInfo = pageStruct.pageInfo;
-        int count = pageInfo.countOfEntries;
-        int pos = Arrays.binarySearch(pageStruct.entries, 0, count, new TreeEntryKey(key, truncatedKey, hash), TREE_ENTRY_COMPARATOR);
-        if (pos >= 0) {
-            return pageStruct.entries[pos];
+    /**
+     * Descends with read latches, only the leaf is latched for writing.
+     * @return false if put requires write latches of inner pages: leaf is full, key is found in inner page or tree
+     * has single page. Tree is not changed in this case.
+     */
+    private boolean putIntoLeaf(TreeEntryKey key, TreeData data) {
+        LockMap<Integer>.AutoLock latch = latchRoot(false);
+        try {
+            //root cannot be split while it is latched, so height is actual
+            int leafLevel = height - 1;
+            if (leafLevel == 0) {
+                return false;
+            }
+            for (int level = 0; level < leafLevel; level++) {
+                Page pageStruct = allocator.get(latch.getKey(), Page.class);
+                int pos = search(pageStruct, key);
+                if (pos >= 0) {
+                    return false;
+                }
+                latch = latchChild(latch, pageStruct.child(-pos-1), level + 1 == leafLevel);
+            }
+            int page = latch.getKey();
+            Page pageStruct = allocator.get(page, Page.class);
+            int pos = search(pageStruct, key);
+            if (pos >= 0) {
+                update(page, pageStruct, pos, data);
+                return true;
+            }
+            if (!hasRoomForInsertion(pageStruct)) {
+                return false;
+            }
+            insertIntoLeaf(page, pageStruct, -pos-1, key, data);
+            return true;
+        } finally {
+            latch.close();
         }
-        else {
-            int insertionPoint = -pos-1;
-            int nextPage = insertionPoint != count ? pageStruct.entries[insertionPoint].childPtr : pageInfo.lastChildPtr;
+    }
 
-            if (Pointer.isValidNext(nextPage)) {
-                return find(nextPage, key, truncatedKey, hash);
+    /**
+     * Descends with write latches. Latches of ancestors are released when latched page has room for insertion, as
+     * split of its child does not go further. So the pages which are latched at the end are the ones which are split.
+     */
+    private void putWithSplits(TreeEntryKey key, TreeData data) {
+        List<LockMap<Integer>.AutoLock> latches = new ArrayList<>();
+        List<Page> pages = new ArrayList<>();
+        List<Integer> insertionPoints = new ArrayList<>();
+        try {
+            latches.add(latchRoot(true));
+            while (true) {
+                int page = latches.get(latches.size() - 1).getKey();
+                Page pageStruct = allocator.get(page, Page.class);
+                if (hasRoomForInsertion(pageStruct)) {
+                    LockMap<Integer>.AutoLock latch = latches.remove(latches.size() - 1);
+                    unlatch(latches);
+                    latches.add(latch);
+                    pages.clear();
+                    insertionPoints.clear();
+                }
+                pages.add(pageStruct);
+                int pos = search(pageStruct, key);
+                if (pos >= 0) {
+                    update(page, pageStruct, pos, data);
+                    return;
+                }
+                int insertionPoint = -pos-1;
+                insertionPoints.add(insertionPoint);
+                int nextPage = pageStruct.child(insertionPoint);
+                if (!Pointer.isValidNext(nextPage)) {
+                    break;
+                }
+                latches.add(pageLatches.lockWrite(nextPage));
+            }
+            //all latched pages are being changed until split is completed, so optimistic readers do not see pages
+            //moved out from the split page but not yet linked to its parent
+            for (LockMap<Integer>.AutoLock pageLatch: latches) {
+                preserve(pageLatch.getKey());
+                versions.startChange(pageLatch.getKey());
+            }
+            try {
+                int leaf = pages.size() - 1;
+                insertIntoLeaf(latches.get(leaf).getKey(), pages.get(leaf), insertionPoints.get(leaf), key, data);
+                split(latches, pages, insertionPoints);
+            } finally {
+                for (LockMap<Integer>.AutoLock pageLatch: latches) {
+                    versions.finishChange(pageLatch.getKey());
+                }
+            }
+        } finally {
+            unlatch(latches);
+        }
+    }
+
+    private void split(List<LockMap<Integer>.AutoLock> latches, List<Page> pages, List<Integer> insertionPoints) {
+        for (int level = pages.size() - 1; level >= 0; level--) {
+            InsertionResult result = ensureCapacity(latches.get(level).getKey(), pages.get(level));
+            if (!result.requiresParentModification()) {
+                break;
+            }
+            //the lowest latched page is leaf
+            pinIfUpper(result.newBlockId, pages.size() - 1 - level);
+            if (level == 0) {
+                //only root may be latched without room for insertion at the top
+                newRoot(result);
             }
             else {
-                return null;
+                insertSplitPoint(latches.get(level - 1).getKey(), pages.get(level - 1), insertionPoints.get(level - 1), result);
             }
         }
     }
 
+    private void unlatch(List<LockMap<Integer>.AutoLock> latches) {
+        for (int i = latches.size() - 1; i >= 0; i--) {
+            latches.get(i).close();
+        }
+        latches.clear();
+    }
+
+    private boolean hasRoomForInsertion(Page pageStruct) {
+        return pageStruct.getCount() < maxAmount - 1;
+    }
 
-    private InsertionResult findAndInsert(int page, TreeEntryKey key, TreeData data) {
-        Page pageStruct = allocator.get(page, Page.class);
-        PageInfo pageInfo = pageStruct.pageInfo;
-        int count = pageInfo.countOfEntries;
-        int pos = Arrays.binarySearch(pageStruct.entries, 0, count, key, TREE_ENTRY_COMPARATOR);
-        if (pos >= 0) {
-            TreeEntry entry = pageStruct.entries[pos];
-            entry.data = data.updateData(entry.data);
-            allocator.saveModifications(page, pageStruct);
-            return InsertionResult.DONE;
+    //Pages are modified under their monitor, so cache does not write them partially modified. Allocator is not called
+    //under monitor, as it may write other pages, which could be held by other threads in the same way.
 
+    private void update(int page, Page pageStruct, int pos, TreeData data) {
+        long newData = data.updateData(pageStruct.entry(pos).data);
+        preserve(page);
+        versions.startChange(page);
+        try {
+            synchronized (pageStruct) {
+                pageStruct.setData(pos, newData);
+            }
+        } finally {
+            versions.finishChange(page);
         }
-        else {
-            int insertionPoint = -pos-1;
-            boolean isLast = insertionPoint == count;
-            int nextPage = isLast ? pageInfo.lastChildPtr : pageStruct.entries[insertionPoint].childPtr;
-
-            InsertionResult result = insertHereOrChild(page, pageStruct, key, data, nextPage, insertionPoint, count);
-            if (result.requiresParentModification()) {
-                if (isLast) {
-                    pageInfo.lastChildPtr = result.newBlockId;
-                }
-                else {
-                    pageStruct.entries[insertionPoint+1].childPtr = result.newBlockId;
-                }
-                allocator.saveModifications(page, pageStruct);
+        allocator.saveModifications(page, pageStruct);
+    }
+
+    private void insertIntoLeaf(int page, Page pageStruct, int insertionPoint, TreeEntryKey key, TreeData data) {
+        long newData = data.createData();
+        //added before the key appears in page, so lookups never miss it
+        filter.add(key.fingerprint);
+        preserve(page);
+        versions.startChange(page);
+        try {
+            synchronized (pageStruct) {
+                insertBefore(pageStruct, insertionPoint, key, newData, Pointer.NULL_PTR);
             }
+        } finally {
+            versions.finishChange(page);
+        }
+        allocator.saveModifications(page, pageStruct);
+        totalCount.incrementAndGet();
+        modCount.incrementAndGet();
+    }
 
+    private void insertSplitPoint(int page, Page pageStruct, int insertionPoint, InsertionResult result) {
+        synchronized (pageStruct) {
+            result.middlePointForParent.childPtr = result.oldBlockId;
+            pageStruct.insert(insertionPoint, result.middlePointForParent);
+            pageStruct.setNextChild(insertionPoint, result.newBlockId);
         }
-        return ensureCapacity(page, pageStruct);
+        allocator.saveModifications(page, pageStruct);
+    }
 
+    /**
+     * Called while old root is latched, so new root and height are changed together for the ones who latch root.
+     */
+    private void newRoot(InsertionResult result) {
+        try (BlockToModify<Page> newFirstPageBlock = allocator.allocateToModify(Page.class)) {
+            Page newFirstPage = newFirstPageBlock.getBlock();
+            synchronized (newFirstPage) {
+                newFirstPage.init(entrySize);
+                result.middlePointForParent.childPtr = result.oldBlockId;
+                newFirstPage.insert(0, result.middlePointForParent);
+                newFirstPage.pageInfo.lastChildPtr = result.newBlockId;
+            }
+            height++;
+            firstPageBlockIdx = newFirstPageBlock.getBlockId();
+        }
+        pinIfUpper(firstPageBlockIdx, height - 1);
+        unpinLowerLevels();
     }
 
     private InsertionResult ensureCapacity(int page, Page pageStruct) {
         InsertionResult result = InsertionResult.DONE;
         if (pageStruct.pageInfo.countOfEntries == maxAmount) {
-            TreeEntry middlePoint = pageStruct.entries[t - 1];
-            pageStruct.pageInfo.countOfEntries = minAmount; //truncate size
             try (BlockToModify<Page> newPageBlock = allocator.allocateToModify(Page.class)) {
                 Page newPage = newPageBlock.getBlock();
-                newPage.pageInfo.countOfEntries = minAmount;
-                newPage.pageInfo.lastChildPtr = pageStruct.pageInfo.hasLastChild() ? pageStruct.pageInfo.lastChildPtr : Pointer.NULL_PTR;
-                pageStruct.pageInfo.lastChildPtr = middlePoint.hasChildren() ? middlePoint.childPtr : Pointer.NULL_PTR;
-                System.arraycopy(pageStruct.entries, t, newPage.entries, 0, minAmount);
+                TreeEntry middlePoint;
+                synchronized (pageStruct) {
+                    synchronized (newPage) {
+                        newPage.init(entrySize);
+                        middlePoint = pageStruct.entry(t - 1);
+                        pageStruct.pageInfo.countOfEntries = minAmount; //truncate size
+                        newPage.copy(pageStruct, t, 0, minAmount);
+                        newPage.pageInfo.countOfEntries = minAmount;
+                        newPage.pageInfo.lastChildPtr = pageStruct.pageInfo.hasLastChild() ? pageStruct.pageInfo.lastChildPtr : Pointer.NULL_PTR;
+                        pageStruct.pageInfo.lastChildPtr = middlePoint.hasChildren() ? middlePoint.childPtr : Pointer.NULL_PTR;
+                    }
+                }
                 result = new InsertionResult(middlePoint, page, newPageBlock.getBlockId());
             }
             allocator.saveModifications(page, pageStruct);
@@ -459,49 +1265,71 @@ public class BTree implements Iterable<String>, AutoCloseable {
         return result;
     }
 
-    private InsertionResult insertHereOrChild(int page, Page pageStruct, TreeEntryKey key, TreeData data, int nextPage, int index, int count) {
-        InsertionResult result = InsertionResult.DONE;
-        if (Pointer.isValidNext(nextPage)) {
-            result = findAndInsert(nextPage, key, data);
-            if (result.requiresParentModification()) {
-                insertBefore(pageStruct, index, new TreeEntryKey(getWholeKey(result.middlePointForParent), result.middlePointForParent.keyPart, result.middlePointForParent.hash), result.middlePointForParent.data, count, result.oldBlockId);
-                pageStruct.pageInfo.countOfEntries++;
-                allocator.saveModifications(page, pageStruct);
-            }
-        }
-        else {
-            insertBefore(pageStruct, index, key, data.createData(), count, Pointer.NULL_PTR);
-            pageStruct.pageInfo.countOfEntries++;
-            modCount++;
-            totalCount++;
-            allocator.saveModifications(page, pageStruct);
-        }
-        return result;
-    }
-
     private String getWholeKey(TreeEntry entry) {
         return entry.isWholeKey() ? entry.keyPart : helper.getFullName(entry.data);
     }
 
 
-    private void insertBefore(Page pageStruct, int index, TreeEntryKey key, long data, int count, int childPtr) {
-        if (index < count) {
-            System.arraycopy(pageStruct.entries, index, pageStruct.entries, index + 1, count - index);
+    private void insertBefore(Page pageStruct, int index, TreeEntryKey key, long data, int childPtr) {
+        pageStruct.insert(index, new TreeEntry(key.fullKey, key.hash, key.fingerprint, data, helper, keyPartLength, childPtr));
+    }
+
+    /**
+     * Binary search over page entries. Entries are not deserialized except the ones with same hash and key part.
+     * @return same as {@link Arrays#binarySearch(Object[], Object)}
+     */
+    private int search(Page page, TreeEntryKey key) {
+        int low = 0;
+        int high = page.getCount() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int result = compare(key, page, middle);
+            if (result > 0) {
+                low = middle + 1;
+            }
+            else if (result < 0) {
+                high = middle - 1;
+            }
+            else {
+                return middle;
+            }
         }
-        pageStruct.entries[index] = new TreeEntry(key.fullKey, key.hash, data, helper, childPtr);
+        return -(low + 1);
     }
 
-    private int compare(int hash, String truncatedKey, String key, TreeEntry entry) {
-        int result = hash == entry.hash ? 0 : (hash > entry.hash ? 1 : -1);
+    private int compare(TreeEntryKey key, Page page, int index) {
+        int entryHash = page.hash(index);
+        int result = key.hash == entryHash ? 0 : (key.hash > entryHash ? 1 : -1);
         if (result == 0) {
-            result = truncatedKey.compareTo(entry.keyPart);
+            result = page.compareKeyPart(index, key.truncatedKey);
+        }
+        if (result == 0 && !ordered) {
+            result = Long.compare(key.fingerprint, page.fingerprint(index));
         }
         if (result == 0) {
-            result = key.compareTo(getWholeKey(entry));
+            result = key.fullKey.compareTo(getWholeKey(page.entry(index)));
         }
         return result;
     }
 
+    private static class LeadingPartHelper implements TreeNameHelper {
+        private final TreeNameHelper wrapped;
+
+        LeadingPartHelper(TreeNameHelper wrapped) {
+            this.wrapped = wrapped;
+        }
+
+        @Override
+        public String getFullName(long dataId) {
+            return wrapped.getFullName(dataId);
+        }
+
+        @Override
+        public String truncate(String fullName, int targetLen) {
+            return Truncate.leading(fullName, targetLen);
+        }
+    }
+
 
 
     private class TreeEntryKey {
@@ -509,11 +1337,13 @@ public class BTree implements Iterable<String>, AutoCloseable {
         private String fullKey;
         private String truncatedKey;
         private int hash;
+        private long fingerprint;
 
-        private TreeEntryKey(String fullKey, String truncatedKey, int hash) {
+        private TreeEntryKey(String fullKey, String truncatedKey, int hash, long fingerprint) {
             this.fullKey = fullKey;
             this.truncatedKey = truncatedKey;
             this.hash = hash;
+            this.fingerprint = fingerprint;
         }
 
     }
@@ -537,38 +1367,198 @@ public class BTree implements Iterable<String>, AutoCloseable {
     }
 
 
+    /**
+     * Keeps one not written page per tree level. Pages of each level are written left to right, the root is written last
+     * to the block of the initial empty root.
+     */
+    private class BulkBuilder {
+        private final int capacity = maxAmount - 1;
+        private final Comparator<String> order = getKeyOrder();
+        private final List<List<TreeEntry>> levels = new ArrayList<>();
+        private String lastKey;
+        private long count;
+
+        void add(String key, long data) {
+            Check.notNull(key);
+            if (lastKey != null && order.compare(lastKey, key) >= 0) {
+                throw new IllegalArgumentException("Keys shall be unique and sorted by key order, but `" + key + "` follows `" + lastKey + "`");
+            }
+            lastKey = key;
+            count++;
+            long fingerprint = fingerprint(key);
+            filter.add(fingerprint);
+            add(0, new TreeEntry(key, hash(key), fingerprint, data, helper, keyPartLength, Pointer.NULL_PTR));
+        }
+
+        private void add(int level, TreeEntry entry) {
+            if (level == levels.size()) {
+                levels.add(new ArrayList<TreeEntry>(capacity));
+            }
+            List<TreeEntry> page = levels.get(level);
+            if (page.size() < capacity) {
+                page.add(entry);
+                return;
+            }
+            //entry's left child is the last child of full page
+            int pageId = write(allocator.allocate(), page, entry.childPtr);
+            page.clear();
+            entry.childPtr = pageId;
+            add(level + 1, entry);
+        }
+
+        void finish() {
+            if (levels.isEmpty()) {
+                return;
+            }
+            //the top page is never written during building, so it is not empty. Lower pages are filled by the upper
+            //ones first, so parent always has entries
+            for (int level = levels.size() - 2; level >= 0; level--) {
+                if (levels.get(level).size() < minAmount) {
+                    borrow(levels.get(level + 1), levels.get(level));
+                }
+            }
+            int child = Pointer.NULL_PTR;
+            for (int level = 0; level < levels.size() - 1; level++) {
+                child = write(allocator.allocate(), levels.get(level), child);
+            }
+            write(firstPageBlockIdx, levels.get(levels.size() - 1), child);
+            totalCount.set(count);
+            height = levels.size();
+            modCount.incrementAndGet();
+        }
+
+        /**
+         * Moves entries from the left neighbour (which is full) through the parent's last entry, same as split does.
+         */
+        private void borrow(List<TreeEntry> parent, List<TreeEntry> page) {
+            TreeEntry separator = parent.get(parent.size() - 1);
+            int leftPtr = separator.childPtr;
+            try (BlockToModify<Page> leftBlock = allocator.getToModify(leftPtr, Page.class)) {
+                Page left = leftBlock.getBlock();
+                int leftCount = (left.getCount() + page.size()) / 2;
+                List<TreeEntry> moved = new ArrayList<>();
+                for (int i = leftCount + 1; i < left.getCount(); i++) {
+                    moved.add(left.entry(i));
+                }
+                separator.childPtr = left.pageInfo.lastChildPtr;
+                moved.add(separator);
+                page.addAll(0, moved);
+                TreeEntry newSeparator = left.entry(leftCount);
+                left.pageInfo.lastChildPtr = newSeparator.childPtr;
+                left.pageInfo.countOfEntries = leftCount;
+                newSeparator.childPtr = leftPtr;
+                parent.set(parent.size() - 1, newSeparator);
+            }
+        }
+
+        private int write(int pageId, List<TreeEntry> entries, int lastChildPtr) {
+            try (BlockToModify<Page> block = allocator.getToModify(pageId, Page.class)) {
+                Page page = block.getBlock();
+                page.init(entrySize);
+                for (int i = 0; i < entries.size(); i++) {
+                    page.insert(i, entries.get(i));
+                }
+                page.pageInfo.lastChildPtr = lastChildPtr;
+            }
+            return pageId;
+        }
+    }
+
+    /**
+     * In-order traversal. Keeps the path from root to the current page, each page on path with index of its next entry:
+     * entries before it and their children are passed already. So memory is bounded by tree height, and each page is
+     * read once, leaves in order of keys.
+     *
+     * Tree may be changed during iteration: each step checks modification count under page latch (puts change it while
+     * changed pages are latched, removals - under tree write lock), and if tree was changed then path is found again
+     * from root, right after the last returned key. So keys are returned in tree order, each key which is in tree
+     * during the whole iteration is returned once, and keys added or removed concurrently may be returned or not.
+     *
+     * Snapshot's iterator reads pages via snapshot, so it never sees changes.
+     */
     private class KeysIterator implements Iterator<String> {
 
-        private final int currentModCount;
+        private final TreeSnapshot snapshot;
+        private final String from;
+        private final TreeEntryKey to;
+        private final Deque<PathPage> path = new ArrayDeque<>();
+        private int expectedModCount;
+        private String lastKey;
+        private String nextString;
 
-        public KeysIterator(int currentModCount) {
-            this.currentModCount = currentModCount;
-            pagesToInspect = new HashSet<>();
-            goTo(firstPageBlockIdx);
+        /**
+         * @param snapshot snapshot to read, null to read the tree itself
+         * @param from lower bound (inclusive), null to start from the first key
+         * @param to upper bound (exclusive), null for no bound. Bounds are compared in tree order, which is order of
+         * strings only for ordered tree
+         */
+        public KeysIterator(TreeSnapshot snapshot, String from, String to) {
+            this.snapshot = snapshot;
+            this.from = from;
+            this.to = to != null ? entryKey(to) : null;
+            findPath();
             goNext();
         }
 
-        private void ensureNotModified() {
-            if (currentModCount != modCount) {
-                throw new ConcurrentModificationException();
+        private void findPath() {
+            path.clear();
+            expectedModCount = modCount.get();
+            if (lastKey != null) {
+                seek(entryKey(lastKey), true);
+            }
+            else if (from != null) {
+                seek(entryKey(from), false);
+            }
+            else {
+                goDownLeft(root());
             }
         }
 
-        private Page currentPage;
-        private int count;
-        private int index;
-        private String nextString;
-        private Set<Integer> pagesToInspect;
+        private int root() {
+            return snapshot != null ? snapshot.root : firstPageBlockIdx;
+        }
+
+        /**
+         * Shall be called under page read latch.
+         */
+        private Page read(int page) {
+            return snapshot != null ? snapshot.read(page) : allocator.get(page, Page.class);
+        }
 
-        private void goTo(int pointer) {
-            currentPage = allocator.get(pointer, Page.class);
-            PageInfo pageInfo = currentPage.pageInfo;
-            count = pageInfo.countOfEntries;
-            if (pageInfo.hasLastChild()) {
-                pagesToInspect.add(pageInfo.lastChildPtr);
+        /**
+         * Descends to the first key which is not less than provided one (or greater, if exclusive).
+         */
+        private void seek(TreeEntryKey key, boolean exclusive) {
+            int page = root();
+            while (Pointer.isValidNext(page)) {
+                try (LockMap<Integer>.AutoLock ignore = pageLatches.lockRead(page)) {
+                    Page pageStruct = read(page);
+                    int index = search(pageStruct, key);
+                    if (index >= 0 && !exclusive) {
+                        path.push(new PathPage(page, pageStruct, index));
+                        return;
+                    }
+                    boolean found = index >= 0;
+                    index = found ? index + 1 : -(index + 1);
+                    path.push(new PathPage(page, pageStruct, index));
+                    page = pageStruct.child(index);
+                    if (found) {
+                        //found key is passed, so the next one is the first key of its right child
+                        break;
+                    }
+                }
+            }
+            goDownLeft(page);
+        }
+
+        private void goDownLeft(int page) {
+            while (Pointer.isValidNext(page)) {
+                try (LockMap<Integer>.AutoLock ignore = pageLatches.lockRead(page)) {
+                    Page pageStruct = read(page);
+                    path.push(new PathPage(page, pageStruct, 0));
+                    page = pageStruct.child(0);
+                }
             }
-            index = -1;
-            pagesToInspect.remove(pointer);
         }
 
         @Override
@@ -577,22 +1567,41 @@ public class BTree implements Iterable<String>, AutoCloseable {
         }
 
         private void goNext() {
-            ensureNotModified();
-            index++;
-            String next = null;
-            while (index >= count && !pagesToInspect.isEmpty()) {
-                int first = pagesToInspect.iterator().next();
-                goTo(first);
-                index++;
-            }
-            if (index < count) {
-                TreeEntry entry = currentPage.entries[index];
-                next = getWholeKey(entry);
-                if (entry.hasChildren()) {
-                    pagesToInspect.add(entry.childPtr);
+            nextString = null;
+            try (Locker ignore = readLock()) {
+                while (!path.isEmpty()) {
+                    PathPage current = path.peek();
+                    String key = null;
+                    int nextChild = Pointer.NULL_PTR;
+                    boolean modified;
+                    try (LockMap<Integer>.AutoLock ignored = pageLatches.lockRead(current.pageId)) {
+                        modified = snapshot == null && expectedModCount != modCount.get();
+                        //page of snapshot could be copied since it was read, and then changed
+                        Page page = snapshot != null ? snapshot.read(current.pageId) : current.page;
+                        if (!modified && current.index < page.getCount()) {
+                            if (to != null && compare(to, page, current.index) <= 0) {
+                                path.clear();
+                                return;
+                            }
+                            key = getWholeKey(page.entry(current.index));
+                            nextChild = page.nextChild(current.index);
+                        }
+                    }
+                    if (modified) {
+                        findPath();
+                        continue;
+                    }
+                    if (key == null) {
+                        path.pop();
+                        continue;
+                    }
+                    current.index++;
+                    goDownLeft(nextChild);
+                    nextString = key;
+                    lastKey = key;
+                    return;
                 }
             }
-            nextString = next;
         }
 
         @Override
@@ -610,4 +1619,116 @@ public class BTree implements Iterable<String>, AutoCloseable {
             throw new UnsupportedOperationException();
         }
     }
+
+    private class TreeSnapshot implements IndexSnapshot {
+
+        private final int root;
+        private final long count;
+        //changed page -> block with its copy
+        private final Map<Integer, Integer> copies = new HashMap<>();
+        private boolean closed;
+
+        TreeSnapshot(int root, long count) {
+            this.root = root;
+            this.count = count;
+        }
+
+        synchronized void preserve(int page) {
+            if (closed || copies.containsKey(page)) {
+                return;
+            }
+            int copy = allocator.allocate();
+            allocator.saveModifications(copy, allocator.get(page, Page.class).duplicate());
+            copies.put(page, copy);
+        }
+
+        /**
+         * Shall be called under tree read lock and page read latch.
+         */
+        synchronized Page read(int page) {
+            if (closed) {
+                throw new IllegalStateException("Snapshot is closed");
+            }
+            Integer copy = copies.get(page);
+            return allocator.get(copy != null ? copy : page, Page.class);
+        }
+
+        @Override
+        public long get(String key) {
+            Check.notNull(key);
+            TreeEntryKey entryKey = entryKey(key);
+            try (Locker ignore = readLock()) {
+                int page = root;
+                while (Pointer.isValidNext(page)) {
+                    try (LockMap<Integer>.AutoLock ignored = pageLatches.lockRead(page)) {
+                        Page pageStruct = read(page);
+                        int pos = search(pageStruct, entryKey);
+                        if (pos >= 0) {
+                            return pageStruct.entry(pos).data;
+                        }
+                        page = pageStruct.child(-pos-1);
+                    }
+                }
+            }
+            return Pointer.NULL_PTR;
+        }
+
+        @Override
+        public boolean contains(String key) {
+            return get(key) != Pointer.NULL_PTR;
+        }
+
+        @Override
+        public long size() {
+            return count;
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            try (Locker ignore = readLock()) {
+                return new KeysIterator(this, null, null);
+            }
+        }
+
+        @Override
+        public Iterator<String> range(String from, String to) {
+            if (!ordered) {
+                throw new UnsupportedOperationException("Tree was created without ordered keys");
+            }
+            try (Locker ignore = readLock()) {
+                return new KeysIterator(this, from, to);
+            }
+        }
+
+        @Override
+        public List<Iterator<String>> split(int parts) {
+            Check.positive(parts, "parts count");
+            return BTree.this.split(this, parts);
+        }
+
+        @Override
+        public synchronized void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            snapshots.remove(this);
+            for (int copy: copies.values()) {
+                allocator.free(copy);
+            }
+            copies.clear();
+        }
+    }
+
+    private static class PathPage {
+        private final int pageId;
+        private final Page page;
+        private int index;
+
+        PathPage(int pageId, Page page, int index) {
+            this.pageId = pageId;
+            this.page = page;
+            this.index = index;
+        }
+    }
 }
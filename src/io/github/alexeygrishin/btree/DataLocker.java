@@ -0,0 +1,16 @@
+package io.github.alexeygrishin.btree;
+
+/**
+ * Locks data referenced by tree entry, see {@link BTree#getAndLock(String, DataLocker)}
+ * @param <L> lock type
+ */
+public interface DataLocker<L> {
+
+    /**
+     * Called while tree (or the page with data pointer) is locked for reading, so data pointer cannot be replaced or
+     * removed from tree at this moment.
+     * @param data data pointer
+     * @return lock which protects data
+     */
+    public L lock(long data);
+}
@@ -0,0 +1,43 @@
+package io.github.alexeygrishin.btree;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Read-only state of {@link KeyIndex} at the moment snapshot was taken (see {@link KeyIndex#snapshot()}). Index may be
+ * changed meanwhile, snapshot does not see it. Shall be closed, as index keeps resources for it until that.
+ *
+ * Thread-safe.
+ */
+public interface IndexSnapshot extends Iterable<String>, AutoCloseable {
+
+    /**
+     * @param key key
+     * @return data pointer or {@link io.github.alexeygrishin.common.Pointer#NULL_PTR} if there was no such key
+     */
+    long get(String key);
+
+    boolean contains(String key);
+
+    long size();
+
+    /**
+     * @return iterator over all keys, in the same order as {@link KeyIndex#iterator()}
+     */
+    Iterator<String> iterator();
+
+    /**
+     * Same as {@link KeyIndex#range(String, String)}
+     */
+    Iterator<String> range(String from, String to);
+
+    /**
+     * Same as {@link KeyIndex#split(int)}
+     */
+    List<Iterator<String>> split(int parts);
+
+    /**
+     * Releases resources kept by index for snapshot. Snapshot cannot be read after that.
+     */
+    void close();
+}
@@ -0,0 +1,117 @@
+package io.github.alexeygrishin.btree;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counting Bloom filter over key fingerprints, answers "definitely absent" without reading tree pages. Each fingerprint
+ * sets {@link #HASHES} counters of 4 bits, so key may be removed by decrementing them. Counter which reached its
+ * maximum is never changed anymore (it could not be decremented correctly), that just makes false positives a bit more
+ * probable.
+ *
+ * Filter has fixed amount of counters ({@link #COUNTERS_PER_KEY} per key of capacity), false positives rate is about 2%
+ * while amount of keys does not exceed capacity. Owner shall rebuild filter with bigger capacity when it is exceeded.
+ *
+ * Thread-safe, counters are changed with CAS.
+ */
+class KeyFilter {
+
+    static final int COUNTERS_PER_KEY = 8;
+    static final int HASHES = 4;
+    private static final int COUNTERS_PER_WORD = 16;
+    private static final long MAX_COUNTER = 0xF;
+
+    private final long capacity;
+    private final long countersCount;
+    private final AtomicLongArray words;
+
+    KeyFilter(long capacity) {
+        this.capacity = capacity;
+        this.countersCount = wordsCount(capacity) * COUNTERS_PER_WORD;
+        this.words = new AtomicLongArray(wordsCount(capacity));
+    }
+
+    static int wordsCount(long capacity) {
+        long counters = Math.max(capacity, 1) * COUNTERS_PER_KEY;
+        long words = (counters + COUNTERS_PER_WORD - 1) / COUNTERS_PER_WORD;
+        if (words > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Filter capacity is too big: " + capacity);
+        }
+        return (int) words;
+    }
+
+    long getCapacity() {
+        return capacity;
+    }
+
+    int getWordsCount() {
+        return words.length();
+    }
+
+    long getWord(int index) {
+        return words.get(index);
+    }
+
+    void setWord(int index, long word) {
+        words.set(index, word);
+    }
+
+    /**
+     * @return false if key with such fingerprint was never added (or was removed)
+     */
+    boolean mightContain(long fingerprint) {
+        for (int i = 0; i < HASHES; i++) {
+            long counter = counter(fingerprint, i);
+            if (((words.get(word(counter)) >>> shift(counter)) & MAX_COUNTER) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void add(long fingerprint) {
+        for (int i = 0; i < HASHES; i++) {
+            change(counter(fingerprint, i), 1);
+        }
+    }
+
+    /**
+     * Shall be called only for fingerprint which was added before.
+     */
+    void remove(long fingerprint) {
+        for (int i = 0; i < HASHES; i++) {
+            change(counter(fingerprint, i), -1);
+        }
+    }
+
+    private void change(long counter, int delta) {
+        int word = word(counter);
+        int shift = shift(counter);
+        while (true) {
+            long current = words.get(word);
+            long value = (current >>> shift) & MAX_COUNTER;
+            if (value == MAX_COUNTER || (value == 0 && delta < 0)) {
+                return;
+            }
+            long updated = (current & ~(MAX_COUNTER << shift)) | ((value + delta) << shift);
+            if (words.compareAndSet(word, current, updated)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Double hashing over two halves of fingerprint. Fingerprint is already well mixed, so the halves are independent.
+     */
+    private long counter(long fingerprint, int i) {
+        long hash = (fingerprint >>> 32) + i * (fingerprint & 0xFFFFFFFFL | 1);
+        return (hash & Long.MAX_VALUE) % countersCount;
+    }
+
+    private static int word(long counter) {
+        return (int) (counter / COUNTERS_PER_WORD);
+    }
+
+    private static int shift(long counter) {
+        return (int) (counter % COUNTERS_PER_WORD) * 4;
+    }
+}
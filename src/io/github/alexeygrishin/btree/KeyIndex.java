@@ -0,0 +1,122 @@
+package io.github.alexeygrishin.btree;
+
+import io.github.alexeygrishin.common.Locker;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps string keys to data pointers (see {@link BTree}). Keys may be truncated inside index, so whole keys are obtained
+ * by data pointer via {@link TreeNameHelper}.
+ *
+ * Thread-safe.
+ */
+public interface KeyIndex extends Iterable<String>, AutoCloseable {
+
+    /**
+     * Inserts or updates entry for provided key
+     * @param key key
+     * @param data provides new data pointer
+     */
+    void put(String key, TreeData data);
+
+    /**
+     * @param key key
+     * @return data pointer of removed entry or {@link io.github.alexeygrishin.common.Pointer#NULL_PTR} if there was no such key
+     */
+    long remove(String key);
+
+    /**
+     * Replaces data pointer only if key is still mapped to the expected one. Used to move data without losing concurrent
+     * changes.
+     * @param key key
+     * @param expected data pointer which shall be replaced
+     * @param data new data pointer
+     * @return true if pointer was replaced, false if there is no such key or it has another pointer
+     */
+    boolean replace(String key, long expected, long data);
+
+    /**
+     * Fills empty index with provided entries. Index may be built much faster than by separate puts if entries are sorted
+     * by {@link #getKeyOrder()}.
+     * @param entries keys with data pointers, keys shall be unique
+     * @throws IllegalStateException if index is not empty
+     * @throws IllegalArgumentException if index requires sorted entries but they are not
+     */
+    void bulkLoad(Iterator<Map.Entry<String, Long>> entries);
+
+    /**
+     * @return order of keys expected by {@link #bulkLoad(Iterator)}
+     */
+    Comparator<String> getKeyOrder();
+
+    /**
+     * Locks index for a batch of lookups. Lock is shared: batches and single lookups do not block each other. Keys
+     * found under the lock are not removed until it is released, but index may still accept puts (see
+     * {@link #snapshot()} for unchanging view). Lock is reentrant, so index methods may be called while it is held.
+     * @return lock to release
+     */
+    Locker lockForRead();
+
+    /**
+     * Locks index for modification, so several changes made by the caller become visible to readers at once. Lock is
+     * reentrant, so index methods may be called while it is held.
+     * @return lock to release
+     */
+    Locker lockForWrite();
+
+    boolean contains(String key);
+
+    /**
+     * @param key key
+     * @return data pointer or {@link io.github.alexeygrishin.common.Pointer#NULL_PTR} if there is no such key
+     */
+    long get(String key);
+
+    /**
+     * Finds data pointer by key and locks it using provided locker before index lock is released. This way caller may
+     * guarantee that data will not be deleted/replaced (by code which respects the same lock) while it is being read.
+     * @param key key to search
+     * @param locker locker for data pointer
+     * @return lock returned by locker or null if there is no such key in index
+     */
+    <L> L getAndLock(String key, DataLocker<L> locker);
+
+    long size();
+
+    /**
+     * @return iterator over all keys, order is not defined
+     */
+    Iterator<String> iterator();
+
+    /**
+     * @param from lower bound (inclusive), null to start from the first key
+     * @param to upper bound (exclusive), null to iterate till the last key
+     * @return iterator over keys of range in order of {@link String#compareTo(String)}
+     * @throws UnsupportedOperationException if index does not keep keys in this order
+     */
+    Iterator<String> range(String from, String to);
+
+    /**
+     * Splits keys into disjoint parts which may be iterated in parallel, each key belongs to exactly one part.
+     * @param parts desired number of parts, index may return less
+     * @return iterators over parts, together they iterate the same keys as {@link #iterator()}
+     */
+    List<Iterator<String>> split(int parts);
+
+    /**
+     * Takes snapshot of index: its state at this moment, which may be read while index is changed.
+     * @return snapshot to read and close
+     * @throws UnsupportedOperationException if index does not support snapshots
+     */
+    IndexSnapshot snapshot();
+
+    /**
+     * Writes all changes to allocator's storage.
+     */
+    void flush();
+
+    void close();
+}
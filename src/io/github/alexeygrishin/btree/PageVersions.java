@@ -0,0 +1,64 @@
+package io.github.alexeygrishin.btree;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Version stamps of tree pages for optimistic reads (same idea as seqlock). Each page has counters of started and
+ * finished changes: reader takes stamp before reading page and validates it after, so page was not changed meanwhile
+ * if stamp is still the same. Changes may be nested, page is being changed until all of them are finished.
+ *
+ * Pages are mapped to fixed amount of counters, so change of another page may invalidate stamp too. This is just a
+ * false conflict, reader retries the same way.
+ *
+ * Ordering: writer increments started counter before it changes the page, and reader takes stamp (volatile read)
+ * before it reads the page, so reads of page cannot move before stamp. Reads of page also shall not move after
+ * validation, otherwise reader may see half of change made after validated counter was read. Volatile read does not
+ * prevent that (it only orders following accesses), so validation is done with compare-and-set, which also acts as
+ * volatile write: preceding reads cannot move after it.
+ */
+class PageVersions {
+
+    /**
+     * Stamp of page which is being changed, it is never valid.
+     */
+    static final long CHANGING = -1;
+
+    /**
+     * Not a page but the whole tree, for changes which cannot be tracked by page.
+     */
+    static final int TREE = -1;
+
+    private static final int SLOTS = 1024;
+
+    private final AtomicLongArray started = new AtomicLongArray(SLOTS + 1);
+    private final AtomicLongArray finished = new AtomicLongArray(SLOTS + 1);
+
+    private static int slot(int page) {
+        return page == TREE ? SLOTS : page & (SLOTS - 1);
+    }
+
+    /**
+     * @return stamp to validate after the page is read, or {@link #CHANGING}
+     */
+    long stamp(int page) {
+        int slot = slot(page);
+        long stamp = started.get(slot);
+        return finished.get(slot) == stamp ? stamp : CHANGING;
+    }
+
+    /**
+     * @return true if page was not changed since stamp was taken
+     */
+    boolean validate(int page, long stamp) {
+        //compare-and-set instead of get: reads of page made before shall not be reordered after validation
+        return stamp != CHANGING && started.compareAndSet(slot(page), stamp, stamp);
+    }
+
+    void startChange(int page) {
+        started.incrementAndGet(slot(page));
+    }
+
+    void finishChange(int page) {
+        finished.incrementAndGet(slot(page));
+    }
+}
@@ -32,6 +32,14 @@ public class TreeNamesCache implements TreeNameHelper {
         return cache.get(dataId);
     }
 
+    /**
+     * Removes cached name for data pointer. Shall be called when data is deleted, as its pointer may be reused later.
+     * @param dataId data pointer
+     */
+    public void forget(long dataId) {
+        cache.remove(dataId);
+    }
+
     @Override
     public String truncate(String fullName, int targetLen) {
         return wrapped.truncate(fullName, targetLen);
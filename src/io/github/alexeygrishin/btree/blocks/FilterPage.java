@@ -0,0 +1,11 @@
+package io.github.alexeygrishin.btree.blocks;
+
+/**
+ * Part of key filter snapshot: filter's counters packed to longs. Pages are chained from the first one to the last one.
+ */
+public class FilterPage {
+    public static final int HEADER_SIZE = 4;
+
+    public int nextPage;
+    public Long[] words;
+}
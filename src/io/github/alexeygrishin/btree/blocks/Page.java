@@ -1,23 +1,135 @@
 package io.github.alexeygrishin.btree.blocks;
 
 import io.github.alexeygrishin.blockalloc.serializers.DynamicallySized;
-import io.github.alexeygrishin.blockalloc.serializers.Serializer;
-import io.github.alexeygrishin.blockalloc.serializers.Serializers;
+import io.github.alexeygrishin.blockalloc.serializers.PartialSerializer;
 import io.github.alexeygrishin.blockalloc.serializers.StringSerializer;
-import io.github.alexeygrishin.btree.BTree;
 import io.github.alexeygrishin.common.Pointer;
 
 import java.nio.ByteBuffer;
 
 
-public class Page implements Serializer<Page>, DynamicallySized {
+/**
+ * B-tree page. Page consists of slots of the same size: the first one keeps header, the others keep entries. Slot size
+ * is chosen by tree (the longer key part is kept in entry, the less entries fit into page) and written to the header,
+ * so page may be loaded without knowing its tree. New page (or reused block) shall be initialized with
+ * {@link #init(int)}.
+ *
+ * Loaded page keeps raw bytes and deserializes entries lazily: hash, fingerprint, child pointer and key
+ * part of any entry may be read directly from bytes, so binary search does not create objects. {@link #entry(int)}
+ * deserializes single entry without remembering it.
+ *
+ * Page shall be modified only via its methods ({@link #set(int, TreeEntry)}, {@link #insert(int, TreeEntry)} and so on)
+ * - they deserialize all entries once (from that moment raw bytes are not used anymore) and remember range of modified
+ * entries. So when page is saved only modified entries and header (if count or last child was changed) are written.
+ */
+public class Page implements PartialSerializer<Page>, DynamicallySized {
+    /**
+     * Size of entry's fields except key part.
+     */
+    public static final int ENTRY_FIELDS_SIZE = 28;
+    private static final int HASH_OFFSET = 0;
+    private static final int CHILD_PTR_OFFSET = 4;
+    private static final int KEY_LEN_OFFSET = 8;
+    private static final int KEY_PART_OFFSET = 12;
+
     public PageInfo pageInfo;
-    public TreeEntry[] entries;
+    private int keyPartSize;
+    private StringSerializer keyPartSerializer;
+    private TreeEntry[] entries;
+    private ByteBuffer raw;
+    private boolean tracked;
+    private int savedCount, savedLastChildPtr;
+    private int modifiedFrom = Integer.MAX_VALUE, modifiedTo = 0;
 
     public int getCount() {
         return pageInfo.countOfEntries;
     }
 
+    /**
+     * Makes page empty, all its contents (including header) will be written on save.
+     * @param entrySize size of slot, the same for all pages of tree
+     */
+    public void init(int entrySize) {
+        pageInfo = new PageInfo();
+        pageInfo.countOfEntries = 0;
+        pageInfo.lastChildPtr = Pointer.NULL_PTR;
+        pageInfo.entrySize = entrySize;
+        setEntrySize(entrySize);
+        entries = new TreeEntry[size / entrySize - 1];
+        raw = null;
+        tracked = false;
+    }
+
+    private void setEntrySize(int entrySize) {
+        keyPartSize = entrySize - ENTRY_FIELDS_SIZE;
+        keyPartSerializer = new StringSerializer(keyPartSize);
+    }
+
+    private int dataOffset() {
+        return KEY_PART_OFFSET + keyPartSize;
+    }
+
+    private int fingerprintOffset() {
+        return dataOffset() + 8;
+    }
+
+    /**
+     * @return all entries of page. Only first {@link #getCount()} are valid. Array shall not be modified directly,
+     * otherwise modifications may not be saved.
+     */
+    private TreeEntry[] getEntries() {
+        if (raw != null) {
+            for (int i = 0; i < pageInfo.countOfEntries; i++) {
+                entries[i] = load(i);
+            }
+            raw = null;
+        }
+        return entries;
+    }
+
+    /**
+     * @return entry with specified index. Modifications of returned entry shall not be done directly, they may be
+     * not saved.
+     */
+    public TreeEntry entry(int index) {
+        return raw != null ? load(index) : entries[index];
+    }
+
+    public int hash(int index) {
+        return raw != null ? raw.getInt(offset(index) + HASH_OFFSET) : entries[index].hash;
+    }
+
+    public long fingerprint(int index) {
+        return raw != null ? raw.getLong(offset(index) + fingerprintOffset()) : entries[index].fingerprint;
+    }
+
+    /**
+     * Compares key part with the key part of entry, same as {@code keyPart.compareTo(entry(index).keyPart)}
+     */
+    public int compareKeyPart(int index, String keyPart) {
+        if (raw == null) {
+            return keyPart.compareTo(entries[index].keyPart);
+        }
+        int start = offset(index) + KEY_PART_OFFSET;
+        for (int i = 0; i < keyPartSize; i++) {
+            byte b = raw.get(start + i);
+            if (b == 0) {
+                return keyPart.length() - i;
+            }
+            if (b < 0) {
+                //non-ascii characters, so chars cannot be compared with bytes directly
+                return keyPart.compareTo(load(index).keyPart);
+            }
+            if (i == keyPart.length()) {
+                return -1;
+            }
+            if (keyPart.charAt(i) != b) {
+                return keyPart.charAt(i) - b;
+            }
+        }
+        return keyPart.length() - keyPartSize;
+    }
+
     public int nextChild(int index) {
         return child(index + 1);
     }
@@ -34,7 +146,7 @@ public class Page implements Serializer<Page>, DynamicallySized {
             return pageInfo.lastChildPtr;
         }
         else {
-            return entries[index].childPtr;
+            return raw != null ? raw.getInt(offset(index) + CHILD_PTR_OFFSET) : entries[index].childPtr;
         }
     }
 
@@ -43,48 +155,199 @@ public class Page implements Serializer<Page>, DynamicallySized {
             pageInfo.lastChildPtr = child;
         }
         else {
-            entries[index].childPtr = child;
+            getEntries()[index].childPtr = child;
+            modified(index, index + 1);
         }
     }
 
+    public void setData(int index, long data) {
+        getEntries()[index].data = data;
+        modified(index, index + 1);
+    }
+
+    public void set(int index, TreeEntry entry) {
+        getEntries()[index] = entry;
+        modified(index, index + 1);
+    }
+
+    /**
+     * Inserts entry at specified index shifting next entries right, count is incremented.
+     */
+    public void insert(int index, TreeEntry entry) {
+        TreeEntry[] entries = getEntries();
+        System.arraycopy(entries, index, entries, index + 1, pageInfo.countOfEntries - index);
+        entries[index] = entry;
+        pageInfo.countOfEntries++;
+        modified(index, pageInfo.countOfEntries);
+    }
+
+    /**
+     * Removes entry at specified index shifting next entries left, count is decremented.
+     * @return removed entry
+     */
+    public TreeEntry remove(int index) {
+        TreeEntry[] entries = getEntries();
+        TreeEntry removed = entries[index];
+        System.arraycopy(entries, index + 1, entries, index, pageInfo.countOfEntries - 1 - index);
+        pageInfo.countOfEntries--;
+        modified(index, pageInfo.countOfEntries);
+        return removed;
+    }
+
+    /**
+     * Copies entries from another page. Count is not changed.
+     */
+    public void copy(Page source, int sourceIndex, int index, int length) {
+        System.arraycopy(source.getEntries(), sourceIndex, getEntries(), index, length);
+        modified(index, index + length);
+    }
+
+    /**
+     * @return independent copy of page, same as it would be loaded after save. Copy is written whole on save, so it
+     * may be saved to another block.
+     */
+    public Page duplicate() {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        save(buffer, this);
+        buffer.rewind();
+        Page copy = load(buffer);
+        copy.tracked = false;
+        return copy;
+    }
+
+    private void modified(int from, int to) {
+        modifiedFrom = Math.min(modifiedFrom, from);
+        modifiedTo = Math.max(modifiedTo, to);
+    }
+
+    private int offset(int index) {
+        return pageInfo.entrySize * (index + 1);
+    }
+
+    private TreeEntry load(int index) {
+        int offset = offset(index);
+        TreeEntry entry = new TreeEntry();
+        entry.hash = raw.getInt(offset + HASH_OFFSET);
+        entry.childPtr = raw.getInt(offset + CHILD_PTR_OFFSET);
+        entry.keyLen = raw.getInt(offset + KEY_LEN_OFFSET);
+        ByteBuffer keyPart = raw.duplicate();
+        keyPart.position(offset + KEY_PART_OFFSET);
+        entry.keyPart = keyPartSerializer.load(keyPart);
+        entry.data = raw.getLong(offset + dataOffset());
+        entry.fingerprint = raw.getLong(offset + fingerprintOffset());
+        return entry;
+    }
+
     @Override
     //Manual serialization for better performance
     public void save(ByteBuffer buffer, Page instance) {
+        saveHeader(buffer, instance);
+        for (int i = 0; i < instance.pageInfo.countOfEntries; i++) {
+            saveEntry(buffer, instance, i);
+        }
+        buffer.position(size);
+    }
+
+    @Override
+    public int[] getModifiedRanges(Page instance) {
+        if (!instance.tracked) {
+            return null;
+        }
+        boolean headerModified = instance.pageInfo.countOfEntries != instance.savedCount
+                || instance.pageInfo.lastChildPtr != instance.savedLastChildPtr;
+        //entries after count are not valid, so there is no need to save them
+        int to = Math.min(instance.modifiedTo, instance.pageInfo.countOfEntries);
+        boolean entriesModified = instance.modifiedFrom < to;
+        if (headerModified && entriesModified && instance.modifiedFrom == 0) {
+            return new int[] {0, instance.offset(to)};
+        }
+        int[] ranges = new int[(headerModified ? 2 : 0) + (entriesModified ? 2 : 0)];
+        int i = 0;
+        if (headerModified) {
+            ranges[i++] = 0;
+            ranges[i++] = instance.pageInfo.entrySize;
+        }
+        if (entriesModified) {
+            ranges[i++] = instance.offset(instance.modifiedFrom);
+            ranges[i] = instance.offset(to);
+        }
+        return ranges;
+    }
+
+    @Override
+    //Ranges are always aligned to entries, see getModifiedRanges
+    public void save(ByteBuffer buffer, Page instance, int from, int to) {
+        int start = buffer.position() - from;
+        int entrySize = instance.pageInfo.entrySize;
+        if (from == 0) {
+            saveHeader(buffer, instance);
+            from = entrySize;
+        }
+        for (int i = (from - entrySize) / entrySize; instance.offset(i) < to; i++) {
+            buffer.position(start + instance.offset(i));
+            saveEntry(buffer, instance, i);
+        }
+        buffer.position(start + to);
+    }
+
+    @Override
+    public void saved(Page instance) {
+        instance.tracked = true;
+        instance.savedCount = instance.pageInfo.countOfEntries;
+        instance.savedLastChildPtr = instance.pageInfo.lastChildPtr;
+        instance.modifiedFrom = Integer.MAX_VALUE;
+        instance.modifiedTo = 0;
+    }
+
+    private void saveHeader(ByteBuffer buffer, Page instance) {
+        int start = buffer.position();
         buffer.putInt(instance.pageInfo.countOfEntries);
         buffer.putInt(instance.pageInfo.lastChildPtr);
-        StringSerializer ser = new StringSerializer(BTree.KEY_PART_SIZE);
-        for (int i = 0; i < instance.pageInfo.countOfEntries; i++) {
-            buffer.position(BTree.ENTRY_SIZE * i + BTree.ENTRY_SIZE);
-            TreeEntry entry = instance.entries[i];
+        buffer.putInt(instance.pageInfo.entrySize);
+        buffer.position(start + instance.pageInfo.entrySize);
+    }
+
+    private void saveEntry(ByteBuffer buffer, Page instance, int index) {
+        int start = buffer.position();
+        int entrySize = instance.pageInfo.entrySize;
+        if (instance.raw != null) {
+            ByteBuffer slot = instance.raw.duplicate();
+            slot.limit(instance.offset(index) + entrySize);
+            slot.position(instance.offset(index));
+            buffer.put(slot);
+        }
+        else {
+            TreeEntry entry = instance.entries[index];
             buffer.putInt(entry.hash);
             buffer.putInt(entry.childPtr);
             buffer.putInt(entry.keyLen);
-            ser.save(buffer, entry.keyPart);
+            instance.keyPartSerializer.save(buffer, entry.keyPart);
             buffer.putLong(entry.data);
+            buffer.putLong(entry.fingerprint);
         }
-        buffer.position(size);
+        buffer.position(start + entrySize);
     }
 
     @Override
+    //Keeps reference to the provided buffer, so it shall not be reused by caller
     public Page load(ByteBuffer buffer) {
         Page page = new Page();
+        page.size = size;
         page.pageInfo = new PageInfo();
         page.pageInfo.countOfEntries = buffer.getInt();
         page.pageInfo.lastChildPtr = buffer.getInt();
-        StringSerializer ser = new StringSerializer(BTree.KEY_PART_SIZE);
-        page.entries = new TreeEntry[entriesMaxCount];
-        //TODO[performance]: as BTree uses binary search for most of operations there is no need to
-        //deserialize all TreeEntries. They could be unserialized lazily by request.
-        for (int i = 0; i < page.pageInfo.countOfEntries; i++) {
-            buffer.position(BTree.ENTRY_SIZE * i + BTree.ENTRY_SIZE);
-            TreeEntry entry = new TreeEntry();
-            entry.hash = buffer.getInt();
-            entry.childPtr = buffer.getInt();
-            entry.keyLen = buffer.getInt();
-            entry.keyPart = ser.load(buffer);
-            entry.data = buffer.getLong();
-            page.entries[i] = entry;
+        page.pageInfo.entrySize = buffer.getInt();
+        if (page.pageInfo.entrySize > ENTRY_FIELDS_SIZE && page.pageInfo.entrySize * 2 <= size) {
+            page.setEntrySize(page.pageInfo.entrySize);
+            page.entries = new TreeEntry[size / page.pageInfo.entrySize - 1];
+            page.raw = buffer.duplicate();
+        }
+        else {
+            //not initialized yet
+            page.pageInfo.countOfEntries = 0;
+            page.entries = new TreeEntry[0];
         }
+        saved(page);
         buffer.position(size);
         return page;
     }
@@ -95,11 +358,9 @@ public class Page implements Serializer<Page>, DynamicallySized {
     }
 
     private int size;
-    private int entriesMaxCount;
 
     @Override
     public void setSize(int size) {
         this.size = size;
-        entriesMaxCount = (size - BTree.ENTRY_SIZE) / BTree.ENTRY_SIZE;
     }
 }
@@ -1,29 +1,30 @@
 package io.github.alexeygrishin.btree.blocks;
 
-import io.github.alexeygrishin.blockalloc.serializers.Limited;
-import io.github.alexeygrishin.btree.BTree;
 import io.github.alexeygrishin.btree.TreeNameHelper;
 import io.github.alexeygrishin.common.Pointer;
 
-@Limited(size = BTree.ENTRY_SIZE)
+/**
+ * Entry of {@link Page}. Key part is the beginning (or the ending, see {@link TreeNameHelper#truncate(String, int)}) of
+ * the key, its length is limited by tree.
+ */
 public class TreeEntry {
     public int hash;
     public int childPtr;
     public int keyLen;
-
-    @Limited(size = BTree.KEY_PART_SIZE)
     public String keyPart;
     public long data;
+    public long fingerprint;
 
     public TreeEntry() {
     }
 
 
 
-    public TreeEntry(String key, int hash, long data, TreeNameHelper helper, int childPtr) {
+    public TreeEntry(String key, int hash, long fingerprint, long data, TreeNameHelper helper, int keyPartLength, int childPtr) {
         this.keyLen = key.length();
         this.hash = hash;
-        this.keyPart = helper.truncate(key, BTree.KEY_PART_LENGTH) ;
+        this.fingerprint = fingerprint;
+        this.keyPart = helper.truncate(key, keyPartLength);
         this.data = data;
         this.childPtr = childPtr;
     }
@@ -3,4 +3,10 @@ package io.github.alexeygrishin.btree.blocks;
 public class TreeInfo {
     public long totalCount;
     public int rootPageIdx;
+    public long keySeed;
+    public int filterPageIdx;
+    public long filterCapacity;
+    public int entrySize;
+    public int pageCapacity;
+    public int ordered;
 }
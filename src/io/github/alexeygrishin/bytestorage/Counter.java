@@ -10,6 +10,7 @@ public class Counter implements SynchronizedByteContainer {
 
     private SynchronizedByteContainer wrapped;
     private int reads, writes, appends;
+    private long bytesWritten;
 
     public Counter(SynchronizedByteContainer wrapped) {
         this.wrapped = wrapped;
@@ -24,6 +25,7 @@ public class Counter implements SynchronizedByteContainer {
     @Override
     public void write(long position, ByteBuffer target) {
         writes++;
+        bytesWritten += target.capacity();
         wrapped.write(position, target);
     }
 
@@ -45,6 +47,7 @@ public class Counter implements SynchronizedByteContainer {
 
     public void resetCounters() {
         reads = writes = appends = 0;
+        bytesWritten = 0;
     }
 
     public int getReads() {
@@ -59,6 +62,10 @@ public class Counter implements SynchronizedByteContainer {
         return appends;
     }
 
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
     public void dump(PrintStream out) {
         out.println("reads = " + reads + ", writes = " + writes + ", appends = " + appends);
     }
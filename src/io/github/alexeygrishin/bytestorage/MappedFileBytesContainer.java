@@ -0,0 +1,167 @@
+package io.github.alexeygrishin.bytestorage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Operates with file via memory mapping. File is mapped by segments of fixed size (so files larger than 2GB are
+ * supported), reads and writes are just memory copies without system calls.
+ *
+ * When data is appended outside of mapped area then file is extended by chunks of {@code growthChunk} bytes and mapping
+ * is extended accordingly. So the real file may be larger than {@link #getSize()} until {@link #close()} is called - it
+ * truncates file to the actual size of data. If storage was not closed properly then file will contain zero tail.
+ */
+public class MappedFileBytesContainer implements SynchronizedByteContainer {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 30;
+    public static final int DEFAULT_GROWTH_CHUNK = 16 * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final int segmentSize;
+    private final int growthChunk;
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private volatile long size;
+    private long mappedSize;
+
+    public MappedFileBytesContainer(FileChannel channel) {
+        this(channel, DEFAULT_SEGMENT_SIZE, DEFAULT_GROWTH_CHUNK);
+    }
+
+    /**
+     * @param channel file channel opened for read and write
+     * @param segmentSize size of single mapped region, in bytes
+     * @param growthChunk how many bytes to add to file when mapping shall be extended. Shall be <= segmentSize
+     */
+    public MappedFileBytesContainer(FileChannel channel, int segmentSize, int growthChunk) {
+        if (segmentSize <= 0 || growthChunk <= 0 || growthChunk > segmentSize) {
+            throw new IllegalArgumentException("Invalid segment size " + segmentSize + " / growth chunk " + growthChunk);
+        }
+        this.channel = channel;
+        this.segmentSize = segmentSize;
+        this.growthChunk = growthChunk;
+        try {
+            synchronized (this) {
+                size = channel.size();
+                remap(size);
+            }
+        }
+        catch (IOException e) {
+            throw new StorageFault(e);
+        }
+    }
+
+    @Override
+    public void read(long position, ByteBuffer target) {
+        checkRanges(position, target.capacity());
+        target.clear();
+        MappedByteBuffer[] segments = this.segments;
+        while (target.hasRemaining()) {
+            ByteBuffer source = slice(segments, position, target.remaining());
+            position += source.remaining();
+            target.put(source);
+        }
+    }
+
+    @Override
+    public void write(long position, ByteBuffer target) {
+        checkRanges(position, target.capacity());
+        target.rewind();
+        copyIn(this.segments, position, target);
+    }
+
+    @Override
+    public long append(ByteBuffer target) {
+        synchronized (this) {
+            long position = size;
+            long newSize = position + target.capacity();
+            if (newSize > mappedSize) {
+                try {
+                    remap(roundUp(newSize, growthChunk));
+                }
+                catch (IOException e) {
+                    throw new StorageFault(e);
+                }
+            }
+            target.rewind();
+            copyIn(segments, position, target);
+            size = newSize;
+            return position;
+        }
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (!channel.isOpen()) {
+            return;
+        }
+        try {
+            for (MappedByteBuffer segment: segments) {
+                segment.force();
+            }
+            segments = new MappedByteBuffer[0];
+            mappedSize = 0;
+            channel.truncate(size);
+            channel.close();
+        } catch (IOException e) {
+            throw new StorageFault(e);
+        }
+    }
+
+    private void checkRanges(long position, int length) {
+        long size = this.size;
+        if (position < 0 || position + length > size) {
+            throw new IndexOutOfBoundsException(
+                    String.format("Attempt to access data outside file contents: file bounds are 0 - %d, required range is %d - %d", size, position, position + length)
+            );
+        }
+    }
+
+    private void copyIn(MappedByteBuffer[] segments, long position, ByteBuffer source) {
+        while (source.hasRemaining()) {
+            ByteBuffer target = slice(segments, position, source.remaining());
+            int length = target.remaining();
+            ByteBuffer portion = source.duplicate();
+            portion.limit(portion.position() + length);
+            target.put(portion);
+            source.position(source.position() + length);
+            position += length;
+        }
+    }
+
+    /**
+     * @return view on mapped memory starting from position, not longer than maxLength and not crossing segment's bound.
+     */
+    private ByteBuffer slice(MappedByteBuffer[] segments, long position, int maxLength) {
+        int offset = (int)(position % segmentSize);
+        ByteBuffer view = segments[(int)(position / segmentSize)].duplicate();
+        view.limit(Math.min(view.capacity(), offset + maxLength));
+        view.position(offset);
+        return view;
+    }
+
+    private void remap(long newMappedSize) throws IOException {
+        int count = (int)((newMappedSize + segmentSize - 1) / segmentSize);
+        MappedByteBuffer[] newSegments = new MappedByteBuffer[count];
+        System.arraycopy(segments, 0, newSegments, 0, Math.min(segments.length, count));
+        for (int i = 0; i < count; i++) {
+            long start = (long)i * segmentSize;
+            long length = Math.min(segmentSize, newMappedSize - start);
+            if (newSegments[i] == null || newSegments[i].capacity() != length) {
+                newSegments[i] = channel.map(FileChannel.MapMode.READ_WRITE, start, length);
+            }
+        }
+        segments = newSegments;
+        mappedSize = newMappedSize;
+    }
+
+    private static long roundUp(long value, int chunk) {
+        return (value + chunk - 1) / chunk * chunk;
+    }
+}
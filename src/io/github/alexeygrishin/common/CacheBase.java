@@ -1,19 +1,38 @@
 package io.github.alexeygrishin.common;
 
-import java.util.Iterator;
-import java.util.LinkedHashMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 /**
- * Base class for caching some key-based data. The cache is limited by size (in bytes) and works as LRU.
+ * Base class for caching some key-based data. The cache is limited by size (in bytes), elements to move out are
+ * selected by {@link EvictionPolicy} (LRU by default).
+ *
+ * Cache is split to segments by key hash, each segment has its own lock, part of size limit and eviction policy. Lock
+ * is held only to access segment's map: elements are loaded by {@link #getFromSource(Object)} and moved out by
+ * {@link #free(Object, Object)} outside the lock. If several threads request the same missing element then it is loaded
+ * only once, others wait for it. Element which is being moved out cannot be loaded or removed until
+ * {@link #free(Object, Object)} is completed.
+ *
+ * Small caches (with initial capacity less than {@link #MIN_SEGMENT_CAPACITY} * 2) have single segment, so eviction
+ * policy works exactly.
+ *
+ * Elements may be pinned (see {@link #pin(Object)}): pinned element is never moved out, it is not known to eviction
+ * policy and is not counted in cache size. Key may be pinned before its element is loaded.
  * @param <K> key type
  * @param <T> value type.
  */
 public abstract class CacheBase<K, T> {
 
-    private Map<K, T> map;
-    private long maxSizeInBytes;
-    private long cacheSize;
+    public static final int MAX_SEGMENTS = 16;
+    public static final int MIN_SEGMENT_CAPACITY = 64;
+
+    private final Segment[] segments;
 
     /**
      *
@@ -21,61 +40,348 @@ public abstract class CacheBase<K, T> {
      * @param initialCapacity shall be closer to max elements count as possible
      */
     public CacheBase(long maxSizeInBytes, int initialCapacity) {
-        this.maxSizeInBytes = maxSizeInBytes;
-        this.map = new LinkedHashMap<>(initialCapacity, 0.75f, true);
+        this(maxSizeInBytes, initialCapacity, CachePolicy.LRU);
+    }
+
+    /**
+     *
+     * @param maxSizeInBytes max size in bytes for cache. Shall be much bigger than one element size.
+     * @param initialCapacity shall be closer to max elements count as possible, cache is split to segments only if each
+     *                        of them may keep at least {@link #MIN_SEGMENT_CAPACITY} elements
+     * @param policy selects elements to move out when cache is full
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public CacheBase(long maxSizeInBytes, int initialCapacity, CachePolicy policy) {
+        int count = Integer.highestOneBit(Math.max(1, Math.min(MAX_SEGMENTS, initialCapacity / MIN_SEGMENT_CAPACITY)));
+        segments = (Segment[])new CacheBase.Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment(maxSizeInBytes / count, initialCapacity / count, policy.<K>create());
+        }
     }
 
 
-    public final synchronized T get(K key) {
-        T element = map.get(key);
-        if (element == null) {
-            element = getFromSource(key);
-            addToCache(key, element);
+    public final T get(K key) {
+        Segment segment = segmentFor(key);
+        while (true) {
+            FutureTask<T> loading;
+            CountDownLatch freeing;
+            boolean load = false;
+            synchronized (segment) {
+                T element = segment.map.get(key);
+                if (element != null) {
+                    if (!segment.pins.containsKey(key)) {
+                        segment.policy.accessed(key);
+                    }
+                    return element;
+                }
+                freeing = segment.freeing.get(key);
+                loading = segment.loading.get(key);
+                if (freeing == null && loading == null) {
+                    loading = new FutureTask<>(new Loader(key));
+                    segment.loading.put(key, loading);
+                    load = true;
+                }
+            }
+            if (freeing != null) {
+                await(freeing);
+            }
+            else if (load) {
+                return load(segment, key, loading);
+            }
+            else {
+                T element = waitFor(loading);
+                synchronized (segment) {
+                    T current = segment.map.get(key);
+                    if (current != null || segment.loading.get(key) == loading) {
+                        //loaded by another thread, and it is already put into cache or is going to be put
+                        return current != null ? current : element;
+                    }
+                }
+                //was removed while loading, shall be loaded again
+            }
         }
-        return element;
     }
 
-    private void addToCache(K key, T element) {
-        int elementSize = getSize(key, element);
-        if (isCacheFull()) {
-            Iterator<Map.Entry<K, T>> iter = map.entrySet().iterator();
-            Map.Entry<K, T> oldPair = iter.next();
-            free(oldPair.getKey(), oldPair.getValue());
-            iter.remove();
-            cacheSize -= elementSize;
+    private T load(Segment segment, K key, FutureTask<T> loading) {
+        loading.run();
+        T element;
+        try {
+            element = waitFor(loading);
+        }
+        catch (RuntimeException | Error e) {
+            synchronized (segment) {
+                if (segment.loading.get(key) == loading) {
+                    segment.loading.remove(key);
+                }
+            }
+            throw e;
         }
-        if (map.put(key, element) == null) {
-            cacheSize += elementSize;
+        List<Evicted> evicted = new ArrayList<>();
+        synchronized (segment) {
+            if (segment.loading.get(key) == loading) {
+                segment.loading.remove(key);
+                T current = segment.map.get(key);
+                if (current != null) {
+                    //was put while loading, so it is newer
+                    element = current;
+                }
+                else {
+                    segment.add(key, element, evicted);
+                }
+            }
         }
+        segment.free(evicted);
+        return element;
     }
 
+    public final void put(K key, T value) {
+        Segment segment = segmentFor(key);
+        List<Evicted> evicted = new ArrayList<>();
+        synchronized (segment) {
+            segment.add(key, value, evicted);
+        }
+        segment.free(evicted);
+    }
 
-    public final synchronized void put(K key, T value) {
-        addToCache(key, value);
+    /**
+     * Returns cached element without loading it and without informing eviction policy about access.
+     * @param key
+     * @return element or null if it is not in cache
+     */
+    public final T getIfPresent(K key) {
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.map.get(key);
+        }
     }
 
-    public final synchronized void reset() {
-        for (Map.Entry<K, T> entry: map.entrySet()) {
-            free(entry.getKey(), entry.getValue());
+    /**
+     * Removes element from cache without calling {@link #free(Object, Object)}.
+     * @param key
+     * @return removed element or null if there was no element for this key in cache
+     */
+    public final T remove(K key) {
+        Segment segment = segmentFor(key);
+        while (true) {
+            CountDownLatch freeing;
+            synchronized (segment) {
+                freeing = segment.freeing.get(key);
+                if (freeing == null) {
+                    //loaded element shall not be put into cache as it may be outdated already
+                    segment.loading.remove(key);
+                    T element = segment.map.remove(key);
+                    if (element != null && !segment.pins.containsKey(key)) {
+                        segment.size -= getSize(key, element);
+                        segment.policy.removed(key);
+                    }
+                    return element;
+                }
+            }
+            await(freeing);
         }
-        map.clear();
-        cacheSize = 0;
     }
 
+    /**
+     * Keeps element in cache until {@link #unpin(Object)} is called. Pins are counted, so element is unpinned when
+     * unpin is called as many times as pin. Pins are kept when element is removed or cache is reset.
+     * @param key
+     */
+    public final void pin(K key) {
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            Integer pins = segment.pins.get(key);
+            segment.pins.put(key, pins == null ? 1 : pins + 1);
+            T element = segment.map.get(key);
+            if (pins == null && element != null) {
+                segment.size -= getSize(key, element);
+                segment.policy.removed(key);
+            }
+        }
+    }
 
+    /**
+     * Element becomes subject of eviction policy again as recently added one.
+     * @param key
+     * @throws IllegalStateException if key is not pinned
+     */
+    public final void unpin(K key) {
+        Segment segment = segmentFor(key);
+        List<Evicted> evicted = new ArrayList<>();
+        synchronized (segment) {
+            Integer pins = segment.pins.get(key);
+            if (pins == null) {
+                throw new IllegalStateException("Key is not pinned: " + key);
+            }
+            if (pins > 1) {
+                segment.pins.put(key, pins - 1);
+                return;
+            }
+            segment.pins.remove(key);
+            T element = segment.map.remove(key);
+            if (element != null) {
+                segment.add(key, element, evicted);
+            }
+        }
+        segment.free(evicted);
+    }
 
+    public final void reset() {
+        for (Segment segment: segments) {
+            synchronized (segment) {
+                for (Map.Entry<K, T> entry: segment.map.entrySet()) {
+                    free(entry.getKey(), entry.getValue());
+                }
+                segment.map.clear();
+                segment.policy.clear();
+                segment.size = 0;
+            }
+        }
+    }
 
-    protected final boolean isCacheFull() {
-        return isCacheLimitReached(map.size()) || cacheSize >= maxSizeInBytes;
+    private Segment segmentFor(K key) {
+        return segments[mix(key.hashCode()) & (segments.length - 1)];
     }
 
     /**
-     * Override if cache shall be limited by count of element.
-     * @param cachedElements amount of elements
-     * @return true if cache is full, false otherwise
+     * Murmur3 finalizer: every bit of hash affects low bits, so keys which differ only by high bits (like ids of
+     * blocks aligned to some stride) are spread over segments.
      */
-    protected boolean isCacheLimitReached(int cachedElements) {
-        return false;
+    static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+
+    private T waitFor(FutureTask<T> loading) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return loading.get();
+                }
+                catch (InterruptedException e) {
+                    interrupted = true;
+                }
+                catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+                    if (cause instanceof Error) throw (Error)cause;
+                    throw new RuntimeException(cause);
+                }
+            }
+        }
+        finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private class Loader implements Callable<T> {
+        private final K key;
+
+        private Loader(K key) {
+            this.key = key;
+        }
+
+        @Override
+        public T call() {
+            return getFromSource(key);
+        }
+    }
+
+    private class Segment {
+        private final Map<K, T> map;
+        private final Map<K, FutureTask<T>> loading = new HashMap<>();
+        private final Map<K, CountDownLatch> freeing = new HashMap<>();
+        private final Map<K, Integer> pins = new HashMap<>();
+        private final EvictionPolicy<K> policy;
+        private final long maxSizeInBytes;
+        private long size;
+
+        private Segment(long maxSizeInBytes, int initialCapacity, EvictionPolicy<K> policy) {
+            this.maxSizeInBytes = maxSizeInBytes;
+            this.map = new HashMap<>(initialCapacity);
+            this.policy = policy;
+        }
+
+        /**
+         * Shall be called under segment's lock. Elements to move out are removed from map and added to evicted list,
+         * {@link #free(List)} shall be called for them after lock is released.
+         */
+        private void add(K key, T element, List<Evicted> evicted) {
+            if (pins.containsKey(key)) {
+                map.put(key, element);
+                return;
+            }
+            T oldElement = map.get(key);
+            if (oldElement != null) {
+                size -= getSize(key, oldElement);
+                policy.accessed(key);
+            }
+            else {
+                //size is positive only if there are not pinned elements
+                while (size > 0 && size >= maxSizeInBytes) {
+                    K oldKey = policy.evict();
+                    T old = map.remove(oldKey);
+                    size -= getSize(oldKey, old);
+                    //element may be put again and moved out while the previous one is still being freed
+                    CountDownLatch latch = new CountDownLatch(1);
+                    freeing.put(oldKey, latch);
+                    evicted.add(new Evicted(oldKey, old, latch));
+                }
+                policy.added(key);
+            }
+            map.put(key, element);
+            size += getSize(key, element);
+        }
+
+        private void free(List<Evicted> evicted) {
+            for (Evicted entry: evicted) {
+                try {
+                    CacheBase.this.free(entry.key, entry.element);
+                }
+                finally {
+                    synchronized (this) {
+                        if (freeing.get(entry.key) == entry.latch) {
+                            freeing.remove(entry.key);
+                        }
+                    }
+                    entry.latch.countDown();
+                }
+            }
+        }
+    }
+
+    private class Evicted {
+        private final K key;
+        private final T element;
+        private final CountDownLatch latch;
+
+        private Evicted(K key, T element, CountDownLatch latch) {
+            this.key = key;
+            this.element = element;
+            this.latch = latch;
+        }
     }
 
     /**
@@ -94,7 +400,8 @@ public abstract class CacheBase<K, T> {
     protected abstract int getSize(K key, T element);
 
     /**
-     * Called when cache removes element from itself due to cache fullness.
+     * Called when cache removes element from itself due to cache fullness. May be called concurrently for different
+     * elements.
      * @param key
      * @param element
      */
@@ -0,0 +1,36 @@
+package io.github.alexeygrishin.common;
+
+/**
+ * Available cache eviction policies, see {@link EvictionPolicy}
+ */
+public enum CachePolicy {
+    LRU(1), TWO_QUEUE(2);
+
+    private int value;
+
+    CachePolicy(int value) {
+        this.value = value;
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    public <K> EvictionPolicy<K> create() {
+        switch (this) {
+            case TWO_QUEUE:
+                return new TwoQueuePolicy<K>();
+            default:
+                return new LruPolicy<K>();
+        }
+    }
+
+    public static CachePolicy valueOf(int policy) {
+        for (CachePolicy value: values()) {
+            if (value.value == policy) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Unknown cache policy " + policy);
+    }
+}
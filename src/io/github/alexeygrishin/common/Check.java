@@ -1,6 +1,17 @@
 package io.github.alexeygrishin.common;
 
 public class Check {
+    /**
+     * Same as {@link #notNull(Object[])} for single object, but without varargs array (which is unchecked for generic
+     * types).
+     */
+    public static <T> T notNull(T object) {
+        if (object == null) {
+            throw new NullPointerException();
+        }
+        return object;
+    }
+
     public static <T> T notNull(T... objects) {
         for (T obj: objects) {
             if (obj != null) {
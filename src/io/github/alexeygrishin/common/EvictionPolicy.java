@@ -0,0 +1,35 @@
+package io.github.alexeygrishin.common;
+
+/**
+ * Decides which element shall be moved out from {@link CacheBase} when cache is full. Policy knows only keys, cache
+ * notifies it about all changes. Implementations are not thread-safe - they are called under cache's lock.
+ * @param <K> key type
+ */
+public interface EvictionPolicy<K> {
+
+    /**
+     * Called when new element is put into cache
+     */
+    void added(K key);
+
+    /**
+     * Called when element already present in cache is read or replaced
+     */
+    void accessed(K key);
+
+    /**
+     * Called when element is removed from cache not by policy's decision
+     */
+    void removed(K key);
+
+    /**
+     * Selects element to be moved out and forgets it. Called only if there are elements in cache.
+     * @return key of element to remove from cache
+     */
+    K evict();
+
+    /**
+     * Called when cache is cleared
+     */
+    void clear();
+}
@@ -73,6 +73,10 @@ public class LockMap<T> {
             this.key = key;
         }
 
+        public T getKey() {
+            return key;
+        }
+
         public void close() {
             lock.unlock();
             synchronized (guard) {
@@ -3,18 +3,32 @@ package io.github.alexeygrishin.common;
 import java.util.concurrent.locks.Lock;
 
 /**
- * Just wrapper on {@link java.util.concurrent.locks.Lock} to use in try(resources...) expression.
+ * Just wrapper on {@link java.util.concurrent.locks.Lock} to use in try(resources...) expression. Several locks are
+ * taken in provided order and released in reverse one.
  */
 public class Locker implements AutoCloseable {
 
-    private Lock lock;
+    private Lock[] locks;
 
-    public Locker(Lock lock) {
-        this.lock = lock;
-        lock.lock();
+    public Locker(Lock... locks) {
+        this.locks = locks;
+        for (int i = 0; i < locks.length; i++) {
+            try {
+                locks[i].lock();
+            } catch (RuntimeException e) {
+                unlock(i);
+                throw e;
+            }
+        }
     }
 
     public void close() {
-        lock.unlock();
+        unlock(locks.length);
+    }
+
+    private void unlock(int count) {
+        for (int i = count - 1; i >= 0; i--) {
+            locks[i].unlock();
+        }
     }
 }
@@ -0,0 +1,41 @@
+package io.github.alexeygrishin.common;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Least recently used element is moved out. Simple and good for most cases, but single pass over large amount of
+ * elements (scan) moves out everything else.
+ */
+public class LruPolicy<K> implements EvictionPolicy<K> {
+
+    private final LinkedHashMap<K, Boolean> keys = new LinkedHashMap<>(16, 0.75f, true);
+
+    @Override
+    public void added(K key) {
+        keys.put(key, Boolean.TRUE);
+    }
+
+    @Override
+    public void accessed(K key) {
+        keys.get(key);
+    }
+
+    @Override
+    public void removed(K key) {
+        keys.remove(key);
+    }
+
+    @Override
+    public K evict() {
+        Iterator<K> iter = keys.keySet().iterator();
+        K key = iter.next();
+        iter.remove();
+        return key;
+    }
+
+    @Override
+    public void clear() {
+        keys.clear();
+    }
+}
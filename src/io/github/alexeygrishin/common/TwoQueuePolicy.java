@@ -0,0 +1,93 @@
+package io.github.alexeygrishin.common;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Scan-resistant 2Q policy (T. Johnson, D. Shasha, "2Q: A Low Overhead High Performance Buffer Management Replacement
+ * Algorithm").
+ *
+ * New elements are put into FIFO queue "in". Elements moved out from "in" are remembered (without values) in the
+ * "ghost" FIFO queue. If element is requested again while it is in "in" or remembered in "ghost" then it is considered
+ * hot and put into the LRU queue "main". Elements are moved out from "in" while it takes more than {@link #IN_PERCENT}
+ * of cache, so elements which are read only once (as during the scan) pass through "in" only and do not move out hot
+ * elements from "main".
+ *
+ * Repeated access to the same element with no other accesses in between is considered as single access, as it is
+ * usually made by the same operation (like data block read twice by the same storage call).
+ */
+public class TwoQueuePolicy<K> implements EvictionPolicy<K> {
+
+    /**
+     * Share of "in" queue among cached elements, in percents
+     */
+    public static final int IN_PERCENT = 25;
+
+    /**
+     * Max size of "ghost" queue relatively to count of cached elements, in percents
+     */
+    public static final int GHOST_PERCENT = 50;
+
+    private final LinkedHashMap<K, Boolean> in = new LinkedHashMap<>();
+    private final LinkedHashMap<K, Boolean> ghost = new LinkedHashMap<>();
+    private final LinkedHashMap<K, Boolean> main = new LinkedHashMap<>(16, 0.75f, true);
+    private K last;
+
+    @Override
+    public void added(K key) {
+        if (ghost.remove(key) != null) {
+            main.put(key, Boolean.TRUE);
+        }
+        else {
+            in.put(key, Boolean.TRUE);
+        }
+        last = key;
+    }
+
+    @Override
+    public void accessed(K key) {
+        if (!key.equals(last) && in.remove(key) != null) {
+            main.put(key, Boolean.TRUE);
+        }
+        else {
+            main.get(key);
+        }
+        last = key;
+    }
+
+    @Override
+    public void removed(K key) {
+        if (in.remove(key) == null) {
+            main.remove(key);
+        }
+    }
+
+    @Override
+    public K evict() {
+        int cached = in.size() + main.size();
+        if (!in.isEmpty() && (main.isEmpty() || in.size() * 100 > cached * IN_PERCENT)) {
+            K key = removeFirst(in);
+            ghost.put(key, Boolean.TRUE);
+            while (ghost.size() > Math.max(1, (cached - 1) * GHOST_PERCENT / 100)) {
+                removeFirst(ghost);
+            }
+            return key;
+        }
+        return removeFirst(main);
+    }
+
+    @Override
+    public void clear() {
+        in.clear();
+        ghost.clear();
+        main.clear();
+        last = null;
+    }
+
+    private K removeFirst(LinkedHashMap<K, Boolean> queue) {
+        Iterator<K> iter = queue.keySet().iterator();
+        K key = iter.next();
+        iter.remove();
+        return key;
+    }
+}
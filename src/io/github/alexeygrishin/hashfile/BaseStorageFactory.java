@@ -0,0 +1,336 @@
+package io.github.alexeygrishin.hashfile;
+
+import io.github.alexeygrishin.blockalloc.*;
+import io.github.alexeygrishin.btree.KeyTruncateMethod;
+import io.github.alexeygrishin.bytestorage.FileBytesContainer;
+import io.github.alexeygrishin.bytestorage.MappedFileBytesContainer;
+import io.github.alexeygrishin.bytestorage.SynchronizedByteContainer;
+import io.github.alexeygrishin.common.CachePolicy;
+import io.github.alexeygrishin.hashfile.btreebased.DataContainer;
+import io.github.alexeygrishin.hashfile.btreebased.DataStorage;
+import io.github.alexeygrishin.hashfile.btreebased.ValueLog;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.OpenOption;
+import java.nio.file.StandardOpenOption;
+
+import static io.github.alexeygrishin.common.Check.notNull;
+import static io.github.alexeygrishin.common.Check.positive;
+
+/**
+ * Common part of storage factories which keep key index and data in blocks of the single file. Defines file layout
+ * (meta information, then blocks), caches and defaults, engines define only key index (see {@link StorageEngine}).
+ *
+ * Storage file may be accessed either via {@link FileChannel} reads/writes (default) or via memory mapping
+ * (see {@link MappedFileBytesContainer}), which is better for read-heavy usage.
+ *
+ * Index (keys) and data blocks have separate caches, each with its own size and policy. They are selected when storage is
+ * created and kept in storage file. By default both use {@link CachePolicy#TWO_QUEUE}, so iteration over storage does
+ * not move out index blocks from cache, and cache size is split equally between them.
+ *
+ * Changes kept by caches are written on disk in background, see {@link FlushSettings}.
+ *
+ * Data is kept in chains of blocks by default, or in append-only log (see {@link DataLayout}). Layout is selected
+ * when storage is created and kept in storage file.
+ */
+public abstract class BaseStorageFactory implements NamedStorageFactory {
+
+    public static final int VERSION = 0x0B;
+    public static final int DEFAULT_DATA_BLOCK_SIZE_KB = 4;
+    public final static int DEFAULT_CACHE_SIZE_MB = 64;
+    public static final CachePolicy DEFAULT_CACHE_POLICY = CachePolicy.TWO_QUEUE;
+    public static final int TREE_CACHE_PERCENT = 50;
+    public static final int MIN_CACHED_BLOCKS = 2;
+    public static final int KB = 1024;
+    public static final int MB = 1024 * 1024;
+
+    private final boolean memoryMapped;
+    private final CachePolicy cachePolicy;
+    private final FlushSettings flushSettings;
+    private final DataLayout dataLayout;
+
+    /**
+     * @param memoryMapped true if created/loaded storages shall map file into memory instead of reading it via channel
+     * @param cachePolicy cache policy for created storages if it is not specified explicitly. Loaded storages use
+     *                    policies they were created with.
+     * @param flushSettings when changes are written in background
+     */
+    protected BaseStorageFactory(boolean memoryMapped, CachePolicy cachePolicy, FlushSettings flushSettings) {
+        this(memoryMapped, cachePolicy, flushSettings, DataLayout.BLOCKS);
+    }
+
+    /**
+     * @param memoryMapped true if created/loaded storages shall map file into memory instead of reading it via channel
+     * @param cachePolicy cache policy for created storages if it is not specified explicitly. Loaded storages use
+     *                    policies they were created with.
+     * @param flushSettings when changes are written in background
+     * @param dataLayout how data is kept in created storages. Loaded storages use layout they were created with.
+     */
+    protected BaseStorageFactory(boolean memoryMapped, CachePolicy cachePolicy, FlushSettings flushSettings, DataLayout dataLayout) {
+        this.memoryMapped = memoryMapped;
+        this.cachePolicy = notNull(cachePolicy, DEFAULT_CACHE_POLICY);
+        this.flushSettings = notNull(flushSettings, FlushSettings.DEFAULT);
+        this.dataLayout = notNull(dataLayout, DataLayout.BLOCKS);
+    }
+
+    /**
+     *
+     * @return engine which is written to created storages, loaded storages shall have the same
+     */
+    protected abstract StorageEngine getEngine();
+
+    /**
+     *
+     * @param dataBlockSize data block size in bytes
+     * @return block size for the key index, shall be multiple of data block size
+     */
+    protected abstract int getIndexBlockSize(int dataBlockSize);
+
+    /**
+     * @param layout data layout
+     * @return true if engine's key index may work with data kept in provided layout
+     */
+    protected boolean supports(DataLayout layout) {
+        return true;
+    }
+
+    /**
+     * Creates storage over prepared allocators. Implementation shall start background flush with provided settings and
+     * caches.
+     * @param indexAllocator allocator for key index, block size is {@link #getIndexBlockSize(int)}
+     * @param data container for data
+     * @param truncateMethod how to truncate long keys
+     * @param flushSettings when to flush changes in background
+     * @param caches caches used by allocators
+     */
+    protected abstract NamedStorage openStorage(Allocator indexAllocator, DataContainer data, KeyTruncateMethod truncateMethod,
+                                                FlushSettings flushSettings, Cache... caches);
+
+    /**
+     * Creates storage which {@link #truncate(String)} fills with data of original storage. Index settings which are kept
+     * in index itself, not in storage meta information, shall be copied from original. By default storage is created
+     * like by {@link #openStorage(Allocator, DataContainer, KeyTruncateMethod, FlushSettings, Cache...)}.
+     * @param original storage being truncated, created by this factory
+     */
+    protected NamedStorage openCopy(NamedStorage original, Allocator indexAllocator, DataContainer data, KeyTruncateMethod truncateMethod,
+                                    FlushSettings flushSettings, Cache... caches) {
+        return openStorage(indexAllocator, data, truncateMethod, flushSettings, caches);
+    }
+
+    @Override
+    public NamedStorage create(String filePath, Integer dataBlockSizeK, Integer cacheSizeM, KeyTruncateMethod part) {
+        int cacheSize = MB * positive(notNull(cacheSizeM, DEFAULT_CACHE_SIZE_MB), "cacheLimit");
+        int treeCacheSize = (int)((long)cacheSize * TREE_CACHE_PERCENT / 100);
+        return create(filePath, dataBlockSizeK, treeCacheSize, cachePolicy, cacheSize - treeCacheSize, cachePolicy, part);
+    }
+
+    @Override
+    public NamedStorage create(String filePath, Integer dataBlockSizeK, CacheSettings keysCache, CacheSettings dataCache, KeyTruncateMethod part) {
+        keysCache = notNull(keysCache, new CacheSettings(null, null));
+        dataCache = notNull(dataCache, new CacheSettings(null, null));
+        int defaultTreeCacheM = DEFAULT_CACHE_SIZE_MB * TREE_CACHE_PERCENT / 100;
+        return create(filePath, dataBlockSizeK,
+                MB * positive(notNull(keysCache.getSizeM(), defaultTreeCacheM), "keysCacheLimit"), notNull(keysCache.getPolicy(), cachePolicy),
+                MB * positive(notNull(dataCache.getSizeM(), DEFAULT_CACHE_SIZE_MB - defaultTreeCacheM), "dataCacheLimit"), notNull(dataCache.getPolicy(), cachePolicy),
+                part);
+    }
+
+    private NamedStorage create(String filePath, Integer dataBlockSizeK, int treeCacheSize, CachePolicy treeCachePolicy, int dataCacheSize, CachePolicy dataCachePolicy, KeyTruncateMethod part) {
+        File file = new File(filePath);
+        if (file.exists()) {
+            throw new CannotCreateStorage("There is already file on path '" + filePath + "'");
+        }
+        if (!supports(dataLayout)) {
+            throw new CannotCreateStorage(getName() + " does not support " + dataLayout.toString().toLowerCase() + " data layout");
+        }
+        int dataBlockSize = KB * positive(notNull(dataBlockSizeK, DEFAULT_DATA_BLOCK_SIZE_KB), "dataBlockSize");
+        int treeBlockSize = getIndexBlockSize(dataBlockSize);
+        MetaInformationWrapper.MetaInfo layout = new MetaInformationWrapper.MetaInfo();
+        layout.treeBlockSize = treeBlockSize;
+        layout.dataBlockSize = dataBlockSize;
+        layout.truncateMethod = notNull(part, KeyTruncateMethod.LEADING).getValue();
+        layout.treeCacheSize = Math.max(treeCacheSize, MIN_CACHED_BLOCKS * treeBlockSize);
+        layout.treeCachePolicy = treeCachePolicy.getValue();
+        layout.dataCacheSize = Math.max(dataCacheSize, MIN_CACHED_BLOCKS * dataBlockSize);
+        layout.dataCachePolicy = dataCachePolicy.getValue();
+        layout.dataLayout = dataLayout.getValue();
+        return createStorage(file, layout, null);
+    }
+
+    /**
+     * @param layout meta information for new storage. It is not modified, only storage parameters are copied from it.
+     * @param original storage which index settings are copied, or null for a new storage
+     */
+    private NamedStorage createStorage(File file, MetaInformationWrapper.MetaInfo layout, NamedStorage original) {
+        try {
+            SynchronizedByteContainer container = createBytesContainer(file);
+            MetaInformationWrapper wrapper = new MetaInformationWrapper(container);
+            MetaInformationWrapper.MetaInfo info =  wrapper.getMetaInfo();
+            info.version = VERSION;
+            info.engine = getEngine().getValue();
+            info.treeBlockSize = layout.treeBlockSize;
+            info.dataBlockSize = layout.dataBlockSize;
+            info.truncateMethod = layout.truncateMethod;
+            info.treeCacheSize = layout.treeCacheSize;
+            info.treeCachePolicy = layout.treeCachePolicy;
+            info.dataCacheSize = layout.dataCacheSize;
+            info.dataCachePolicy = layout.dataCachePolicy;
+            info.dataLayout = layout.dataLayout;
+            wrapper.setMetaInfo(info);
+            return openStorage(wrapper, info, original);
+        } catch (IOException e) {
+            throw new CannotCreateStorage(e);
+        }
+    }
+
+    /**
+     * Index and data blocks are cached separately, so reading of data does not move index blocks out of cache. Both
+     * caches work over the same allocator. Log directory is found via meta information, like free blocks.
+     */
+    private NamedStorage openStorage(MetaInformationWrapper wrapper, MetaInformationWrapper.MetaInfo info) {
+        return openStorage(wrapper, info, null);
+    }
+
+    private NamedStorage openStorage(MetaInformationWrapper wrapper, MetaInformationWrapper.MetaInfo info, NamedStorage original) {
+        SharedAllocator allocator = new SharedAllocator(new BlockAllocator(wrapper, info.dataBlockSize, wrapper), 2);
+        Cache treeCache = new Cache(allocator, info.treeCacheSize, CachePolicy.valueOf(info.treeCachePolicy), info.treeBlockSize);
+        Cache dataCache = new Cache(allocator, info.dataCacheSize, CachePolicy.valueOf(info.dataCachePolicy));
+        Allocator treeAllocator = info.treeBlockSize > info.dataBlockSize ? new MultiBlockAllocator(treeCache, info.treeBlockSize) : treeCache;
+        DataContainer data = DataLayout.valueOf(info.dataLayout) == DataLayout.LOG ? new ValueLog(dataCache, wrapper) : new DataStorage(dataCache);
+        KeyTruncateMethod truncateMethod = KeyTruncateMethod.valueOf(info.truncateMethod);
+        if (original != null) {
+            return openCopy(original, treeAllocator, data, truncateMethod, flushSettings, treeCache, dataCache);
+        }
+        return openStorage(treeAllocator, data, truncateMethod, flushSettings, treeCache, dataCache);
+    }
+
+    protected SynchronizedByteContainer createBytesContainer(File file) throws IOException {
+        return openBytesContainer(file, StandardOpenOption.WRITE, StandardOpenOption.READ, StandardOpenOption.CREATE_NEW);
+    }
+
+    protected SynchronizedByteContainer openBytesContainer(File file, OpenOption... options) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), options);
+        return memoryMapped ? new MappedFileBytesContainer(channel) : new FileBytesContainer(channel);
+    }
+
+    @Override
+    public NamedStorage load(String filePath) {
+        File file = new File(filePath);
+        if (!file.exists()) {
+            return create(filePath);
+        }
+        try {
+            MetaInformationWrapper wrapper = openFile(file);
+            MetaInformationWrapper.MetaInfo info =  wrapper.getMetaInfo();
+            checkVersion(wrapper, info);
+            return openStorage(wrapper, info);
+
+        } catch (IOException e) {
+            throw new CannotLoadStorage(e);
+        }
+
+    }
+
+    private void checkVersion(MetaInformationWrapper wrapper, MetaInformationWrapper.MetaInfo info) {
+        if (info.version != VERSION) {
+            wrapper.close();
+            throw new CannotLoadStorage("Version mismatch: file has version " + info.version + ", but expected " + VERSION);
+        }
+        if (info.engine != getEngine().getValue()) {
+            wrapper.close();
+            throw new CannotLoadStorage("Engine mismatch: file has engine " + info.engine + ", but expected " + getEngine().getValue() + " (" + getEngine().toString().toLowerCase() + ")");
+        }
+    }
+
+    private MetaInformationWrapper openFile(File file) throws IOException {
+        SynchronizedByteContainer container;
+        container = openBytesContainer(file, StandardOpenOption.WRITE, StandardOpenOption.READ);
+        return new MetaInformationWrapper(container);
+    }
+
+    @Override
+    public void truncate(String filePath) {
+        File file = getExistentFile(filePath);
+        try {
+            MetaInformationWrapper wrapper = openFile(file);
+            MetaInformationWrapper.MetaInfo info =  wrapper.getMetaInfo();
+            checkVersion(wrapper, info);
+            File tempFile = getTempFileIn(file.getParentFile());
+            try (NamedStorage original = openStorage(wrapper, info);
+                NamedStorage copy = createStorage(tempFile, info, original)) {
+                original.cloneTo(copy);
+            }
+            File beforeDelete = getTempFileIn(file.getParentFile());
+            if (!file.renameTo(beforeDelete)) {
+                throw new CannotLoadStorage("Cannot rename original file to " + beforeDelete.getName());
+            }
+            if (!tempFile.renameTo(file)) {
+                beforeDelete.renameTo(file);
+                throw new CannotLoadStorage("Cannot rename truncated file to " + file.getName());
+            }
+            beforeDelete.delete();
+
+        } catch (IOException e) {
+            throw new CannotLoadStorage(e);
+        }
+
+    }
+
+    private File getExistentFile(String filePath) {
+        File file = new File(filePath);
+        if (!file.exists()) {
+            throw new CannotLoadStorage("File does not exist: " + file.getAbsolutePath());
+        }
+        return file;
+    }
+
+    @Override
+    public void printInfo(String filePath, PrintStream out) {
+        File file = getExistentFile(filePath);
+        try {
+            MetaInformationWrapper wrapper = openFile(file);
+            MetaInformationWrapper.MetaInfo info =  wrapper.getMetaInfo();
+            out.println(getName());
+            out.println(String.format("  Version: %d", info.version));
+            out.println("  Block size: ");
+            out.println(String.format("    Data: %d K", info.dataBlockSize / 1024));
+            out.println(String.format("    %s: %d K", getIndexName(), info.treeBlockSize/ 1024));
+            out.println("  Cache: ");
+            out.println(String.format("    Keys: %d M (%s)", info.treeCacheSize / 1024 / 1024, CachePolicy.valueOf(info.treeCachePolicy).toString().toLowerCase()));
+            out.println(String.format("    Data: %d M (%s)", info.dataCacheSize / 1024 / 1024, CachePolicy.valueOf(info.dataCachePolicy).toString().toLowerCase()));
+            out.println(String.format("  Truncate method: %s", KeyTruncateMethod.valueOf(info.truncateMethod).toString().toLowerCase()));
+            out.println(String.format("  Data layout: %s", DataLayout.valueOf(info.dataLayout).toString().toLowerCase()));
+
+        } catch (IOException e) {
+            throw new CannotLoadStorage(e);
+        }
+    }
+
+    /**
+     * @return storage name for {@link #printInfo(String, PrintStream)}
+     */
+    protected abstract String getName();
+
+    /**
+     * @return key index name for {@link #printInfo(String, PrintStream)}
+     */
+    protected abstract String getIndexName();
+
+    private File getTempFileIn(File directory) {
+        File tempFile;
+        int idx = 0;
+        do {
+            tempFile = new File(directory, "_truncate" + idx);
+            idx++;
+        } while (tempFile.exists());
+        return tempFile;
+    }
+
+    @Override
+    public NamedStorage create(String filePath) {
+        return create(filePath, null, null, null);
+    }
+}
@@ -0,0 +1,53 @@
+package io.github.alexeygrishin.hashfile;
+
+import io.github.alexeygrishin.common.CachePolicy;
+
+/**
+ * Size and eviction policy of storage cache. Null values mean defaults.
+ */
+public class CacheSettings {
+    private final Integer sizeM;
+    private final CachePolicy policy;
+
+    /**
+     * @param sizeM cache size in MBytes
+     * @param policy eviction policy
+     */
+    public CacheSettings(Integer sizeM, CachePolicy policy) {
+        this.sizeM = sizeM;
+        this.policy = policy;
+    }
+
+    public Integer getSizeM() {
+        return sizeM;
+    }
+
+    public CachePolicy getPolicy() {
+        return policy;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        CacheSettings that = (CacheSettings) o;
+
+        if (policy != that.policy) return false;
+        if (sizeM != null ? !sizeM.equals(that.sizeM) : that.sizeM != null) return false;
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = sizeM != null ? sizeM.hashCode() : 0;
+        result = 31 * result + (policy != null ? policy.hashCode() : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return sizeM + "M(" + policy + ")";
+    }
+}
@@ -0,0 +1,15 @@
+package io.github.alexeygrishin.hashfile;
+
+import java.io.InputStream;
+
+/**
+ * Receives data found by {@link NamedStorage#getMany(java.util.Collection, DataConsumer)}.
+ */
+public interface DataConsumer {
+
+    /**
+     * @param key data key
+     * @param data data stream, whole data is already read from storage
+     */
+    void accept(String key, InputStream data);
+}
@@ -0,0 +1,34 @@
+package io.github.alexeygrishin.hashfile;
+
+/**
+ * How user data is kept in storage file. Layout is selected when storage is created and kept in storage file.
+ */
+public enum DataLayout {
+    /**
+     * Each data in its own chain of blocks, changed in place, see {@link io.github.alexeygrishin.hashfile.btreebased.DataStorage}
+     */
+    BLOCKS(0),
+    /**
+     * Append-only log, space of deleted data is reclaimed by garbage collection, see {@link io.github.alexeygrishin.hashfile.btreebased.ValueLog}
+     */
+    LOG(1);
+
+    private int value;
+
+    DataLayout(int value) {
+        this.value = value;
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    public static DataLayout valueOf(int layout) {
+        for (DataLayout value: values()) {
+            if (value.value == layout) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Unknown data layout " + layout);
+    }
+}
@@ -0,0 +1,18 @@
+package io.github.alexeygrishin.hashfile;
+
+import java.io.OutputStream;
+
+/**
+ * Receives data streamed by {@link NamedStorage#scan(DataTarget, java.util.concurrent.ExecutorService, int)}: data is
+ * written right from storage, without buffering.
+ */
+public interface DataTarget {
+
+    /**
+     * Called when data of key is found. Data is written to returned stream while it is locked in storage, then stream
+     * is closed.
+     * @param key data key
+     * @return stream for data
+     */
+    OutputStream open(String key);
+}
@@ -0,0 +1,101 @@
+package io.github.alexeygrishin.hashfile;
+
+import io.github.alexeygrishin.btree.KeyTruncateMethod;
+import io.github.alexeygrishin.bytestorage.FileBytesContainer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Creates storages with default engine and loads storages of any known engine - engine is read from storage file and
+ * the corresponding factory is used.
+ */
+public class EngineSelectingFactory implements NamedStorageFactory {
+
+    private final Map<StorageEngine, NamedStorageFactory> factories;
+    private final StorageEngine defaultEngine;
+
+    /**
+     * @param factories factories for each supported engine
+     * @param defaultEngine engine for created storages, shall be one of supported
+     */
+    public EngineSelectingFactory(Map<StorageEngine, ? extends NamedStorageFactory> factories, StorageEngine defaultEngine) {
+        this.factories = new EnumMap<>(factories);
+        this.defaultEngine = defaultEngine;
+        forEngine(defaultEngine);
+    }
+
+    /**
+     * @param engine engine
+     * @return factory for provided engine
+     * @throws IllegalArgumentException if engine is not supported
+     */
+    public NamedStorageFactory forEngine(StorageEngine engine) {
+        NamedStorageFactory factory = factories.get(engine);
+        if (factory == null) {
+            throw new IllegalArgumentException("Engine " + engine.toString().toLowerCase() + " is not supported");
+        }
+        return factory;
+    }
+
+    @Override
+    public NamedStorage create(String filePath, Integer dataBlockSizeK, Integer cacheSizeM, KeyTruncateMethod part) {
+        return forEngine(defaultEngine).create(filePath, dataBlockSizeK, cacheSizeM, part);
+    }
+
+    @Override
+    public NamedStorage create(String filePath, Integer dataBlockSizeK, CacheSettings keysCache, CacheSettings dataCache, KeyTruncateMethod part) {
+        return forEngine(defaultEngine).create(filePath, dataBlockSizeK, keysCache, dataCache, part);
+    }
+
+    @Override
+    public NamedStorage create(String filePath) {
+        return forEngine(defaultEngine).create(filePath);
+    }
+
+    @Override
+    public NamedStorage load(String filePath) {
+        return getFactoryFor(filePath).load(filePath);
+    }
+
+    @Override
+    public void truncate(String filePath) {
+        getFactoryFor(filePath).truncate(filePath);
+    }
+
+    @Override
+    public void printInfo(String filePath, PrintStream out) {
+        getFactoryFor(filePath).printInfo(filePath, out);
+    }
+
+    /**
+     * Storages of unknown versions are passed to the default engine's factory, which reports version mismatch.
+     */
+    private NamedStorageFactory getFactoryFor(String filePath) {
+        File file = new File(filePath);
+        if (!file.exists()) {
+            return forEngine(defaultEngine);
+        }
+        try {
+            MetaInformationWrapper wrapper = new MetaInformationWrapper(new FileBytesContainer(FileChannel.open(file.toPath(), StandardOpenOption.READ)));
+            MetaInformationWrapper.MetaInfo info;
+            try {
+                info = wrapper.getMetaInfo();
+            }
+            finally {
+                wrapper.close();
+            }
+            if (info.version != BaseStorageFactory.VERSION) {
+                return forEngine(defaultEngine);
+            }
+            return forEngine(StorageEngine.valueOf(info.engine));
+        } catch (IOException | IllegalArgumentException e) {
+            throw new CannotLoadStorage(e);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package io.github.alexeygrishin.hashfile;
+
+import io.github.alexeygrishin.common.Check;
+
+/**
+ * Defines when changes kept in storage cache are written on disk in background. Changes are written when their size
+ * exceeds {@link #getDirtyPercent()} of cache size, or when the oldest of them is older than {@link #getMaxAgeMillis()}.
+ * If changes are made faster than they are written and their size exceeds {@link #getThrottlePercent()} of cache size,
+ * then writers have to wait until changes are written.
+ */
+public class FlushSettings {
+
+    public static final FlushSettings DEFAULT = new FlushSettings(25, 50, 5000);
+
+    private final int dirtyPercent;
+    private final int throttlePercent;
+    private final long maxAgeMillis;
+
+    /**
+     * @param dirtyPercent percent of cache size changes may take before background write is started
+     * @param throttlePercent percent of cache size changes may take before writers are throttled, shall be not less
+     *                        than dirtyPercent
+     * @param maxAgeMillis max time change is kept in memory only, in milliseconds
+     */
+    public FlushSettings(int dirtyPercent, int throttlePercent, long maxAgeMillis) {
+        Check.arguments(dirtyPercent > 0 && dirtyPercent <= throttlePercent && throttlePercent <= 100, "expected 0 < dirtyPercent <= throttlePercent <= 100");
+        Check.positive(maxAgeMillis, "maxAgeMillis");
+        this.dirtyPercent = dirtyPercent;
+        this.throttlePercent = throttlePercent;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    public int getDirtyPercent() {
+        return dirtyPercent;
+    }
+
+    public int getThrottlePercent() {
+        return throttlePercent;
+    }
+
+    public long getMaxAgeMillis() {
+        return maxAgeMillis;
+    }
+
+    @Override
+    public String toString() {
+        return dirtyPercent + "%/" + throttlePercent + "%/" + maxAgeMillis + "ms";
+    }
+}
@@ -1,11 +1,14 @@
-package io.github.alexeygrishin.hashfile.btreebased;
+package io.github.alexeygrishin.hashfile;
 
+import io.github.alexeygrishin.blockalloc.FreeListHolder;
 import io.github.alexeygrishin.bytestorage.SynchronizedByteContainer;
 import io.github.alexeygrishin.blockalloc.serializers.Serializers;
+import io.github.alexeygrishin.common.Pointer;
+import io.github.alexeygrishin.hashfile.btreebased.ValueLogHolder;
 
 import java.nio.ByteBuffer;
 
-public class MetaInformationWrapper implements SynchronizedByteContainer {
+public class MetaInformationWrapper implements SynchronizedByteContainer, FreeListHolder, ValueLogHolder {
     private SynchronizedByteContainer wrapped;
     private int metaBlockSize;
     private MetaInfo metaInfo;
@@ -40,6 +43,28 @@ public class MetaInformationWrapper implements SynchronizedByteContainer {
         }
     }
 
+    @Override
+    public int getFreeListHead() {
+        return metaInfo.freeListHead;
+    }
+
+    @Override
+    public void setFreeListHead(int blockId) {
+        metaInfo.freeListHead = blockId;
+        setMetaInfo(metaInfo);
+    }
+
+    @Override
+    public int getValueLogHead() {
+        return metaInfo.valueLogHead;
+    }
+
+    @Override
+    public void setValueLogHead(int blockId) {
+        metaInfo.valueLogHead = blockId;
+        setMetaInfo(metaInfo);
+    }
+
     @Override
     public void read(long position, ByteBuffer target) {
         wrapped.read(position + metaBlockSize, target);
@@ -66,11 +91,21 @@ public class MetaInformationWrapper implements SynchronizedByteContainer {
         wrapped.close();
     }
 
+    /**
+     * Storage parameters. "tree" fields describe blocks and cache of the key index, whichever engine is used.
+     */
     public static class MetaInfo {
         public int version = 0x01;
         public int dataBlockSize;
         public int treeBlockSize;
         public int truncateMethod;
-        public int cacheSize;
+        public int treeCacheSize;
+        public int freeListHead = Pointer.NULL_PTR;
+        public int treeCachePolicy;
+        public int dataCacheSize;
+        public int dataCachePolicy;
+        public int engine;
+        public int dataLayout;
+        public int valueLogHead = Pointer.NULL_PTR;
     }
 }
@@ -2,7 +2,10 @@ package io.github.alexeygrishin.hashfile;
 
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Is a storage which allows to save/get data by string name.
@@ -18,6 +21,36 @@ public interface NamedStorage extends Iterable<String>, AutoCloseable {
      */
     boolean getInto(String key, OutputStream stream);
 
+    /**
+     * Gets data for many keys, same as {@link #getInto(String, OutputStream)} called for each of them, but keys are
+     * looked up in index order and data is read in order of its position in storage.
+     * Consumer is called in the caller's thread, not called for keys which are not found.
+     * @param keys data keys
+     * @param consumer receives found data
+     */
+    void getMany(Collection<String> keys, DataConsumer consumer);
+
+    /**
+     * Same as {@link #getMany(Collection, DataConsumer)}, but data is read and passed to consumer by tasks of provided
+     * executor, so values are read in parallel. Returns when all data is consumed.
+     * @param keys data keys
+     * @param consumer receives found data, shall be thread-safe
+     * @param executor executor for consumer calls, caller's thread is used if null
+     */
+    void getMany(Collection<String> keys, DataConsumer consumer, ExecutorService executor);
+
+    /**
+     * Reads all data in parallel: keys are split into disjoint parts by index, and each part is iterated and read by
+     * its own task of provided executor. Data is streamed to target in executor threads, for keys of each part in index
+     * order. Keys added or removed meanwhile may be passed or not, same as for {@link #iterator()}. Returns when all
+     * data is written.
+     * @param target receives data, shall be thread-safe
+     * @param executor executor for parts
+     * @param parts desired number of parts, usually a few times more than executor threads. Index may split keys into
+     *              less parts
+     */
+    void scan(DataTarget target, ExecutorService executor, int parts);
+
     /**
      * Saves data from stream using provided key. If there was data for this key it will be overwritten with new data.
      * Does not close given stream.
@@ -26,6 +59,21 @@ public interface NamedStorage extends Iterable<String>, AutoCloseable {
      */
     void saveFrom(String key, InputStream stream);
 
+    /**
+     * Saves data for many keys, same as {@link #saveFrom(String, InputStream)} called for each of them. But empty storage
+     * may build its key index at once, which is faster and makes index more compact.
+     * Each stream is closed after its data is saved.
+     * @param entries keys with streams to get data from, streams may be opened lazily by iterator
+     */
+    void saveAll(Iterator<Map.Entry<String, InputStream>> entries);
+
+    /**
+     * Applies all changes of batch and writes them on disk. Data is saved first, then keys are changed at once, so
+     * readers see either none or all changes of batch. Concurrent batches may be written on disk by the single flush.
+     * @param batch changes to apply
+     */
+    void write(WriteBatch batch);
+
     /**
      * Checks that there is data stored for provided key
      * @param key data key
@@ -45,6 +93,35 @@ public interface NamedStorage extends Iterable<String>, AutoCloseable {
      */
     Iterator<String> iterator();
 
+    /**
+     * @param from lower bound (inclusive), null to start from the first key
+     * @param to upper bound (exclusive), null to iterate till the last key
+     * @return iterator for keys of range, ordered as strings
+     * @throws UnsupportedOperationException if storage was created without ordered keys
+     */
+    Iterator<String> range(String from, String to);
+
+    /**
+     * @param prefix beginning of keys
+     * @return iterator for keys which start with provided prefix, ordered as strings
+     * @throws UnsupportedOperationException if storage was created without ordered keys
+     */
+    Iterator<String> prefix(String prefix);
+
+    /**
+     * Takes snapshot of storage: read-only storage with data of this moment, which may be read (for example, copied
+     * via {@link #cloneTo(NamedStorage)}) while this storage is changed. Snapshot shall be closed, as replaced and
+     * deleted data is kept for it until that. Snapshot is closed when storage is closed.
+     * @return snapshot, its modification methods throw {@link UnsupportedOperationException}
+     * @throws UnsupportedOperationException if storage does not support snapshots
+     */
+    NamedStorage snapshot();
+
+    /**
+     * Writes all changes made so far on disk. Storage remains opened.
+     */
+    void flush();
+
     /**
      * Closes storage and flushes all changes on disk.
      */
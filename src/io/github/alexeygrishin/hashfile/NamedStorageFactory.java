@@ -9,13 +9,26 @@ public interface NamedStorageFactory {
      * Creates name based storage in specified file
      * @param filePath path to file where data will be stored. Shall not exist.
      * @param dataBlockSizeK data block size in KBytes (used to store data, shall be closer to average data size).  Null means default value.
-     * @param cacheSizeM cache size in MBytes. Null means default value
+     * @param cacheSizeM total cache size in MBytes, it is split between keys and data caches. Null means default value
      * @param part how to truncate key. Null means default value
      * @return created storage
      * @throws CannotCreateStorage
      */
     NamedStorage create(String filePath, Integer dataBlockSizeK, Integer cacheSizeM, KeyTruncateMethod part);
 
+    /**
+     * Creates name based storage in specified file, with separately configured caches for keys and for data. So reading
+     * of large amount of data does not move keys out of cache.
+     * @param filePath path to file where data will be stored. Shall not exist.
+     * @param dataBlockSizeK data block size in KBytes. Null means default value.
+     * @param keysCache cache for keys index. Null means default value
+     * @param dataCache cache for data. Null means default value
+     * @param part how to truncate key. Null means default value
+     * @return created storage
+     * @throws CannotCreateStorage
+     */
+    NamedStorage create(String filePath, Integer dataBlockSizeK, CacheSettings keysCache, CacheSettings dataCache, KeyTruncateMethod part);
+
     /**
      * Same as {@link #create(String, Integer, Integer, io.github.alexeygrishin.btree.KeyTruncateMethod)} called with all
      * nulls except filePath. Creates named storage with default params.
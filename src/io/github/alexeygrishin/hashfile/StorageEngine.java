@@ -0,0 +1,38 @@
+package io.github.alexeygrishin.hashfile;
+
+/**
+ * Available key index implementations. Engine is selected when storage is created and kept in storage file.
+ */
+public enum StorageEngine {
+    /**
+     * B-tree ordered by key hashes, see {@link io.github.alexeygrishin.btree.BTree}
+     */
+    BTREE(1),
+    /**
+     * Linear hash table, see {@link io.github.alexeygrishin.hashindex.HashIndex}
+     */
+    HASH(2),
+    /**
+     * Log-structured merge index, see {@link io.github.alexeygrishin.lsm.LsmIndex}
+     */
+    LSM(3);
+
+    private int value;
+
+    StorageEngine(int value) {
+        this.value = value;
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    public static StorageEngine valueOf(int engine) {
+        for (StorageEngine value: values()) {
+            if (value.value == engine) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Unknown storage engine " + engine);
+    }
+}
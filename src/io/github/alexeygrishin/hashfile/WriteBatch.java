@@ -0,0 +1,54 @@
+package io.github.alexeygrishin.hashfile;
+
+import io.github.alexeygrishin.common.Check;
+
+import java.io.InputStream;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects puts and deletes to apply them at once via {@link NamedStorage#write(WriteBatch)}. If batch has several
+ * changes of the same key, then the last one wins.
+ *
+ * Not thread-safe.
+ */
+public class WriteBatch {
+
+    private final List<Map.Entry<String, InputStream>> changes = new ArrayList<>();
+
+    /**
+     * @param key data key
+     * @param stream stream to get data from, it is read and closed when batch is written
+     * @return this batch
+     */
+    public WriteBatch put(String key, InputStream stream) {
+        Check.notNull(key);
+        Check.notNull(stream);
+        changes.add(new AbstractMap.SimpleImmutableEntry<String, InputStream>(key, stream));
+        return this;
+    }
+
+    /**
+     * @param key data key, nothing happens on write if there is no such key
+     * @return this batch
+     */
+    public WriteBatch delete(String key) {
+        Check.notNull(key);
+        changes.add(new AbstractMap.SimpleImmutableEntry<String, InputStream>(key, null));
+        return this;
+    }
+
+    public int size() {
+        return changes.size();
+    }
+
+    /**
+     * @return changes in order they were added, stream is null for deletion
+     */
+    public List<Map.Entry<String, InputStream>> getChanges() {
+        return Collections.unmodifiableList(changes);
+    }
+}
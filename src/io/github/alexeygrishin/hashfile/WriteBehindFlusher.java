@@ -0,0 +1,136 @@
+package io.github.alexeygrishin.hashfile;
+
+import io.github.alexeygrishin.blockalloc.Cache;
+
+/**
+ * Background thread which flushes storage when its caches keep too many or too old changes (see {@link FlushSettings}).
+ * Writers shall call {@link #throttle()} before modification - if changes are made faster than flusher writes them,
+ * writer flushes storage itself, so the amount of changes which would be lost on crash remains limited.
+ *
+ * If background flush fails, the error is thrown to the next writer (or on {@link #stop()}).
+ */
+public class WriteBehindFlusher implements Runnable {
+
+    public static final long MAX_CHECK_INTERVAL_MS = 100;
+
+    private final NamedStorage storage;
+    private final Cache[] caches;
+    private final long dirtyLimit;
+    private final long throttleLimit;
+    private final long maxAge;
+    private final long checkInterval;
+    private final Thread thread;
+    private boolean stopped;
+    private volatile RuntimeException failure;
+
+    /**
+     * @param storage storage to flush
+     * @param settings when to flush
+     * @param caches caches used by storage, their total size is used to compute limits
+     */
+    public WriteBehindFlusher(NamedStorage storage, FlushSettings settings, Cache... caches) {
+        this.storage = storage;
+        this.caches = caches;
+        long cacheSize = 0;
+        for (Cache cache: caches) {
+            cacheSize += cache.getMaxSize();
+        }
+        this.dirtyLimit = cacheSize * settings.getDirtyPercent() / 100;
+        this.throttleLimit = cacheSize * settings.getThrottlePercent() / 100;
+        this.maxAge = settings.getMaxAgeMillis();
+        this.checkInterval = Math.max(1, Math.min(MAX_CHECK_INTERVAL_MS, maxAge / 10));
+        this.thread = new Thread(this, "write-behind flusher");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Stops background thread, waits until current flush (if any) is completed.
+     */
+    public void stop() {
+        synchronized (this) {
+            stopped = true;
+            notifyAll();
+        }
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        rethrowFailure();
+    }
+
+    /**
+     * Flushes storage in the caller's thread if there are too many changes.
+     */
+    public void throttle() {
+        rethrowFailure();
+        long size = getDirtySize();
+        if (size > 0 && size >= throttleLimit) {
+            storage.flush();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (waitForCheck()) {
+            if (needsFlush()) {
+                try {
+                    storage.flush();
+                }
+                catch (RuntimeException e) {
+                    failure = e;
+                    return;
+                }
+            }
+        }
+    }
+
+    private synchronized boolean waitForCheck() {
+        if (!stopped) {
+            try {
+                wait(checkInterval);
+            } catch (InterruptedException e) {
+                stopped = true;
+            }
+        }
+        return !stopped;
+    }
+
+    private boolean needsFlush() {
+        long size = 0, since = 0;
+        for (Cache cache: caches) {
+            size += cache.getDirtySize();
+            long cacheSince = cache.getDirtySince();
+            if (cacheSince != 0 && (since == 0 || cacheSince < since)) {
+                since = cacheSince;
+            }
+        }
+        return (size > 0 && size >= dirtyLimit) || (since != 0 && System.currentTimeMillis() - since >= maxAge);
+    }
+
+    private long getDirtySize() {
+        long size = 0;
+        for (Cache cache: caches) {
+            size += cache.getDirtySize();
+        }
+        return size;
+    }
+
+    private void rethrowFailure() {
+        RuntimeException e = failure;
+        if (e != null) {
+            failure = null;
+            throw e;
+        }
+    }
+}
@@ -1,54 +1,75 @@
 package io.github.alexeygrishin.hashfile.btreebased;
 
+import io.github.alexeygrishin.common.LockMap;
+
 import java.io.InputStream;
 import java.io.OutputStream;
 
 /**
- * Container for user data storage.
- * Note that container does not check correctness of provided block indexes, calling it with non-data block index may lead
- * to unpredictable behavior.
+ * Container for user data storage. Data is identified by pointer returned from {@link #insert(String, InputStream)},
+ * its meaning depends on implementation (see {@link DataStorage} and {@link ValueLog}).
+ * Note that container does not check correctness of provided pointers, calling it with pointer which was not returned
+ * by insert may lead to unpredictable behavior.
  *
- * Thread-safe, operations on different data blocks could be performed concurrently.
+ * Thread-safe, operations on different data could be performed concurrently.
  */
 public interface DataContainer {
 
     /**
-     * Gets full name of data stored in specified block.
-     * @param blockIdx
+     * Gets full name of data stored by specified pointer.
+     * @param data data pointer
      * @return
      */
-    String getFullName(int blockIdx);
+    String getFullName(long data);
 
     /**
-     * Replaces data for the specified block. If new data larger/smaller than previously stored
+     * Replaces data for the specified pointer. If new data larger/smaller than previously stored
      * then it allocates new blocks/frees old blocks if needed.
-     * @param blockIdx block index
+     * @param data data pointer
      * @param stream data source
+     * @throws UnsupportedOperationException if container cannot change data in place
      */
-    void update(int blockIdx, InputStream stream);
+    void update(long data, InputStream stream);
 
     /**
-     * Gets data from the specified block and passes it to the output stream
-     * @param blockIdx block index
+     * Gets data by the specified pointer and passes it to the output stream
+     * @param data data pointer
      * @param stream data sink
      */
-    void select(int blockIdx, OutputStream stream);
+    void select(long data, OutputStream stream);
 
     /**
      * Inserts data from provided stream and the data name into the storage.
-     * This method may allocate any amount of blocks needed for both name and data. Their order is unknown and cannot
-     * be calculated from returned first data block index.
+     * This method may allocate any amount of blocks needed for both name and data.
      * @param fullName data name
      * @param stream stream
-     * @return index of the first data block.
+     * @return data pointer
+     */
+    long insert(String fullName, InputStream stream);
+
+    /**
+     * Deletes data by the provided pointer
+     * @param data data pointer
      */
-    int insert(String fullName, InputStream stream);
+    void delete(long data);
 
     /**
-     * Deletes all data starting from the provided block
-     * @param blockIdx
+     * Locks data for reading, so it could not be updated, deleted or moved until lock is released.
+     * @param data data pointer
+     * @return lock to release
      */
-    void delete(int blockIdx);
+    LockMap<Long>.AutoLock lockRead(long data);
+
+    /**
+     * Frees space of deleted data if container does not do it immediately. Data which is still in use may be moved,
+     * then references to it are updated.
+     * Does nothing if there is nothing to free yet or if collection is already in progress.
+     * @param references index which refers data
+     */
+    void collectGarbage(DataReferences references);
+
+    void flush();
 
+    void close();
 
 }
@@ -0,0 +1,24 @@
+package io.github.alexeygrishin.hashfile.btreebased;
+
+/**
+ * Index which refers data of {@link DataContainer}, allows container to move data (see
+ * {@link DataContainer#collectGarbage(DataReferences)}).
+ */
+public interface DataReferences {
+
+    /**
+     * @param key data name
+     * @param data data pointer
+     * @return true if key refers provided data
+     */
+    boolean isReferenced(String key, long data);
+
+    /**
+     * Replaces reference if key still refers old data.
+     * @param key data name
+     * @param from old data pointer
+     * @param to new data pointer
+     * @return true if reference was replaced
+     */
+    boolean move(String key, long from, long to);
+}
@@ -11,19 +11,25 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 
+import static io.github.alexeygrishin.common.Check.safeInt;
+
+/**
+ * Keeps each data in the chain of blocks: name first, then data. Data pointer is the id of the first block. Data is
+ * updated in place, and blocks of deleted data are freed immediately.
+ */
 public class DataStorage implements DataContainer {
 
     private Allocator allocator;
-    private LockMap<Integer> pageLocker = new LockMap<>();
+    private LockMap<Long> pageLocker = new LockMap<>();
 
     public DataStorage(Allocator allocator) {
         this.allocator = allocator;
     }
 
     @Override
-    public String getFullName(int blockIdx) {
-        try (LockMap.AutoLock ignore = pageLocker.lockRead(blockIdx)) {
-            DataPage firstBlock = getNonDeletedPage(blockIdx);
+    public String getFullName(long data) {
+        try (LockMap.AutoLock ignore = pageLocker.lockRead(data)) {
+            DataPage firstBlock = getNonDeletedPage(safeInt(data));
             byte[] nameAsBytes = new byte[firstBlock.wholeNameLen];
             int offset = 0;
             DataPage currentBlock = firstBlock;
@@ -41,8 +47,14 @@ public class DataStorage implements DataContainer {
     }
 
     @Override
-    public void update(int blockIdx, InputStream stream) {
-        try (LockMap.AutoLock ignore = pageLocker.lockWrite(blockIdx)) {
+    public LockMap<Long>.AutoLock lockRead(long data) {
+        return pageLocker.lockRead(data);
+    }
+
+    @Override
+    public void update(long data, InputStream stream) {
+        int blockIdx = safeInt(data);
+        try (LockMap.AutoLock ignore = pageLocker.lockWrite(data)) {
             DataPage currentBlock = getNonDeletedPage(blockIdx);
             int next = findFirstDataBlockIdx(blockIdx, currentBlock);
             saveDataStartingFrom(stream, getNonDeletedPageToModify(next));
@@ -52,8 +64,9 @@ public class DataStorage implements DataContainer {
     }
 
     @Override
-    public void select(int blockIdx, OutputStream stream) {
-        try (LockMap.AutoLock ignore = pageLocker.lockRead(blockIdx)) {
+    public void select(long data, OutputStream stream) {
+        int blockIdx = safeInt(data);
+        try (LockMap.AutoLock ignore = pageLocker.lockRead(data)) {
             DataPage currentBlock = getNonDeletedPage(blockIdx);
             int next = findFirstDataBlockIdx(blockIdx, currentBlock);
             while (Pointer.isValid(next)) {
@@ -69,7 +82,7 @@ public class DataStorage implements DataContainer {
     }
 
     @Override
-    public int insert(String fullName, InputStream stream) {
+    public long insert(String fullName, InputStream stream) {
         byte[] nameInBytes = fullName.getBytes(StandardCharsets.UTF_8);
         int createdBlockId = Pointer.NULL_PTR;
         try {   //no need for lock here - allocator shall be thread-safe for adding
@@ -102,15 +115,15 @@ public class DataStorage implements DataContainer {
 
 
     @Override
-    public void delete(int blockIdx) {
-        int current = blockIdx;
-        try (LockMap.AutoLock ignore = pageLocker.lockWrite(blockIdx)) {
+    public void delete(long data) {
+        int current = safeInt(data);
+        try (LockMap.AutoLock ignore = pageLocker.lockWrite(data)) {
             do {
                 int next;
                 //do not use getNonDeletedPageToModify here - it throws exception if page is deleted, but we may ignore it
-                try (BlockToModify<DataPage> data = allocator.getToModify(current, DataPage.class)) {
-                    data.getBlock().deleted = 1;
-                    next = data.getBlock().nextPage;
+                try (BlockToModify<DataPage> page = allocator.getToModify(current, DataPage.class)) {
+                    page.getBlock().deleted = 1;
+                    next = page.getBlock().nextPage;
                 }
                 allocator.free(current);
                 current = next;
@@ -118,6 +131,19 @@ public class DataStorage implements DataContainer {
         }
     }
 
+    /**
+     * Nothing to do - blocks are freed on deletion.
+     */
+    @Override
+    public void collectGarbage(DataReferences references) {
+    }
+
+    @Override
+    public void flush() {
+        allocator.flush();
+    }
+
+    @Override
     public void close() {
         allocator.close();
     }
@@ -0,0 +1,886 @@
+package io.github.alexeygrishin.hashfile.btreebased;
+
+import io.github.alexeygrishin.blockalloc.Allocator;
+import io.github.alexeygrishin.blockalloc.Cache;
+import io.github.alexeygrishin.btree.*;
+import io.github.alexeygrishin.common.Check;
+import io.github.alexeygrishin.common.LockMap;
+import io.github.alexeygrishin.common.Locker;
+import io.github.alexeygrishin.common.Pointer;
+import io.github.alexeygrishin.hashfile.DataConsumer;
+import io.github.alexeygrishin.hashfile.DataTarget;
+import io.github.alexeygrishin.hashfile.FlushSettings;
+import io.github.alexeygrishin.hashfile.NamedStorage;
+import io.github.alexeygrishin.hashfile.WriteBatch;
+import io.github.alexeygrishin.hashfile.WriteBehindFlusher;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Named storage based on key index (see {@link KeyIndex}) and {@link DataContainer}. Index is used to quickly
+ * find/insert/delete data by name, engines differ only by index implementation. Data is kept either in chains of blocks
+ * ({@link DataStorage}) or in append-only log ({@link ValueLog}).
+ *
+ * May use different storages for index and data, may use the same.
+ *
+ * Data is written outside of index lock: new value is stored to separate blocks first, then index is locked only to
+ * replace the data pointer, and old value is deleted after that. Readers lock data (see {@link DataContainer#lockRead(long)})
+ * while index is still locked, so old value is not deleted until it is completely read.
+ *
+ * Changes may be written on disk in background (see {@link #writeBehind(FlushSettings, Cache...)}). Data is flushed
+ * before index, so flushed index never points to not flushed data.
+ *
+ * Snapshot (see {@link #snapshot()}) reads snapshot of index (see {@link KeyIndex#snapshot()}) and the same data
+ * container. Data replaced or deleted while snapshots are open is not deleted until all snapshots which could see it
+ * are closed, and garbage is not collected meanwhile, as collection moves data. {@link #getMany(Collection, DataConsumer, ExecutorService)}
+ * retains data the same way while it reads by found pointers.
+ */
+public abstract class IndexedStorage implements NamedStorage {
+
+    public static final int NAMES_CACHE_SIZE = 1024 * 1024;
+    public static final int NAMES_CACHE_INITIAL_COUNT = 1024;
+    private final KeyIndex tree;
+    private final DataContainer storage;
+    private final TreeNamesCache names;
+    private WriteBehindFlusher flusher;
+    /**
+     * Garbage collection is not performed while data saved by {@link #saveAll(Iterator)} is not in index yet.
+     */
+    private final Lock collectionLock = new ReentrantLock();
+    /**
+     * Batches are numbered when they are applied, flush of batches is performed under commit lock and writes all batches
+     * applied so far.
+     */
+    private final AtomicLong appliedBatches = new AtomicLong();
+    private final Object commitLock = new Object();
+    private long committedBatches;
+    private final Object snapshotsLock = new Object();
+    private long lastSnapshotId;
+    private final SortedSet<Long> openSnapshots = new TreeSet<>();
+    private final Deque<RetainedData> retainedData = new ArrayDeque<>();
+    private final DataLocker<LockMap<Long>.AutoLock> dataLocker = new DataLocker<LockMap<Long>.AutoLock>() {
+        @Override
+        public LockMap<Long>.AutoLock lock(long data) {
+            return storage.lockRead(data);
+        }
+    };
+    private final DataReferences references = new DataReferences() {
+        @Override
+        public boolean isReferenced(String key, long data) {
+            return tree.get(key) == data;
+        }
+
+        @Override
+        public boolean move(String key, long from, long to) {
+            if (!tree.replace(key, from, to)) {
+                return false;
+            }
+            names.forget(from);
+            return true;
+        }
+    };
+
+    /**
+     * Creates storage
+     * @param indexAllocator allocator for key index, see {@link #createIndex(Allocator, TreeNameHelper)}
+     * @param dataAllocator allocator for user data, block size shall be ~ average data size. May be same as indexAllocator.
+     * @param truncateMethod how to truncate long keys for comparison
+     */
+    protected IndexedStorage(Allocator indexAllocator, Allocator dataAllocator, KeyTruncateMethod truncateMethod) {
+        this(indexAllocator, new DataStorage(dataAllocator), truncateMethod);
+    }
+
+    /**
+     * Creates storage
+     * @param indexAllocator allocator for key index, see {@link #createIndex(Allocator, TreeNameHelper)}
+     * @param data container for user data
+     * @param truncateMethod how to truncate long keys for comparison
+     */
+    protected IndexedStorage(Allocator indexAllocator, DataContainer data, final KeyTruncateMethod truncateMethod) {
+        this.storage = data;
+        this.names = new TreeNamesCache(new TreeNameHelper() {
+            @Override
+            public String getFullName(long dataId) {
+                return storage.getFullName(dataId);
+            }
+
+            @Override
+            public String truncate(String fullName, int targetLen) {
+                return Truncate.part(fullName, targetLen, truncateMethod);
+            }
+        }, NAMES_CACHE_SIZE, NAMES_CACHE_INITIAL_COUNT);
+        this.tree = createIndex(indexAllocator, names);
+    }
+
+    /**
+     * Called from constructor, so shall not use fields of subclass.
+     * @param allocator allocator for index blocks
+     * @param names provides whole keys by data pointers
+     * @return index loaded from allocator or a new one if allocator is empty
+     */
+    protected abstract KeyIndex createIndex(Allocator allocator, TreeNameHelper names);
+
+    protected KeyIndex getIndex() {
+        return tree;
+    }
+
+    /**
+     * Starts background flushing of changes kept by caches.
+     * @param settings when to flush
+     * @param caches caches used by tree and data allocators
+     */
+    public void writeBehind(FlushSettings settings, Cache... caches) {
+        flusher = new WriteBehindFlusher(this, settings, caches);
+        flusher.start();
+    }
+
+    private void throttle() {
+        if (flusher != null) {
+            flusher.throttle();
+        }
+    }
+
+    @Override
+    public boolean getInto(String key, OutputStream stream) {
+        try (LockMap<Long>.AutoLock data = tree.getAndLock(key, dataLocker)) {
+            if (data == null) return false;
+            storage.select(data.getKey(), stream);
+            return true;
+        }
+    }
+
+    @Override
+    public void getMany(Collection<String> keys, DataConsumer consumer) {
+        getMany(keys, consumer, null);
+    }
+
+    /**
+     * Keys are looked up in key order under single index lock (see {@link KeyIndex#lockForRead()}), so consecutive
+     * lookups go through the same pages. Then data is read by found pointers in their order, so data blocks are read
+     * mostly forward. Data replaced or deleted during the call is not deleted until it returns (same as for open
+     * snapshot), so found pointers stay valid, each data is locked only while it is read, and consumer is called
+     * without any locks held, so it may change the storage.
+     *
+     * With executor data is read by executor tasks in order of pointers, and the number of tasks not completed yet is
+     * limited by executor size, so memory does not depend on the number of keys.
+     */
+    @Override
+    public void getMany(Collection<String> keys, DataConsumer consumer, ExecutorService executor) {
+        SortedSet<String> sorted = new TreeSet<>(tree.getKeyOrder());
+        sorted.addAll(keys);
+        long readerId = retain();
+        try {
+            List<FoundData> found = new ArrayList<>(sorted.size());
+            try (Locker ignore = tree.lockForRead()) {
+                for (String key: sorted) {
+                    long data = tree.get(key);
+                    if (Pointer.isValid(data)) {
+                        found.add(new FoundData(key, data));
+                    }
+                }
+            }
+            read(found, consumer, executor);
+        }
+        finally {
+            release(readerId);
+        }
+    }
+
+    @Override
+    public void scan(DataTarget target, ExecutorService executor, int parts) {
+        scan(this, tree.split(parts), target, executor);
+    }
+
+    /**
+     * Each data is written to target via {@link NamedStorage#getInto(String, OutputStream)} of source, so it is
+     * streamed under data lock.
+     */
+    private static void scan(final NamedStorage source, List<Iterator<String>> parts, final DataTarget target,
+                             ExecutorService executor) {
+        Check.notNull(target);
+        Check.notNull(executor);
+        List<Future<?>> scanned = new ArrayList<>(parts.size());
+        try {
+            for (final Iterator<String> keys: parts) {
+                scanned.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        while (keys.hasNext()) {
+                            String key = keys.next();
+                            source.getInto(key, new TargetStream(target, key));
+                        }
+                    }
+                }));
+            }
+        }
+        finally {
+            waitFor(scanned);
+        }
+    }
+
+    /**
+     * Reads found data in order of pointers and passes it to consumer, in caller's thread if executor is null.
+     * Otherwise data is read by executor tasks and caller waits while there are too many tasks in progress. Found data
+     * shall be retained (see {@link #retain()}) until this method returns.
+     */
+    private void read(List<FoundData> found, final DataConsumer consumer, ExecutorService executor) {
+        Collections.sort(found);
+        if (executor == null) {
+            for (FoundData data: found) {
+                consume(data, consumer);
+            }
+            return;
+        }
+        final Semaphore inProgress = new Semaphore(parallelism(executor));
+        List<Future<?>> consumed = new ArrayList<>();
+        try {
+            for (final FoundData data: found) {
+                inProgress.acquireUninterruptibly();
+                try {
+                    consumed.add(executor.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                consume(data, consumer);
+                            }
+                            finally {
+                                inProgress.release();
+                            }
+                        }
+                    }));
+                }
+                catch (RuntimeException e) {
+                    inProgress.release();
+                    throw e;
+                }
+            }
+        }
+        finally {
+            waitFor(consumed);
+        }
+    }
+
+    /**
+     * Reads retained data under its lock, then passes it to consumer without any locks held.
+     */
+    private void consume(FoundData data, DataConsumer consumer) {
+        DataBuffer buffer = new DataBuffer();
+        storage.select(data.data, buffer);
+        consumer.accept(data.key, buffer.toInputStream());
+    }
+
+    /**
+     * @return number of executor threads, or number of processors if it is not known
+     */
+    private static int parallelism(ExecutorService executor) {
+        int processors = Runtime.getRuntime().availableProcessors();
+        if (executor instanceof ThreadPoolExecutor) {
+            //cached pool has no real limit
+            return Math.min(((ThreadPoolExecutor)executor).getMaximumPoolSize(), processors * 4);
+        }
+        return processors;
+    }
+
+    private static void waitFor(List<Future<?>> futures) {
+        boolean interrupted = false;
+        RuntimeException failure = null;
+        for (Future<?> future: futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof RuntimeException ? (RuntimeException)e.getCause() : new DataException(e.getCause());
+                    }
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Opens target stream on the first write (or close), so target is not called for keys which are not found.
+     */
+    private static class TargetStream extends OutputStream {
+        private final DataTarget target;
+        private final String key;
+        private OutputStream stream;
+
+        private TargetStream(DataTarget target, String key) {
+            this.target = target;
+            this.key = key;
+        }
+
+        private OutputStream stream() {
+            if (stream == null) {
+                stream = target.open(key);
+            }
+            return stream;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            stream().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            stream().write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (stream != null) {
+                stream.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            stream().close();
+        }
+    }
+
+    private static class FoundData implements Comparable<FoundData> {
+        private final String key;
+        private final long data;
+
+        private FoundData(String key, long data) {
+            this.key = key;
+            this.data = data;
+        }
+
+        @Override
+        public int compareTo(FoundData o) {
+            return Long.compare(data, o.data);
+        }
+    }
+
+    /**
+     * Passes collected bytes to consumer without copying them.
+     */
+    private static class DataBuffer extends ByteArrayOutputStream {
+        InputStream toInputStream() {
+            return new ByteArrayInputStream(buf, 0, count);
+        }
+    }
+
+
+    @Override
+    public void saveFrom(String key, InputStream stream) {
+        throttle();
+        long data = storage.insert(key, stream);
+        long replaced;
+        try {
+            replaced = put(key, data);
+        }
+        catch (RuntimeException e) {
+            storage.delete(data);
+            throw e;
+        }
+        if (Pointer.isValid(replaced)) {
+            deleteData(replaced);
+        }
+    }
+
+    /**
+     * If storage is empty, then all data is saved first, keys are sorted in memory and index is filled at once (see
+     * {@link KeyIndex#bulkLoad(Iterator)}). Otherwise keys are put one by one. If keys were saved concurrently while
+     * data was saved, then sorted keys are put one by one under single index lock.
+     */
+    @Override
+    public void saveAll(Iterator<Map.Entry<String, InputStream>> entries) {
+        if (tree.size() != 0) {
+            while (entries.hasNext()) {
+                Map.Entry<String, InputStream> entry = entries.next();
+                try (InputStream stream = entry.getValue()) {
+                    saveFrom(entry.getKey(), stream);
+                } catch (IOException e) {
+                    throw new DataException(e);
+                }
+            }
+            return;
+        }
+        SortedMap<String, Long> sorted = new TreeMap<>(tree.getKeyOrder());
+        List<Long> replaced = new ArrayList<>();
+        collectionLock.lock();
+        try {
+            try {
+                while (entries.hasNext()) {
+                    throttle();
+                    Map.Entry<String, InputStream> entry = entries.next();
+                    long data;
+                    try (InputStream stream = entry.getValue()) {
+                        data = storage.insert(entry.getKey(), stream);
+                    }
+                    Long previous = sorted.put(entry.getKey(), data);
+                    if (previous != null) {
+                        storage.delete(previous);
+                    }
+                }
+            }
+            catch (IOException | RuntimeException e) {
+                deleteAll(sorted.values());
+                throw e instanceof IOException ? new DataException(e) : (RuntimeException)e;
+            }
+            try (Locker ignore = tree.lockForWrite()) {
+                if (tree.size() == 0) {
+                    try {
+                        tree.bulkLoad(sorted.entrySet().iterator());
+                    }
+                    catch (RuntimeException e) {
+                        deleteAll(sorted.values());
+                        throw e;
+                    }
+                }
+                else {
+                    for (Map.Entry<String, Long> entry: sorted.entrySet()) {
+                        long old = put(entry.getKey(), entry.getValue());
+                        if (Pointer.isValid(old)) {
+                            replaced.add(old);
+                        }
+                    }
+                }
+            }
+        }
+        finally {
+            collectionLock.unlock();
+        }
+        for (long data: replaced) {
+            deleteData(data);
+        }
+    }
+
+    private void deleteAll(Collection<Long> data) {
+        for (long item: data) {
+            storage.delete(item);
+        }
+    }
+
+    /**
+     * Data of all puts is inserted first, then keys are changed in key order under single index lock, replaced data is
+     * deleted after that. Finally batch is committed: storage is flushed unless another writer has already flushed it
+     * after this batch was applied (group commit).
+     */
+    @Override
+    public void write(WriteBatch batch) {
+        throttle();
+        SortedMap<String, Long> changes = new TreeMap<>(tree.getKeyOrder());
+        List<Long> replaced = new ArrayList<>();
+        long batchNumber;
+        collectionLock.lock();
+        try {
+            try {
+                for (Map.Entry<String, InputStream> change: batch.getChanges()) {
+                    long data = Pointer.NULL_PTR;
+                    if (change.getValue() != null) {
+                        try (InputStream stream = change.getValue()) {
+                            data = storage.insert(change.getKey(), stream);
+                        }
+                    }
+                    Long previous = changes.put(change.getKey(), data);
+                    if (previous != null && Pointer.isValid(previous)) {
+                        storage.delete(previous);
+                    }
+                }
+            }
+            catch (IOException | RuntimeException e) {
+                for (long data: changes.values()) {
+                    if (Pointer.isValid(data)) {
+                        storage.delete(data);
+                    }
+                }
+                throw e instanceof IOException ? new DataException(e) : (RuntimeException)e;
+            }
+            try (Locker ignore = tree.lockForWrite()) {
+                for (Map.Entry<String, Long> change: changes.entrySet()) {
+                    long old = Pointer.isValid(change.getValue())
+                            ? put(change.getKey(), change.getValue())
+                            : tree.remove(change.getKey());
+                    if (Pointer.isValid(old)) {
+                        replaced.add(old);
+                    }
+                }
+                batchNumber = appliedBatches.incrementAndGet();
+            }
+        }
+        finally {
+            collectionLock.unlock();
+        }
+        for (long data: replaced) {
+            deleteData(data);
+        }
+        commit(batchNumber);
+    }
+
+    /**
+     * @return replaced data pointer or {@link Pointer#NULL_PTR}
+     */
+    private long put(String key, final long data) {
+        final long[] replaced = {Pointer.NULL_PTR};
+        tree.put(key, new TreeData() {
+            @Override
+            public long createData() {
+                return data;
+            }
+
+            @Override
+            public long updateData(long oldData) {
+                replaced[0] = oldData;
+                return data;
+            }
+        });
+        return replaced[0];
+    }
+
+    private void commit(long batchNumber) {
+        synchronized (commitLock) {
+            if (committedBatches >= batchNumber) {
+                return;
+            }
+            long applied = appliedBatches.get();
+            flush();
+            committedBatches = applied;
+        }
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return tree.contains(key);
+    }
+
+    @Override
+    public void delete(String key) {
+        throttle();
+        long data = tree.remove(key);
+        if (data != -1) {
+            deleteData(data);
+        }
+    }
+
+    /**
+     * Deletes data which is not referenced by index anymore. If data container frees space later, then it may collect
+     * garbage in the caller's thread.
+     * @param data data pointer
+     */
+    protected void deleteData(long data) {
+        synchronized (snapshotsLock) {
+            if (!openSnapshots.isEmpty()) {
+                retainedData.add(new RetainedData(lastSnapshotId, data));
+                return;
+            }
+        }
+        freeData(data);
+    }
+
+    private void freeData(long data) {
+        //pointer is not in tree anymore, but it could be reused after deletion, so its name shall not be cached
+        names.forget(data);
+        storage.delete(data);
+        if (collectionLock.tryLock()) {
+            try {
+                synchronized (snapshotsLock) {
+                    if (!openSnapshots.isEmpty()) {
+                        return;
+                    }
+                }
+                storage.collectGarbage(references);
+            }
+            finally {
+                collectionLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Snapshot is registered under collection lock, so it waits for garbage collection in progress, and no collection
+     * starts until it is closed. Data replaced after registration is retained, so it is safe to take snapshot of index
+     * after that.
+     */
+    @Override
+    public NamedStorage snapshot() {
+        long snapshotId = retain();
+        IndexSnapshot index;
+        try {
+            index = tree.snapshot();
+        }
+        catch (RuntimeException e) {
+            release(snapshotId);
+            throw e;
+        }
+        return new Snapshot(snapshotId, index);
+    }
+
+    /**
+     * Registers reader (like snapshot) which needs all data it could find to stay readable: data replaced or deleted
+     * after this call is not deleted until {@link #release(long)} is called, and garbage is not collected meanwhile.
+     * Waits for garbage collection in progress, as it moves data.
+     * @return id to release
+     */
+    private long retain() {
+        collectionLock.lock();
+        try {
+            synchronized (snapshotsLock) {
+                openSnapshots.add(++lastSnapshotId);
+                return lastSnapshotId;
+            }
+        }
+        finally {
+            collectionLock.unlock();
+        }
+    }
+
+    /**
+     * Deletes retained data which is not visible to open snapshots anymore.
+     */
+    private void release(long snapshotId) {
+        List<Long> released = new ArrayList<>();
+        synchronized (snapshotsLock) {
+            openSnapshots.remove(snapshotId);
+            long oldest = openSnapshots.isEmpty() ? Long.MAX_VALUE : openSnapshots.first();
+            while (!retainedData.isEmpty() && retainedData.peek().lastSnapshotId < oldest) {
+                released.add(retainedData.poll().data);
+            }
+        }
+        for (long data: released) {
+            freeData(data);
+        }
+    }
+
+    private static class RetainedData {
+        //the last snapshot opened before data was replaced
+        private final long lastSnapshotId;
+        private final long data;
+
+        private RetainedData(long lastSnapshotId, long data) {
+            this.lastSnapshotId = lastSnapshotId;
+            this.data = data;
+        }
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return tree.iterator();
+    }
+
+    @Override
+    public Iterator<String> range(String from, String to) {
+        return tree.range(from, to);
+    }
+
+    /**
+     * Keys with prefix are followed by the prefix with its last char incremented (trailing max chars are dropped
+     * first, as they cannot be incremented).
+     */
+    @Override
+    public Iterator<String> prefix(String prefix) {
+        Check.notNull(prefix);
+        return tree.range(prefix, prefixEnd(prefix));
+    }
+
+    private static String prefixEnd(String prefix) {
+        int last = prefix.length() - 1;
+        while (last >= 0 && prefix.charAt(last) == Character.MAX_VALUE) {
+            last--;
+        }
+        return last >= 0 ? prefix.substring(0, last) + (char)(prefix.charAt(last) + 1) : null;
+    }
+
+    @Override
+    public void flush() {
+        storage.flush();
+        tree.flush();
+    }
+
+    /**
+     * Open snapshots become invalid, data retained for them is deleted.
+     */
+    @Override
+    public void close() {
+        try {
+            if (flusher != null) {
+                flusher.stop();
+            }
+        }
+        finally {
+            List<RetainedData> released;
+            synchronized (snapshotsLock) {
+                openSnapshots.clear();
+                released = new ArrayList<>(retainedData);
+                retainedData.clear();
+            }
+            for (RetainedData retained: released) {
+                storage.delete(retained.data);
+            }
+            tree.close();
+            storage.close();
+        }
+    }
+
+    /**
+     * Data is passed via {@link NamedStorage#saveAll(Iterator)}, so empty storage builds its index at once.
+     */
+    @Override
+    public void cloneTo(NamedStorage storage) {
+        copy(this, tree.iterator(), storage);
+    }
+
+    private static void copy(final NamedStorage source, final Iterator<String> keys, NamedStorage target) {
+        target.saveAll(new Iterator<Map.Entry<String, InputStream>>() {
+            @Override
+            public boolean hasNext() {
+                return keys.hasNext();
+            }
+
+            @Override
+            public Map.Entry<String, InputStream> next() {
+                String key = keys.next();
+                ByteArrayOutputStream bstream = new ByteArrayOutputStream();
+                source.getInto(key, bstream);
+                byte[] bytes = bstream.toByteArray();
+                return new AbstractMap.SimpleImmutableEntry<String, InputStream>(key, new ByteArrayInputStream(bytes));
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        });
+    }
+
+    /**
+     * Read-only view of storage over index snapshot. Data it refers is retained by storage until snapshot is closed.
+     */
+    private class Snapshot implements NamedStorage {
+
+        private final long snapshotId;
+        private final IndexSnapshot index;
+        private boolean closed;
+
+        private Snapshot(long snapshotId, IndexSnapshot index) {
+            this.snapshotId = snapshotId;
+            this.index = index;
+        }
+
+        @Override
+        public boolean getInto(String key, OutputStream stream) {
+            long data = index.get(key);
+            if (!Pointer.isValid(data)) return false;
+            storage.select(data, stream);
+            return true;
+        }
+
+        @Override
+        public void getMany(Collection<String> keys, DataConsumer consumer) {
+            getMany(keys, consumer, null);
+        }
+
+        @Override
+        public void getMany(Collection<String> keys, DataConsumer consumer, ExecutorService executor) {
+            SortedSet<String> sorted = new TreeSet<>(tree.getKeyOrder());
+            sorted.addAll(keys);
+            List<FoundData> found = new ArrayList<>(sorted.size());
+            for (String key: sorted) {
+                long data = index.get(key);
+                if (Pointer.isValid(data)) {
+                    found.add(new FoundData(key, data));
+                }
+            }
+            //data seen by snapshot is retained until snapshot is closed
+            read(found, consumer, executor);
+        }
+
+        @Override
+        public void scan(DataTarget target, ExecutorService executor, int parts) {
+            IndexedStorage.scan(this, index.split(parts), target, executor);
+        }
+
+        @Override
+        public void saveFrom(String key, InputStream stream) {
+            throw readOnly();
+        }
+
+        @Override
+        public void saveAll(Iterator<Map.Entry<String, InputStream>> entries) {
+            throw readOnly();
+        }
+
+        @Override
+        public void write(WriteBatch batch) {
+            throw readOnly();
+        }
+
+        @Override
+        public boolean contains(String key) {
+            return index.contains(key);
+        }
+
+        @Override
+        public void delete(String key) {
+            throw readOnly();
+        }
+
+        private UnsupportedOperationException readOnly() {
+            return new UnsupportedOperationException("Snapshot is read-only");
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            return index.iterator();
+        }
+
+        @Override
+        public Iterator<String> range(String from, String to) {
+            return index.range(from, to);
+        }
+
+        @Override
+        public Iterator<String> prefix(String prefix) {
+            Check.notNull(prefix);
+            return index.range(prefix, prefixEnd(prefix));
+        }
+
+        @Override
+        public NamedStorage snapshot() {
+            throw new UnsupportedOperationException("Snapshot of snapshot is not supported");
+        }
+
+        @Override
+        public void flush() {
+            //nothing is changed
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (closed) return;
+                closed = true;
+            }
+            index.close();
+            release(snapshotId);
+        }
+
+        @Override
+        public void cloneTo(NamedStorage storage) {
+            copy(this, index.iterator(), storage);
+        }
+    }
+}
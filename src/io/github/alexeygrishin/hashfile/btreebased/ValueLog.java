@@ -0,0 +1,452 @@
+package io.github.alexeygrishin.hashfile.btreebased;
+
+import io.github.alexeygrishin.blockalloc.RandomAccessAllocator;
+import io.github.alexeygrishin.btree.NoSuchElement;
+import io.github.alexeygrishin.common.Check;
+import io.github.alexeygrishin.common.LockMap;
+import io.github.alexeygrishin.common.Pointer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps data in append-only log. Each data is written as record (lengths of name and data, name, data) to the end of
+ * the current segment - range of adjacent blocks, so insertion writes blocks sequentially and does not read/rewrite
+ * existing ones. Data pointer is segment id (high 32 bits) and offset of record in segment (low 32 bits).
+ *
+ * Records are never changed in place: deletion only reduces amount of live bytes in segment. When most of segment is
+ * garbage (see {@link #GC_LIVE_PERCENT}), {@link #collectGarbage(DataReferences)} appends its live records to the end
+ * of log, moves references to them and frees the segment.
+ *
+ * Directory of segments is kept in memory and is written to blocks on {@link #flush()}, the first directory block is
+ * kept by {@link ValueLogHolder}.
+ *
+ * Data is read into memory before it is appended (to know its length), so each data shall fit into memory.
+ */
+public class ValueLog implements DataContainer {
+
+    public static final int SEGMENT_SIZE = 1024 * 1024;
+    public static final int GC_LIVE_PERCENT = 50;
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private final RandomAccessAllocator allocator;
+    private final ValueLogHolder holder;
+    private final int blockSize;
+    private final int segmentBlocks;
+    private final LockMap<Long> recordLocker = new LockMap<>();
+    private final Map<Integer, Segment> segments = new ConcurrentHashMap<>();
+    private final Set<Integer> garbageSegments = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+    private final ReentrantLock gcLock = new ReentrantLock();
+    private final Object flushLock = new Object();
+    /**
+     * Guards appending and segment sizes.
+     */
+    private final Object appendLock = new Object();
+    private Segment head;
+    private LogPage tailPage;
+    private int nextSegmentId;
+    private List<Integer> directoryPages = new ArrayList<>();
+
+    /**
+     * Loads log if holder keeps its directory, otherwise creates new one. Blocks are not allocated until data is inserted.
+     * @param allocator allocator for log segments and directory
+     * @param holder keeps the first directory block
+     */
+    public ValueLog(RandomAccessAllocator allocator, ValueLogHolder holder) {
+        this.allocator = allocator;
+        this.holder = holder;
+        this.blockSize = allocator.getBlockSize();
+        this.segmentBlocks = Math.max(1, SEGMENT_SIZE / blockSize);
+        Check.arguments(blockSize > DirectoryPage.HEADER_SIZE + SegmentInfo.SIZE, "Block shall have more than " +
+                (DirectoryPage.HEADER_SIZE + SegmentInfo.SIZE) + " bytes");
+        loadDirectory();
+    }
+
+    @Override
+    public String getFullName(long data) {
+        try (LockMap<Long>.AutoLock ignore = recordLocker.lockRead(data)) {
+            Segment segment = getSegment(data);
+            ByteBuffer header = readHeader(segment, offset(data));
+            return new String(read(segment, offset(data) + RECORD_HEADER_SIZE, header.getInt(0)), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Not supported: records are not changed, new data shall be inserted.
+     */
+    @Override
+    public void update(long data, InputStream stream) {
+        throw new UnsupportedOperationException("Value log does not change data in place");
+    }
+
+    @Override
+    public void select(long data, OutputStream stream) {
+        try (LockMap<Long>.AutoLock ignore = recordLocker.lockRead(data)) {
+            Segment segment = getSegment(data);
+            ByteBuffer header = readHeader(segment, offset(data));
+            long offset = offset(data) + RECORD_HEADER_SIZE + header.getInt(0);
+            int length = header.getInt(4);
+            while (length > 0) {
+                int inBlock = (int)(offset % blockSize);
+                int portion = Math.min(length, blockSize - inBlock);
+                LogPage page = allocator.get(segment.firstBlock + (int)(offset / blockSize), LogPage.class);
+                stream.write(page.bytes, inBlock, portion);
+                offset += portion;
+                length -= portion;
+            }
+            stream.close();
+        } catch (IOException e) {
+            throw new DataException(e);
+        }
+    }
+
+    @Override
+    public long insert(String fullName, InputStream stream) {
+        byte[] name = fullName.getBytes(StandardCharsets.UTF_8);
+        byte[] data;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[blockSize];
+            for (int read = stream.read(buffer); read != -1; read = stream.read(buffer)) {
+                bytes.write(buffer, 0, read);
+            }
+            data = bytes.toByteArray();
+        } catch (IOException e) {
+            throw new DataException(e);
+        }
+        Check.arguments((long)RECORD_HEADER_SIZE + name.length + data.length <= Integer.MAX_VALUE, "Name and data are too large");
+        byte[] header = ByteBuffer.allocate(RECORD_HEADER_SIZE).putInt(name.length).putInt(data.length).array();
+        return append(header, name, data);
+    }
+
+    /**
+     * Only reduces amount of live bytes of segment, record remains until segment is collected.
+     */
+    @Override
+    public void delete(long data) {
+        Segment segment = segments.get(segmentId(data));
+        if (segment == null) {
+            //already moved and collected
+            return;
+        }
+        try (LockMap<Long>.AutoLock ignore = recordLocker.lockWrite(data)) {
+            ByteBuffer header = readHeader(segment, offset(data));
+            int length = RECORD_HEADER_SIZE + header.getInt(0) + header.getInt(4);
+            synchronized (appendLock) {
+                segment.live -= length;
+                checkGarbage(segment);
+            }
+        }
+    }
+
+    @Override
+    public LockMap<Long>.AutoLock lockRead(long data) {
+        return recordLocker.lockRead(data);
+    }
+
+    /**
+     * Collects one segment (if any) in the caller's thread.
+     */
+    @Override
+    public void collectGarbage(DataReferences references) {
+        if (garbageSegments.isEmpty() || !gcLock.tryLock()) {
+            return;
+        }
+        try {
+            Iterator<Integer> candidates = garbageSegments.iterator();
+            if (!candidates.hasNext()) {
+                return;
+            }
+            Segment segment = segments.get(candidates.next());
+            candidates.remove();
+            if (segment != null) {
+                collect(segment, references);
+            }
+        }
+        finally {
+            gcLock.unlock();
+        }
+    }
+
+    /**
+     * @return amount of log segments, including the current one
+     */
+    public int getSegmentsCount() {
+        return segments.size();
+    }
+
+    private void collect(Segment segment, DataReferences references) {
+        List<Long> records = new ArrayList<>();
+        for (int offset = 0; offset < segment.used; ) {
+            long pointer = pointer(segment.id, offset);
+            ByteBuffer header = readHeader(segment, offset);
+            int nameLength = header.getInt(0);
+            int length = RECORD_HEADER_SIZE + nameLength + header.getInt(4);
+            String name = new String(read(segment, offset + RECORD_HEADER_SIZE, nameLength), StandardCharsets.UTF_8);
+            if (references.isReferenced(name, pointer)) {
+                long moved = append(read(segment, offset, length));
+                if (!references.move(name, pointer, moved)) {
+                    delete(moved);
+                }
+            }
+            records.add(pointer);
+            offset += length;
+        }
+        //old records are not referenced anymore, but they still could be read
+        for (long pointer: records) {
+            recordLocker.lockWrite(pointer).close();
+        }
+        //segment shall not be freed while directory is being written
+        synchronized (flushLock) {
+            segments.remove(segment.id);
+            for (int i = 0; i < segment.blocks; i++) {
+                allocator.free(segment.firstBlock + i);
+            }
+        }
+    }
+
+    /**
+     * Writes directory of segments, then the first directory block is passed to holder and previous directory is freed.
+     */
+    @Override
+    public void flush() {
+        synchronized (flushLock) {
+            List<Integer> oldPages = directoryPages;
+            int newHead = saveDirectory();
+            allocator.flush();
+            holder.setValueLogHead(newHead);
+            for (int page: oldPages) {
+                allocator.free(page);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+        allocator.close();
+    }
+
+    private long append(byte[]... parts) {
+        int length = 0;
+        for (byte[] part: parts) {
+            length += part.length;
+        }
+        synchronized (appendLock) {
+            if (head == null || (long)head.blocks * blockSize - head.used < length) {
+                startSegment(length);
+            }
+            long pointer = pointer(head.id, head.used);
+            for (byte[] part: parts) {
+                write(part);
+            }
+            head.live += length;
+            return pointer;
+        }
+    }
+
+    /**
+     * Shall be called under append lock. Segment is usually {@link #SEGMENT_SIZE}, but may be larger to contain record.
+     */
+    private void startSegment(int length) {
+        Segment previous = head;
+        int blocks = Math.max(segmentBlocks, (int)(((long)length + blockSize - 1) / blockSize));
+        head = new Segment(nextSegmentId++, allocator.allocate(blocks), blocks);
+        tailPage = null;
+        segments.put(head.id, head);
+        if (previous != null) {
+            checkGarbage(previous);
+        }
+    }
+
+    /**
+     * Shall be called under append lock. Writes bytes to the end of head segment, each changed block is saved.
+     */
+    private void write(byte[] bytes) {
+        int from = 0;
+        while (from < bytes.length) {
+            int block = head.firstBlock + head.used / blockSize;
+            int inBlock = head.used % blockSize;
+            if (inBlock == 0) {
+                tailPage = new LogPage(blockSize);
+            }
+            else if (tailPage == null) {
+                //log was loaded, continue the last block
+                tailPage = allocator.get(block, LogPage.class);
+            }
+            int portion = Math.min(bytes.length - from, blockSize - inBlock);
+            System.arraycopy(bytes, from, tailPage.bytes, inBlock, portion);
+            allocator.saveModifications(block, tailPage);
+            from += portion;
+            head.used += portion;
+        }
+    }
+
+    /**
+     * Shall be called under append lock.
+     */
+    private void checkGarbage(Segment segment) {
+        if (segment != head && (long)segment.live * 100 < (long)segment.used * GC_LIVE_PERCENT) {
+            garbageSegments.add(segment.id);
+        }
+    }
+
+    private Segment getSegment(long data) {
+        Segment segment = segments.get(segmentId(data));
+        if (segment == null) {
+            throw new NoSuchElement("There is no log segment for data " + data);
+        }
+        return segment;
+    }
+
+    private ByteBuffer readHeader(Segment segment, long offset) {
+        return ByteBuffer.wrap(read(segment, offset, RECORD_HEADER_SIZE));
+    }
+
+    private byte[] read(Segment segment, long offset, int length) {
+        byte[] result = new byte[length];
+        int from = 0;
+        while (from < length) {
+            int inBlock = (int)(offset % blockSize);
+            int portion = Math.min(length - from, blockSize - inBlock);
+            LogPage page = allocator.get(segment.firstBlock + (int)(offset / blockSize), LogPage.class);
+            System.arraycopy(page.bytes, inBlock, result, from, portion);
+            offset += portion;
+            from += portion;
+        }
+        return result;
+    }
+
+    private static long pointer(int segmentId, int offset) {
+        return ((long)segmentId << 32) | offset;
+    }
+
+    private static int segmentId(long data) {
+        return (int)(data >>> 32);
+    }
+
+    private static int offset(long data) {
+        return (int)data;
+    }
+
+    private void loadDirectory() {
+        int page = holder.getValueLogHead();
+        while (Pointer.isValid(page)) {
+            directoryPages.add(page);
+            DirectoryPage directory = allocator.get(page, DirectoryPage.class);
+            nextSegmentId = directory.nextSegmentId;
+            for (int i = 0; i < directory.count; i++) {
+                SegmentInfo info = directory.segments[i];
+                Segment segment = new Segment(info.id, info.firstBlock, info.blocks);
+                segment.used = info.used;
+                segment.live = info.live;
+                segments.put(segment.id, segment);
+                if (head == null || segment.id > head.id) {
+                    head = segment;
+                }
+            }
+            page = directory.nextPage;
+        }
+        for (Segment segment: segments.values()) {
+            checkGarbage(segment);
+        }
+    }
+
+    /**
+     * @return the first block of written directory
+     */
+    private int saveDirectory() {
+        List<SegmentInfo> infos = new ArrayList<>();
+        int segmentId;
+        synchronized (appendLock) {
+            segmentId = nextSegmentId;
+            for (Segment segment: segments.values()) {
+                infos.add(segment.toInfo());
+            }
+        }
+        int capacity = (blockSize - DirectoryPage.HEADER_SIZE) / SegmentInfo.SIZE;
+        int pagesCount = Math.max(1, (infos.size() + capacity - 1) / capacity);
+        List<Integer> pages = new ArrayList<>(pagesCount);
+        for (int i = 0; i < pagesCount; i++) {
+            pages.add(allocator.allocate());
+        }
+        for (int i = 0; i < pagesCount; i++) {
+            DirectoryPage page = new DirectoryPage();
+            page.nextPage = i + 1 < pagesCount ? pages.get(i + 1) : Pointer.NULL_PTR;
+            page.nextSegmentId = segmentId;
+            page.count = Math.max(0, Math.min(capacity, infos.size() - i * capacity));
+            page.segments = new SegmentInfo[capacity];
+            for (int j = 0; j < capacity; j++) {
+                int idx = i * capacity + j;
+                page.segments[j] = idx < infos.size() ? infos.get(idx) : new SegmentInfo();
+            }
+            allocator.saveModifications(pages.get(i), page);
+        }
+        directoryPages = pages;
+        return pages.get(0);
+    }
+
+    private static class Segment {
+        private final int id;
+        private final int firstBlock;
+        private final int blocks;
+        private int used;
+        private int live;
+
+        private Segment(int id, int firstBlock, int blocks) {
+            this.id = id;
+            this.firstBlock = firstBlock;
+            this.blocks = blocks;
+        }
+
+        private SegmentInfo toInfo() {
+            SegmentInfo info = new SegmentInfo();
+            info.id = id;
+            info.firstBlock = firstBlock;
+            info.blocks = blocks;
+            info.used = used;
+            info.live = live;
+            return info;
+        }
+    }
+
+    public static class LogPage {
+        public byte[] bytes;
+
+        public LogPage() {
+        }
+
+        public LogPage(int size) {
+            this.bytes = new byte[size];
+        }
+    }
+
+    /**
+     * Directory pages are chained from the first one to the last one.
+     */
+    public static class DirectoryPage {
+        public static final int HEADER_SIZE = 12;
+
+        public int nextPage;
+        public int nextSegmentId;
+        public int count;
+        public SegmentInfo[] segments;
+    }
+
+    public static class SegmentInfo {
+        public static final int SIZE = 20;
+
+        public int id;
+        public int firstBlock;
+        public int blocks;
+        public int used;
+        public int live;
+    }
+}
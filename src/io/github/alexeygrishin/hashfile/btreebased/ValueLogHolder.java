@@ -0,0 +1,20 @@
+package io.github.alexeygrishin.hashfile.btreebased;
+
+/**
+ * Persists pointer to the first block of {@link ValueLog} directory, so segments of log could be restored when storage
+ * is loaded again. Usually implemented by the storage header.
+ */
+public interface ValueLogHolder {
+
+    /**
+     *
+     * @return id of the first directory block, or {@link io.github.alexeygrishin.common.Pointer#NULL_PTR} if log was not saved yet
+     */
+    int getValueLogHead();
+
+    /**
+     * Saves id of the first directory block.
+     * @param blockId block id
+     */
+    void setValueLogHead(int blockId);
+}
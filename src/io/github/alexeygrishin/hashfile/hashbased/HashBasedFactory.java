@@ -0,0 +1,80 @@
+package io.github.alexeygrishin.hashfile.hashbased;
+
+import io.github.alexeygrishin.blockalloc.Allocator;
+import io.github.alexeygrishin.blockalloc.Cache;
+import io.github.alexeygrishin.btree.KeyTruncateMethod;
+import io.github.alexeygrishin.common.CachePolicy;
+import io.github.alexeygrishin.hashfile.*;
+import io.github.alexeygrishin.hashfile.btreebased.DataContainer;
+
+/**
+ * Produces hash table based named storage. Bucket size is selected automatically to be >= 8K (and not less than data
+ * block size).
+ *
+ * See {@link BaseStorageFactory} for file access, caches and background flush.
+ */
+public class HashBasedFactory extends BaseStorageFactory {
+
+    public static final int DEFAULT_BUCKET_SIZE_KB = 8;
+
+    public HashBasedFactory() {
+        this(false);
+    }
+
+    /**
+     * @param memoryMapped true if created/loaded storages shall map file into memory instead of reading it via channel
+     */
+    public HashBasedFactory(boolean memoryMapped) {
+        this(memoryMapped, DEFAULT_CACHE_POLICY, FlushSettings.DEFAULT);
+    }
+
+    /**
+     * @param memoryMapped true if created/loaded storages shall map file into memory instead of reading it via channel
+     * @param cachePolicy cache policy for created storages if it is not specified explicitly. Loaded storages use
+     *                    policies they were created with.
+     * @param flushSettings when changes are written in background
+     */
+    public HashBasedFactory(boolean memoryMapped, CachePolicy cachePolicy, FlushSettings flushSettings) {
+        this(memoryMapped, cachePolicy, flushSettings, DataLayout.BLOCKS);
+    }
+
+    /**
+     * @param memoryMapped true if created/loaded storages shall map file into memory instead of reading it via channel
+     * @param cachePolicy cache policy for created storages if it is not specified explicitly. Loaded storages use
+     *                    policies they were created with.
+     * @param flushSettings when changes are written in background
+     * @param dataLayout how data is kept in created storages. Loaded storages use layout they were created with.
+     */
+    public HashBasedFactory(boolean memoryMapped, CachePolicy cachePolicy, FlushSettings flushSettings, DataLayout dataLayout) {
+        super(memoryMapped, cachePolicy, flushSettings, dataLayout);
+    }
+
+    @Override
+    protected StorageEngine getEngine() {
+        return StorageEngine.HASH;
+    }
+
+    @Override
+    protected int getIndexBlockSize(int dataBlockSize) {
+        int bucketSize = DEFAULT_BUCKET_SIZE_KB * KB;
+        return dataBlockSize >= bucketSize ? dataBlockSize : (bucketSize + dataBlockSize - 1) / dataBlockSize * dataBlockSize;
+    }
+
+    @Override
+    protected NamedStorage openStorage(Allocator indexAllocator, DataContainer data, KeyTruncateMethod truncateMethod,
+                                       FlushSettings flushSettings, Cache... caches) {
+        HashBasedStorage storage = new HashBasedStorage(indexAllocator, data, truncateMethod);
+        storage.writeBehind(flushSettings, caches);
+        return storage;
+    }
+
+    @Override
+    protected String getName() {
+        return "Hash table based storage";
+    }
+
+    @Override
+    protected String getIndexName() {
+        return "Buckets";
+    }
+}
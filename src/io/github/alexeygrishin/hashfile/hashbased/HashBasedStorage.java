@@ -0,0 +1,43 @@
+package io.github.alexeygrishin.hashfile.hashbased;
+
+import io.github.alexeygrishin.blockalloc.Allocator;
+import io.github.alexeygrishin.btree.KeyIndex;
+import io.github.alexeygrishin.btree.KeyTruncateMethod;
+import io.github.alexeygrishin.btree.TreeNameHelper;
+import io.github.alexeygrishin.hashfile.btreebased.DataContainer;
+import io.github.alexeygrishin.hashfile.btreebased.IndexedStorage;
+import io.github.alexeygrishin.hashindex.HashIndex;
+
+/**
+ * Named storage based on linear hash table. Table is used to find/insert/delete data by name with O(1) block reads,
+ * keys are not ordered in any way.
+ *
+ * Hash table block shall be small (several KBytes), as the whole bucket is read on each lookup.
+ */
+public class HashBasedStorage extends IndexedStorage {
+
+    /**
+     * Creates storage
+     * @param indexAllocator allocator for hash table buckets, block size shall be > 200 bytes
+     * @param dataAllocator allocator for user data, block size shall be ~ average data size. May be same as indexAllocator.
+     * @param truncateMethod how to truncate long keys for comparison
+     */
+    public HashBasedStorage(Allocator indexAllocator, Allocator dataAllocator, KeyTruncateMethod truncateMethod) {
+        super(indexAllocator, dataAllocator, truncateMethod);
+    }
+
+    /**
+     * Creates storage
+     * @param indexAllocator allocator for hash table buckets, block size shall be > 200 bytes
+     * @param data container for user data
+     * @param truncateMethod how to truncate long keys for comparison
+     */
+    public HashBasedStorage(Allocator indexAllocator, DataContainer data, KeyTruncateMethod truncateMethod) {
+        super(indexAllocator, data, truncateMethod);
+    }
+
+    @Override
+    protected KeyIndex createIndex(Allocator allocator, TreeNameHelper names) {
+        return new HashIndex(allocator, names);
+    }
+}
@@ -0,0 +1,78 @@
+package io.github.alexeygrishin.hashfile.lsmbased;
+
+import io.github.alexeygrishin.blockalloc.Allocator;
+import io.github.alexeygrishin.blockalloc.Cache;
+import io.github.alexeygrishin.btree.KeyTruncateMethod;
+import io.github.alexeygrishin.common.CachePolicy;
+import io.github.alexeygrishin.hashfile.*;
+import io.github.alexeygrishin.hashfile.btreebased.DataContainer;
+
+/**
+ * Produces log-structured merge based named storage. Run page size is selected automatically to be >= 8K (and not
+ * less than data block size).
+ *
+ * See {@link BaseStorageFactory} for file access, caches and background flush.
+ */
+public class LsmBasedFactory extends BaseStorageFactory {
+
+    public static final int DEFAULT_RUN_PAGE_SIZE_KB = 8;
+
+    public LsmBasedFactory() {
+        this(false);
+    }
+
+    /**
+     * @param memoryMapped true if created/loaded storages shall map file into memory instead of reading it via channel
+     */
+    public LsmBasedFactory(boolean memoryMapped) {
+        this(memoryMapped, DEFAULT_CACHE_POLICY, FlushSettings.DEFAULT);
+    }
+
+    /**
+     * @param memoryMapped true if created/loaded storages shall map file into memory instead of reading it via channel
+     * @param cachePolicy cache policy for created storages if it is not specified explicitly. Loaded storages use
+     *                    policies they were created with.
+     * @param flushSettings when changes are written in background
+     */
+    public LsmBasedFactory(boolean memoryMapped, CachePolicy cachePolicy, FlushSettings flushSettings) {
+        super(memoryMapped, cachePolicy, flushSettings);
+    }
+
+    @Override
+    protected StorageEngine getEngine() {
+        return StorageEngine.LSM;
+    }
+
+    /**
+     * Only {@link DataLayout#BLOCKS}: older runs keep replaced pointers until they are merged, and whole keys may be
+     * read by them, so data cannot be moved by log garbage collection.
+     */
+    @Override
+    protected boolean supports(DataLayout layout) {
+        return layout == DataLayout.BLOCKS;
+    }
+
+    @Override
+    protected int getIndexBlockSize(int dataBlockSize) {
+        int pageSize = DEFAULT_RUN_PAGE_SIZE_KB * KB;
+        return dataBlockSize >= pageSize ? dataBlockSize : (pageSize + dataBlockSize - 1) / dataBlockSize * dataBlockSize;
+    }
+
+    @Override
+    protected NamedStorage openStorage(Allocator indexAllocator, DataContainer data, KeyTruncateMethod truncateMethod,
+                                       FlushSettings flushSettings, Cache... caches) {
+        LsmBasedStorage storage = new LsmBasedStorage(indexAllocator, data, truncateMethod);
+        storage.writeBehind(flushSettings, caches);
+        return storage;
+    }
+
+    @Override
+    protected String getName() {
+        return "LSM based storage";
+    }
+
+    @Override
+    protected String getIndexName() {
+        return "Runs";
+    }
+}
@@ -0,0 +1,49 @@
+package io.github.alexeygrishin.hashfile.lsmbased;
+
+import io.github.alexeygrishin.blockalloc.Allocator;
+import io.github.alexeygrishin.btree.KeyIndex;
+import io.github.alexeygrishin.btree.KeyTruncateMethod;
+import io.github.alexeygrishin.btree.TreeNameHelper;
+import io.github.alexeygrishin.hashfile.btreebased.DataContainer;
+import io.github.alexeygrishin.hashfile.btreebased.IndexedStorage;
+import io.github.alexeygrishin.lsm.DataReleaser;
+import io.github.alexeygrishin.lsm.LsmIndex;
+
+/**
+ * Named storage based on log-structured merge index. Insertion does not read or rewrite index blocks, so it is good for
+ * write-heavy usage (like import of many keys), lookups are slower as they check several runs.
+ *
+ * Data of overwritten/deleted keys is freed later, when index runs are merged in background.
+ */
+public class LsmBasedStorage extends IndexedStorage {
+
+    /**
+     * Creates storage
+     * @param indexAllocator allocator for index runs, block size shall be > 512 bytes
+     * @param dataAllocator allocator for user data, block size shall be ~ average data size. May be same as indexAllocator.
+     * @param truncateMethod how to truncate long keys for comparison
+     */
+    public LsmBasedStorage(Allocator indexAllocator, Allocator dataAllocator, KeyTruncateMethod truncateMethod) {
+        super(indexAllocator, dataAllocator, truncateMethod);
+    }
+
+    /**
+     * Creates storage
+     * @param indexAllocator allocator for index runs, block size shall be > 512 bytes
+     * @param data container for user data
+     * @param truncateMethod how to truncate long keys for comparison
+     */
+    public LsmBasedStorage(Allocator indexAllocator, DataContainer data, KeyTruncateMethod truncateMethod) {
+        super(indexAllocator, data, truncateMethod);
+    }
+
+    @Override
+    protected KeyIndex createIndex(Allocator allocator, TreeNameHelper names) {
+        return new LsmIndex(allocator, names, new DataReleaser() {
+            @Override
+            public void release(long data) {
+                deleteData(data);
+            }
+        });
+    }
+}
@@ -0,0 +1,601 @@
+package io.github.alexeygrishin.hashindex;
+
+import io.github.alexeygrishin.blockalloc.Allocator;
+import io.github.alexeygrishin.blockalloc.BlockToModify;
+import io.github.alexeygrishin.blockalloc.serializers.StringSerializer;
+import io.github.alexeygrishin.btree.DataLocker;
+import io.github.alexeygrishin.btree.DefaultNameHelper;
+import io.github.alexeygrishin.btree.IndexSnapshot;
+import io.github.alexeygrishin.btree.KeyIndex;
+import io.github.alexeygrishin.btree.LongData;
+import io.github.alexeygrishin.btree.TreeData;
+import io.github.alexeygrishin.btree.TreeNameHelper;
+import io.github.alexeygrishin.common.Check;
+import io.github.alexeygrishin.common.Locker;
+import io.github.alexeygrishin.common.Pointer;
+import io.github.alexeygrishin.hashindex.blocks.Bucket;
+import io.github.alexeygrishin.hashindex.blocks.BucketEntry;
+import io.github.alexeygrishin.hashindex.blocks.DirectoryPage;
+import io.github.alexeygrishin.hashindex.blocks.IndexInfo;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Implements linear hash table on byte blocks of identical size. Each bucket is a block with entries (primary page)
+ * and chain of overflow pages, which appear only if too many keys have the same address.
+ *
+ * Each entry contains the following:
+ * - key's hash
+ * - key's length and part (119 characters)
+ * - data pointer
+ *
+ * Comparison is performed the same way as in {@link io.github.alexeygrishin.btree.BTree}: hashes, then key parts and only
+ * then the whole key is obtained from external storage.
+ *
+ * Table grows incrementally: when amount of entries exceeds {@link #LOAD_FACTOR_PERCENT} of buckets capacity, the next
+ * bucket is split into two (the old one and the new one appended to the end of table), so single insertion never moves
+ * more than one bucket. Lookup takes O(1) block reads if keys are distributed evenly. Buckets are never merged back.
+ *
+ * Ids of primary pages are kept in memory and saved to directory pages on {@link #flush()} and {@link #close()}.
+ * Iteration takes O(n) and order is not defined.
+ *
+ * Thread-safe, no concurrent modifications.
+ */
+public class HashIndex implements KeyIndex {
+
+    public static final int ENTRY_SIZE = 256;
+    public static final int KEY_PART_SIZE = 238;
+    public static final int KEY_PART_LENGTH = KEY_PART_SIZE / 2;
+    public static final int LOAD_FACTOR_PERCENT = 75;
+    private static final int INITIAL_DIRECTORY_SIZE = 16;
+    private static final StringSerializer KEY_PART_SERIALIZER = new StringSerializer(KEY_PART_SIZE);
+
+    private final Allocator allocator;
+    private final TreeNameHelper helper;
+    private final int bucketCapacity;
+    private final int directoryCapacity;
+    private final ReadWriteLock indexLock = new ReentrantReadWriteLock();
+    private int infoBlockIdx;
+    private long totalCount;
+    private int level, splitBucket;
+    private int[] buckets;
+    private final List<Integer> directoryPages = new ArrayList<>();
+    private int savedBucketsCount;
+
+    private volatile int modCount = 0;
+
+    public HashIndex(Allocator allocator) {
+        this(allocator, new DefaultNameHelper());
+    }
+
+    public HashIndex(Allocator allocator, TreeNameHelper helper) {
+        this.allocator = allocator;
+        this.helper = helper;
+        this.bucketCapacity = (allocator.getBlockSize() - Bucket.HEADER_SIZE) / ENTRY_SIZE;
+        this.directoryCapacity = (allocator.getBlockSize() - DirectoryPage.HEADER_SIZE) / (Integer.SIZE / Byte.SIZE);
+        Check.arguments(bucketCapacity >= 2, "Block shall have at least " + (ENTRY_SIZE * 2 + Bucket.HEADER_SIZE) + " bytes");
+        if (allocator.getBlocksCount() == 0) {
+            initialize();
+        }
+        else {
+            load();
+        }
+    }
+
+    private void initialize() {
+        try (BlockToModify<IndexInfo> info = allocator.allocateToModify(IndexInfo.class)) {
+            infoBlockIdx = info.getBlockId();
+        }
+        buckets = new int[INITIAL_DIRECTORY_SIZE];
+        buckets[0] = allocateBucketPage();
+    }
+
+    private void load() {
+        infoBlockIdx = 0;
+        IndexInfo info = allocator.get(infoBlockIdx, IndexInfo.class);
+        totalCount = info.totalCount;
+        level = info.level;
+        splitBucket = info.splitBucket;
+        int count = getBucketsCount();
+        buckets = new int[Math.max(INITIAL_DIRECTORY_SIZE, count)];
+        for (int page = info.lastDirectoryPage; Pointer.isValidNext(page); page = allocator.get(page, DirectoryPage.class).previousPage) {
+            directoryPages.add(page);
+        }
+        Collections.reverse(directoryPages);
+        for (int i = 0; i < directoryPages.size(); i++) {
+            DirectoryPage directoryPage = allocator.get(directoryPages.get(i), DirectoryPage.class);
+            int from = i * directoryCapacity;
+            for (int j = from; j < Math.min(count, from + directoryCapacity); j++) {
+                buckets[j] = directoryPage.buckets[j - from];
+            }
+        }
+        savedBucketsCount = count;
+    }
+
+    private int getBucketsCount() {
+        return (1 << level) + splitBucket;
+    }
+
+    private static int address(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private int bucketFor(int hash) {
+        return bucketFor(hash, level, splitBucket);
+    }
+
+    private static int bucketFor(int hash, int level, int splitBucket) {
+        int address = address(hash);
+        int bucket = address & ((1 << level) - 1);
+        if (bucket < splitBucket) {
+            bucket = address & ((1 << (level + 1)) - 1);
+        }
+        return bucket;
+    }
+
+    @Override
+    public void put(String key, TreeData data) {
+        Check.notNull(key, data);
+        EntryKey entryKey = new EntryKey(key);
+        try (Locker ignore = writeLock()) {
+            int page = buckets[bucketFor(entryKey.hash)];
+            int freePage = Pointer.NULL_PTR, lastPage;
+            Bucket freeBucket = null, lastBucket;
+            while (true) {
+                Bucket bucket = allocator.get(page, Bucket.class);
+                int index = search(bucket, entryKey);
+                if (index >= 0) {
+                    bucket.entries[index].data = data.updateData(bucket.entries[index].data);
+                    allocator.saveModifications(page, bucket);
+                    return;
+                }
+                if (freeBucket == null && !bucket.isFull()) {
+                    freePage = page;
+                    freeBucket = bucket;
+                }
+                lastPage = page;
+                lastBucket = bucket;
+                if (!bucket.hasOverflow()) break;
+                page = bucket.overflowPtr;
+            }
+            if (freeBucket == null) {
+                freePage = allocator.allocate();
+                freeBucket = new Bucket(bucketCapacity);
+                lastBucket.overflowPtr = freePage;
+                allocator.saveModifications(lastPage, lastBucket);
+            }
+            freeBucket.entries[freeBucket.count++] = entryKey.createEntry(data.createData());
+            allocator.saveModifications(freePage, freeBucket);
+            totalCount++;
+            modCount++;
+            if (totalCount * 100 > (long)getBucketsCount() * bucketCapacity * LOAD_FACTOR_PERCENT) {
+                split();
+            }
+        }
+    }
+
+    @Override
+    public boolean replace(String key, long expected, long data) {
+        Check.notNull(key);
+        try (Locker ignore = writeLock()) {
+            if (!Pointer.isValid(expected) || get(key) != expected) {
+                return false;
+            }
+            put(key, new LongData(data));
+            return true;
+        }
+    }
+
+    @Override
+    public long remove(String key) {
+        Check.notNull(key);
+        EntryKey entryKey = new EntryKey(key);
+        try (Locker ignore = writeLock()) {
+            int page = buckets[bucketFor(entryKey.hash)];
+            int previousPage = Pointer.NULL_PTR;
+            Bucket previousBucket = null;
+            while (true) {
+                Bucket bucket = allocator.get(page, Bucket.class);
+                int index = search(bucket, entryKey);
+                if (index >= 0) {
+                    long data = bucket.entries[index].data;
+                    int last = --bucket.count;
+                    bucket.entries[index] = bucket.entries[last];
+                    bucket.entries[last] = new BucketEntry();
+                    if (bucket.count == 0 && previousBucket != null) {
+                        previousBucket.overflowPtr = bucket.overflowPtr;
+                        allocator.saveModifications(previousPage, previousBucket);
+                        allocator.free(page);
+                    }
+                    else {
+                        allocator.saveModifications(page, bucket);
+                    }
+                    totalCount--;
+                    modCount++;
+                    return data;
+                }
+                if (!bucket.hasOverflow()) {
+                    return Pointer.NULL_PTR;
+                }
+                previousPage = page;
+                previousBucket = bucket;
+                page = bucket.overflowPtr;
+            }
+        }
+    }
+
+    /**
+     * Splits the next bucket: entries which have next bit of address set are moved to the new bucket.
+     */
+    private void split() {
+        int highBit = 1 << level;
+        int oldBucket = splitBucket;
+        int newBucket = highBit + splitBucket;
+        List<BucketEntry> staying = new ArrayList<>(), moving = new ArrayList<>();
+        List<Integer> overflowPages = new ArrayList<>();
+        int page = buckets[oldBucket];
+        while (true) {
+            Bucket bucket = allocator.get(page, Bucket.class);
+            for (int i = 0; i < bucket.count; i++) {
+                BucketEntry entry = bucket.entries[i];
+                ((address(entry.hash) & highBit) == 0 ? staying : moving).add(entry);
+            }
+            if (!bucket.hasOverflow()) break;
+            page = bucket.overflowPtr;
+            overflowPages.add(page);
+        }
+        if (newBucket == buckets.length) {
+            buckets = Arrays.copyOf(buckets, buckets.length * 2);
+        }
+        buckets[newBucket] = allocator.allocate();
+        saveChain(buckets[oldBucket], overflowPages, staying);
+        saveChain(buckets[newBucket], Collections.<Integer>emptyList(), moving);
+        splitBucket++;
+        if (splitBucket == highBit) {
+            level++;
+            splitBucket = 0;
+        }
+        modCount++;
+    }
+
+    /**
+     * Rewrites bucket with provided entries. Overflow pages are reused, the ones which are not needed anymore are freed.
+     */
+    private void saveChain(int primaryPage, List<Integer> overflowPages, List<BucketEntry> entries) {
+        int pagesCount = Math.max(1, (entries.size() + bucketCapacity - 1) / bucketCapacity);
+        List<Integer> pages = new ArrayList<>(pagesCount);
+        pages.add(primaryPage);
+        for (int i = 1; i < pagesCount; i++) {
+            pages.add(i - 1 < overflowPages.size() ? overflowPages.get(i - 1) : allocator.allocate());
+        }
+        for (int i = pagesCount - 1; i < overflowPages.size(); i++) {
+            allocator.free(overflowPages.get(i));
+        }
+        for (int i = 0; i < pagesCount; i++) {
+            Bucket bucket = new Bucket(bucketCapacity);
+            int from = i * bucketCapacity;
+            int to = Math.min(entries.size(), from + bucketCapacity);
+            for (int j = from; j < to; j++) {
+                bucket.entries[j - from] = entries.get(j);
+            }
+            bucket.count = to - from;
+            bucket.overflowPtr = i + 1 < pagesCount ? pages.get(i + 1) : Pointer.NULL_PTR;
+            allocator.saveModifications(pages.get(i), bucket);
+        }
+    }
+
+    private int allocateBucketPage() {
+        int page = allocator.allocate();
+        allocator.saveModifications(page, new Bucket(bucketCapacity));
+        return page;
+    }
+
+    /**
+     * Entries are put one by one, there is no faster way to fill buckets.
+     */
+    @Override
+    public void bulkLoad(Iterator<Map.Entry<String, Long>> entries) {
+        Check.notNull(entries);
+        try (Locker ignore = writeLock()) {
+            if (size() != 0) {
+                throw new IllegalStateException("Bulk load is possible only into empty index");
+            }
+            while (entries.hasNext()) {
+                Map.Entry<String, Long> entry = entries.next();
+                put(entry.getKey(), new LongData(entry.getValue()));
+            }
+        }
+    }
+
+    /**
+     * Keys are ordered by their buckets, as table is split at the moment comparator is created, so sorted keys are
+     * looked up visiting buckets in order. Order does not change when table is split later, it just does not follow
+     * buckets exactly anymore.
+     */
+    @Override
+    public Comparator<String> getKeyOrder() {
+        final int level, splitBucket;
+        try (Locker ignore = readLock()) {
+            level = this.level;
+            splitBucket = this.splitBucket;
+        }
+        return new Comparator<String>() {
+            @Override
+            public int compare(String key1, String key2) {
+                int hash1 = key1.hashCode();
+                int hash2 = key2.hashCode();
+                int result = Integer.compare(bucketFor(hash1, level, splitBucket), bucketFor(hash2, level, splitBucket));
+                if (result == 0) {
+                    result = Integer.compare(hash1, hash2);
+                }
+                return result != 0 ? result : key1.compareTo(key2);
+            }
+        };
+    }
+
+    @Override
+    public boolean contains(String key) {
+        Check.notNull(key);
+        try (Locker ignore = readLock()) {
+            return find(new EntryKey(key)) != null;
+        }
+    }
+
+    @Override
+    public long get(String key) {
+        Check.notNull(key);
+        BucketEntry entry;
+        try (Locker ignore = readLock()) {
+            entry = find(new EntryKey(key));
+        }
+        return entry != null ? entry.data : Pointer.NULL_PTR;
+    }
+
+    @Override
+    public <L> L getAndLock(String key, DataLocker<L> locker) {
+        Check.notNull(key, locker);
+        try (Locker ignore = readLock()) {
+            BucketEntry entry = find(new EntryKey(key));
+            return entry != null ? locker.lock(entry.data) : null;
+        }
+    }
+
+    private BucketEntry find(EntryKey key) {
+        int page = buckets[bucketFor(key.hash)];
+        while (true) {
+            Bucket bucket = allocator.get(page, Bucket.class);
+            int index = search(bucket, key);
+            if (index >= 0) {
+                return bucket.entries[index];
+            }
+            if (!bucket.hasOverflow()) {
+                return null;
+            }
+            page = bucket.overflowPtr;
+        }
+    }
+
+    /**
+     * @return index of entry with provided key or -1
+     */
+    private int search(Bucket bucket, EntryKey key) {
+        for (int i = 0; i < bucket.count; i++) {
+            BucketEntry entry = bucket.entries[i];
+            if (entry.hash != key.hash || entry.keyLen != key.fullKey.length() || !entry.keyPart.equals(key.keyPart)) {
+                continue;
+            }
+            if (entry.isWholeKey() ? entry.keyPart.equals(key.fullKey) : key.fullKey.equals(helper.getFullName(entry.data))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private String getWholeKey(BucketEntry entry) {
+        return entry.isWholeKey() ? entry.keyPart : helper.getFullName(entry.data);
+    }
+
+    @Override
+    public long size() {
+        try (Locker ignore = readLock()) {
+            return totalCount;
+        }
+    }
+
+    /**
+     * Keys are ordered by hashes, so ranges are not supported.
+     */
+    @Override
+    public Iterator<String> range(String from, String to) {
+        throw new UnsupportedOperationException("Keys are not ordered");
+    }
+
+    @Override
+    public IndexSnapshot snapshot() {
+        throw new UnsupportedOperationException("Snapshots are not supported");
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        try (Locker ignore = readLock()) {
+            return new KeysIterator(modCount, 0, getBucketsCount());
+        }
+    }
+
+    /**
+     * Parts are consecutive ranges of buckets of the same size. Each part fails on concurrent modification, same as
+     * {@link #iterator()}.
+     */
+    @Override
+    public List<Iterator<String>> split(int parts) {
+        Check.positive(parts, "parts count");
+        try (Locker ignore = readLock()) {
+            int bucketsCount = getBucketsCount();
+            parts = Math.min(parts, bucketsCount);
+            List<Iterator<String>> result = new ArrayList<>(parts);
+            for (int i = 0; i < parts; i++) {
+                result.add(new KeysIterator(modCount, (int)((long)i * bucketsCount / parts),
+                        (int)((long)(i + 1) * bucketsCount / parts)));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Writes all changes to allocator's storage. Index may be read while flushing, but not modified.
+     */
+    @Override
+    public void flush() {
+        try (Locker ignore = readLock()) {
+            saveIndexInfo();
+            allocator.flush();
+        }
+    }
+
+    @Override
+    public void close() {
+        try (Locker ignore = writeLock()) {
+            saveIndexInfo();
+        }
+        allocator.close();
+    }
+
+    /**
+     * Saves directory pages which were changed since last save, and index info.
+     */
+    private void saveIndexInfo() {
+        synchronized (directoryPages) {
+            int count = getBucketsCount();
+            if (count != savedBucketsCount) {
+                for (int i = savedBucketsCount / directoryCapacity; i * directoryCapacity < count; i++) {
+                    DirectoryPage directoryPage = new DirectoryPage();
+                    directoryPage.previousPage = i > 0 ? directoryPages.get(i - 1) : Pointer.NULL_PTR;
+                    directoryPage.buckets = new Integer[directoryCapacity];
+                    for (int j = 0; j < directoryCapacity; j++) {
+                        int bucket = i * directoryCapacity + j;
+                        directoryPage.buckets[j] = bucket < count ? buckets[bucket] : Pointer.NULL_PTR;
+                    }
+                    if (i == directoryPages.size()) {
+                        directoryPages.add(allocator.allocate());
+                    }
+                    allocator.saveModifications(directoryPages.get(i), directoryPage);
+                }
+                savedBucketsCount = count;
+            }
+            try (BlockToModify<IndexInfo> info = allocator.getToModify(infoBlockIdx, IndexInfo.class)) {
+                info.getBlock().totalCount = totalCount;
+                info.getBlock().level = level;
+                info.getBlock().splitBucket = splitBucket;
+                info.getBlock().lastDirectoryPage = directoryPages.isEmpty() ? Pointer.NULL_PTR : directoryPages.get(directoryPages.size() - 1);
+            }
+        }
+    }
+
+    private Locker readLock() {
+        return new Locker(indexLock.readLock());
+    }
+
+    @Override
+    public Locker lockForRead() {
+        return readLock();
+    }
+
+    @Override
+    public Locker lockForWrite() {
+        return writeLock();
+    }
+
+    private Locker writeLock() {
+        return new Locker(indexLock.writeLock());
+    }
+
+    private class EntryKey {
+        private final String fullKey;
+        private final String keyPart;
+        private final int hash;
+
+        private EntryKey(String fullKey) {
+            this.fullKey = fullKey;
+            this.hash = fullKey.hashCode();
+            ByteBuffer buffer = ByteBuffer.allocate(KEY_PART_SIZE);
+            KEY_PART_SERIALIZER.save(buffer, helper.truncate(fullKey, KEY_PART_LENGTH));
+            buffer.rewind();
+            //key part is compared in the same form as it is read from block
+            this.keyPart = KEY_PART_SERIALIZER.load(buffer);
+        }
+
+        private BucketEntry createEntry(long data) {
+            return new BucketEntry(hash, fullKey.length(), keyPart, keyPart.equals(fullKey), data);
+        }
+    }
+
+    private class KeysIterator implements Iterator<String> {
+
+        private final int currentModCount;
+        private final int bucketsCount;
+        private int bucket;
+        private Bucket page;
+        private int index;
+        private String nextString;
+
+        /**
+         * Iterates over buckets from {@code fromBucket} (inclusive) to {@code bucketsCount} (exclusive).
+         */
+        public KeysIterator(int currentModCount, int fromBucket, int bucketsCount) {
+            this.currentModCount = currentModCount;
+            this.bucket = fromBucket - 1;
+            this.bucketsCount = bucketsCount;
+            goNext();
+        }
+
+        private void ensureNotModified() {
+            if (currentModCount != modCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+
+        private void goNext() {
+            ensureNotModified();
+            index++;
+            while (page == null || index >= page.count) {
+                if (page != null && page.hasOverflow()) {
+                    page = allocator.get(page.overflowPtr, Bucket.class);
+                }
+                else if (bucket + 1 < bucketsCount) {
+                    bucket++;
+                    page = allocator.get(buckets[bucket], Bucket.class);
+                }
+                else {
+                    nextString = null;
+                    return;
+                }
+                index = 0;
+            }
+            nextString = getWholeKey(page.entries[index]);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextString != null;
+        }
+
+        @Override
+        public String next() {
+            if (nextString == null) {
+                throw new NoSuchElementException();
+            }
+            String ret = nextString;
+            goNext();
+            return ret;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package io.github.alexeygrishin.hashindex.blocks;
+
+import io.github.alexeygrishin.common.Pointer;
+
+/**
+ * Page of hash bucket. Bucket consists of primary page and chain of overflow pages, entries inside page are not ordered.
+ * Entries array takes the whole block, so its length is page capacity.
+ */
+public class Bucket {
+    public static final int HEADER_SIZE = 8;
+
+    public int count;
+    public int overflowPtr;
+    public BucketEntry[] entries;
+
+    public Bucket() {
+    }
+
+    public Bucket(int capacity) {
+        this.overflowPtr = Pointer.NULL_PTR;
+        this.entries = new BucketEntry[capacity];
+        for (int i = 0; i < capacity; i++) {
+            entries[i] = new BucketEntry();
+        }
+    }
+
+    public boolean hasOverflow() {
+        return Pointer.isValidNext(overflowPtr);
+    }
+
+    public boolean isFull() {
+        return count == entries.length;
+    }
+}
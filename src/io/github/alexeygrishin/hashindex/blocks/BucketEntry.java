@@ -0,0 +1,34 @@
+package io.github.alexeygrishin.hashindex.blocks;
+
+import io.github.alexeygrishin.blockalloc.serializers.Limited;
+import io.github.alexeygrishin.hashindex.HashIndex;
+
+@Limited(size = HashIndex.ENTRY_SIZE)
+public class BucketEntry {
+    public int hash;
+    public int keyLen;
+
+    @Limited(size = HashIndex.KEY_PART_SIZE)
+    public String keyPart = "";
+    public long data;
+    public byte wholeKey;
+
+    public BucketEntry() {
+    }
+
+    /**
+     * @param keyPart key part as it is read after serialization
+     * @param wholeKey true if keyPart is exactly the whole key
+     */
+    public BucketEntry(int hash, int keyLen, String keyPart, boolean wholeKey, long data) {
+        this.hash = hash;
+        this.keyLen = keyLen;
+        this.keyPart = keyPart;
+        this.wholeKey = (byte)(wholeKey ? 1 : 0);
+        this.data = data;
+    }
+
+    public boolean isWholeKey() {
+        return wholeKey != 0;
+    }
+}
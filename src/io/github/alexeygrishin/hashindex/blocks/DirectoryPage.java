@@ -0,0 +1,12 @@
+package io.github.alexeygrishin.hashindex.blocks;
+
+/**
+ * Keeps ids of primary bucket pages. Pages are chained from the last one to the first one, so adding of new page does
+ * not modify existing ones.
+ */
+public class DirectoryPage {
+    public static final int HEADER_SIZE = 4;
+
+    public int previousPage;
+    public Integer[] buckets;
+}
@@ -0,0 +1,8 @@
+package io.github.alexeygrishin.hashindex.blocks;
+
+public class IndexInfo {
+    public long totalCount;
+    public int level;
+    public int splitBucket;
+    public int lastDirectoryPage;
+}
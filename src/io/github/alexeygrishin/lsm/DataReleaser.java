@@ -0,0 +1,20 @@
+package io.github.alexeygrishin.lsm;
+
+/**
+ * Frees data which is not referenced by index anymore. {@link LsmIndex} does not read old data pointer on insertion,
+ * so values which were overwritten or deleted are found and released only when runs are merged.
+ */
+public interface DataReleaser {
+
+    public static final DataReleaser NONE = new DataReleaser() {
+        @Override
+        public void release(long data) {
+        }
+    };
+
+    /**
+     * Called outside of index lock.
+     * @param data data pointer which is not referenced by index anymore
+     */
+    public void release(long data);
+}
@@ -0,0 +1,917 @@
+package io.github.alexeygrishin.lsm;
+
+import io.github.alexeygrishin.blockalloc.Allocator;
+import io.github.alexeygrishin.blockalloc.BlockToModify;
+import io.github.alexeygrishin.blockalloc.serializers.StringSerializer;
+import io.github.alexeygrishin.btree.DataLocker;
+import io.github.alexeygrishin.btree.DefaultNameHelper;
+import io.github.alexeygrishin.btree.IndexSnapshot;
+import io.github.alexeygrishin.btree.KeyIndex;
+import io.github.alexeygrishin.btree.LongData;
+import io.github.alexeygrishin.btree.TreeData;
+import io.github.alexeygrishin.btree.TreeNameHelper;
+import io.github.alexeygrishin.common.Check;
+import io.github.alexeygrishin.common.Locker;
+import io.github.alexeygrishin.common.Pointer;
+import io.github.alexeygrishin.lsm.blocks.IndexInfo;
+import io.github.alexeygrishin.lsm.blocks.RunEntry;
+import io.github.alexeygrishin.lsm.blocks.RunInfo;
+import io.github.alexeygrishin.lsm.blocks.RunPage;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Implements log-structured merge index on byte blocks of identical size. Changes are collected in memory (memtable)
+ * and written as immutable sorted runs, so insertion does not read or rewrite existing blocks. Runs are merged in
+ * background, when newer run is not much smaller than the older one (see {@link #MERGE_RATIO}), so there are
+ * O(log(n)) runs and each entry is rewritten O(log(n)) times.
+ *
+ * Each entry contains the following:
+ * - key's hash
+ * - key's length and part (119 characters)
+ * - data pointer
+ * Entries are ordered the same way they are compared in {@link io.github.alexeygrishin.btree.BTree}: by hashes, then by
+ * key parts and only then by whole keys obtained from external storage.
+ *
+ * Lookup checks memtable and then runs from the newest to the oldest one, reading one page of each run (usually).
+ *
+ * Old data pointer is provided to {@link TreeData#updateData(long)} only if it is still in memtable, and
+ * {@link #remove(String)} returns only such pointers. Values which are in runs are replaced/deleted by newer entries
+ * and released via {@link DataReleaser} when runs are merged.
+ *
+ * Iteration takes O(n) and order is not defined. Merge of runs does not break iteration.
+ *
+ * Thread-safe, no concurrent modifications.
+ */
+public class LsmIndex implements KeyIndex {
+
+    public static final int ENTRY_SIZE = 256;
+    public static final int KEY_PART_SIZE = 238;
+    public static final int KEY_PART_LENGTH = KEY_PART_SIZE / 2;
+    public static final int DEFAULT_MEMTABLE_SIZE = 16 * 1024;
+    public static final int MERGE_RATIO = 2;
+    /**
+     * When there are more runs writers merge them theirselves instead of waiting for background merge.
+     */
+    public static final int MAX_RUNS = 16;
+    private static final StringSerializer KEY_PART_SERIALIZER = new StringSerializer(KEY_PART_SIZE);
+
+    private final Allocator allocator;
+    private final TreeNameHelper helper;
+    private final DataReleaser releaser;
+    private final int memtableSize;
+    private final int pageCapacity;
+    private final int runsCapacity;
+    private final ReentrantReadWriteLock indexLock = new ReentrantReadWriteLock();
+    /**
+     * Always taken before write lock: merge holds it while waiting for write lock to replace runs.
+     */
+    private final ReentrantLock mergeLock = new ReentrantLock();
+    private final Merger merger = new Merger();
+    private int infoBlockIdx;
+    private TreeMap<EntryKey, RunEntry> memtable = new TreeMap<>();
+    /**
+     * From the newest to the oldest, list is replaced on each change
+     */
+    private volatile List<Run> runs = new ArrayList<>();
+
+    private volatile int modCount = 0;
+    private volatile int runsVersion = 0;
+
+    public LsmIndex(Allocator allocator) {
+        this(allocator, new DefaultNameHelper(), DataReleaser.NONE);
+    }
+
+    public LsmIndex(Allocator allocator, TreeNameHelper helper, DataReleaser releaser) {
+        this(allocator, helper, releaser, DEFAULT_MEMTABLE_SIZE);
+    }
+
+    /**
+     * @param allocator allocator for run pages
+     * @param helper provides whole keys by data pointers
+     * @param releaser frees data replaced/deleted from index when runs are merged
+     * @param memtableSize amount of entries kept in memory before they are written as run
+     */
+    public LsmIndex(Allocator allocator, TreeNameHelper helper, DataReleaser releaser, int memtableSize) {
+        this.allocator = allocator;
+        this.helper = helper;
+        this.releaser = releaser;
+        this.memtableSize = Check.positive(memtableSize, "memtableSize");
+        this.pageCapacity = (allocator.getBlockSize() - RunPage.HEADER_SIZE) / ENTRY_SIZE;
+        this.runsCapacity = (allocator.getBlockSize() - IndexInfo.HEADER_SIZE) / RunInfo.SIZE;
+        Check.arguments(pageCapacity >= 2, "Block shall have at least " + (ENTRY_SIZE * 2 + RunPage.HEADER_SIZE) + " bytes");
+        if (allocator.getBlocksCount() == 0) {
+            initialize();
+        }
+        else {
+            load();
+        }
+        merger.start();
+    }
+
+    private void initialize() {
+        try (BlockToModify<IndexInfo> info = allocator.allocateToModify(IndexInfo.class)) {
+            infoBlockIdx = info.getBlockId();
+        }
+    }
+
+    private void load() {
+        infoBlockIdx = 0;
+        IndexInfo info = allocator.get(infoBlockIdx, IndexInfo.class);
+        List<Run> loaded = new ArrayList<>(info.runsCount);
+        for (int i = 0; i < info.runsCount; i++) {
+            loaded.add(Run.load(allocator, info.runs[i]));
+        }
+        runs = loaded;
+    }
+
+    @Override
+    public void put(String key, TreeData data) {
+        Check.notNull(key, data);
+        throttle();
+        EntryKey entryKey = new EntryKey(key);
+        try (Locker ignore = writeLock()) {
+            RunEntry entry = memtable.get(entryKey);
+            long pointer = entry != null && !entry.isTombstone() ? data.updateData(entry.data) : data.createData();
+            memtable.put(entryKey, entryKey.createEntry(pointer, (byte)0));
+            modCount++;
+            if (memtable.size() >= memtableSize) {
+                writeMemtable();
+            }
+        }
+    }
+
+    /**
+     * Entry is removed from memtable, and if key is in runs - tombstone is added to memtable.
+     * @return data pointer if it was in memtable, {@link Pointer#NULL_PTR} otherwise (even if key was in runs)
+     */
+    @Override
+    public long remove(String key) {
+        Check.notNull(key);
+        throttle();
+        EntryKey entryKey = new EntryKey(key);
+        try (Locker ignore = writeLock()) {
+            RunEntry entry = memtable.get(entryKey);
+            if (entry != null && entry.isTombstone()) {
+                return Pointer.NULL_PTR;
+            }
+            RunEntry older = findInRuns(runs, entryKey);
+            if (older != null && !older.isTombstone()) {
+                memtable.put(entryKey, entryKey.createEntry(older.data, RunEntry.TOMBSTONE));
+                modCount++;
+            }
+            else if (entry != null) {
+                memtable.remove(entryKey);
+                modCount++;
+            }
+            if (memtable.size() >= memtableSize) {
+                writeMemtable();
+            }
+            return entry != null ? entry.data : Pointer.NULL_PTR;
+        }
+    }
+
+    /**
+     * Replaced pointer stays in older runs until they are merged, and then it is released via {@link DataReleaser}.
+     */
+    @Override
+    public boolean replace(String key, long expected, long data) {
+        Check.notNull(key);
+        EntryKey entryKey = new EntryKey(key);
+        try (Locker ignore = writeLock()) {
+            RunEntry entry = find(entryKey);
+            if (entry == null || entry.data != expected) {
+                return false;
+            }
+            memtable.put(entryKey, entryKey.createEntry(data, (byte)0));
+            modCount++;
+            if (memtable.size() >= memtableSize) {
+                writeMemtable();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Entries are put one by one: memtable already collects them and writes sorted runs sequentially.
+     */
+    @Override
+    public void bulkLoad(Iterator<Map.Entry<String, Long>> entries) {
+        Check.notNull(entries);
+        try (Locker ignore = lockForWrite()) {
+            if (size() != 0) {
+                throw new IllegalStateException("Bulk load is possible only into empty index");
+            }
+            while (entries.hasNext()) {
+                Map.Entry<String, Long> entry = entries.next();
+                put(entry.getKey(), new LongData(entry.getValue()));
+            }
+        }
+    }
+
+    @Override
+    public Comparator<String> getKeyOrder() {
+        return new Comparator<String>() {
+            @Override
+            public int compare(String key1, String key2) {
+                return new EntryKey(key1).compareTo(new EntryKey(key2));
+            }
+        };
+    }
+
+    @Override
+    public boolean contains(String key) {
+        Check.notNull(key);
+        try (Locker ignore = readLock()) {
+            return find(new EntryKey(key)) != null;
+        }
+    }
+
+    @Override
+    public long get(String key) {
+        Check.notNull(key);
+        RunEntry entry;
+        try (Locker ignore = readLock()) {
+            entry = find(new EntryKey(key));
+        }
+        return entry != null ? entry.data : Pointer.NULL_PTR;
+    }
+
+    @Override
+    public <L> L getAndLock(String key, DataLocker<L> locker) {
+        Check.notNull(key, locker);
+        try (Locker ignore = readLock()) {
+            RunEntry entry = find(new EntryKey(key));
+            return entry != null ? locker.lock(entry.data) : null;
+        }
+    }
+
+    /**
+     * @return the newest entry for provided key if it is not deleted
+     */
+    private RunEntry find(EntryKey key) {
+        RunEntry entry = memtable.get(key);
+        if (entry == null) {
+            entry = findInRuns(runs, key);
+        }
+        return entry != null && !entry.isTombstone() ? entry : null;
+    }
+
+    private RunEntry findInRuns(List<Run> runs, EntryKey key) {
+        for (Run run: runs) {
+            RunEntry entry = find(run, key);
+            if (entry != null) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private RunEntry find(Run run, EntryKey key) {
+        for (int page = run.firstPageFor(key.hash); page < run.pages.length && run.firstHashes[page] <= key.hash; page++) {
+            RunPage runPage = allocator.get(run.pages[page], RunPage.class);
+            int index = search(runPage, key);
+            if (index >= 0) {
+                return runPage.entries[index];
+            }
+            if (-index - 1 < runPage.count) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return index of entry with provided key, or (-(insertion point) - 1) - the same as {@link Arrays#binarySearch(int[], int)}
+     */
+    private int search(RunPage page, EntryKey key) {
+        int low = 0, high = page.count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int result = compare(key, page.entries[middle]);
+            if (result > 0) {
+                low = middle + 1;
+            }
+            else if (result < 0) {
+                high = middle - 1;
+            }
+            else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private int compare(EntryKey key, RunEntry entry) {
+        int result = Integer.compare(key.hash, entry.hash);
+        if (result == 0) {
+            result = key.keyPart.compareTo(entry.keyPart);
+        }
+        if (result == 0) {
+            result = Integer.compare(key.fullKey.length(), entry.keyLen);
+        }
+        if (result == 0 && !entry.isWholeKey()) {
+            result = key.fullKey.compareTo(helper.getFullName(entry.data));
+        }
+        return result;
+    }
+
+    private int compare(RunEntry entry1, RunEntry entry2) {
+        int result = Integer.compare(entry1.hash, entry2.hash);
+        if (result == 0) {
+            result = entry1.keyPart.compareTo(entry2.keyPart);
+        }
+        if (result == 0) {
+            result = Integer.compare(entry1.keyLen, entry2.keyLen);
+        }
+        if (result == 0 && !entry1.isWholeKey()) {
+            result = helper.getFullName(entry1.data).compareTo(helper.getFullName(entry2.data));
+        }
+        return result;
+    }
+
+    private String getWholeKey(RunEntry entry) {
+        return entry.isWholeKey() ? entry.keyPart : helper.getFullName(entry.data);
+    }
+
+    /**
+     * Writes memtable as the newest run. Shall be called under write lock.
+     */
+    private void writeMemtable() {
+        if (memtable.isEmpty()) return;
+        RunWriter writer = new RunWriter();
+        for (RunEntry entry: memtable.values()) {
+            writer.add(entry);
+        }
+        List<Run> newRuns = new ArrayList<>(runs.size() + 1);
+        newRuns.add(writer.finish());
+        newRuns.addAll(runs);
+        runs = newRuns;
+        runsVersion++;
+        memtable = new TreeMap<>();
+        merger.wakeUp();
+    }
+
+    /**
+     * Merges runs in the caller's thread if there are too many of them. Caller which holds write lock (see
+     * {@link #lockForWrite()}) holds merge lock too, so it may merge.
+     */
+    private void throttle() {
+        merger.rethrowFailure();
+        if (indexLock.isWriteLockedByCurrentThread() && !mergeLock.isHeldByCurrentThread()) {
+            return;
+        }
+        while (runs.size() >= MAX_RUNS && merge(true)) {
+            //merge more
+        }
+    }
+
+    /**
+     * Merges all runs into one in the caller's thread, waits for background merge if it is in progress. Memtable is
+     * not written.
+     */
+    public void compact() {
+        merger.rethrowFailure();
+        try (Locker ignore = new Locker(mergeLock)) {
+            while (runs.size() > 1 && merge(true)) {
+                //merge more
+            }
+        }
+    }
+
+    /**
+     * Merges two adjacent runs into one: the newest entry for each key is kept (tombstones are dropped if there are
+     * no older runs), others are dropped and their data is released.
+     * @param force true if runs shall be merged even if their sizes do not match {@link #MERGE_RATIO}
+     * @return true if runs were merged
+     */
+    private boolean merge(boolean force) {
+        try (Locker ignored = new Locker(mergeLock)) {
+            List<Run> current = runs;
+            int from = selectMerge(current, force);
+            if (from < 0) {
+                return false;
+            }
+            List<Run> merging = current.subList(from, from + 2);
+            boolean last = from + 2 == current.size();
+            List<Long> released = new ArrayList<>();
+            RunWriter writer = new RunWriter();
+            List<Cursor> cursors = new ArrayList<>(merging.size());
+            for (Run run: merging) {
+                cursors.add(new RunCursor(run));
+            }
+            for (List<RunEntry> versions = nextVersions(cursors); versions != null; versions = nextVersions(cursors)) {
+                mergeVersions(versions, last, writer, released);
+            }
+            Run merged = writer.finish();
+            try (Locker ignore = writeLock()) {
+                List<Run> newRuns = new ArrayList<>(runs);
+                //runs may be only added to the beginning while merging
+                int idx = newRuns.indexOf(merging.get(0));
+                newRuns.subList(idx, idx + merging.size()).clear();
+                if (merged != null) {
+                    newRuns.add(idx, merged);
+                }
+                runs = newRuns;
+                runsVersion++;
+                for (Run run: merging) {
+                    run.free(allocator);
+                }
+            }
+            for (long data: released) {
+                releaser.release(data);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @return index of the newer run of two runs to merge or -1
+     */
+    private int selectMerge(List<Run> runs, boolean force) {
+        int selected = -1;
+        for (int i = 0; i + 1 < runs.size(); i++) {
+            if (runs.get(i).entriesCount * MERGE_RATIO >= runs.get(i + 1).entriesCount) {
+                return i;
+            }
+            if (force && (selected == -1 || runs.get(i).entriesCount + runs.get(i + 1).entriesCount <
+                    runs.get(selected).entriesCount + runs.get(selected + 1).entriesCount)) {
+                selected = i;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Tombstone refers data of the value it deleted. That data is released when both are dropped: when value is
+     * dropped first the tombstone becomes owner of the data.
+     * @param versions entries for the same key from the newest to the oldest
+     * @param last true if there are no older runs
+     */
+    private void mergeVersions(List<RunEntry> versions, boolean last, RunWriter writer, List<Long> released) {
+        RunEntry newest = versions.get(0);
+        boolean keep = !(newest.isTombstone() && last);
+        for (int i = 1; i < versions.size(); i++) {
+            RunEntry previous = versions.get(i - 1), entry = versions.get(i);
+            if (entry.isTombstone()) {
+                if (entry.ownsData()) {
+                    released.add(entry.data);
+                }
+            }
+            else if (previous.isTombstone() && previous.data == entry.data && previous == newest && keep) {
+                newest = newest.withFlag(RunEntry.OWNS_DATA);
+            }
+            else {
+                released.add(entry.data);
+            }
+        }
+        if (keep) {
+            writer.add(newest);
+        }
+        else if (newest.ownsData()) {
+            released.add(newest.data);
+        }
+    }
+
+    /**
+     * @param cursors cursors from the newest to the oldest source
+     * @return entries for the next key from the newest to the oldest, null if there are no more entries
+     */
+    private List<RunEntry> nextVersions(List<Cursor> cursors) {
+        RunEntry min = null;
+        for (Cursor cursor: cursors) {
+            if (!cursor.isDone() && (min == null || compare(cursor.current(), min) < 0)) {
+                min = cursor.current();
+            }
+        }
+        if (min == null) {
+            return null;
+        }
+        List<RunEntry> versions = new ArrayList<>(2);
+        for (Cursor cursor: cursors) {
+            if (!cursor.isDone() && compare(cursor.current(), min) == 0) {
+                versions.add(cursor.current());
+                cursor.advance();
+            }
+        }
+        return versions;
+    }
+
+    /**
+     * Iterates through all keys, so takes O(n).
+     */
+    @Override
+    public long size() {
+        long count = 0;
+        for (Iterator<String> keys = iterator(); keys.hasNext(); keys.next()) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Keys are ordered by hashes, so ranges are not supported.
+     */
+    @Override
+    public Iterator<String> range(String from, String to) {
+        throw new UnsupportedOperationException("Keys are not ordered");
+    }
+
+    /**
+     * Runs overlap each other, so there is no cheap way to split keys: the only part is returned.
+     */
+    @Override
+    public List<Iterator<String>> split(int parts) {
+        Check.positive(parts, "parts count");
+        return Collections.singletonList(iterator());
+    }
+
+    @Override
+    public IndexSnapshot snapshot() {
+        throw new UnsupportedOperationException("Snapshots are not supported");
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return new KeysIterator();
+    }
+
+    /**
+     * Writes memtable as run, then all changes to allocator's storage.
+     */
+    @Override
+    public void flush() {
+        try (Locker ignore = writeLock()) {
+            writeMemtable();
+            saveIndexInfo();
+        }
+        allocator.flush();
+    }
+
+    @Override
+    public void close() {
+        merger.stop();
+        try (Locker ignore = writeLock()) {
+            writeMemtable();
+            saveIndexInfo();
+        }
+        allocator.close();
+    }
+
+    private void saveIndexInfo() {
+        List<Run> current = runs;
+        Check.arguments(current.size() <= runsCapacity, "Too many runs to save: " + current.size() + ", block may keep only " + runsCapacity);
+        try (BlockToModify<IndexInfo> info = allocator.getToModify(infoBlockIdx, IndexInfo.class)) {
+            info.getBlock().runsCount = current.size();
+            for (int i = 0; i < runsCapacity; i++) {
+                info.getBlock().runs[i] = i < current.size() ? current.get(i).toInfo() : new RunInfo();
+            }
+        }
+    }
+
+    private Locker readLock() {
+        return new Locker(indexLock.readLock());
+    }
+
+    @Override
+    public Locker lockForRead() {
+        return readLock();
+    }
+
+    /**
+     * Merge lock is taken before write lock (same as by merge), so writes made under this lock may merge runs when
+     * there are too many of them. Waits for background merge in progress.
+     */
+    @Override
+    public Locker lockForWrite() {
+        return new Locker(mergeLock, indexLock.writeLock());
+    }
+
+    private Locker writeLock() {
+        return new Locker(indexLock.writeLock());
+    }
+
+    private class EntryKey implements Comparable<EntryKey> {
+        private final String fullKey;
+        private final String keyPart;
+        private final int hash;
+
+        private EntryKey(String fullKey) {
+            this.fullKey = fullKey;
+            this.hash = fullKey.hashCode();
+            ByteBuffer buffer = ByteBuffer.allocate(KEY_PART_SIZE);
+            KEY_PART_SERIALIZER.save(buffer, helper.truncate(fullKey, KEY_PART_LENGTH));
+            buffer.rewind();
+            //key part is compared in the same form as it is read from block
+            this.keyPart = KEY_PART_SERIALIZER.load(buffer);
+        }
+
+        private RunEntry createEntry(long data, byte flags) {
+            return new RunEntry(hash, fullKey.length(), keyPart, data, (byte)(flags | (keyPart.equals(fullKey) ? RunEntry.WHOLE_KEY : 0)));
+        }
+
+        @Override
+        public int compareTo(EntryKey o) {
+            int result = Integer.compare(hash, o.hash);
+            if (result == 0) {
+                result = keyPart.compareTo(o.keyPart);
+            }
+            if (result == 0) {
+                result = Integer.compare(fullKey.length(), o.fullKey.length());
+            }
+            if (result == 0) {
+                result = fullKey.compareTo(o.fullKey);
+            }
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof EntryKey && fullKey.equals(((EntryKey) o).fullKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Writes sorted entries to new pages of run.
+     */
+    private class RunWriter {
+        private final List<Integer> pages = new ArrayList<>();
+        private final List<Integer> firstHashes = new ArrayList<>();
+        private long count;
+        private RunPage page = new RunPage(pageCapacity);
+
+        void add(RunEntry entry) {
+            if (page.isFull()) {
+                writePage();
+            }
+            page.entries[page.count++] = entry;
+            count++;
+        }
+
+        private void writePage() {
+            int pageId = allocator.allocate();
+            allocator.saveModifications(pageId, page);
+            pages.add(pageId);
+            firstHashes.add(page.entries[0].hash);
+            page = new RunPage(pageCapacity);
+        }
+
+        /**
+         * @return written run or null if there were no entries
+         */
+        Run finish() {
+            if (page.count > 0) {
+                writePage();
+            }
+            return pages.isEmpty() ? null : Run.create(allocator, pages, firstHashes, count);
+        }
+    }
+
+    private interface Cursor {
+        boolean isDone();
+
+        RunEntry current();
+
+        void advance();
+    }
+
+    private class RunCursor implements Cursor {
+        private final Run run;
+        private int pageIdx;
+        private RunPage page;
+        private int index;
+
+        RunCursor(Run run) {
+            this.run = run;
+            this.pageIdx = 0;
+            this.page = allocator.get(run.pages[0], RunPage.class);
+        }
+
+        /**
+         * Positions cursor to the first entry after provided key
+         */
+        RunCursor(Run run, EntryKey after) {
+            this.run = run;
+            this.pageIdx = run.firstPageFor(after.hash);
+            this.page = allocator.get(run.pages[pageIdx], RunPage.class);
+            int found = search(page, after);
+            this.index = found >= 0 ? found + 1 : -found - 1;
+            skipPage();
+            //entries with the same hash may continue on the next page
+            while (!isDone() && compare(after, current()) >= 0) {
+                advance();
+            }
+        }
+
+        private void skipPage() {
+            while (index >= page.count && pageIdx + 1 < run.pages.length) {
+                pageIdx++;
+                page = allocator.get(run.pages[pageIdx], RunPage.class);
+                index = 0;
+            }
+        }
+
+        @Override
+        public boolean isDone() {
+            return index >= page.count;
+        }
+
+        @Override
+        public RunEntry current() {
+            return page.entries[index];
+        }
+
+        @Override
+        public void advance() {
+            index++;
+            skipPage();
+        }
+    }
+
+    private static class MemtableCursor implements Cursor {
+        private final Iterator<RunEntry> entries;
+        private RunEntry current;
+
+        MemtableCursor(Iterator<RunEntry> entries) {
+            this.entries = entries;
+            advance();
+        }
+
+        @Override
+        public boolean isDone() {
+            return current == null;
+        }
+
+        @Override
+        public RunEntry current() {
+            return current;
+        }
+
+        @Override
+        public void advance() {
+            current = entries.hasNext() ? entries.next() : null;
+        }
+    }
+
+    /**
+     * Merges memtable and runs. When runs are changed (memtable is written or runs are merged) cursors are positioned
+     * after the last returned key in the new runs - keys are the same, only their location is changed.
+     */
+    private class KeysIterator implements Iterator<String> {
+
+        private final int currentModCount;
+        private int currentRunsVersion;
+        private List<Cursor> cursors;
+        private String nextString;
+
+        public KeysIterator() {
+            try (Locker ignore = readLock()) {
+                this.currentModCount = modCount;
+                this.currentRunsVersion = runsVersion;
+                this.cursors = createCursors(null);
+                goNext();
+            }
+        }
+
+        private List<Cursor> createCursors(EntryKey after) {
+            List<Cursor> cursors = new ArrayList<>(runs.size() + 1);
+            cursors.add(new MemtableCursor((after == null ? memtable : memtable.tailMap(after, false)).values().iterator()));
+            for (Run run: runs) {
+                cursors.add(after == null ? new RunCursor(run) : new RunCursor(run, after));
+            }
+            return cursors;
+        }
+
+        private void ensureNotModified() {
+            if (currentModCount != modCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+
+        private void goNext() {
+            ensureNotModified();
+            if (currentRunsVersion != runsVersion) {
+                cursors = createCursors(new EntryKey(nextString));
+                currentRunsVersion = runsVersion;
+            }
+            String next = null;
+            for (List<RunEntry> versions = nextVersions(cursors); versions != null; versions = nextVersions(cursors)) {
+                if (!versions.get(0).isTombstone()) {
+                    next = getWholeKey(versions.get(0));
+                    break;
+                }
+            }
+            nextString = next;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextString != null;
+        }
+
+        @Override
+        public String next() {
+            if (nextString == null) {
+                throw new NoSuchElementException();
+            }
+            String ret = nextString;
+            try (Locker ignore = readLock()) {
+                goNext();
+            }
+            return ret;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Background thread which merges runs when new run is written.
+     */
+    private class Merger implements Runnable {
+        private final Thread thread = new Thread(this, "lsm runs merger");
+        private boolean stopped, changed;
+        private volatile RuntimeException failure;
+
+        void start() {
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        synchronized void wakeUp() {
+            changed = true;
+            notifyAll();
+        }
+
+        /**
+         * Stops background thread, waits until current merge (if any) is completed.
+         */
+        void stop() {
+            synchronized (this) {
+                stopped = true;
+                notifyAll();
+            }
+            boolean interrupted = false;
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            rethrowFailure();
+        }
+
+        @Override
+        public void run() {
+            while (waitForChange()) {
+                try {
+                    while (!isStopped() && merge(false)) {
+                        //merge more
+                    }
+                }
+                catch (RuntimeException e) {
+                    failure = e;
+                    return;
+                }
+            }
+        }
+
+        private synchronized boolean isStopped() {
+            return stopped;
+        }
+
+        private synchronized boolean waitForChange() {
+            while (!stopped && !changed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    stopped = true;
+                }
+            }
+            changed = false;
+            return !stopped;
+        }
+
+        void rethrowFailure() {
+            RuntimeException e = failure;
+            if (e != null) {
+                failure = null;
+                throw e;
+            }
+        }
+    }
+}
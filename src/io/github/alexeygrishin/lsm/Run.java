@@ -0,0 +1,111 @@
+package io.github.alexeygrishin.lsm;
+
+import io.github.alexeygrishin.blockalloc.Allocator;
+import io.github.alexeygrishin.common.Pointer;
+import io.github.alexeygrishin.lsm.blocks.Fence;
+import io.github.alexeygrishin.lsm.blocks.FencePage;
+import io.github.alexeygrishin.lsm.blocks.RunInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Immutable sorted run: pages with entries ordered by key, and fence pages which keep ids of pages with hashes of their
+ * first entries. Fences are kept in memory, so search in run reads only pages which may contain the key.
+ */
+class Run {
+
+    final int[] pages;
+    final int[] firstHashes;
+    final long entriesCount;
+    private final List<Integer> fencePages;
+
+    Run(int[] pages, int[] firstHashes, long entriesCount, List<Integer> fencePages) {
+        this.pages = pages;
+        this.firstHashes = firstHashes;
+        this.entriesCount = entriesCount;
+        this.fencePages = fencePages;
+    }
+
+    static Run load(Allocator allocator, RunInfo info) {
+        int[] pages = new int[info.pagesCount];
+        int[] firstHashes = new int[info.pagesCount];
+        List<Integer> fencePages = new ArrayList<>();
+        int idx = 0;
+        for (int page = info.firstFencePage; Pointer.isValid(page); ) {
+            fencePages.add(page);
+            FencePage fencePage = allocator.get(page, FencePage.class);
+            for (int i = 0; i < fencePage.count; i++, idx++) {
+                pages[idx] = fencePage.fences[i].page;
+                firstHashes[idx] = fencePage.fences[i].firstHash;
+            }
+            page = fencePage.nextPage;
+        }
+        return new Run(pages, firstHashes, info.entriesCount, fencePages);
+    }
+
+    /**
+     * Writes fence pages for run pages written before.
+     */
+    static Run create(Allocator allocator, List<Integer> pages, List<Integer> firstHashes, long entriesCount) {
+        int fenceCapacity = (allocator.getBlockSize() - FencePage.HEADER_SIZE) / Fence.SIZE;
+        int fencePagesCount = (pages.size() + fenceCapacity - 1) / fenceCapacity;
+        List<Integer> fencePages = new ArrayList<>(fencePagesCount);
+        for (int i = 0; i < fencePagesCount; i++) {
+            fencePages.add(allocator.allocate());
+        }
+        for (int i = 0; i < fencePagesCount; i++) {
+            FencePage fencePage = new FencePage();
+            fencePage.nextPage = i + 1 < fencePagesCount ? fencePages.get(i + 1) : Pointer.NULL_PTR;
+            fencePage.fences = new Fence[fenceCapacity];
+            for (int j = 0; j < fenceCapacity; j++) {
+                int page = i * fenceCapacity + j;
+                fencePage.fences[j] = page < pages.size() ? new Fence(pages.get(page), firstHashes.get(page)) : new Fence();
+            }
+            fencePage.count = Math.min(fenceCapacity, pages.size() - i * fenceCapacity);
+            allocator.saveModifications(fencePages.get(i), fencePage);
+        }
+        int[] pagesArray = new int[pages.size()];
+        int[] hashesArray = new int[pages.size()];
+        for (int i = 0; i < pagesArray.length; i++) {
+            pagesArray[i] = pages.get(i);
+            hashesArray[i] = firstHashes.get(i);
+        }
+        return new Run(pagesArray, hashesArray, entriesCount, fencePages);
+    }
+
+    RunInfo toInfo() {
+        RunInfo info = new RunInfo();
+        info.firstFencePage = fencePages.get(0);
+        info.pagesCount = pages.length;
+        info.entriesCount = entriesCount;
+        return info;
+    }
+
+    /**
+     * @return index of the first page which may contain entries with provided hash
+     */
+    int firstPageFor(int hash) {
+        int low = 0, high = firstHashes.length - 1, result = 0;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (firstHashes[middle] < hash) {
+                result = middle;
+                low = middle + 1;
+            }
+            else {
+                high = middle - 1;
+            }
+        }
+        return result;
+    }
+
+    void free(Allocator allocator) {
+        for (int page: pages) {
+            allocator.free(page);
+        }
+        for (int page: fencePages) {
+            allocator.free(page);
+        }
+    }
+}
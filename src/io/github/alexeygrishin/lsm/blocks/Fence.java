@@ -0,0 +1,16 @@
+package io.github.alexeygrishin.lsm.blocks;
+
+public class Fence {
+    public static final int SIZE = 8;
+
+    public int page;
+    public int firstHash;
+
+    public Fence() {
+    }
+
+    public Fence(int page, int firstHash) {
+        this.page = page;
+        this.firstHash = firstHash;
+    }
+}
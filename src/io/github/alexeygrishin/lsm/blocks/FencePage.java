@@ -0,0 +1,13 @@
+package io.github.alexeygrishin.lsm.blocks;
+
+/**
+ * Keeps ids of run pages with hashes of their first entries, so run could be searched without reading all its pages.
+ * Fence pages of run are chained from the first one to the last one.
+ */
+public class FencePage {
+    public static final int HEADER_SIZE = 8;
+
+    public int nextPage;
+    public int count;
+    public Fence[] fences;
+}
@@ -0,0 +1,11 @@
+package io.github.alexeygrishin.lsm.blocks;
+
+/**
+ * Keeps runs from the newest to the oldest one.
+ */
+public class IndexInfo {
+    public static final int HEADER_SIZE = 4;
+
+    public int runsCount;
+    public RunInfo[] runs;
+}
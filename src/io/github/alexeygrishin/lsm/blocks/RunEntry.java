@@ -0,0 +1,56 @@
+package io.github.alexeygrishin.lsm.blocks;
+
+import io.github.alexeygrishin.blockalloc.serializers.Limited;
+import io.github.alexeygrishin.lsm.LsmIndex;
+
+/**
+ * Entry of sorted run. Tombstone marks deleted key, its data pointer is the pointer of the deleted value, so whole key
+ * could be obtained for it as well.
+ */
+@Limited(size = LsmIndex.ENTRY_SIZE)
+public class RunEntry {
+    public static final byte WHOLE_KEY = 1;
+    public static final byte TOMBSTONE = 2;
+    public static final byte OWNS_DATA = 4;
+
+    public int hash;
+    public int keyLen;
+
+    @Limited(size = LsmIndex.KEY_PART_SIZE)
+    public String keyPart = "";
+    public long data;
+    public byte flags;
+
+    public RunEntry() {
+    }
+
+    /**
+     * @param keyPart key part as it is read after serialization
+     */
+    public RunEntry(int hash, int keyLen, String keyPart, long data, byte flags) {
+        this.hash = hash;
+        this.keyLen = keyLen;
+        this.keyPart = keyPart;
+        this.data = data;
+        this.flags = flags;
+    }
+
+    public RunEntry withFlag(byte flag) {
+        return new RunEntry(hash, keyLen, keyPart, data, (byte)(flags | flag));
+    }
+
+    public boolean isWholeKey() {
+        return (flags & WHOLE_KEY) != 0;
+    }
+
+    public boolean isTombstone() {
+        return (flags & TOMBSTONE) != 0;
+    }
+
+    /**
+     * @return true if tombstone is the only entry which refers its data pointer (deleted value was already merged away)
+     */
+    public boolean ownsData() {
+        return (flags & OWNS_DATA) != 0;
+    }
+}
@@ -0,0 +1,9 @@
+package io.github.alexeygrishin.lsm.blocks;
+
+public class RunInfo {
+    public static final int SIZE = 16;
+
+    public int firstFencePage;
+    public int pagesCount;
+    public long entriesCount;
+}
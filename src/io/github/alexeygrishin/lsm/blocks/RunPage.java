@@ -0,0 +1,25 @@
+package io.github.alexeygrishin.lsm.blocks;
+
+/**
+ * Page of sorted run. Entries array takes the whole block, so its length is page capacity.
+ */
+public class RunPage {
+    public static final int HEADER_SIZE = 4;
+
+    public int count;
+    public RunEntry[] entries;
+
+    public RunPage() {
+    }
+
+    public RunPage(int capacity) {
+        this.entries = new RunEntry[capacity];
+        for (int i = 0; i < capacity; i++) {
+            entries[i] = new RunEntry();
+        }
+    }
+
+    public boolean isFull() {
+        return count == entries.length;
+    }
+}
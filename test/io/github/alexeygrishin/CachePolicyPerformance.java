@@ -0,0 +1,108 @@
+package io.github.alexeygrishin;
+
+import io.github.alexeygrishin.blockalloc.BlockAllocator;
+import io.github.alexeygrishin.blockalloc.Cache;
+import io.github.alexeygrishin.bytestorage.Counter;
+import io.github.alexeygrishin.bytestorage.FileBytesContainer;
+import io.github.alexeygrishin.bytestorage.MemoryContainer;
+import io.github.alexeygrishin.bytestorage.SynchronizedByteContainer;
+import io.github.alexeygrishin.common.CachePolicy;
+import io.github.alexeygrishin.hashfile.NamedStorage;
+import io.github.alexeygrishin.hashfile.btreebased.BTreeBasedFactory;
+import io.github.alexeygrishin.tool.TestTool;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.Random;
+
+import static io.github.alexeygrishin.tool.TestTool.*;
+
+/**
+ * Compares cache policies on mixed workload: lookups of the hot set of blocks/keys interrupted by scans over all of them.
+ * Prints amount of disk reads made by hot lookups - the less the better.
+ */
+public class CachePolicyPerformance {
+
+    public static void main(String args[]) throws IOException {
+        CachePolicyPerformance perf = new CachePolicyPerformance();
+        System.out.println("Policy, Case, Hot reads, Scan reads, Time ms");
+        for (CachePolicy policy: CachePolicy.values()) {
+            perf.doBlocksTest(policy);
+        }
+        for (CachePolicy policy: CachePolicy.values()) {
+            perf.doStorageTest(policy);
+        }
+    }
+
+    private static final int ROUNDS = 10;
+
+    private void doBlocksTest(CachePolicy policy) {
+        final int blockSize = 4096, blocks = 10000, cachedBlocks = 1000, hotBlocks = 500, hotReads = 20000;
+        Counter ctr = new Counter(new MemoryContainer());
+        Cache cache = new Cache(new BlockAllocator(ctr, blockSize), cachedBlocks * blockSize, policy);
+        for (int i = 0; i < blocks; i++) {
+            cache.allocate();
+        }
+        Random random = new Random(1);
+        long hotDiskReads = 0, scanDiskReads = 0;
+        long start = now();
+        for (int round = 0; round < ROUNDS; round++) {
+            ctr.resetCounters();
+            for (int i = 0; i < hotReads; i++) {
+                cache.get(random.nextInt(hotBlocks), byte[].class);
+            }
+            hotDiskReads += ctr.getReads();
+            ctr.resetCounters();
+            for (int i = hotBlocks; i < blocks; i++) {
+                cache.get(i, byte[].class);
+            }
+            scanDiskReads += ctr.getReads();
+        }
+        print(policy, "blocks", hotDiskReads, scanDiskReads, start);
+        cache.close();
+    }
+
+    private Counter ctr;
+
+    private void doStorageTest(CachePolicy policy) throws IOException {
+        final int keys = 10000, hotKeys = 500, hotReads = 5000, dataSize = 4000;
+        File temp = new File("_temp1");
+        if (temp.exists() && !temp.delete()) {
+            throw new RuntimeException("Cannot delete temp file");
+        }
+        try (NamedStorage storage = new BTreeBasedFactory(false, policy) {
+            @Override
+            protected SynchronizedByteContainer createBytesContainer(File file) throws IOException {
+                return ctr = new Counter(new FileBytesContainer(new RandomAccessFile(file, "rw").getChannel()));
+            }
+        }.create(temp.getPath(), 4, 16, null)) {
+            List<String> names = TestTool.randomStrings(keys, 80);
+            for (String name: names) {
+                storage.saveFrom(name, TestTool.generateData(dataSize));
+            }
+            Random random = new Random(1);
+            long hotDiskReads = 0, scanDiskReads = 0;
+            long start = now();
+            for (int round = 0; round < ROUNDS; round++) {
+                ctr.resetCounters();
+                for (int i = 0; i < hotReads; i++) {
+                    storage.getInto(names.get(random.nextInt(hotKeys)), TestTool.ignoreData());
+                }
+                hotDiskReads += ctr.getReads();
+                ctr.resetCounters();
+                for (String name: storage) {
+                    storage.getInto(name, TestTool.ignoreData());
+                }
+                scanDiskReads += ctr.getReads();
+            }
+            print(policy, "storage", hotDiskReads, scanDiskReads, start);
+        }
+        temp.delete();
+    }
+
+    private void print(CachePolicy policy, String testCase, long hotReads, long scanReads, long start) {
+        System.out.println(policy + ", " + testCase + ", " + hotReads + ", " + scanReads + ", " + delta(start) / 1000 / 1000);
+    }
+}
@@ -1,18 +1,22 @@
 package io.github.alexeygrishin;
 
 import io.github.alexeygrishin.btree.KeyTruncateMethod;
+import io.github.alexeygrishin.common.CachePolicy;
 import io.github.alexeygrishin.common.Files;
 import io.github.alexeygrishin.common.Source;
+import io.github.alexeygrishin.hashfile.CacheSettings;
 import io.github.alexeygrishin.hashfile.NamedStorageFactory;
 import io.github.alexeygrishin.hashfile.NamedStorage;
+import io.github.alexeygrishin.hashfile.StorageEngine;
 import org.apache.commons.cli.ParseException;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import java.io.*;
-import java.util.Arrays;
+import java.util.*;
 
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.*;
@@ -41,6 +45,7 @@ public class CommandLineApiTest {
         MockitoAnnotations.initMocks(this);
         api = new CommandLineAPI(factory, files);
         when(factory.create(anyString(), any(Integer.class), any(Integer.class), any(KeyTruncateMethod.class))).thenReturn(storageMock);
+        when(factory.create(anyString(), any(Integer.class), any(CacheSettings.class), any(CacheSettings.class), any(KeyTruncateMethod.class))).thenReturn(storageMock);
         when(factory.load(anyString())).thenReturn(storageMock);
         when(source1.openInputStream()).thenReturn(inputStream);
         when(source1.openOutputStream()).thenReturn(outputStream);
@@ -83,6 +88,18 @@ public class CommandLineApiTest {
         verify(factory).create("path1", null, 2, null);
     }
 
+    @Test
+    public void create_separateCaches() throws Exception {
+        assertOutput(lines("Done"), "path1", "--new", "cache=8:lru/16");
+        verify(factory).create("path1", null, new CacheSettings(8, CachePolicy.LRU), new CacheSettings(16, null), null);
+    }
+
+    @Test
+    public void create_separateCaches_policy() throws Exception {
+        assertOutput(lines("Done"), "path1", "--new", "cache=/4:2q,truncate=trailing");
+        verify(factory).create("path1", null, new CacheSettings(null, null), new CacheSettings(4, CachePolicy.TWO_QUEUE), KeyTruncateMethod.TRAILING);
+    }
+
     @Test
     public void create_truncate_trailing() throws Exception {
         assertOutput(lines("Done"), "path1", "--new", "cache=4,truncate=trailing");
@@ -95,6 +112,16 @@ public class CommandLineApiTest {
         verify(factory).create("path1", null, 4, KeyTruncateMethod.LEADING);
     }
 
+    @Test
+    public void create_engine() throws Exception {
+        NamedStorageFactory lsmFactory = mock(NamedStorageFactory.class);
+        when(lsmFactory.create(anyString(), any(Integer.class), any(Integer.class), any(KeyTruncateMethod.class))).thenReturn(storageMock);
+        api = new CommandLineAPI(factory, Collections.singletonMap(StorageEngine.LSM, lsmFactory), files);
+        assertOutput(lines("Done"), "path1", "--new", "engine=lsm,block=2");
+        verify(lsmFactory).create("path1", 2, null, null);
+        verify(factory, never()).create(anyString(), any(Integer.class), any(Integer.class), any(KeyTruncateMethod.class));
+    }
+
     @Test
     public void importFrom_withoutKey() throws Exception {
         processArgs("path1", "--import-from", "file1");
@@ -124,13 +151,23 @@ public class CommandLineApiTest {
         processArgs("path1", "--import-from", "folder1");
         verify(factory).load("path1");
         verify(files).getSources("folder1");
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Iterator<Map.Entry<String, InputStream>>> entries =
+                ArgumentCaptor.forClass((Class<Iterator<Map.Entry<String, InputStream>>>)(Class<?>)Iterator.class);
+        verify(storageMock).saveAll(entries.capture());
+        verify(storageMock).close();
+        Map<String, InputStream> saved = new HashMap<>();
+        while (entries.getValue().hasNext()) {
+            Map.Entry<String, InputStream> entry = entries.getValue().next();
+            saved.put(entry.getKey(), entry.getValue());
+        }
+        assertEquals(2, saved.size());
+        assertEquals(inputStream, saved.get(DEFAULT_KEY));
+        assertEquals(inputStream, saved.get(DEFAULT_KEY_2));
         verify(source1).openInputStream();
         verify(source2).openInputStream();
         verify(source1).toKey();
         verify(source2).toKey();
-        verify(storageMock).saveFrom(DEFAULT_KEY, inputStream);
-        verify(storageMock).saveFrom(DEFAULT_KEY_2, inputStream);
-        verify(storageMock).close();
         verifyNoMoreInteractions(files, factory, source1, storageMock);
     }
 
@@ -209,6 +246,11 @@ public class CommandLineApiTest {
         processArgs("path1", "--new", "unknown=3");
     }
 
+    @Test(expected = InvalidSyntax.class)
+    public void new_engineUnknown() throws Exception {
+        processArgs("path1", "--new", "engine=lsm");
+    }
+
     @Test(expected = InvalidSyntax.class)
     public void new_truncateInvalid() throws Exception {
         processArgs("path1", "--new", "truncate=leadin");
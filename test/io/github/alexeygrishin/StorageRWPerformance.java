@@ -8,7 +8,10 @@ import io.github.alexeygrishin.bytestorage.Counter;
 import io.github.alexeygrishin.bytestorage.FileBytesContainer;
 import io.github.alexeygrishin.bytestorage.SynchronizedByteContainer;
 import io.github.alexeygrishin.hashfile.NamedStorage;
+import io.github.alexeygrishin.hashfile.NamedStorageFactory;
+import io.github.alexeygrishin.hashfile.StorageEngine;
 import io.github.alexeygrishin.hashfile.btreebased.BTreeBasedFactory;
+import io.github.alexeygrishin.hashfile.hashbased.HashBasedFactory;
 import io.github.alexeygrishin.tool.ByteCounter;
 import io.github.alexeygrishin.tool.TestTool;
 
@@ -46,21 +49,23 @@ public class StorageRWPerformance {
     private void doTest2(PrintStream out) throws FileNotFoundException, InterruptedException {
 
         StringBuilder summary = new StringBuilder();
-        summary.append("Key len, Data KB, block KB, cache MB, Case, Put time, Get time, Put reads, Put writes, Get reads\n");
-        summary.append(doStorageTest(out, 4, 64, 1, 80, 1000000, 40000)).append("\n");
-
-        summary.append(doStorageTest(out, 1, 32, 1, 80, 1000000, 40000)).append("\n");
-        summary.append(doStorageTest(out, 1, 32, 1, 2048, 1000000, 40000)).append("\n");
-        summary.append(doStorageTest(out, 10, 32, 100, 80, 10000, 400)).append("\n");
-        summary.append(doStorageTest(out, 128, 32, 100, 80, 10000, 400)).append("\n");
-        summary.append(doStorageTest(out, 128, 64, 100, 80, 10000, 400)).append("\n");
-        summary.append(doStorageTest(out, 128, 32, 100, 2048, 10000, 400)).append("\n");
-        summary.append(doStorageTest(out, 1024, 32, 100, 2048, 10000, 400)).append("\n");
-        summary.append(doStorageTest(out, 1024, 32, 100, 80, 10000, 400)).append("\n");
-        summary.append(doStorageTest(out, 1024, 32, 100, 2048, 10000, 400)).append("\n");
-        summary.append(doStorageTest(out, 1024, 32, 10000, 80, 100, 4)).append("\n");
-        summary.append(doStorageTest(out, 1024, 64, 10000, 80, 100, 4)).append("\n");
-        summary.append(doStorageTest(out, 1024, 64, 10000, 2048, 100, 4)).append("\n");
+        summary.append("Engine, Key len, Data KB, block KB, cache MB, Case, Put time, Get time, Put reads, Put writes, Get reads\n");
+        for (StorageEngine engine: StorageEngine.values()) {
+            summary.append(doStorageTest(out, engine, 4, 64, 1, 80, 1000000, 40000)).append("\n");
+
+            summary.append(doStorageTest(out, engine, 1, 32, 1, 80, 1000000, 40000)).append("\n");
+            summary.append(doStorageTest(out, engine, 1, 32, 1, 2048, 1000000, 40000)).append("\n");
+            summary.append(doStorageTest(out, engine, 10, 32, 100, 80, 10000, 400)).append("\n");
+            summary.append(doStorageTest(out, engine, 128, 32, 100, 80, 10000, 400)).append("\n");
+            summary.append(doStorageTest(out, engine, 128, 64, 100, 80, 10000, 400)).append("\n");
+            summary.append(doStorageTest(out, engine, 128, 32, 100, 2048, 10000, 400)).append("\n");
+            summary.append(doStorageTest(out, engine, 1024, 32, 100, 2048, 10000, 400)).append("\n");
+            summary.append(doStorageTest(out, engine, 1024, 32, 100, 80, 10000, 400)).append("\n");
+            summary.append(doStorageTest(out, engine, 1024, 32, 100, 2048, 10000, 400)).append("\n");
+            summary.append(doStorageTest(out, engine, 1024, 32, 10000, 80, 100, 4)).append("\n");
+            summary.append(doStorageTest(out, engine, 1024, 64, 10000, 80, 100, 4)).append("\n");
+            summary.append(doStorageTest(out, engine, 1024, 64, 10000, 2048, 100, 4)).append("\n");
+        }
         out.println();
         out.println(summary.toString());
 
@@ -68,23 +73,37 @@ public class StorageRWPerformance {
 
     private Counter ctr;
 
-    private String doStorageTest(PrintStream out, int blockSize, int cacheLimit, int dataSizeKB, int keySize, int maxCount, int step) throws FileNotFoundException, InterruptedException {
+    private NamedStorageFactory createFactory(StorageEngine engine) {
+        switch (engine) {
+            case HASH:
+                return new HashBasedFactory() {
+                    @Override
+                    protected SynchronizedByteContainer createBytesContainer(File file) throws IOException {
+                        return ctr = new Counter(new FileBytesContainer(new RandomAccessFile(file, "rw").getChannel()));
+                    }
+                };
+            default:
+                return new BTreeBasedFactory() {
+                    @Override
+                    protected SynchronizedByteContainer createBytesContainer(File file) throws IOException {
+                        return ctr = new Counter(new FileBytesContainer(new RandomAccessFile(file, "rw").getChannel()));
+                    }
+                };
+        }
+    }
+
+    private String doStorageTest(PrintStream out, StorageEngine engine, int blockSize, int cacheLimit, int dataSizeKB, int keySize, int maxCount, int step) throws FileNotFoundException, InterruptedException {
         File temp1 = new File("temp1");
         if (temp1.exists() && !temp1.delete()) {
             throw new RuntimeException("Cannot delete temp file");
         }
 
 
-        NamedStorage storage = new BTreeBasedFactory() {
-            @Override
-            protected SynchronizedByteContainer createBytesContainer(File file) throws IOException {
-                return ctr = new Counter(new FileBytesContainer(new RandomAccessFile("temp1", "rw").getChannel()));
-            }
-        }.create("temp1", blockSize, cacheLimit, KeyTruncateMethod.LEADING);
+        NamedStorage storage = createFactory(engine).create("temp1", blockSize, cacheLimit, KeyTruncateMethod.LEADING);
 
-        out.println("datablock = " + blockSize + " cache = " + cacheLimit + " dataSizeKB = " + dataSizeKB + " keySize = " + keySize);
+        out.println("engine = " + engine + " datablock = " + blockSize + " cache = " + cacheLimit + " dataSizeKB = " + dataSizeKB + " keySize = " + keySize);
         long now1 = now();
-        String header = String.format("%d,%d,%d,%d,[%d]=%d KB (b: %d KB c:%d MB),", keySize, dataSizeKB, blockSize, cacheLimit, keySize, dataSizeKB, blockSize, cacheLimit);
+        String header = String.format("%s,%d,%d,%d,%d,[%d]=%d KB (b: %d KB c:%d MB),", engine, keySize, dataSizeKB, blockSize, cacheLimit, keySize, dataSizeKB, blockSize, cacheLimit);
         System.out.print(header);
         String lastLine = "";
         out.println("N, Put time, Get time, Put reads, Put writes, Get reads, Get writes");
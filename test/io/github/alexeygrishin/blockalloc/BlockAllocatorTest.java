@@ -2,6 +2,8 @@ package io.github.alexeygrishin.blockalloc;
 
 import io.github.alexeygrishin.TestBaseWithCounter;
 import io.github.alexeygrishin.blockalloc.serializers.SerializationException;
+import io.github.alexeygrishin.common.InvalidPointer;
+import io.github.alexeygrishin.common.Pointer;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -72,4 +74,90 @@ public class BlockAllocatorTest extends TestBaseWithCounter {
         assertReadsWrites(1, 1, 1);
         assertEquals(55, allocator.get(blockId, Struct_10Bytes.class).value);
     }
+
+    @Test
+    public void free_reusedOnAllocate() {
+        allocator.allocate();
+        int freed = allocator.allocate();
+        try (BlockToModify<Struct_10Bytes> block = allocator.getToModify(freed, Struct_10Bytes.class)) {
+            block.getBlock().value = 7;
+        }
+        allocator.free(freed);
+        counter.resetCounters();
+        assertEquals(freed, allocator.allocate());
+        assertReadsWrites(0, 1, 0);
+        assertEquals(0, allocator.get(freed, Struct_10Bytes.class).value);
+    }
+
+    @Test
+    public void free_adjacentBlocksUnited() {
+        int first = allocator.allocate(3);
+        allocator.allocate();
+        allocator.free(first + 1);
+        allocator.free(first);
+        allocator.free(first + 2);
+        counter.resetCounters();
+        assertEquals(first, allocator.allocate(3));
+        assertReadsWrites(0, 1, 0);
+        assertEquals(0, allocator.getFreeBlocksCount());
+    }
+
+    @Test
+    public void allocate_smallestExtentUsed() {
+        int big = allocator.allocate(4);
+        allocator.allocate();
+        int small = allocator.allocate(2);
+        allocator.allocate();
+        allocator.free(big, 4);
+        allocator.free(small, 2);
+        assertEquals(small, allocator.allocate());
+        assertEquals(small + 1, allocator.allocate());
+        assertEquals(big, allocator.allocate(3));
+        assertEquals(1, allocator.getFreeBlocksCount());
+    }
+
+    @Test
+    public void allocate_noSuitableExtent() {
+        int block = allocator.allocate();
+        allocator.allocate();
+        allocator.free(block);
+        counter.resetCounters();
+        allocator.allocate(2);
+        assertReadsWrites(0, 0, 1);
+        assertEquals(1, allocator.getFreeBlocksCount());
+    }
+
+    @Test(expected = InvalidPointer.class)
+    public void free_twice() {
+        int block = allocator.allocate();
+        allocator.free(block);
+        allocator.free(block);
+    }
+
+    @Test
+    public void freeList_restoredAfterClose() {
+        final int[] head = {Pointer.NULL_PTR};
+        FreeListHolder holder = new FreeListHolder() {
+            @Override
+            public int getFreeListHead() {
+                return head[0];
+            }
+
+            @Override
+            public void setFreeListHead(int blockId) {
+                head[0] = blockId;
+            }
+        };
+        allocator = new BlockAllocator(counter, Struct_10Bytes.BLOCK_SIZE, holder);
+        int first = allocator.allocate(5);
+        allocator.free(first + 1, 2);
+        allocator.free(first + 4);
+        allocator.close();
+
+        allocator = new BlockAllocator(counter, Struct_10Bytes.BLOCK_SIZE, holder);
+        assertEquals(Pointer.NULL_PTR, head[0]);
+        assertEquals(3, allocator.getFreeBlocksCount());
+        assertEquals(first + 4, allocator.allocate());
+        assertEquals(first + 1, allocator.allocate(2));
+    }
 }
@@ -1,9 +1,17 @@
 package io.github.alexeygrishin.blockalloc;
 
 import io.github.alexeygrishin.TestBaseWithCounter;
+import io.github.alexeygrishin.common.CachePolicy;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
 public class CacheTest extends TestBaseWithCounter {
 
 
@@ -90,4 +98,98 @@ public class CacheTest extends TestBaseWithCounter {
         assertReadsWrites(0, 1, 0);
     }
 
+    @Test
+    public void flush_writesChangedBlocksOnce() {
+        allocator.saveModifications(block1, allocator.get(block1, Struct_10Bytes.class));
+        assertEquals(Struct_10Bytes.BLOCK_SIZE, allocator.getDirtySize());
+        counter.resetCounters();
+
+        allocator.flush();
+        allocator.flush();
+        assertReadsWrites(0, 1, 0);
+        assertEquals(0, allocator.getDirtySize());
+        assertEquals(0, allocator.getDirtySince());
+    }
+
+    @Test
+    public void flush_blocksRemainCached() {
+        allocator.saveModifications(block1, allocator.get(block1, Struct_10Bytes.class));
+        allocator.flush();
+        counter.resetCounters();
+
+        allocator.get(block1, Struct_10Bytes.class);
+        allocator.close();
+        assertReadsWrites(0, 0, 0);
+    }
+
+    @Test
+    public void flush_inBlockOrder() {
+        final List<Integer> written = new ArrayList<>();
+        Cache cache = new Cache(new BlockAllocator(counter, Struct_10Bytes.BLOCK_SIZE) {
+            @Override
+            public void saveModifications(int blockId, Object data, int blocks) {
+                written.add(blockId);
+                super.saveModifications(blockId, data, blocks);
+            }
+        }, 4 * Struct_10Bytes.BLOCK_SIZE);
+        cache.saveModifications(block3, cache.get(block3, Struct_10Bytes.class));
+        cache.saveModifications(block1, cache.get(block1, Struct_10Bytes.class));
+        try (BlockToModify<Struct_10Bytes> block = cache.getToModify(block2, Struct_10Bytes.class)) {
+            block.getBlock().value = 5;
+        }
+
+        cache.flush();
+        assertEquals(Arrays.asList(block1, block2, block3), written);
+    }
+
+    @Test
+    public void free_changesNotWritten() {
+        final List<Integer> written = new ArrayList<>();
+        Cache cache = new Cache(new BlockAllocator(counter, Struct_10Bytes.BLOCK_SIZE) {
+            @Override
+            public void saveModifications(int blockId, Object data, int blocks) {
+                written.add(blockId);
+                super.saveModifications(blockId, data, blocks);
+            }
+        }, 4 * Struct_10Bytes.BLOCK_SIZE);
+        try (BlockToModify<Struct_10Bytes> block = cache.getToModify(block1, Struct_10Bytes.class)) {
+            block.getBlock().value = 5;
+        }
+        cache.saveModifications(block2, cache.get(block2, Struct_10Bytes.class));
+        cache.free(block1);
+        cache.free(block2);
+        assertEquals(0, cache.getDirtySize());
+        cache.flush();
+        assertEquals(Collections.<Integer>emptyList(), written);
+    }
+
+    private void assertWarmPassesWithoutReads(Cache cache, int pages, int blocksInPage) {
+        int[] pageIds = new int[pages];
+        for (int i = 0; i < pages; i++) {
+            pageIds[i] = cache.allocate(blocksInPage);
+            cache.saveModifications(pageIds[i], new Struct_10Bytes(), blocksInPage);
+        }
+        cache.flush();
+        for (int pass = 0; pass < 3; pass++) {
+            counter.resetCounters();
+            for (int pageId : pageIds) {
+                cache.get(pageId, Struct_10Bytes.class, blocksInPage);
+            }
+            assertReadsWrites(0, 0, 0);
+        }
+    }
+
+    @Test
+    public void strideAlignedPages_smallBlocks_notEvicted() {
+        //ids of 256Kb pages are aligned to 64 blocks
+        Cache cache = new Cache(new BlockAllocator(counter, 4096), 32L * 1024 * 1024);
+        assertWarmPassesWithoutReads(cache, 16, 64);
+    }
+
+    @Test
+    public void strideAlignedPages_pageSizedElements_notEvicted() {
+        Cache cache = new Cache(new BlockAllocator(counter, 4096), 32L * 1024 * 1024, CachePolicy.LRU, 64 * 4096);
+        assertWarmPassesWithoutReads(cache, 16, 64);
+    }
+
 }
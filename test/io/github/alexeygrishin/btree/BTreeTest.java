@@ -2,14 +2,23 @@ package io.github.alexeygrishin.btree;
 
 import io.github.alexeygrishin.blockalloc.Allocator;
 import io.github.alexeygrishin.blockalloc.BlockAllocator;
+import io.github.alexeygrishin.blockalloc.Cache;
 import io.github.alexeygrishin.bytestorage.Counter;
 import io.github.alexeygrishin.bytestorage.MemoryContainer;
+import io.github.alexeygrishin.common.Locker;
+import io.github.alexeygrishin.common.Pointer;
 import io.github.alexeygrishin.tool.TestTool;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static io.github.alexeygrishin.btree.TreeHelper.*;
 import static org.junit.Assert.*;
@@ -164,6 +173,21 @@ public class BTreeTest {
             assertKeys(tree);
         }
 
+        @Test
+        public void replace() {
+            assertTrue(tree.replace("a", 42, 43));
+            assertEquals(43, tree.get("a"));
+            assertEquals(1, tree.size());
+        }
+
+        @Test
+        public void replace_otherData() {
+            assertFalse(tree.replace("a", 41, 43));
+            assertFalse(tree.replace("b", 42, 43));
+            assertEquals(42, tree.get("a"));
+            assertFalse(tree.contains("b"));
+        }
+
     }
 
     private static List<String> pre(String... preset) {
@@ -311,6 +335,38 @@ public class BTreeTest {
 
     }
 
+    public static class PartialWrites {
+        private static final int BTREE_T = 8;
+        private BTree tree;
+        private Counter ctr;
+
+        @Before
+        public void setup() {
+            ctr = new Counter(new MemoryContainer());
+            tree = createTree(BTREE_T, ctr);
+            for (int i = 0; i < 10; i++) {
+                tree.put("key" + i, i);
+            }
+            ctr.resetCounters();
+        }
+
+        @Test
+        public void update_onlyEntryWritten() {
+            tree.put("key5", 100);
+            assertEquals(1, ctr.getWrites());
+            assertEquals(BTree.ENTRY_SIZE, ctr.getBytesWritten());
+            assertEquals(100, tree.get("key5"));
+        }
+
+        @Test
+        public void remove_headerAndShiftedEntriesWritten() {
+            List<String> keys = TestTool.iteratorToList(tree);
+            tree.remove(keys.get(7));
+            assertEquals((1 + 2) * BTree.ENTRY_SIZE, ctr.getBytesWritten());
+            assertEquals(9, TestTool.iteratorToList(tree).size());
+        }
+    }
+
     public static class Iterating {
         private BTree tree;
 
@@ -329,12 +385,18 @@ public class BTreeTest {
             }
         }
 
-        @Test(expected = ConcurrentModificationException.class)
+        @Test
         public void iterate_removeConcurrently() {
             Iterator<String> iter = tree.iterator();
-            iter.next();
-            tree.remove("01");
-            iter.next();
+            Set<String> keys = new HashSet<>();
+            keys.add(iter.next());
+            String removed = keys.contains("01") ? "02" : "01";
+            tree.remove(removed);
+            while (iter.hasNext()) {
+                assertTrue(keys.add(iter.next()));
+            }
+            keys.add(removed);
+            assertEquals(new HashSet<>(pre(1, 10)), keys);
         }
 
         @Test
@@ -345,12 +407,18 @@ public class BTreeTest {
             iter.next();
         }
 
-        @Test(expected = ConcurrentModificationException.class)
+        @Test
         public void iterate_addConcurrently() {
             Iterator<String> iter = tree.iterator();
-            iter.next();
-            tree.put("-1", 1);
-            iter.next();
+            Set<String> keys = new HashSet<>();
+            keys.add(iter.next());
+            for (int i = 0; i < 100; i++) {
+                tree.put("new" + i, 1);
+            }
+            while (iter.hasNext()) {
+                assertTrue(keys.add(iter.next()));
+            }
+            assertTrue(keys.containsAll(pre(1, 10)));
         }
 
         @Test
@@ -362,6 +430,146 @@ public class BTreeTest {
         }
     }
 
+    public static class Splitting {
+        private BTree tree;
+
+        @Before
+        public void setup() {
+            tree = createTree(2);
+            for (String key: pre(1, 60)) {
+                tree.put(key, 1);
+            }
+        }
+
+        private List<String> iterate(List<Iterator<String>> parts) {
+            List<String> keys = new ArrayList<>();
+            for (Iterator<String> part: parts) {
+                List<String> partKeys = new ArrayList<>();
+                while (part.hasNext()) {
+                    partKeys.add(part.next());
+                }
+                assertFalse(partKeys.isEmpty());
+                keys.addAll(partKeys);
+            }
+            return keys;
+        }
+
+        @Test
+        public void partsInTreeOrder() {
+            List<Iterator<String>> parts = tree.split(4);
+            assertEquals(4, parts.size());
+            assertEquals(TestTool.iteratorToList(tree), iterate(parts));
+        }
+
+        @Test
+        public void morePartsThanKeys() {
+            List<Iterator<String>> parts = tree.split(100);
+            assertEquals(TestTool.iteratorToList(tree), iterate(parts));
+        }
+
+        @Test
+        public void onePart() {
+            assertEquals(TestTool.iteratorToList(tree), iterate(tree.split(1)));
+        }
+
+        @Test
+        public void emptyTree() {
+            List<Iterator<String>> parts = createTree(2).split(4);
+            assertEquals(1, parts.size());
+            assertFalse(parts.get(0).hasNext());
+        }
+
+        @Test
+        public void snapshot() {
+            List<String> keys = TestTool.iteratorToList(tree);
+            try (IndexSnapshot snapshot = tree.snapshot()) {
+                for (String key: pre(1, 30)) {
+                    tree.remove(key);
+                }
+                assertEquals(keys, iterate(snapshot.split(4)));
+            }
+        }
+    }
+
+    public static class Snapshots {
+        private BlockAllocator allocator;
+        private BTree tree;
+
+        @Before
+        public void setup() {
+            allocator = new BlockAllocator(new MemoryContainer(), blockSize(2));
+            tree = new BTree(allocator);
+            for (String key: pre(1, 20)) {
+                tree.put(key, 1);
+            }
+        }
+
+        @Test
+        public void survivesChanges() {
+            try (IndexSnapshot snapshot = tree.snapshot()) {
+                for (String key: pre(1, 10)) {
+                    tree.remove(key);
+                }
+                for (int i = 0; i < 100; i++) {
+                    tree.put("new" + i, 2);
+                }
+                tree.put("15", 3);
+                assertListsEqual(pre(1, 20), TestTool.iteratorToList(snapshot));
+                assertEquals(20, snapshot.size());
+                assertEquals(1, snapshot.get("01"));
+                assertEquals(1, snapshot.get("15"));
+                assertFalse(snapshot.contains("new1"));
+                assertEquals(3, tree.get("15"));
+                assertFalse(tree.contains("01"));
+            }
+        }
+
+        @Test
+        public void iterateWhileChanging() {
+            try (IndexSnapshot snapshot = tree.snapshot()) {
+                Iterator<String> iter = snapshot.iterator();
+                List<String> keys = new ArrayList<>();
+                keys.add(iter.next());
+                for (String key: pre(1, 20)) {
+                    tree.remove(key);
+                }
+                while (iter.hasNext()) {
+                    keys.add(iter.next());
+                }
+                assertListsEqual(pre(1, 20), keys);
+            }
+        }
+
+        @Test
+        public void copiesFreedOnClose() {
+            IndexSnapshot snapshot = tree.snapshot();
+            int free = allocator.getFreeBlocksCount();
+            for (int i = 0; i < 100; i++) {
+                tree.put("new" + i, 2);
+            }
+            int blocks = allocator.getBlocksCount();
+            snapshot.close();
+            assertTrue(allocator.getFreeBlocksCount() > free);
+            tree.put("after", 1);
+            assertEquals(blocks, allocator.getBlocksCount());
+        }
+
+        @Test
+        public void notCopiedAfterClose() {
+            tree.snapshot().close();
+            int blocks = allocator.getBlocksCount();
+            tree.put("01", 2);
+            assertEquals(blocks, allocator.getBlocksCount());
+        }
+
+        @Test(expected = IllegalStateException.class)
+        public void readAfterClose() {
+            IndexSnapshot snapshot = tree.snapshot();
+            snapshot.close();
+            snapshot.get("01");
+        }
+    }
+
     public static class RemoveConsistency {
 
         private Counter ctr;
@@ -494,7 +702,653 @@ public class BTreeTest {
             removeAndThenCheck(tree, pre(1,30), "12","15","18","24","29","03","01","04","30","16","10","17","11","22","23","25","26","28","07","08","05","06");
         }
 
+        @Test
+        public void putAndDelete_random() {
+            //replacement for deleted entry with children shall be taken from leaf, not from the child page
+            Map<String, Long> expected = new HashMap<>();
+            Random random = new Random(1);
+            for (int i = 0; i < 5000; i++) {
+                String key = String.format("%04d", random.nextInt(2000));
+                if (random.nextInt(3) > 0) {
+                    tree.put(key, i);
+                    expected.put(key, (long)i);
+                }
+                else {
+                    Long data = expected.remove(key);
+                    assertEquals("Removed wrong data for " + key, data != null ? data : -1, tree.remove(key));
+                }
+            }
+            assertEquals(expected.size(), tree.size());
+            for (Map.Entry<String, Long> entry: expected.entrySet()) {
+                assertEquals(entry.getValue().longValue(), tree.get(entry.getKey()));
+            }
+        }
+
 
     }
 
+
+    public static class BulkLoad {
+
+        private static final PrintStream NOWHERE = new PrintStream(new ByteArrayOutputStream());
+
+        private static Map<String, Long> sorted(BTree tree, int count) {
+            Map<String, Long> entries = new TreeMap<>(tree.getKeyOrder());
+            for (int i = 0; i < count; i++) {
+                entries.put("key" + i, (long)i);
+            }
+            return entries;
+        }
+
+        private static void loadAndCheck(int t, int count) {
+            BTree tree = createTree(t);
+            tree.bulkLoad(sorted(tree, count).entrySet().iterator());
+            tree.dump(NOWHERE);
+            assertEquals(count, tree.size());
+            for (int i = 0; i < count; i++) {
+                assertEquals(i, tree.get("key" + i));
+            }
+            assertEquals(count, TestTool.iteratorToList(tree).size());
+            //tree remains balanced for further changes
+            for (int i = 0; i < count; i += 2) {
+                tree.remove("key" + i);
+            }
+            for (int i = count; i < count * 2; i++) {
+                tree.put("key" + i, i);
+            }
+            tree.dump(NOWHERE);
+            assertEquals(count * 3 / 2, tree.size());
+        }
+
+        @Test
+        public void empty() {
+            BTree tree = createTree(2);
+            tree.bulkLoad(Collections.<String, Long>emptyMap().entrySet().iterator());
+            assertEquals(0, tree.size());
+            tree.put("a", 1);
+            assertEquals(1, tree.get("a"));
+        }
+
+        @Test
+        public void singlePage() {
+            loadAndCheck(3, 4);
+        }
+
+        @Test
+        public void fewPages() {
+            for (int count = 1; count < 40; count++) {
+                loadAndCheck(2, count);
+            }
+        }
+
+        @Test
+        public void manyLevels() {
+            loadAndCheck(2, 1000);
+            loadAndCheck(3, 1001);
+        }
+
+        @Test
+        public void lessPagesThanPut() {
+            Counter loaded = new Counter(new MemoryContainer());
+            BTree tree = createTree(3, loaded);
+            tree.bulkLoad(sorted(tree, 1000).entrySet().iterator());
+            Counter put = new Counter(new MemoryContainer());
+            tree = createTree(3, put);
+            for (int i = 0; i < 1000; i++) {
+                tree.put("key" + i, i);
+            }
+            assertTrue(loaded.getSize() * 3 / 2 < put.getSize());
+        }
+
+        @Test(expected = IllegalArgumentException.class)
+        public void notSorted() {
+            BTree tree = createTree(2);
+            Map<String, Long> entries = new TreeMap<>(Collections.reverseOrder(tree.getKeyOrder()));
+            entries.putAll(sorted(tree, 2));
+            tree.bulkLoad(entries.entrySet().iterator());
+        }
+
+        @Test(expected = IllegalStateException.class)
+        public void notEmpty() {
+            BTree tree = createTree(2);
+            tree.put("a", 1);
+            tree.bulkLoad(sorted(tree, 10).entrySet().iterator());
+        }
+    }
+
+    public static class Fingerprints {
+
+        private final Map<Long, String> names = new HashMap<>();
+        private int fetches;
+        private BTree tree;
+
+        @Before
+        public void setup() {
+            tree = new BTree(new BlockAllocator(new MemoryContainer(), blockSize(2)), new DefaultNameHelper() {
+                @Override
+                public String getFullName(long dataId) {
+                    fetches++;
+                    return names.get(dataId);
+                }
+            });
+        }
+
+        /**
+         * @return keys with same hash and same key part: "Aa" and "BB" have the same hash code
+         */
+        private static List<String> collidingKeys(int blocks) {
+            char[] prefix = new char[BTree.KEY_PART_LENGTH + 10];
+            Arrays.fill(prefix, 'x');
+            List<String> keys = new ArrayList<>();
+            for (int mask = 0; mask < 1 << blocks; mask++) {
+                StringBuilder key = new StringBuilder(new String(prefix));
+                for (int i = 0; i < blocks; i++) {
+                    key.append((mask & (1 << i)) != 0 ? "Aa" : "BB");
+                }
+                keys.add(key.toString());
+            }
+            return keys;
+        }
+
+        @Test
+        public void wholeKeyNotFetchedForDifferentKeys() {
+            List<String> keys = collidingKeys(6);
+            assertEquals(keys.get(0).hashCode(), keys.get(1).hashCode());
+            for (int i = 0; i < keys.size(); i++) {
+                names.put((long)i, keys.get(i));
+                tree.put(keys.get(i), i);
+            }
+            assertEquals(0, fetches);
+            assertEquals(Pointer.NULL_PTR, tree.get(keys.get(0) + "AaBB"));
+            assertEquals(Pointer.NULL_PTR, tree.get(keys.get(0).substring(1) + "x"));
+            assertEquals(0, fetches);
+            for (int i = 0; i < keys.size(); i++) {
+                assertEquals(i, tree.get(keys.get(i)));
+            }
+            assertEquals("Whole key is fetched only to confirm it is found", keys.size(), fetches);
+        }
+    }
+
+    public static class Filter {
+
+        private static final int KEYS = 3000;
+
+        private final MemoryContainer container = new MemoryContainer();
+        private int reads;
+        private BTree tree;
+
+        @Before
+        public void setup() {
+            tree = openTree();
+            for (int i = 0; i < KEYS; i++) {
+                tree.put("key" + i, i);
+            }
+        }
+
+        private BTree openTree() {
+            return new BTree(new BlockAllocator(container, blockSize(2)) {
+                @Override
+                public <T> T get(int blockId, Class<T> kls) {
+                    reads++;
+                    return super.get(blockId, kls);
+                }
+            });
+        }
+
+        private void assertMissesRarelyReadPages() {
+            reads = 0;
+            for (int i = 0; i < KEYS; i++) {
+                assertFalse(tree.contains("missing" + i));
+            }
+            assertTrue("Pages were read " + reads + " times", reads < KEYS / 5);
+        }
+
+        private void assertAllFound(int from) {
+            for (int i = from; i < KEYS; i++) {
+                assertEquals(i, tree.get("key" + i));
+            }
+        }
+
+        @Test
+        public void missesDoNotReadPages() {
+            assertMissesRarelyReadPages();
+            assertAllFound(0);
+        }
+
+        @Test
+        public void removedKeys() {
+            for (int i = 0; i < KEYS / 2; i++) {
+                tree.remove("key" + i);
+            }
+            for (int i = 0; i < KEYS / 2; i++) {
+                assertFalse(tree.contains("key" + i));
+            }
+            assertAllFound(KEYS / 2);
+        }
+
+        @Test
+        public void afterReopen() {
+            tree.close();
+            tree = openTree();
+            assertMissesRarelyReadPages();
+            assertAllFound(0);
+            tree.put("new", 1);
+            assertEquals(1, tree.get("new"));
+        }
+
+        @Test
+        public void afterReopen_notClosed() {
+            tree.flush();
+            tree = openTree();
+            assertMissesRarelyReadPages();
+            assertAllFound(0);
+        }
+    }
+
+    public static class PinnedLevels {
+
+        private static final int KEYS = 1000;
+
+        private final Counter counter = new Counter(new MemoryContainer());
+        private Cache cache;
+        private BTree tree;
+
+        private void createTree(int t, int cachedPages, int keys) {
+            cache = new Cache(new BlockAllocator(counter, blockSize(t)), (long)cachedPages * blockSize(t));
+            tree = new BTree(cache, new DefaultNameHelper(), 100);
+            for (int i = 0; i < keys; i++) {
+                tree.put("key" + i, i);
+            }
+        }
+
+        private void assertFoundWithLeafReadsOnly(int from) {
+            counter.resetCounters();
+            for (int i = from; i < KEYS; i++) {
+                assertEquals(i, tree.get("key" + i));
+            }
+            assertTrue(counter.getReads() <= KEYS - from);
+        }
+
+        @Test
+        public void upperLevelsPinned() {
+            //cache keeps less pages than tree has
+            createTree(8, 32, KEYS);
+            assertFoundWithLeafReadsOnly(0);
+        }
+
+        @Test
+        public void afterRemoval() {
+            createTree(8, 32, KEYS);
+            for (int i = 0; i < KEYS / 2; i++) {
+                tree.remove("key" + i);
+            }
+            assertFoundWithLeafReadsOnly(KEYS / 2);
+        }
+
+        @Test
+        public void leavesNotPinned() {
+            createTree(2, 32, 1);
+            assertEquals(0, cache.getPinnedSize());
+            for (int i = 1; i < 4; i++) {
+                tree.put("key" + i, i);
+            }
+            assertEquals("Only root is pinned", blockSize(2), cache.getPinnedSize());
+        }
+
+        @Test
+        public void pinnedWithinCacheBudget() {
+            createTree(2, 8, KEYS);
+            assertTrue(cache.getPinnedSize() > 0);
+            assertTrue(cache.getPinnedSize() <= cache.getMaxSize() * Cache.MAX_PINNED_SHARE);
+            for (int i = 0; i < KEYS; i++) {
+                assertEquals(i, tree.get("key" + i));
+            }
+        }
+    }
+
+    public static class InlineKeys {
+
+        private static final int BLOCK_SIZE = 4096;
+        private static final int KEYS = 500;
+
+        private final MemoryContainer container = new MemoryContainer();
+        private final Map<Long, String> names = new HashMap<>();
+        private int fetches;
+
+        private BTree openTree(Integer inlineKeyLength) {
+            return new BTree(new BlockAllocator(container, BLOCK_SIZE), new DefaultNameHelper() {
+                @Override
+                public String getFullName(long dataId) {
+                    fetches++;
+                    return names.get(dataId);
+                }
+            }, BTree.DEFAULT_PINNED_LEVELS, inlineKeyLength);
+        }
+
+        private void putKeys(BTree tree, String prefix) {
+            for (int i = 0; i < KEYS; i++) {
+                names.put((long)i, prefix + i);
+                tree.put(prefix + i, i);
+            }
+        }
+
+        @Test
+        public void shortKeys_morePerPage() {
+            putKeys(openTree(8), "k");
+            int blocks = new BlockAllocator(container, BLOCK_SIZE).getBlocksCount();
+            MemoryContainer defaultContainer = new MemoryContainer();
+            BTree defaultTree = new BTree(new BlockAllocator(defaultContainer, BLOCK_SIZE));
+            for (int i = 0; i < KEYS; i++) {
+                defaultTree.put("k" + i, i);
+            }
+            int defaultBlocks = new BlockAllocator(defaultContainer, BLOCK_SIZE).getBlocksCount();
+            assertTrue(blocks + " pages vs " + defaultBlocks, blocks * 3 < defaultBlocks);
+        }
+
+        @Test
+        public void shortKeys_notFetched() {
+            BTree tree = openTree(8);
+            putKeys(tree, "k");
+            for (int i = 0; i < KEYS; i++) {
+                assertEquals(i, tree.get("k" + i));
+            }
+            assertEquals(0, fetches);
+        }
+
+        @Test
+        public void longKeys_fetchedToConfirm() {
+            BTree tree = openTree(8);
+            putKeys(tree, "long key ");
+            for (int i = 0; i < KEYS; i++) {
+                assertEquals(i, tree.get("long key " + i));
+            }
+            assertEquals(KEYS, fetches);
+            assertKeys(tree, names.values().toArray(new String[KEYS]));
+        }
+
+        @Test
+        public void reopen_entrySizeIsKept() {
+            BTree tree = openTree(8);
+            putKeys(tree, "k");
+            tree.close();
+            tree = openTree(null);
+            for (int i = 0; i < KEYS; i++) {
+                assertEquals(i, tree.get("k" + i));
+            }
+            assertEquals(0, fetches);
+        }
+
+        @Test(expected = IllegalArgumentException.class)
+        public void create_blockTooSmall() {
+            new BTree(new BlockAllocator(container, 100), new DefaultNameHelper(), 0, 8);
+        }
+    }
+
+    public static class OrderedKeys {
+
+        private static final int BLOCK_SIZE = 4096;
+        private static final int KEYS = 2000;
+
+        private final Counter counter = new Counter(new MemoryContainer());
+        private final Map<Long, String> names = new HashMap<>();
+        private final List<String> sorted = new ArrayList<>();
+        private BTree tree;
+
+        private BTree openTree(boolean ordered) {
+            return new BTree(new BlockAllocator(counter, BLOCK_SIZE), new DefaultNameHelper() {
+                @Override
+                public String getFullName(long dataId) {
+                    return names.get(dataId);
+                }
+            }, 0, 8, ordered);
+        }
+
+        @Before
+        public void setup() {
+            tree = openTree(true);
+            List<Integer> order = new ArrayList<>();
+            for (int i = 0; i < KEYS; i++) {
+                order.add(i);
+            }
+            Collections.shuffle(order, new Random(1));
+            for (int i: order) {
+                //long keys share leading part, so they are compared as whole keys
+                String key = i % 2 == 0 ? String.format("k%04d", i) : String.format("reports/2026/%04d", i);
+                names.put((long)i, key);
+                tree.put(key, i);
+            }
+            sorted.addAll(names.values());
+            Collections.sort(sorted);
+        }
+
+        private static List<String> toList(Iterator<String> keys) {
+            List<String> result = new ArrayList<>();
+            while (keys.hasNext()) {
+                result.add(keys.next());
+            }
+            return result;
+        }
+
+        @Test
+        public void allKeys_ordered() {
+            assertEquals(sorted, toList(tree.range(null, null)));
+        }
+
+        @Test
+        public void range_boundsInTree() {
+            assertEquals(sorted.subList(sorted.indexOf("k0100"), sorted.indexOf("k0200")), toList(tree.range("k0100", "k0200")));
+        }
+
+        @Test
+        public void range_boundsNotInTree() {
+            assertEquals(sorted.subList(sorted.indexOf("reports/2026/0101"), sorted.indexOf("reports/2026/0301")),
+                    toList(tree.range("reports/2026/01", "reports/2026/03")));
+        }
+
+        @Test
+        public void range_empty() {
+            assertFalse(tree.range("k0100", "k0100").hasNext());
+            assertFalse(tree.range("x", null).hasNext());
+        }
+
+        @Test
+        public void range_readsOnlyItsPages() {
+            counter.resetCounters();
+            assertEquals(10, toList(tree.range("k0100", "k0120")).size());
+            assertTrue(counter.getReads() + " reads", counter.getReads() <= 3);
+        }
+
+        @Test
+        public void lookups() {
+            for (long i = 0; i < KEYS; i++) {
+                assertEquals(i, tree.get(names.get(i)));
+            }
+            assertFalse(tree.contains("k"));
+        }
+
+        @Test
+        public void keyOrder_isNatural() {
+            assertTrue(tree.getKeyOrder().compare("a", "b") < 0);
+            assertTrue(tree.getKeyOrder().compare("ab", "b") < 0);
+            assertTrue(tree.getKeyOrder().compare("b", "ab") > 0);
+        }
+
+        @Test
+        public void reopen_orderIsKept() {
+            tree.close();
+            tree = openTree(false);
+            assertEquals(sorted.subList(0, 10), toList(tree.range(null, "k0020")));
+        }
+
+        @Test(expected = UnsupportedOperationException.class)
+        public void notOrdered_rangeNotSupported() {
+            new BTree(new BlockAllocator(new MemoryContainer(), BLOCK_SIZE), new DefaultNameHelper(), 0, 8).range(null, null);
+        }
+
+        @Test
+        public void modifiedWhileIterating() {
+            Iterator<String> keys = tree.range(null, "k0100");
+            assertEquals("k0000", keys.next());
+            tree.remove("k0002");
+            tree.put("k00015", 1);
+            tree.put("k00025", 1);
+            //the next key is found before change, key added after the last returned one is found as well
+            assertEquals(Arrays.asList("k0002", "k00025", "k0004", "k0006"), toList(keys).subList(0, 4));
+        }
+    }
+
+    public static class ConcurrentPuts {
+
+        private static final PrintStream NOWHERE = new PrintStream(new ByteArrayOutputStream());
+        private static final int THREADS = 4;
+        private static final int KEYS_PER_THREAD = 300;
+
+        private MemoryContainer container;
+        private BTree tree;
+
+        @Before
+        public void setup() {
+            container = new MemoryContainer();
+            tree = createTree(2, container);
+        }
+
+        private void putInParallel(final String prefix) throws Exception {
+            ExecutorService executor = Executors.newFixedThreadPool(THREADS * 2);
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (int i = 0; i < THREADS; i++) {
+                    final int thread = i;
+                    futures.add(executor.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            for (int j = 0; j < KEYS_PER_THREAD; j++) {
+                                String key = prefix + thread + "_" + j;
+                                tree.put(key, j);
+                                assertEquals(j, tree.get(key));
+                            }
+                        }
+                    }));
+                    futures.add(executor.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            for (int j = 0; j < KEYS_PER_THREAD; j++) {
+                                tree.contains(prefix + thread + "_" + (KEYS_PER_THREAD - j));
+                            }
+                        }
+                    }));
+                }
+                for (Future<?> future: futures) {
+                    future.get();
+                }
+            }
+            finally {
+                executor.shutdownNow();
+            }
+        }
+
+        private void assertAllPut(BTree tree, String prefix) {
+            tree.dump(NOWHERE);
+            for (int i = 0; i < THREADS; i++) {
+                for (int j = 0; j < KEYS_PER_THREAD; j++) {
+                    assertEquals(j, tree.get(prefix + i + "_" + j));
+                }
+            }
+        }
+
+        @Test
+        public void allKeysPut() throws Exception {
+            putInParallel("key");
+            assertAllPut(tree, "key");
+            assertEquals(THREADS * KEYS_PER_THREAD, tree.size());
+        }
+
+        @Test
+        public void updates() throws Exception {
+            putInParallel("key");
+            putInParallel("key");
+            assertAllPut(tree, "key");
+            assertEquals(THREADS * KEYS_PER_THREAD, tree.size());
+        }
+
+        @Test
+        public void afterRemoval() throws Exception {
+            putInParallel("key");
+            for (String key: TestTool.iteratorToList(tree)) {
+                tree.remove(key);
+            }
+            putInParallel("other");
+            assertAllPut(tree, "other");
+            assertEquals(THREADS * KEYS_PER_THREAD, tree.size());
+        }
+
+        @Test(timeout = 10000)
+        public void lockForRead_sharedWithBatchesAndPuts() throws Exception {
+            tree.put("key", 1);
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            try (Locker ignore = tree.lockForRead()) {
+                Future<?> other = executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try (Locker ignore = tree.lockForRead()) {
+                            assertEquals(1, tree.get("key"));
+                        }
+                        tree.put("other", 2);
+                    }
+                });
+                other.get();
+                assertEquals(2, tree.get("other"));
+            }
+            finally {
+                executor.shutdownNow();
+            }
+        }
+
+        @Test
+        public void lookupsWhileChanging() throws Exception {
+            for (int i = 0; i < KEYS_PER_THREAD; i++) {
+                tree.put("stable" + i, i);
+            }
+            final AtomicBoolean changing = new AtomicBoolean(true);
+            ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+            try {
+                List<Future<?>> lookups = new ArrayList<>();
+                for (int i = 0; i < THREADS; i++) {
+                    lookups.add(executor.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            while (changing.get()) {
+                                for (int j = 0; j < KEYS_PER_THREAD; j++) {
+                                    assertEquals(j, tree.get("stable" + j));
+                                }
+                            }
+                        }
+                    }));
+                }
+                for (int i = 0; i < KEYS_PER_THREAD * 2; i++) {
+                    tree.put("key" + i, i);
+                    if (i % 2 == 0) {
+                        tree.remove("key" + (i / 2));
+                    }
+                }
+                changing.set(false);
+                for (Future<?> lookup: lookups) {
+                    lookup.get();
+                }
+            }
+            finally {
+                changing.set(false);
+                executor.shutdownNow();
+            }
+        }
+
+        @Test
+        public void afterReopen() throws Exception {
+            putInParallel("key");
+            tree.close();
+            tree = createTree(2, container);
+            putInParallel("other");
+            assertAllPut(tree, "key");
+            assertAllPut(tree, "other");
+        }
+    }
 }
@@ -35,35 +35,35 @@ public class DataStorageTest extends TestBaseWithCounter {
 
     @Test
     public void saveGetName_short() {
-        int blockId = storage.insert("test", str(""));
+        long blockId = storage.insert("test", str(""));
         assertEquals("test", storage.getFullName(blockId));
         assertReadsWrites(2, 1, 1);
     }
 
     @Test
     public void saveGetName_wholePage() {
-        int blockId = storage.insert("test1", str(""));
+        long blockId = storage.insert("test1", str(""));
         assertEquals("test1", storage.getFullName(blockId));
         assertReadsWrites(2, 1, 1);
     }
 
     @Test
     public void saveGetName_2pages() {
-        int blockId = storage.insert("test12", str(""));
+        long blockId = storage.insert("test12", str(""));
         assertEquals("test12", storage.getFullName(blockId));
         assertReadsWrites(4, 2, 2);
     }
 
     @Test
     public void saveGetName_3pages() {
-        int blockId = storage.insert("....$....$...", str(""));
+        long blockId = storage.insert("....$....$...", str(""));
         assertEquals("....$....$...", storage.getFullName(blockId));
         assertReadsWrites(6, 3, 3);
     }
 
     @Test
     public void saveGetData_empty() {
-        int blockId = storage.insert("abc", str(""));
+        long blockId = storage.insert("abc", str(""));
         storage.select(blockId, out);
         assertEquals("", str(out));
     }
@@ -71,7 +71,7 @@ public class DataStorageTest extends TestBaseWithCounter {
 
     @Test
     public void saveGetData_samePageWithName() {
-        int blockId = storage.insert("abc", str("d"));
+        long blockId = storage.insert("abc", str("d"));
         assertEquals("abc", storage.getFullName(blockId));
         storage.select(blockId, out);
         assertEquals("d", str(out));
@@ -80,7 +80,7 @@ public class DataStorageTest extends TestBaseWithCounter {
 
     @Test
     public void saveGetData_startsFromAnotherPage() {
-        int blockId = storage.insert("abc11", str("d2"));
+        long blockId = storage.insert("abc11", str("d2"));
         assertEquals("abc11", storage.getFullName(blockId));
         storage.select(blockId, out);
         assertEquals("d2", str(out));
@@ -88,7 +88,7 @@ public class DataStorageTest extends TestBaseWithCounter {
 
     @Test
     public void saveGetData_2pages() {
-        int blockId = storage.insert("abc11", str("1111122222"));
+        long blockId = storage.insert("abc11", str("1111122222"));
         assertEquals("abc11", storage.getFullName(blockId));
         storage.select(blockId, out);
         assertEquals("1111122222", str(out));
@@ -96,14 +96,14 @@ public class DataStorageTest extends TestBaseWithCounter {
 
     @Test
     public void saveGetName_empty() {
-        int blockId = storage.insert("", str(""));
+        long blockId = storage.insert("", str(""));
         assertEquals("", storage.getFullName(blockId));
         assertReadsWrites(2, 1, 1);
     }
 
     @Test
     public void updateData_sameSize() {
-        int blockId = storage.insert("key", str("value"));
+        long blockId = storage.insert("key", str("value"));
         storage.update(blockId, str("eulav"));
         storage.select(blockId, out);
         assertEquals("eulav", str(out));
@@ -111,7 +111,7 @@ public class DataStorageTest extends TestBaseWithCounter {
 
     @Test
     public void updateData_larger() {
-        int blockId = storage.insert("key", str("value"));
+        long blockId = storage.insert("key", str("value"));
         storage.update(blockId, str("anothervalue"));
         storage.select(blockId, out);
         assertEquals("anothervalue", str(out));
@@ -119,7 +119,7 @@ public class DataStorageTest extends TestBaseWithCounter {
 
     @Test
     public void updateData_smaller() {
-        int blockId = storage.insert("key", str("value"));
+        long blockId = storage.insert("key", str("value"));
         storage.update(blockId, str("?"));
         storage.select(blockId, out);
         assertEquals("?", str(out));
@@ -127,14 +127,14 @@ public class DataStorageTest extends TestBaseWithCounter {
 
     @Test(expected = NoSuchElement.class)
     public void delete_getName() {
-        int blockId = storage.insert("key", str("value"));
+        long blockId = storage.insert("key", str("value"));
         storage.delete(blockId);
         storage.getFullName(blockId);
     }
 
     @Test(expected = NoSuchElement.class)
     public void delete_getData() {
-        int blockId = storage.insert("key", str("value"));
+        long blockId = storage.insert("key", str("value"));
         storage.delete(blockId);
         storage.select(blockId, out);
     }
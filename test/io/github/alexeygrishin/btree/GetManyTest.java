@@ -0,0 +1,224 @@
+package io.github.alexeygrishin.btree;
+
+import io.github.alexeygrishin.blockalloc.BlockAllocator;
+import io.github.alexeygrishin.bytestorage.MemoryContainer;
+import io.github.alexeygrishin.hashfile.DataConsumer;
+import io.github.alexeygrishin.hashfile.DataTarget;
+import io.github.alexeygrishin.hashfile.NamedStorage;
+import io.github.alexeygrishin.hashfile.btreebased.BTreeBasedStorage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import static io.github.alexeygrishin.btree.TreeHelper.blockSize;
+import static org.junit.Assert.*;
+
+public class GetManyTest {
+
+    private NamedStorage storage;
+    private ExecutorService executor;
+    private final Map<String, String> received = new ConcurrentHashMap<>();
+    private final DataConsumer consumer = new DataConsumer() {
+        @Override
+        public void accept(String key, InputStream data) {
+            try {
+                StringBuilder value = new StringBuilder();
+                for (int b = data.read(); b != -1; b = data.read()) {
+                    value.append((char)b);
+                }
+                assertNull("Key is passed twice: " + key, received.put(key, value.toString()));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    };
+
+    private final DataTarget target = new DataTarget() {
+        @Override
+        public OutputStream open(final String key) {
+            return new ByteArrayOutputStream() {
+                @Override
+                public void close() {
+                    assertNull("Key is passed twice: " + key, received.put(key, toString()));
+                }
+            };
+        }
+    };
+
+    @Before
+    public void setup() {
+        storage = new BTreeBasedStorage(new BlockAllocator(new MemoryContainer(), blockSize(2)),
+                new BlockAllocator(new MemoryContainer(), 64), KeyTruncateMethod.LEADING);
+        for (int i = 0; i < 100; i++) {
+            storage.saveFrom("key" + i, new ByteArrayInputStream(("value" + i).getBytes()));
+        }
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private static List<String> keys(int from, int to) {
+        List<String> keys = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            keys.add("key" + i);
+        }
+        return keys;
+    }
+
+    private void assertReceived(int from, int to) {
+        assertEquals(to - from, received.size());
+        for (int i = from; i < to; i++) {
+            assertEquals("value" + i, received.get("key" + i));
+        }
+    }
+
+    @Test
+    public void empty() {
+        storage.getMany(Collections.<String>emptyList(), consumer);
+        assertTrue(received.isEmpty());
+    }
+
+    @Test
+    public void all() {
+        storage.getMany(keys(0, 100), consumer);
+        assertReceived(0, 100);
+    }
+
+    @Test
+    public void missingAndDuplicateKeys() {
+        List<String> keys = keys(90, 110);
+        keys.addAll(keys(90, 95));
+        storage.getMany(keys, consumer);
+        assertReceived(90, 100);
+    }
+
+    @Test(timeout = 10000)
+    public void consumerChangesOtherKeys() {
+        storage.getMany(keys(0, 100), new DataConsumer() {
+            @Override
+            public void accept(String key, InputStream data) {
+                consumer.accept(key, data);
+                for (int i = 0; i < 100; i++) {
+                    if (!received.containsKey("key" + i)) {
+                        storage.saveFrom("key" + i, new ByteArrayInputStream(("value" + i).getBytes()));
+                        storage.delete("key" + i);
+                        storage.saveFrom("key" + i, new ByteArrayInputStream(("value" + i).getBytes()));
+                    }
+                }
+            }
+        });
+        assertReceived(0, 100);
+    }
+
+    @Test(timeout = 10000)
+    public void parallel_consumerChangesOtherKeys() {
+        storage.getMany(keys(0, 100), new DataConsumer() {
+            @Override
+            public void accept(String key, InputStream data) {
+                consumer.accept(key, data);
+                int other = (Integer.parseInt(key.substring(3)) + 50) % 100;
+                storage.delete("key" + other);
+                storage.saveFrom("key" + other, new ByteArrayInputStream(("value" + other).getBytes()));
+            }
+        }, executor);
+        assertReceived(0, 100);
+    }
+
+    @Test
+    public void parallel() {
+        storage.getMany(keys(0, 100), consumer, executor);
+        assertReceived(0, 100);
+    }
+
+    @Test
+    public void parallel_consumerFails() {
+        try {
+            storage.getMany(keys(0, 10), new DataConsumer() {
+                @Override
+                public void accept(String key, InputStream data) {
+                    throw new IllegalStateException(key);
+                }
+            }, executor);
+            fail("Consumer failure shall be thrown");
+        } catch (IllegalStateException e) {
+            //expected
+        }
+        //all data is unlocked
+        storage.delete("key1");
+        assertFalse(storage.contains("key1"));
+    }
+
+    @Test(timeout = 10000)
+    public void parallel_boundedInProgress() throws Exception {
+        final Thread caller = Thread.currentThread();
+        final CountDownLatch blocked = new CountDownLatch(4);
+        final CountDownLatch release = new CountDownLatch(1);
+        final DataConsumer blocking = new DataConsumer() {
+            @Override
+            public void accept(String key, InputStream data) {
+                assertNotSame(caller, Thread.currentThread());
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                consumer.accept(key, data);
+            }
+        };
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                storage.getMany(keys(0, 100), blocking, executor);
+            }
+        };
+        reader.start();
+        blocked.await();
+        Thread.sleep(100);
+        assertEquals(0, ((ThreadPoolExecutor)executor).getQueue().size());
+        release.countDown();
+        reader.join();
+        assertReceived(0, 100);
+    }
+
+    @Test
+    public void scan_all() {
+        storage.scan(target, executor, 8);
+        assertReceived(0, 100);
+    }
+
+    @Test
+    public void scan_morePartsThanKeys() {
+        for (int i = 0; i < 90; i++) {
+            storage.delete("key" + i);
+        }
+        storage.scan(target, executor, 50);
+        assertReceived(90, 100);
+    }
+
+    @Test
+    public void scan_snapshot() {
+        try (NamedStorage snapshot = storage.snapshot()) {
+            for (int i = 0; i < 50; i++) {
+                storage.delete("key" + i);
+            }
+            snapshot.scan(target, executor, 4);
+        }
+        assertReceived(0, 100);
+    }
+}
@@ -0,0 +1,70 @@
+package io.github.alexeygrishin.btree;
+
+import io.github.alexeygrishin.blockalloc.BlockAllocator;
+import io.github.alexeygrishin.bytestorage.MemoryContainer;
+import io.github.alexeygrishin.hashfile.NamedStorage;
+import io.github.alexeygrishin.hashfile.btreebased.BTreeBasedStorage;
+import io.github.alexeygrishin.hashfile.btreebased.DataStorage;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.*;
+
+import static io.github.alexeygrishin.btree.TreeHelper.blockSize;
+import static org.junit.Assert.*;
+
+public class PrefixTest {
+
+    private NamedStorage storage;
+
+    @Before
+    public void setup() {
+        storage = new BTreeBasedStorage(new BlockAllocator(new MemoryContainer(), blockSize(2)),
+                new DataStorage(new BlockAllocator(new MemoryContainer(), 64)), KeyTruncateMethod.TRAILING, 8, true);
+        for (String key: Arrays.asList("reports/2025/dec", "reports/2026/jan", "reports/2026/feb", "reports/2026",
+                "reports/20260", "reports", "a", "b")) {
+            storage.saveFrom(key, new ByteArrayInputStream(key.getBytes()));
+        }
+    }
+
+    private static List<String> toList(Iterator<String> keys) {
+        List<String> result = new ArrayList<>();
+        while (keys.hasNext()) {
+            result.add(keys.next());
+        }
+        return result;
+    }
+
+    @Test
+    public void keysWithPrefix() {
+        assertEquals(Arrays.asList("reports/2026/feb", "reports/2026/jan"), toList(storage.prefix("reports/2026/")));
+    }
+
+    @Test
+    public void prefixIsKey() {
+        assertEquals(Arrays.asList("reports/2026", "reports/2026/feb", "reports/2026/jan", "reports/20260"),
+                toList(storage.prefix("reports/2026")));
+    }
+
+    @Test
+    public void lastCharIsMax() {
+        assertEquals(Collections.<String>emptyList(), toList(storage.prefix("a\uFFFF")));
+    }
+
+    @Test
+    public void emptyPrefix() {
+        assertEquals(8, toList(storage.prefix("")).size());
+    }
+
+    @Test
+    public void range() {
+        assertEquals(Arrays.asList("reports/2025/dec", "reports/2026"), toList(storage.range("reports/", "reports/2026/")));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void notOrdered() {
+        new BTreeBasedStorage(new BlockAllocator(new MemoryContainer(), blockSize(2)),
+                new DataStorage(new BlockAllocator(new MemoryContainer(), 64)), KeyTruncateMethod.LEADING, 8).prefix("a");
+    }
+}
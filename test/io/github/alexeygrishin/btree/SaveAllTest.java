@@ -0,0 +1,101 @@
+package io.github.alexeygrishin.btree;
+
+import io.github.alexeygrishin.blockalloc.BlockAllocator;
+import io.github.alexeygrishin.bytestorage.MemoryContainer;
+import io.github.alexeygrishin.hashfile.NamedStorage;
+import io.github.alexeygrishin.hashfile.btreebased.BTreeBasedStorage;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.*;
+
+import static io.github.alexeygrishin.btree.TreeHelper.blockSize;
+import static org.junit.Assert.*;
+
+public class SaveAllTest {
+
+    private static final int COUNT = 100;
+
+    private NamedStorage storage;
+
+    @Before
+    public void setup() {
+        storage = new BTreeBasedStorage(new BlockAllocator(new MemoryContainer(), blockSize(2)),
+                new BlockAllocator(new MemoryContainer(), 64), KeyTruncateMethod.LEADING);
+    }
+
+    private static InputStream str(String str) {
+        return new ByteArrayInputStream(str.getBytes());
+    }
+
+    private String get(String key) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        return storage.getInto(key, out) ? new String(out.toByteArray()) : null;
+    }
+
+    /**
+     * Saves some keys in another thread when half of entries are read.
+     */
+    private Iterator<Map.Entry<String, InputStream>> entries(final String... concurrentKeys) {
+        return new Iterator<Map.Entry<String, InputStream>>() {
+            private int i;
+
+            @Override
+            public boolean hasNext() {
+                return i < COUNT;
+            }
+
+            @Override
+            public Map.Entry<String, InputStream> next() {
+                if (i == COUNT / 2 && concurrentKeys.length > 0) {
+                    Thread writer = new Thread() {
+                        @Override
+                        public void run() {
+                            for (String key: concurrentKeys) {
+                                storage.saveFrom(key, str("concurrent"));
+                            }
+                        }
+                    };
+                    writer.start();
+                    try {
+                        writer.join();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                String key = "key" + i++;
+                return new AbstractMap.SimpleEntry<>(key, str("value" + key));
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Test
+    public void intoEmpty() {
+        storage.saveAll(entries());
+        for (int i = 0; i < COUNT; i++) {
+            assertEquals("valuekey" + i, get("key" + i));
+        }
+    }
+
+    @Test
+    public void concurrentSave() {
+        storage.saveAll(entries("other", "key1", "key99"));
+        for (int i = 0; i < COUNT; i++) {
+            assertEquals("valuekey" + i, get("key" + i));
+        }
+        assertEquals("concurrent", get("other"));
+        int count = 0;
+        for (String ignore: storage) {
+            count++;
+        }
+        assertEquals(COUNT + 1, count);
+    }
+}
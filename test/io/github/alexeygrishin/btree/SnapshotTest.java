@@ -0,0 +1,94 @@
+package io.github.alexeygrishin.btree;
+
+import io.github.alexeygrishin.blockalloc.BlockAllocator;
+import io.github.alexeygrishin.bytestorage.MemoryContainer;
+import io.github.alexeygrishin.hashfile.NamedStorage;
+import io.github.alexeygrishin.hashfile.btreebased.BTreeBasedStorage;
+import io.github.alexeygrishin.hashfile.btreebased.DataStorage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static io.github.alexeygrishin.btree.TreeHelper.assertListsEqual;
+import static io.github.alexeygrishin.btree.TreeHelper.blockSize;
+import static io.github.alexeygrishin.tool.TestTool.iteratorToList;
+import static org.junit.Assert.*;
+
+public class SnapshotTest {
+
+    private BlockAllocator dataAllocator;
+    private NamedStorage storage;
+
+    @Before
+    public void setup() {
+        dataAllocator = new BlockAllocator(new MemoryContainer(), 64);
+        storage = new BTreeBasedStorage(new BlockAllocator(new MemoryContainer(), blockSize(2)),
+                new DataStorage(dataAllocator), KeyTruncateMethod.TRAILING, 8, true);
+        for (String key: Arrays.asList("a", "b", "c")) {
+            save(key, key);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        storage.close();
+    }
+
+    private void save(String key, String value) {
+        storage.saveFrom(key, new ByteArrayInputStream(value.getBytes()));
+    }
+
+    private static String read(NamedStorage storage, String key) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        return storage.getInto(key, stream) ? stream.toString() : null;
+    }
+
+    private static List<String> toList(Iterator<String> keys) {
+        List<String> result = new ArrayList<>();
+        while (keys.hasNext()) {
+            result.add(keys.next());
+        }
+        return result;
+    }
+
+    @Test
+    public void seesDataOfItsMoment() {
+        try (NamedStorage snapshot = storage.snapshot()) {
+            save("a", "changed");
+            storage.delete("b");
+            save("d", "d");
+            assertEquals("a", read(snapshot, "a"));
+            assertEquals("b", read(snapshot, "b"));
+            assertNull(read(snapshot, "d"));
+            assertListsEqual(Arrays.asList("a", "b", "c"), iteratorToList(snapshot));
+            assertEquals(Arrays.asList("b", "c"), toList(snapshot.range("b", null)));
+            assertEquals("changed", read(storage, "a"));
+            assertFalse(storage.contains("b"));
+        }
+    }
+
+    @Test
+    public void replacedDataDeletedOnClose() {
+        NamedStorage snapshot = storage.snapshot();
+        int free = dataAllocator.getFreeBlocksCount();
+        save("a", "changed");
+        storage.delete("b");
+        assertEquals(free, dataAllocator.getFreeBlocksCount());
+        snapshot.close();
+        assertTrue(dataAllocator.getFreeBlocksCount() > free);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void readOnly() {
+        try (NamedStorage snapshot = storage.snapshot()) {
+            snapshot.delete("a");
+        }
+    }
+}
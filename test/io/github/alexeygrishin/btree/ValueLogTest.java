@@ -0,0 +1,192 @@
+package io.github.alexeygrishin.btree;
+
+import io.github.alexeygrishin.blockalloc.BlockAllocator;
+import io.github.alexeygrishin.bytestorage.MemoryContainer;
+import io.github.alexeygrishin.common.Pointer;
+import io.github.alexeygrishin.hashfile.btreebased.DataReferences;
+import io.github.alexeygrishin.hashfile.btreebased.ValueLog;
+import io.github.alexeygrishin.hashfile.btreebased.ValueLogHolder;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ValueLogTest {
+
+    private static final int BLOCK_SIZE = 1024;
+    private static final int LARGE = ValueLog.SEGMENT_SIZE * 3 / 5;
+
+    private MemoryContainer container;
+    private BlockAllocator allocator;
+    private ValueLog log;
+    private ByteArrayOutputStream out;
+    private final Map<String, Long> index = new HashMap<>();
+    private final ValueLogHolder holder = new ValueLogHolder() {
+        private int head = Pointer.NULL_PTR;
+
+        @Override
+        public int getValueLogHead() {
+            return head;
+        }
+
+        @Override
+        public void setValueLogHead(int blockId) {
+            head = blockId;
+        }
+    };
+    private final DataReferences references = new DataReferences() {
+        @Override
+        public boolean isReferenced(String key, long data) {
+            Long current = index.get(key);
+            return current != null && current == data;
+        }
+
+        @Override
+        public boolean move(String key, long from, long to) {
+            if (!isReferenced(key, from)) {
+                return false;
+            }
+            index.put(key, to);
+            return true;
+        }
+    };
+
+    @Before
+    public void setup() {
+        container = new MemoryContainer();
+        allocator = new BlockAllocator(container, BLOCK_SIZE);
+        log = new ValueLog(allocator, holder);
+        out = new ByteArrayOutputStream();
+    }
+
+    private InputStream str(String str) {
+        return new ByteArrayInputStream(str.getBytes());
+    }
+
+    private String str(ByteArrayOutputStream out) {
+        return new String(out.toByteArray());
+    }
+
+    private String select(long data) {
+        out.reset();
+        log.select(data, out);
+        return str(out);
+    }
+
+    private long insert(String key, String value) {
+        long data = log.insert(key, str(value));
+        index.put(key, data);
+        return data;
+    }
+
+    private static String large(char c) {
+        char[] chars = new char[LARGE];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    @Test
+    public void insert_select() {
+        long data = insert("key", "value");
+        assertEquals("key", log.getFullName(data));
+        assertEquals("value", select(data));
+    }
+
+    @Test
+    public void insert_appendsToSameSegment() {
+        long first = insert("a", "1");
+        long second = insert("b", "22");
+        assertEquals("1", select(first));
+        assertEquals("22", select(second));
+        assertEquals(1, log.getSegmentsCount());
+    }
+
+    @Test
+    public void insert_recordCrossesBlocks() {
+        String value = large('x').substring(0, BLOCK_SIZE * 3 + 7);
+        long data = insert("key", value);
+        assertEquals(value, select(data));
+    }
+
+    @Test
+    public void insert_recordLargerThanSegment() {
+        String value = large('x') + large('y');
+        long data = insert("key", value);
+        assertEquals(value, select(data));
+        assertEquals("key", log.getFullName(data));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void update_notSupported() {
+        long data = insert("key", "value");
+        log.update(data, str("other"));
+    }
+
+    @Test
+    public void delete_segmentCollected() {
+        long first = insert("a", large('a'));
+        insert("b", large('b'));
+        assertEquals(2, log.getSegmentsCount());
+        log.delete(first);
+        index.remove("a");
+        log.collectGarbage(references);
+        assertEquals(1, log.getSegmentsCount());
+        assertEquals(large('b'), select(index.get("b")));
+    }
+
+    @Test
+    public void delete_headSegmentNotCollected() {
+        long data = insert("a", "1");
+        log.delete(data);
+        log.collectGarbage(references);
+        assertEquals(1, log.getSegmentsCount());
+    }
+
+    @Test
+    public void collectGarbage_liveDataMoved() {
+        long kept = insert("kept", "value");
+        long first = insert("a", large('a'));
+        insert("b", large('b'));
+        log.delete(first);
+        index.remove("a");
+        log.collectGarbage(references);
+        long moved = index.get("kept");
+        assertNotEquals(kept, moved);
+        assertEquals("value", select(moved));
+        assertEquals("kept", log.getFullName(moved));
+        assertEquals(1, log.getSegmentsCount());
+    }
+
+    @Test(expected = NoSuchElement.class)
+    public void collectGarbage_oldPointerInvalid() {
+        long kept = insert("kept", "value");
+        long first = insert("a", large('a'));
+        insert("b", large('b'));
+        log.delete(first);
+        index.remove("a");
+        log.collectGarbage(references);
+        log.select(kept, out);
+    }
+
+    @Test
+    public void flush_load() {
+        long first = insert("a", large('a'));
+        long second = insert("b", large('b'));
+        log.flush();
+        ValueLog loaded = new ValueLog(new BlockAllocator(container, BLOCK_SIZE), holder);
+        assertEquals(2, loaded.getSegmentsCount());
+        out.reset();
+        loaded.select(first, out);
+        assertEquals(large('a'), str(out));
+        assertEquals("b", loaded.getFullName(second));
+        long third = loaded.insert("c", str("3"));
+        out.reset();
+        loaded.select(third, out);
+        assertEquals("3", str(out));
+    }
+}
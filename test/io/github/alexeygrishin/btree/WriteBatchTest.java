@@ -0,0 +1,94 @@
+package io.github.alexeygrishin.btree;
+
+import io.github.alexeygrishin.blockalloc.BlockAllocator;
+import io.github.alexeygrishin.bytestorage.MemoryContainer;
+import io.github.alexeygrishin.hashfile.NamedStorage;
+import io.github.alexeygrishin.hashfile.WriteBatch;
+import io.github.alexeygrishin.hashfile.btreebased.BTreeBasedStorage;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static io.github.alexeygrishin.btree.TreeHelper.assertListsEqual;
+import static io.github.alexeygrishin.btree.TreeHelper.blockSize;
+import static io.github.alexeygrishin.tool.TestTool.iteratorToList;
+import static org.junit.Assert.*;
+
+public class WriteBatchTest {
+
+    private NamedStorage storage;
+
+    @Before
+    public void setup() {
+        storage = new BTreeBasedStorage(new BlockAllocator(new MemoryContainer(), blockSize(2)),
+                new BlockAllocator(new MemoryContainer(), 64), KeyTruncateMethod.LEADING);
+    }
+
+    private InputStream str(String str) {
+        return new ByteArrayInputStream(str.getBytes());
+    }
+
+    private String get(String key) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        return storage.getInto(key, out) ? new String(out.toByteArray()) : null;
+    }
+
+    @Test
+    public void empty() {
+        storage.write(new WriteBatch());
+        assertFalse(storage.iterator().hasNext());
+    }
+
+    @Test
+    public void put() {
+        WriteBatch batch = new WriteBatch();
+        for (int i = 0; i < 100; i++) {
+            batch.put("key" + i, str("value" + i));
+        }
+        storage.write(batch);
+        for (int i = 0; i < 100; i++) {
+            assertEquals("value" + i, get("key" + i));
+        }
+    }
+
+    @Test
+    public void put_replacesExisting() {
+        storage.saveFrom("a", str("1"));
+        storage.write(new WriteBatch().put("a", str("2")).put("b", str("3")));
+        assertEquals("2", get("a"));
+        assertEquals("3", get("b"));
+    }
+
+    @Test
+    public void delete() {
+        storage.saveFrom("a", str("1"));
+        storage.saveFrom("b", str("2"));
+        storage.write(new WriteBatch().delete("a").delete("c"));
+        assertListsEqual(Arrays.asList("b"), iteratorToList(storage));
+    }
+
+    @Test
+    public void lastChangeWins() {
+        storage.saveFrom("a", str("1"));
+        storage.write(new WriteBatch()
+                .put("a", str("2")).delete("a")
+                .delete("b").put("b", str("3"))
+                .put("c", str("4")).put("c", str("5")));
+        assertNull(get("a"));
+        assertEquals("3", get("b"));
+        assertEquals("5", get("c"));
+        assertListsEqual(Arrays.asList("b", "c"), iteratorToList(storage));
+    }
+
+    @Test
+    public void sequentialBatches() {
+        for (int i = 0; i < 10; i++) {
+            storage.write(new WriteBatch().put("key" + i, str("value" + i)).delete("key" + (i - 1)));
+        }
+        assertListsEqual(Arrays.asList("key9"), iteratorToList(storage));
+    }
+}
@@ -0,0 +1,81 @@
+package io.github.alexeygrishin.bytestorage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.Assert.*;
+
+public class MappedFileBytesContainerTest {
+
+    private static final String TEMP_FILE = "_mapped1";
+    private MappedFileBytesContainer container;
+
+    private MappedFileBytesContainer open() throws IOException {
+        FileChannel channel = FileChannel.open(new File(TEMP_FILE).toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new MappedFileBytesContainer(channel, 16, 8);
+    }
+
+    private static ByteBuffer bytes(int from, int count) {
+        ByteBuffer buffer = ByteBuffer.allocate(count);
+        for (int i = 0; i < count; i++) {
+            buffer.put((byte)(from + i));
+        }
+        return buffer;
+    }
+
+    @Before
+    public void setup() throws IOException {
+        new File(TEMP_FILE).delete();
+        container = open();
+    }
+
+    @After
+    public void teardown() {
+        if (container != null) container.close();
+        new File(TEMP_FILE).delete();
+    }
+
+    @Test
+    public void append_growsByChunks() {
+        assertEquals(0, container.append(bytes(0, 5)));
+        assertEquals(5, container.append(bytes(5, 5)));
+        assertEquals(10, container.getSize());
+    }
+
+    @Test
+    public void readWrite_crossSegments() {
+        container.append(bytes(0, 40));
+        container.write(10, bytes(100, 20));
+        ByteBuffer target = ByteBuffer.allocate(30);
+        container.read(5, target);
+        assertEquals(9, target.get(4));
+        assertEquals(100, target.get(5));
+        assertEquals(119, target.get(24));
+        assertEquals(30, target.get(25));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void read_outside() {
+        container.append(bytes(0, 5));
+        container.read(2, ByteBuffer.allocate(4));
+    }
+
+    @Test
+    public void close_truncatesToSize() throws IOException {
+        container.append(bytes(0, 21));
+        container.close();
+        assertEquals(21, new File(TEMP_FILE).length());
+        container = open();
+        assertEquals(21, container.getSize());
+        ByteBuffer target = ByteBuffer.allocate(1);
+        container.read(20, target);
+        assertEquals(20, target.get(0));
+    }
+}
@@ -0,0 +1,171 @@
+package io.github.alexeygrishin.common;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class CacheBaseTest {
+
+    private final CountDownLatch loadStarted = new CountDownLatch(1), loadAllowed = new CountDownLatch(1);
+    private final CountDownLatch freeStarted = new CountDownLatch(1), freeAllowed = new CountDownLatch(1);
+    private final AtomicInteger loads = new AtomicInteger();
+    private volatile boolean blockLoad, blockFree, freed;
+
+    private final CacheBase<Integer, String> cache = new CacheBase<Integer, String>(1, 1) {
+        @Override
+        protected String getFromSource(Integer key) {
+            loads.incrementAndGet();
+            if (blockLoad) {
+                loadStarted.countDown();
+                await(loadAllowed);
+            }
+            return freed ? "saved" + key : "value" + key;
+        }
+
+        @Override
+        protected int getSize(Integer key, String element) {
+            return 1;
+        }
+
+        @Override
+        protected void free(Integer key, String element) {
+            if (blockFree) {
+                freeStarted.countDown();
+                await(freeAllowed);
+            }
+            freed = true;
+        }
+    };
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private Thread getInThread(final int key, final AtomicReference<String> result) {
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                result.set(cache.get(key));
+            }
+        };
+        thread.start();
+        return thread;
+    }
+
+    private static void waitUntilBlocked(Thread thread) {
+        while (thread.getState() != Thread.State.WAITING) {
+            Thread.yield();
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void get_concurrentMissesLoadOnce() throws InterruptedException {
+        blockLoad = true;
+        AtomicReference<String> result1 = new AtomicReference<>(), result2 = new AtomicReference<>();
+        Thread thread1 = getInThread(1, result1);
+        loadStarted.await();
+        Thread thread2 = getInThread(1, result2);
+        waitUntilBlocked(thread2);
+        loadAllowed.countDown();
+        thread1.join();
+        thread2.join();
+        assertEquals(1, loads.get());
+        assertEquals("value1", result1.get());
+        assertEquals("value1", result2.get());
+    }
+
+    @Test(timeout = 5000)
+    public void get_otherKeyNotBlockedByLoad() throws InterruptedException {
+        blockLoad = true;
+        Thread thread = getInThread(1, new AtomicReference<String>());
+        loadStarted.await();
+        blockLoad = false;
+        assertEquals("value2", cache.get(2));
+        loadAllowed.countDown();
+        thread.join();
+    }
+
+    @Test(timeout = 5000)
+    public void get_waitsUntilEvictedElementIsFreed() throws InterruptedException {
+        cache.get(1);
+        blockFree = true;
+        Thread thread = getInThread(2, new AtomicReference<String>());
+        freeStarted.await();
+        AtomicReference<String> result = new AtomicReference<>();
+        Thread reader = getInThread(1, result);
+        waitUntilBlocked(reader);
+        freeAllowed.countDown();
+        thread.join();
+        reader.join();
+        assertEquals("saved1", result.get());
+    }
+
+    @Test
+    public void pin_notMovedOut() {
+        cache.pin(1);
+        cache.get(1);
+        cache.get(2);
+        cache.get(3);
+        loads.set(0);
+        assertEquals("value1", cache.get(1));
+        assertEquals(0, loads.get());
+    }
+
+    @Test
+    public void unpin_mayBeMovedOut() {
+        cache.pin(1);
+        cache.pin(1);
+        cache.get(1);
+        cache.unpin(1);
+        cache.get(2);
+        loads.set(0);
+        cache.get(1);
+        assertEquals("Still pinned once", 0, loads.get());
+        cache.unpin(1);
+        cache.get(2);
+        cache.get(1);
+        assertEquals(2, loads.get());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void unpin_notPinned() {
+        cache.unpin(1);
+    }
+
+    @Test
+    public void strideAlignedKeys_spreadOverSegments() {
+        //16 segments, 64 elements each
+        CacheBase<Integer, String> segmented = new CacheBase<Integer, String>(1024, 1024) {
+            @Override
+            protected String getFromSource(Integer key) {
+                loads.incrementAndGet();
+                return "value" + key;
+            }
+
+            @Override
+            protected int getSize(Integer key, String element) {
+                return 1;
+            }
+
+            @Override
+            protected void free(Integer key, String element) {
+            }
+        };
+        for (int i = 0; i < 256; i++) {
+            segmented.get(i * 16);
+        }
+        loads.set(0);
+        for (int i = 0; i < 256; i++) {
+            segmented.get(i * 16);
+        }
+        assertEquals(0, loads.get());
+    }
+}
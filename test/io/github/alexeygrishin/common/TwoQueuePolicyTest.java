@@ -0,0 +1,72 @@
+package io.github.alexeygrishin.common;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TwoQueuePolicyTest {
+
+    private TwoQueuePolicy<Integer> policy;
+
+    @Before
+    public void setup() {
+        policy = new TwoQueuePolicy<>();
+    }
+
+    @Test
+    public void evict_fifoForNewElements() {
+        policy.added(1);
+        policy.added(2);
+        policy.added(3);
+        assertEquals(1, policy.evict().intValue());
+        assertEquals(2, policy.evict().intValue());
+    }
+
+    @Test
+    public void evict_accessedElementKept() {
+        policy.added(1);
+        policy.added(2);
+        policy.added(3);
+        policy.added(4);
+        policy.accessed(1);
+        assertEquals(2, policy.evict().intValue());
+        assertEquals(3, policy.evict().intValue());
+        assertEquals(4, policy.evict().intValue());
+        assertEquals(1, policy.evict().intValue());
+    }
+
+    @Test
+    public void evict_repeatedAccessIgnored() {
+        policy.added(1);
+        policy.accessed(1);
+        policy.added(2);
+        assertEquals(1, policy.evict().intValue());
+    }
+
+    @Test
+    public void evict_scanDoesNotMoveOutAccessedElements() {
+        policy.added(1);
+        policy.added(2);
+        policy.accessed(1);
+        policy.accessed(2);
+        for (int i = 10; i < 20; i++) {
+            policy.added(i);
+            assertEquals(i, policy.evict().intValue());
+        }
+        assertEquals(1, policy.evict().intValue());
+    }
+
+    @Test
+    public void added_rememberedElementIsHot() {
+        for (int i = 1; i <= 4; i++) {
+            policy.added(i);
+        }
+        assertEquals(1, policy.evict().intValue());
+        policy.added(1);
+        assertEquals(2, policy.evict().intValue());
+        assertEquals(3, policy.evict().intValue());
+        assertEquals(4, policy.evict().intValue());
+        assertEquals(1, policy.evict().intValue());
+    }
+}
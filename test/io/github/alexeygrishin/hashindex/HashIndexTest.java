@@ -0,0 +1,191 @@
+package io.github.alexeygrishin.hashindex;
+
+import io.github.alexeygrishin.blockalloc.BlockAllocator;
+import io.github.alexeygrishin.btree.LongData;
+import io.github.alexeygrishin.btree.TreeNameHelper;
+import io.github.alexeygrishin.btree.Truncate;
+import io.github.alexeygrishin.bytestorage.MemoryContainer;
+import io.github.alexeygrishin.common.Pointer;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static io.github.alexeygrishin.btree.TreeHelper.assertListsEqual;
+import static io.github.alexeygrishin.tool.TestTool.iteratorToList;
+import static io.github.alexeygrishin.tool.TestTool.randomString;
+import static org.junit.Assert.*;
+
+public class HashIndexTest {
+
+    private static final int BLOCK_SIZE = 8 + 4 * HashIndex.ENTRY_SIZE;
+
+    private MemoryContainer container;
+    private BlockAllocator allocator;
+    private HashIndex index;
+    private final Map<Long, String> names = new HashMap<>();
+    private final TreeNameHelper helper = new TreeNameHelper() {
+        @Override
+        public String getFullName(long dataId) {
+            return names.get(dataId);
+        }
+
+        @Override
+        public String truncate(String fullName, int targetLen) {
+            return Truncate.leading(fullName, targetLen);
+        }
+    };
+
+    @Before
+    public void setup() {
+        container = new MemoryContainer();
+        allocator = new BlockAllocator(container, BLOCK_SIZE);
+        index = new HashIndex(allocator, helper);
+    }
+
+    private void put(String key, long data) {
+        names.put(data, key);
+        index.put(key, new LongData(data));
+    }
+
+    private List<String> putMany(int count) {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String key = "key" + i;
+            put(key, i);
+            keys.add(key);
+        }
+        return keys;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void create_blockContains1Entry() {
+        new HashIndex(new BlockAllocator(new MemoryContainer(), 8 + HashIndex.ENTRY_SIZE));
+    }
+
+    @Test
+    public void empty() {
+        assertEquals(0, index.size());
+        assertFalse(index.contains("a"));
+        assertFalse(index.iterator().hasNext());
+    }
+
+    @Test
+    public void put_get() {
+        put("a", 5);
+        assertEquals(5, index.get("a"));
+        assertEquals(Pointer.NULL_PTR, index.get("b"));
+    }
+
+    @Test
+    public void replace() {
+        put("a", 5);
+        assertTrue(index.replace("a", 5, 6));
+        assertFalse(index.replace("a", 5, 7));
+        assertFalse(index.replace("b", 5, 7));
+        assertEquals(6, index.get("a"));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void put_update() {
+        put("a", 5);
+        put("a", 6);
+        assertEquals(1, index.size());
+        assertEquals(6, index.get("a"));
+    }
+
+    @Test
+    public void put_sameHash() {
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        put("Aa", 1);
+        put("BB", 2);
+        assertEquals(1, index.get("Aa"));
+        assertEquals(2, index.get("BB"));
+    }
+
+    @Test
+    public void put_longKeysWithSamePart() {
+        String prefix = randomString(HashIndex.KEY_PART_LENGTH * 2);
+        put(prefix + "1", 1);
+        put(prefix + "2", 2);
+        assertEquals(1, index.get(prefix + "1"));
+        assertEquals(2, index.get(prefix + "2"));
+        assertFalse(index.contains(prefix + "3"));
+        assertListsEqual(Arrays.asList(prefix + "1", prefix + "2"), iteratorToList(index));
+    }
+
+    @Test
+    public void putMany_split() {
+        List<String> keys = putMany(1000);
+        assertEquals(1000, index.size());
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals(i, index.get(keys.get(i)));
+        }
+        assertListsEqual(keys, iteratorToList(index));
+        //at least 1000 / 4 buckets, no more than one overflow page per bucket in average
+        assertTrue(allocator.getBlocksCount() < 1000 / 4 * 2);
+    }
+
+    @Test
+    public void remove() {
+        List<String> keys = putMany(100);
+        for (int i = 0; i < keys.size(); i += 2) {
+            assertEquals(i, index.remove(keys.get(i)));
+        }
+        assertEquals(Pointer.NULL_PTR, index.remove(keys.get(0)));
+        assertEquals(50, index.size());
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals(i % 2 == 1, index.contains(keys.get(i)));
+        }
+    }
+
+    @Test
+    public void close_load() {
+        List<String> keys = putMany(1000);
+        index.close();
+        index = new HashIndex(new BlockAllocator(container, BLOCK_SIZE), helper);
+        assertEquals(1000, index.size());
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals(i, index.get(keys.get(i)));
+        }
+        put("new", 1000);
+        assertEquals(1000, index.get("new"));
+    }
+
+    @Test(expected = ConcurrentModificationException.class)
+    public void iterate_addConcurrently() {
+        putMany(10);
+        Iterator<String> iterator = index.iterator();
+        put("new", 10);
+        iterator.next();
+    }
+
+    @Test
+    public void split() {
+        List<String> keys = putMany(100);
+        List<String> split = new ArrayList<>();
+        for (Iterator<String> part: index.split(3)) {
+            while (part.hasNext()) {
+                split.add(part.next());
+            }
+        }
+        assertListsEqual(keys, split);
+    }
+
+    @Test
+    public void keyOrder_followsBuckets() {
+        List<String> keys = putMany(100);
+        Map<String, Integer> partOfKey = new HashMap<>();
+        List<Iterator<String>> parts = index.split(8);
+        for (int i = 0; i < parts.size(); i++) {
+            while (parts.get(i).hasNext()) {
+                partOfKey.put(parts.get(i).next(), i);
+            }
+        }
+        Collections.sort(keys, index.getKeyOrder());
+        for (int i = 1; i < keys.size(); i++) {
+            assertTrue(partOfKey.get(keys.get(i - 1)) <= partOfKey.get(keys.get(i)));
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package io.github.alexeygrishin.lsm;
+
+import io.github.alexeygrishin.blockalloc.BlockAllocator;
+import io.github.alexeygrishin.btree.TreeData;
+import io.github.alexeygrishin.btree.TreeNameHelper;
+import io.github.alexeygrishin.btree.Truncate;
+import io.github.alexeygrishin.bytestorage.MemoryContainer;
+import io.github.alexeygrishin.common.Locker;
+import io.github.alexeygrishin.common.Pointer;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static io.github.alexeygrishin.btree.TreeHelper.assertListsEqual;
+import static io.github.alexeygrishin.tool.TestTool.iteratorToList;
+import static io.github.alexeygrishin.tool.TestTool.randomString;
+import static org.junit.Assert.*;
+
+public class LsmIndexTest {
+
+    private static final int BLOCK_SIZE = 4 + 4 * LsmIndex.ENTRY_SIZE;
+    private static final int MEMTABLE_SIZE = 8;
+
+    private MemoryContainer container;
+    private BlockAllocator allocator;
+    private LsmIndex index;
+    private final Map<Long, String> names = new HashMap<>();
+    private final List<Long> released = Collections.synchronizedList(new ArrayList<Long>());
+    private final TreeNameHelper helper = new TreeNameHelper() {
+        @Override
+        public String getFullName(long dataId) {
+            return names.get(dataId);
+        }
+
+        @Override
+        public String truncate(String fullName, int targetLen) {
+            return Truncate.leading(fullName, targetLen);
+        }
+    };
+    private final DataReleaser releaser = new DataReleaser() {
+        @Override
+        public void release(long data) {
+            released.add(data);
+        }
+    };
+
+    @Before
+    public void setup() {
+        container = new MemoryContainer();
+        allocator = new BlockAllocator(container, BLOCK_SIZE);
+        index = new LsmIndex(allocator, helper, releaser, MEMTABLE_SIZE);
+    }
+
+    /**
+     * Behaves like storage: replaced data is released immediately
+     */
+    private void put(String key, final long data) {
+        names.put(data, key);
+        index.put(key, new TreeData() {
+            @Override
+            public long createData() {
+                return data;
+            }
+
+            @Override
+            public long updateData(long oldData) {
+                released.add(oldData);
+                return data;
+            }
+        });
+    }
+
+    private void remove(String key) {
+        long data = index.remove(key);
+        if (Pointer.isValid(data)) {
+            released.add(data);
+        }
+    }
+
+    private List<String> putMany(int count) {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String key = "key" + i;
+            put(key, i);
+            keys.add(key);
+        }
+        return keys;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void create_blockContains1Entry() {
+        new LsmIndex(new BlockAllocator(new MemoryContainer(), 4 + LsmIndex.ENTRY_SIZE));
+    }
+
+    @Test
+    public void empty() {
+        assertEquals(0, index.size());
+        assertFalse(index.contains("a"));
+        assertFalse(index.iterator().hasNext());
+    }
+
+    @Test
+    public void put_get() {
+        put("a", 5);
+        assertEquals(5, index.get("a"));
+        assertEquals(Pointer.NULL_PTR, index.get("b"));
+    }
+
+    @Test
+    public void replace() {
+        putMany(MEMTABLE_SIZE * 2);
+        assertTrue(index.replace("key0", 0, 100));
+        assertFalse(index.replace("key1", 0, 100));
+        assertFalse(index.replace("a", Pointer.NULL_PTR, 100));
+        assertEquals(100, index.get("key0"));
+        assertEquals(1, index.get("key1"));
+        assertEquals(MEMTABLE_SIZE * 2, index.size());
+    }
+
+    @Test
+    public void put_updateInMemtable() {
+        put("a", 5);
+        put("a", 6);
+        assertEquals(1, index.size());
+        assertEquals(6, index.get("a"));
+        assertEquals(Arrays.asList(5L), released);
+    }
+
+    @Test
+    public void put_updateInRun() {
+        put("a", 5);
+        index.flush();
+        put("a", 6);
+        index.flush();
+        assertEquals(6, index.get("a"));
+        index.compact();
+        assertEquals(6, index.get("a"));
+        assertEquals(Arrays.asList(5L), released);
+    }
+
+    @Test
+    public void put_sameHash() {
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        put("Aa", 1);
+        index.flush();
+        put("BB", 2);
+        assertEquals(1, index.get("Aa"));
+        assertEquals(2, index.get("BB"));
+    }
+
+    @Test
+    public void put_longKeysWithSamePart() {
+        String prefix = randomString(LsmIndex.KEY_PART_LENGTH * 2);
+        put(prefix + "1", 1);
+        index.flush();
+        put(prefix + "2", 2);
+        assertEquals(1, index.get(prefix + "1"));
+        assertEquals(2, index.get(prefix + "2"));
+        assertFalse(index.contains(prefix + "3"));
+        assertListsEqual(Arrays.asList(prefix + "1", prefix + "2"), iteratorToList(index));
+        remove(prefix + "1");
+        index.flush();
+        index.compact();
+        assertFalse(index.contains(prefix + "1"));
+        assertEquals(2, index.get(prefix + "2"));
+    }
+
+    @Test
+    public void putMany_runs() {
+        List<String> keys = putMany(1000);
+        assertEquals(1000, index.size());
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals(i, index.get(keys.get(i)));
+        }
+        assertListsEqual(keys, iteratorToList(index));
+        index.compact();
+        assertListsEqual(keys, iteratorToList(index));
+        assertEquals(999, index.get("key999"));
+    }
+
+    @Test
+    public void remove_fromMemtable() {
+        put("a", 5);
+        assertEquals(5, index.remove("a"));
+        assertFalse(index.contains("a"));
+        assertEquals(Pointer.NULL_PTR, index.remove("a"));
+    }
+
+    @Test
+    public void remove_fromRun() {
+        List<String> keys = putMany(100);
+        index.flush();
+        for (int i = 0; i < keys.size(); i += 2) {
+            remove(keys.get(i));
+        }
+        assertEquals(50, index.size());
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals(i % 2 == 1, index.contains(keys.get(i)));
+        }
+        index.flush();
+        index.compact();
+        assertEquals(50, index.size());
+        assertEquals(50, released.size());
+    }
+
+    @Test
+    public void randomChanges_dataReleasedOnce() {
+        Random random = new Random(1);
+        Map<String, Long> expected = new HashMap<>();
+        long data = 0;
+        for (int i = 0; i < 5000; i++) {
+            String key = "key" + random.nextInt(300);
+            if (random.nextInt(4) == 0) {
+                remove(key);
+                expected.remove(key);
+            }
+            else {
+                put(key, data);
+                expected.put(key, data);
+                data++;
+            }
+        }
+        for (Map.Entry<String, Long> entry: expected.entrySet()) {
+            assertEquals((long)entry.getValue(), index.get(entry.getKey()));
+        }
+        index.flush();
+        index.compact();
+        assertEquals(expected.size(), index.size());
+        Set<Long> all = new HashSet<>(released);
+        assertEquals("released twice", released.size(), all.size());
+        all.addAll(expected.values());
+        assertEquals("released or referenced", data, all.size());
+        assertEquals("released and referenced", data, released.size() + expected.size());
+    }
+
+    @Test
+    public void close_load() {
+        List<String> keys = putMany(1000);
+        index.close();
+        index = new LsmIndex(new BlockAllocator(container, BLOCK_SIZE), helper, releaser, MEMTABLE_SIZE);
+        assertEquals(1000, index.size());
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals(i, index.get(keys.get(i)));
+        }
+        put("new", 1000);
+        assertEquals(1000, index.get("new"));
+    }
+
+    @Test
+    public void iterate_runsMerged() {
+        List<String> keys = putMany(100);
+        Iterator<String> iterator = index.iterator();
+        List<String> iterated = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            iterated.add(iterator.next());
+        }
+        index.flush();
+        index.compact();
+        while (iterator.hasNext()) {
+            iterated.add(iterator.next());
+        }
+        assertListsEqual(keys, iterated);
+    }
+
+    @Test(expected = ConcurrentModificationException.class)
+    public void iterate_addConcurrently() {
+        putMany(10);
+        Iterator<String> iterator = index.iterator();
+        put("new", 10);
+        iterator.next();
+    }
+
+    @Test(timeout = 20000)
+    public void bulkLoad_moreRunsThanMax() {
+        int count = LsmIndex.MAX_RUNS * MEMTABLE_SIZE * 4;
+        Map<String, Long> entries = new TreeMap<>(index.getKeyOrder());
+        for (long i = 0; i < count; i++) {
+            names.put(i, "key" + i);
+            entries.put("key" + i, i);
+        }
+        index.bulkLoad(entries.entrySet().iterator());
+        index.flush();
+        assertEquals(count, index.size());
+        for (long i = 0; i < count; i++) {
+            assertEquals(i, index.get("key" + i));
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void putUnderWriteLock_moreRunsThanMax() {
+        List<String> keys;
+        try (Locker ignore = index.lockForWrite()) {
+            keys = putMany(LsmIndex.MAX_RUNS * MEMTABLE_SIZE * 4);
+        }
+        index.flush();
+        assertListsEqual(keys, iteratorToList(index));
+    }
+}